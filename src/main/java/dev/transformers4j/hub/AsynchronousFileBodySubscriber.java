@@ -0,0 +1,162 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.utils.DownloadLimits;
+import dev.transformers4j.hub.utils.StreamingSha256;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static dev.transformers4j.hub.utils.Threads.hub_executor;
+
+/**
+ * `BodySubscriber` writing the body of a response to an `AsynchronousFileChannel`, starting at a given position.
+ *
+ * Buffers are written one after the other and more data is only requested once the previous writes have completed, so
+ * that a slow disk applies back-pressure on the connection instead of buffering the body in memory. The file is
+ * truncated to the start position first, so that its size is always the number of bytes received so far. The body of
+ * the response is the size of the file once all data has been written. Data is also requested no faster than the
+ * bandwidth allowed by [`DownloadLimits`]. If a [`StreamingSha256`] is given, the bytes are hashed once written.
+ */
+class AsynchronousFileBodySubscriber implements HttpResponse.BodySubscriber<Long> {
+    /**
+     * Error writing the body to the file (e.g. disk full), as opposed to an error receiving it: retrying the download
+     * does not help. The original error is its cause.
+     */
+    static final class WriteException extends IOException {
+        WriteException(Throwable cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private final AsynchronousFileChannel channel;
+    private final StreamingSha256 sha256;
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+    private long position;
+    // Position at the start of the buffers being written
+    private long batch_start;
+
+    // Completion signals received while a write is still in progress
+    private boolean writing;
+    private boolean completed;
+    private Throwable error;
+
+    AsynchronousFileBodySubscriber(AsynchronousFileChannel channel, long position, StreamingSha256 sha256) {
+        this.channel = channel;
+        this.position = position;
+        this.sha256 = sha256;
+    }
+
+    @Override
+    public CompletionStage<Long> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        try {
+            channel.truncate(position);
+        } catch (IOException e) {
+            subscription.cancel();
+            result.completeExceptionally(new WriteException(e));
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        synchronized (this) {
+            writing = true;
+        }
+        batch_start = position;
+        _write(buffers.iterator(), null);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            if (writing) {
+                error = throwable;
+                return;
+            }
+        }
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            if (writing) {
+                completed = true;
+                return;
+            }
+        }
+        result.complete(position);
+    }
+
+    private void _write(Iterator<ByteBuffer> buffers, ByteBuffer current) {
+        while (current == null || !current.hasRemaining()) {
+            if (!buffers.hasNext()) {
+                _on_write_done();
+                return;
+            }
+            current = buffers.next();
+        }
+        var buffer = current;
+        channel.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                position += written;
+                if (sha256 != null) {
+                    sha256.update(buffer.duplicate().flip().position(buffer.position() - written));
+                }
+                _write(buffers, buffer);
+            }
+
+            @Override
+            public void failed(Throwable throwable, Void attachment) {
+                subscription.cancel();
+                result.completeExceptionally(new WriteException(throwable));
+            }
+        });
+    }
+
+    private void _on_write_done() {
+        boolean completed;
+        Throwable error;
+        synchronized (this) {
+            writing = false;
+            completed = this.completed;
+            error = this.error;
+        }
+        if (error != null) {
+            result.completeExceptionally(error);
+        } else if (completed) {
+            result.complete(position);
+        } else {
+            // Only ask for more data once the bandwidth used by these buffers is available again
+            var wait = DownloadLimits.reserve(position - batch_start);
+            if (wait > 0) {
+                CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, hub_executor())
+                        .execute(() -> subscription.request(1));
+            } else {
+                subscription.request(1);
+            }
+        }
+    }
+}
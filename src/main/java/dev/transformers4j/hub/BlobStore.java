@@ -0,0 +1,187 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.LocalFolder.Materialization;
+import dev.transformers4j.hub.utils.LockTimeoutException;
+import dev.transformers4j.hub.utils.WeakFileLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_ENABLE_BLOB_STORE;
+import static dev.transformers4j.hub.FileDownload.REGEX_SHA256;
+
+/**
+ * Store of the blobs of the cache keyed by their content, shared by all its repos: the same LFS file reached through
+ * different repos (forks, fine-tunes sharing a tokenizer, a model and its dataset, ...) is downloaded and stored once.
+ *
+ * The store is the `.blobs` folder of the cache. Its entries are named after the sha256 of their content, which is the
+ * etag of LFS files, and are hard links to the blobs of the repos: `<repo>/blobs/<etag>` stays a regular file, so the
+ * rest of the cache (pointers, scans, garbage collection) works as without the store. Before downloading a blob with a
+ * sha256 etag, [`FileDownload.hf_hub_download`] links it to the store entry if there is one (with a hard link, or a
+ * copy-on-write clone). After downloading it, the blob is added to the store. Files whose etag is not a sha256 (small
+ * files stored in git) do not go through the store.
+ *
+ * Downloads of the same content for different repos, in this process or in others, are serialized by a lock in
+ * `.locks/.blobs`: the first one downloads the file, the others link it. Entries no blob of a repo links to anymore
+ * are deleted by [`CacheGC`]. Sizes reported by [`CacheManager.scan_cache_dir`] count a shared blob in each repo
+ * linking it, and once in the size of the whole cache.
+ *
+ * The store is enabled with `HF_HUB_ENABLE_BLOB_STORE`, or with [`configure`].
+ */
+public class BlobStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlobStore.class);
+
+    /** Blobs linked from the store instead of downloaded, bytes not downloaded thanks to it and entries added. */
+    public record StoreStats(long hits, long bytes_saved, long added) {
+    }
+
+    /** How blobs are linked to the store: both keep the blob of the repo a regular file. */
+    private static final List<Materialization> LINKS = List.of(Materialization.HARDLINK, Materialization.REFLINK);
+
+    private static volatile boolean _enabled = HF_HUB_ENABLE_BLOB_STORE;
+    private static final AtomicLong _hits = new AtomicLong();
+    private static final AtomicLong _bytes_saved = new AtomicLong();
+    private static final AtomicLong _added = new AtomicLong();
+
+    /** Enable or disable the store. Blobs already linked to it stay in the cache. */
+    public static void configure(boolean enabled) {
+        _enabled = enabled;
+    }
+
+    /** Whether downloads go through the store. */
+    public static boolean enabled() {
+        return _enabled;
+    }
+
+    /** Counters of the store so far. */
+    public static StoreStats stats() {
+        return new StoreStats(_hits.get(), _bytes_saved.get(), _added.get());
+    }
+
+    /** Whether the blob `etag` goes through the store: only sha256 etags name the content of the file. */
+    static boolean applies(String etag) {
+        return _enabled && etag != null && REGEX_SHA256.matcher(etag).matches();
+    }
+
+    /** Entry of the store with the content of `blob_path`, a blob of a repo of the cache. */
+    static Path store_path(Path blob_path) {
+        return _cache_dir(blob_path).resolve(".blobs").resolve(blob_path.getFileName().toString());
+    }
+
+    /** Lock held while the content of `blob_path` is downloaded or linked, whatever the repo. */
+    static Path lock_path(Path blob_path) {
+        return _lock_path(_cache_dir(blob_path), blob_path.getFileName().toString());
+    }
+
+    private static Path _cache_dir(Path blob_path) {
+        // <cache_dir>/<repo>/blobs/<etag>
+        return blob_path.getParent().getParent().getParent();
+    }
+
+    private static Path _lock_path(Path cache_dir, String etag) {
+        return cache_dir.resolve(".locks").resolve(".blobs").resolve(etag + ".lock");
+    }
+
+    /**
+     * Link `blob_path` to the entry of the store with the same content, if there is one. Called while holding
+     * [`lock_path`].
+     *
+     * Args: blob_path (`Path`): The blob to create. expected_size (`long`): Its size, as announced by the server.
+     *
+     * Returns: `true` if the blob has been linked, `false` if it must be downloaded. Errors are logged: the blob is
+     * downloaded instead.
+     */
+    static boolean restore(Path blob_path, long expected_size) {
+        var stored = store_path(blob_path);
+        try {
+            if (!Files.isRegularFile(stored) || Files.size(stored) != expected_size) {
+                return false;
+            }
+            var materialization = LocalFolder.materialize(stored, blob_path, LINKS);
+            LOGGER.debug("Linked {} to the blob store with a {}", blob_path, materialization.value());
+        } catch (IOException e) {
+            LOGGER.debug("Cannot link {} to the blob store: {}", blob_path, e.toString());
+            return false;
+        }
+        _hits.incrementAndGet();
+        _bytes_saved.addAndGet(expected_size);
+        return true;
+    }
+
+    /**
+     * Add `blob_path`, a blob just downloaded and verified, to the store.
+     *
+     * Args: blob_path (`Path`): The blob of a repo. replace (`bool`): Replace the entry of the store if there is one
+     * already (e.g. the blob has been downloaded again with `force_download`).
+     *
+     * Errors are logged: the blob is only not shared.
+     */
+    static void add(Path blob_path, boolean replace) {
+        var stored = store_path(blob_path);
+        try {
+            if (!replace && Files.exists(stored)) {
+                return;
+            }
+            Files.createDirectories(stored.getParent());
+            LocalFolder.materialize(blob_path, stored, List.of(Materialization.HARDLINK));
+            _added.incrementAndGet();
+        } catch (IOException e) {
+            LOGGER.debug("Cannot add {} to the blob store: {}", blob_path, e.toString());
+        }
+    }
+
+    /**
+     * Delete the entries of the store of `cache_dir` no blob links to anymore: their only link is the entry itself.
+     * Entries being downloaded or linked are left alone.
+     *
+     * Returns: `int`: The number of entries deleted.
+     */
+    static int collect(Path cache_dir) {
+        var store = cache_dir.resolve(".blobs");
+        if (!Files.isDirectory(store)) {
+            return 0;
+        }
+        var deleted = 0;
+        try (var entries = Files.list(store)) {
+            for (var entry : (Iterable<Path>) entries::iterator) {
+                if (REGEX_SHA256.matcher(entry.getFileName().toString()).matches() && _delete_if_unused(cache_dir,
+                        entry)) {
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not collect the blob store of {}: {}", cache_dir, e.getLocalizedMessage());
+        }
+        return deleted;
+    }
+
+    private static boolean _delete_if_unused(Path cache_dir, Path entry) {
+        try (var lock = WeakFileLock.acquire(_lock_path(cache_dir, entry.getFileName().toString()), Duration.ZERO)) {
+            var links = ((Number) Files.getAttribute(entry, "unix:nlink", LinkOption.NOFOLLOW_LINKS)).intValue();
+            if (links > 1) {
+                return false;
+            }
+            Files.delete(entry);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (LockTimeoutException e) {
+            LOGGER.debug("Not deleting {}: it is being downloaded", entry);
+            return false;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Links cannot be counted on this file system: keep the entry
+            return false;
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete {} from the blob store: {}", entry, e.getLocalizedMessage());
+            return false;
+        }
+    }
+}
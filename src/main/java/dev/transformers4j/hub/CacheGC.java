@@ -0,0 +1,419 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.utils.CacheManager;
+import dev.transformers4j.hub.utils.CacheManager.CachedFileInfo;
+import dev.transformers4j.hub.utils.CacheManager.CachedRepoInfo;
+import dev.transformers4j.hub.utils.CacheManager.CachedRevisionInfo;
+import dev.transformers4j.hub.utils.CacheManager.HFCacheInfo;
+import dev.transformers4j.hub.utils.LockTimeoutException;
+import dev.transformers4j.hub.utils.WeakFileLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_CACHE;
+import static dev.transformers4j.hub.Constants.HF_HUB_CACHE_GC_INTERVAL;
+import static dev.transformers4j.hub.Constants.HF_HUB_CACHE_MAX_SIZE;
+
+/**
+ * Garbage collection of the cache: keeps the size of its blobs under a budget by deleting the revisions used least
+ * recently, and removes what is left behind by deleted files (pointers whose blob is gone, blobs no pointer refers to).
+ *
+ * The last access to a blob is its access time, which is set explicitly each time a file is returned from the cache
+ * ([`record_access`]), at most once every `ACCESS_RESOLUTION` per file and process: file systems are usually mounted
+ * with `noatime` or `relatime` and do not update it on reads. The last access to a revision is the last access to any
+ * of its files.
+ *
+ * A collection ([`collect`]) works on a scan of the cache ([`CacheManager.scan_cache_dir`]). It deletes the pointers
+ * whose blob does not exist and the blobs no snapshot refers to. Then, while the blobs of the cache take more than
+ * `max_size` bytes, it deletes the revision used least recently: its snapshot, the refs pointing to it, its
+ * `.no_exist` markers and the blobs no other revision of the repo refers to. Last, it deletes the entries of the
+ * [`BlobStore`] no blob of a repo links to anymore.
+ *
+ * Downloads running at the same time, in this process or in others, are not disturbed: a blob is only deleted while
+ * holding its lock in `.locks`, which downloads hold while writing the blob and its pointer, and if it has not been
+ * written in the last `GRACE_PERIOD`. Downloads creating a pointer to a blob already in the cache hold the same lock
+ * and update the modification time of the blob, so that it is not deleted after the scan found it unreferenced.
+ * Likewise, a revision is only deleted while holding the lock of the snapshots of its repo ([`snapshots_lock_path`]),
+ * which downloads hold while creating pointers, and if none of its files and refs has been written in the last
+ * `GRACE_PERIOD`. Revisions used in the last `GRACE_PERIOD` are never deleted, even if the cache stays over budget.
+ *
+ * Collections run in the background every `HF_HUB_CACHE_GC_INTERVAL` seconds when `HF_HUB_CACHE_MAX_SIZE` is set, or
+ * as configured with [`configure`].
+ */
+public class CacheGC {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheGC.class);
+
+    /** Files and revisions used or written more recently than this are never deleted. */
+    public static final Duration GRACE_PERIOD = Duration.ofMinutes(10);
+
+    /** Accesses to the same file closer than this are recorded once. */
+    static final Duration ACCESS_RESOLUTION = Duration.ofMinutes(1);
+
+    /**
+     * Result of a collection.
+     *
+     * Args: size_before (`long`): Size of the blobs before the collection. size_after (`long`): Size of the blobs
+     * after the collection. revisions_deleted (`int`): Number of revisions deleted to get under the budget.
+     * blobs_deleted (`int`): Number of blobs deleted, of evicted revisions, referred to by no snapshot or left alone
+     * in the blob store.
+     * pointers_deleted (`int`): Number of pointers deleted because their blob did not exist.
+     */
+    public record GCReport(long size_before, long size_after, int revisions_deleted, int blobs_deleted,
+            int pointers_deleted) {
+    }
+
+    /** A revision that can be evicted, and its repo. */
+    private record Candidate(CachedRepoInfo repo, CachedRevisionInfo revision) {
+    }
+
+    private static final Map<Path, Long> _accesses = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService _collector = null;
+    private static volatile GCReport _last_report = null;
+
+    static {
+        configure(Path.of(HF_HUB_CACHE), HF_HUB_CACHE_MAX_SIZE, Duration.ofSeconds(HF_HUB_CACHE_GC_INTERVAL));
+    }
+
+    /**
+     * Collect `cache_dir` in the background, replacing the previous configuration.
+     *
+     * Args: cache_dir (`Path`): The cache to collect. max_size (`long`): Maximum size of its blobs, in bytes. 0 to
+     * stop collecting in the background. interval (`Duration`): Time between two collections.
+     */
+    public static synchronized void configure(Path cache_dir, long max_size, Duration interval) {
+        if (_collector != null) {
+            _collector.shutdownNow();
+            _collector = null;
+        }
+        if (max_size <= 0 || interval == null || interval.isZero() || interval.isNegative()) {
+            return;
+        }
+        _collector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "hf-hub-cache-gc");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        _collector.scheduleWithFixedDelay(() -> {
+            try {
+                var report = collect(cache_dir, max_size);
+                LOGGER.debug("Collected {}: {}", cache_dir, report);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Could not collect {}: {}", cache_dir, e.toString());
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /** Result of the last collection of this process, `None` if none has run yet. */
+    public static GCReport last_report() {
+        return _last_report;
+    }
+
+    /**
+     * Record that the file `path` of the cache is being used, by setting the access time of its blob.
+     *
+     * Errors are logged: the file is only more likely to be deleted.
+     */
+    static void record_access(Path path) {
+        var now = System.currentTimeMillis();
+        var last = _accesses.get(path);
+        if (last != null && now - last < ACCESS_RESOLUTION.toMillis()) {
+            return;
+        }
+        _accesses.put(path, now);
+        try {
+            Files.getFileAttributeView(path.toRealPath(), BasicFileAttributeView.class).setTimes(null,
+                    FileTime.fromMillis(now), null);
+        } catch (IOException e) {
+            LOGGER.debug("Cannot record the access to {}: {}", path, e.toString());
+        }
+    }
+
+    /**
+     * Collect the cache now.
+     *
+     * Args: cache_dir (`Path`, *optional*): The cache to collect. Defaults to `HF_HUB_CACHE`. max_size (`long`):
+     * Maximum size of its blobs, in bytes. 0 to only delete dangling pointers and unreferenced blobs.
+     *
+     * Returns: [`GCReport`]: What has been deleted.
+     *
+     * Raises: `IOException` if the cache cannot be scanned. Files that cannot be deleted are logged and skipped.
+     */
+    public static synchronized GCReport collect(Path cache_dir, long max_size) throws IOException {
+        if (cache_dir == null) {
+            cache_dir = Path.of(HF_HUB_CACHE);
+        }
+        if (!Files.isDirectory(cache_dir)) {
+            return new GCReport(0, 0, 0, 0, 0);
+        }
+        return collect(CacheManager.scan_cache_dir(cache_dir), max_size);
+    }
+
+    /**
+     * Collect the cache described by `cache_info`, a recent scan of the cache (e.g. one that has been reported as
+     * well). Entries added since the scan are left alone.
+     *
+     * Args: cache_info ([`HFCacheInfo`]): The scan of the cache, from [`CacheManager.scan_cache_dir`]. max_size
+     * (`long`): Maximum size of its blobs, in bytes. 0 to only delete dangling pointers and unreferenced blobs.
+     *
+     * Returns: [`GCReport`]: What has been deleted.
+     */
+    public static synchronized GCReport collect(HFCacheInfo cache_info, long max_size) {
+        var grace = System.currentTimeMillis() - GRACE_PERIOD.toMillis();
+        var size = 0L;
+        // Number of revisions referring to each blob
+        var references = new HashMap<Path, Integer>();
+        // Blobs of the repos sharing the same file through the store: its size is freed with the last of them
+        var files = new HashMap<Path, Object>();
+        var links = new HashMap<Object, Integer>();
+        var candidates = new ArrayList<Candidate>();
+        for (var repo : cache_info.repos()) {
+            for (var blob : repo.unreferenced_blobs()) {
+                size += _add_link(files, links, blob.blob_path(), blob.file_key(), blob.size_on_disk());
+            }
+            for (var revision : repo.revisions()) {
+                for (var file : _distinct_blobs(revision)) {
+                    size += _add_link(files, links, file.blob_path(), file.file_key(), file.size_on_disk());
+                    references.merge(file.blob_path(), 1, Integer::sum);
+                }
+                candidates.add(new Candidate(repo, revision));
+            }
+        }
+        var size_before = size;
+
+        var pointers_deleted = 0;
+        var blobs_deleted = 0;
+        for (var repo : cache_info.repos()) {
+            for (var pointer : repo.dangling_pointers()) {
+                if (_delete_dangling_pointer(pointer)) {
+                    pointers_deleted++;
+                }
+            }
+            for (var blob : repo.unreferenced_blobs()) {
+                if (_delete_blob(blob.blob_path(), blob.blob_last_modified().toEpochMilli(), grace)) {
+                    if (_remove_link(files, links, blob.blob_path())) {
+                        size -= blob.size_on_disk();
+                    }
+                    blobs_deleted++;
+                }
+            }
+        }
+
+        var revisions_deleted = 0;
+        if (max_size > 0 && size > max_size) {
+            candidates.sort(Comparator.comparing(candidate -> candidate.revision().last_accessed()));
+            for (var candidate : candidates) {
+                var revision = candidate.revision();
+                if (size <= max_size || revision.last_accessed().toEpochMilli() > grace) {
+                    break;
+                }
+                if (!_delete_revision(candidate.repo().repo_path(), revision, grace)) {
+                    continue;
+                }
+                revisions_deleted++;
+                var blobs_dir = candidate.repo().repo_path().resolve("blobs");
+                for (var file : _distinct_blobs(revision)) {
+                    if (!blobs_dir.equals(file.blob_path().getParent())) {
+                        // Copy of the blob in the snapshot, where symlinks are not supported: deleted with it
+                        if (file.blob_path().startsWith(revision.snapshot_path())
+                                && _remove_link(files, links, file.blob_path())) {
+                            size -= file.size_on_disk();
+                        }
+                    } else if (references.merge(file.blob_path(), -1, Integer::sum) == 0 && _delete_blob(
+                            file.blob_path(), file.blob_last_modified().toEpochMilli(), grace)) {
+                        if (_remove_link(files, links, file.blob_path())) {
+                            size -= file.size_on_disk();
+                        }
+                        blobs_deleted++;
+                    }
+                }
+            }
+            if (size > max_size) {
+                LOGGER.info("Cache takes {} bytes, over its budget of {} bytes: the other files are in use.", size,
+                        max_size);
+            }
+        }
+
+        // Blobs shared through the store are only freed once no repo links to them
+        for (var cache_dir : cache_info.repos().stream().map(repo -> repo.repo_path().getParent())
+                .collect(Collectors.toSet())) {
+            blobs_deleted += BlobStore.collect(cache_dir);
+        }
+
+        var report = new GCReport(size_before, size, revisions_deleted, blobs_deleted, pointers_deleted);
+        _last_report = report;
+        return report;
+    }
+
+    /**
+     * Record the blob `blob_path`, whose file is `file_key`. Returns: `long`: The size of the blob if it is the first
+     * link to its file, 0 otherwise.
+     */
+    private static long _add_link(Map<Path, Object> files, Map<Object, Integer> links, Path blob_path,
+            Object file_key, long size) {
+        var file = file_key != null ? file_key : blob_path;
+        if (files.putIfAbsent(blob_path, file) != null) {
+            return 0;
+        }
+        return links.merge(file, 1, Integer::sum) == 1 ? size : 0;
+    }
+
+    /** Forget the deleted blob `blob_path`. Returns: `bool`: Whether it was the last link to its file. */
+    private static boolean _remove_link(Map<Path, Object> files, Map<Object, Integer> links, Path blob_path) {
+        var file = files.remove(blob_path);
+        return file != null && links.merge(file, -1, Integer::sum) == 0;
+    }
+
+    /** Files of `revision`, one per blob. */
+    private static Collection<CachedFileInfo> _distinct_blobs(CachedRevisionInfo revision) {
+        var blobs = new HashMap<Path, CachedFileInfo>();
+        for (var file : revision.files()) {
+            blobs.putIfAbsent(file.blob_path(), file);
+        }
+        return blobs.values();
+    }
+
+    private static boolean _delete_dangling_pointer(Path pointer) {
+        try {
+            // The blob may have been downloaded again in the meantime
+            if (Files.exists(pointer) || !Files.deleteIfExists(pointer)) {
+                return false;
+            }
+            CacheIndex.invalidate(pointer);
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete pointer {}: {}", pointer, e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Delete the blob `blob_path` while holding its lock, unless it is being downloaded or has been written after
+     * `grace` (by a download whose pointer may not be created yet).
+     */
+    private static boolean _delete_blob(Path blob_path, long last_modified, long grace) {
+        if (last_modified > grace) {
+            return false;
+        }
+        var repo_path = blob_path.getParent().getParent();
+        var lock_path = repo_path.resolveSibling(".locks").resolve(repo_path.getFileName().toString())
+                .resolve(blob_path.getFileName() + ".lock");
+        try (var lock = WeakFileLock.acquire(lock_path, Duration.ZERO)) {
+            // Downloaded again since the scan
+            var attributes = Files.readAttributes(blob_path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.lastModifiedTime().toMillis() > grace) {
+                return false;
+            }
+            Files.delete(blob_path);
+            CacheIndex.invalidate(blob_path);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (LockTimeoutException e) {
+            LOGGER.debug("Not deleting {}: it is being downloaded", blob_path);
+            return false;
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete blob {}: {}", blob_path, e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /** Lock held while creating pointers in the snapshots of the repo `repo_path` and while deleting its revisions. */
+    static Path snapshots_lock_path(Path repo_path) {
+        return repo_path.resolveSibling(".locks").resolve(repo_path.getFileName().toString()).resolve("snapshots.lock");
+    }
+
+    /**
+     * Delete the refs pointing to `revision`, its `.no_exist` markers and its snapshot while holding the lock of the
+     * snapshots, unless a file has been added to it or a ref moved to it after `grace`.
+     */
+    private static boolean _delete_revision(Path repo_path, CachedRevisionInfo revision, long grace) {
+        var commit_hash = revision.commit_hash();
+        try (var lock = WeakFileLock.acquire(snapshots_lock_path(repo_path), Duration.ZERO)) {
+            if (_written_since(revision.snapshot_path(), grace) || _refs_written_since(repo_path, revision, grace)) {
+                LOGGER.debug("Not deleting revision {} of {}: it has been written since the scan", commit_hash,
+                        repo_path.getFileName());
+                return false;
+            }
+            for (var ref : revision.refs()) {
+                // Unless it has been moved to another revision since the scan
+                var ref_path = repo_path.resolve("refs").resolve(ref);
+                if (Files.isRegularFile(ref_path) && Files.readString(ref_path).strip().equals(commit_hash)) {
+                    Files.deleteIfExists(ref_path);
+                }
+            }
+            _delete_tree(repo_path.resolve(".no_exist").resolve(commit_hash));
+            _delete_tree(revision.snapshot_path());
+            LOGGER.info("Deleted revision {} of {} from the cache", commit_hash, repo_path.getFileName());
+            return true;
+        } catch (LockTimeoutException e) {
+            LOGGER.debug("Not deleting revision {} of {}: pointers are being created", commit_hash,
+                    repo_path.getFileName());
+            return false;
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete revision {} of {}: {}", commit_hash, repo_path.getFileName(),
+                    e.getLocalizedMessage());
+            return false;
+        } finally {
+            CacheIndex.invalidate(repo_path);
+        }
+    }
+
+    /** Whether `dir` or a file under it has been modified after `grace`. */
+    private static boolean _written_since(Path dir, long grace) throws IOException {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        try (var paths = Files.walk(dir)) {
+            for (var path : (Iterable<Path>) paths::iterator) {
+                if (Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis() > grace) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Whether a ref pointing to `revision` has been written after `grace`. */
+    private static boolean _refs_written_since(Path repo_path, CachedRevisionInfo revision, long grace)
+            throws IOException {
+        for (var ref : revision.refs()) {
+            var ref_path = repo_path.resolve("refs").resolve(ref);
+            if (Files.exists(ref_path) && Files.getLastModifiedTime(ref_path).toMillis() > grace) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void _delete_tree(Path dir) throws IOException {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try (var paths = Files.walk(dir)) {
+            for (var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package dev.transformers4j.hub;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_DISABLE_CACHE_INDEX;
+
+/**
+ * In-memory index of the repos of the cache, so that [`FileDownload.try_to_load_from_cache`] finds cached files
+ * without going to the disk.
+ *
+ * The refs and snapshots of a repo are listed the first time a file of the repo is looked up, the files and `.no_exist`
+ * markers of a revision the first time a file of that revision is looked up. The folders listed are watched with a
+ * `WatchService` and any change in a repo drops its entry, which is listed again on the next lookup. Changes made by
+ * this process are seen right away, as the download code drops the entries itself. Changes made by other processes are
+ * seen once the file system reports them: immediately on Linux, after a few seconds on platforms where the
+ * `WatchService` polls (e.g. macOS).
+ *
+ * Repos whose folders cannot be watched (file system without watch support, limit of watches reached, ...) are not
+ * indexed: they are looked up on the disk every time. The index is disabled with `HF_HUB_DISABLE_CACHE_INDEX`.
+ */
+public class CacheIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheIndex.class);
+
+    /** Number of repos indexed, lookups answered, listings of folders made and entries dropped so far. */
+    public record IndexStats(int repos, long lookups, long listings, long invalidations) {
+    }
+
+    private static final WatchEvent.Kind<?>[] EVENTS = { StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY };
+
+    /** Listing of a repo folder. The files of a revision and its `.no_exist` markers are listed when first needed. */
+    private record Repo(boolean exists, Map<String, String> refs, Set<String> revisions,
+            Map<String, Set<String>> files, Map<String, Set<String>> no_exist) {
+        private Repo(boolean exists, Map<String, String> refs, Set<String> revisions) {
+            this(exists, refs, revisions, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+        }
+    }
+
+    private static volatile boolean _enabled = !HF_HUB_DISABLE_CACHE_INDEX;
+    private static final Map<Path, Repo> _repos = new ConcurrentHashMap<>();
+    // Incremented by every change: a listing made while something changed is not kept, it may have missed the change
+    private static final AtomicLong _version = new AtomicLong();
+    private static final AtomicLong _lookups = new AtomicLong();
+    private static final AtomicLong _listings = new AtomicLong();
+    private static final AtomicLong _invalidations = new AtomicLong();
+    private static final Map<FileSystem, WatchService> _watchers = new ConcurrentHashMap<>();
+
+    /** Enable or disable the index. The repos indexed so far are dropped. */
+    public static void configure(boolean enabled) {
+        _enabled = enabled;
+        clear();
+    }
+
+    /** Whether lookups go through the index. */
+    public static boolean enabled() {
+        return _enabled;
+    }
+
+    /** Drop all the repos indexed so far. */
+    public static void clear() {
+        _version.incrementAndGet();
+        _repos.clear();
+    }
+
+    /** Current size and counters of the index. */
+    public static IndexStats stats() {
+        return new IndexStats(_repos.size(), _lookups.get(), _listings.get(), _invalidations.get());
+    }
+
+    /**
+     * Same as the lookup of [`FileDownload.try_to_load_from_cache`] in `repo_cache`, from memory once the repo is
+     * indexed.
+     *
+     * Returns: The path to the cached file, `_CACHED_NO_EXIST` if its non-existence is cached, `None` otherwise.
+     */
+    static Path lookup(Path repo_cache, String revision, String filename) throws IOException {
+        _lookups.incrementAndGet();
+        if (!_is_name(revision)) {
+            // Not the name of a ref or a snapshot: nothing to index
+            return FileDownload._find_in_cache(repo_cache, revision, filename);
+        }
+        var folder = repo_cache.toAbsolutePath().normalize();
+        var repo = _repos.get(folder);
+        if (repo == null) {
+            repo = _load(folder);
+            if (repo == null) {
+                return FileDownload._find_in_cache(repo_cache, revision, filename);
+            }
+        }
+        if (!repo.exists()) {
+            return null;
+        }
+        var commit = repo.refs().getOrDefault(revision, revision);
+        if (!_is_name(commit)) {
+            return FileDownload._find_in_cache(repo_cache, revision, filename);
+        }
+        var name = filename.replace('\\', '/');
+        var no_exist = _listing(repo.no_exist(), commit, folder.resolve(".no_exist").resolve(commit));
+        if (no_exist == null) {
+            return FileDownload._find_in_cache(repo_cache, revision, filename);
+        }
+        if (no_exist.contains(name)) {
+            return FileDownload._CACHED_NO_EXIST;
+        }
+        if (!repo.revisions().contains(commit)) {
+            return null;
+        }
+        var files = _listing(repo.files(), commit, folder.resolve("snapshots").resolve(commit));
+        if (files == null) {
+            return FileDownload._find_in_cache(repo_cache, revision, filename);
+        }
+        return files.contains(name) ? repo_cache.resolve("snapshots").resolve(commit).resolve(filename) : null;
+    }
+
+    /**
+     * Drop the entry of the repo `path` belongs to, if any, after a change in its folder. Called by the code writing
+     * to the cache, so that the change is seen by the next lookup without waiting for the `WatchService`.
+     */
+    static void invalidate(Path path) {
+        _version.incrementAndGet();
+        for (var parent = path.toAbsolutePath().normalize(); parent != null; parent = parent.getParent()) {
+            if (_repos.remove(parent) != null) {
+                _invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /** List the repo `folder`, or return `None` if it cannot be watched. */
+    private static Repo _load(Path folder) throws IOException {
+        var version = _version.get();
+        _listings.incrementAndGet();
+        // Watch before listing, so that no change made in the meantime goes unnoticed
+        var cache_dir = folder.getParent();
+        if (cache_dir == null || !Files.isDirectory(cache_dir) || !_watch(cache_dir)) {
+            return null;
+        }
+        Repo repo;
+        if (!Files.isDirectory(folder)) {
+            repo = new Repo(false, Map.of(), Set.of());
+        } else {
+            if (!_watch(folder)) {
+                return null;
+            }
+            var refs = _list_refs(folder.resolve("refs"));
+            var revisions = _list_revisions(folder.resolve("snapshots"));
+            // Blobs are watched as well: a pointer whose blob is deleted is no longer a cached file
+            if (refs == null || revisions == null || !_watch_if_exists(folder.resolve("blobs"))
+                    || !_watch_if_exists(folder.resolve(".no_exist"))) {
+                return null;
+            }
+            repo = new Repo(true, refs, revisions);
+        }
+        if (_version.get() == version) {
+            _repos.put(folder, repo);
+        }
+        return repo;
+    }
+
+    /** Files of a revision listed in `listings`, listing them from `dir` if needed. `None` if it cannot be watched. */
+    private static Set<String> _listing(Map<String, Set<String>> listings, String commit, Path dir)
+            throws IOException {
+        var files = listings.get(commit);
+        if (files != null) {
+            return files;
+        }
+        var version = _version.get();
+        _listings.incrementAndGet();
+        files = _list_files(dir);
+        if (files != null && _version.get() == version) {
+            listings.put(commit, files);
+        }
+        return files;
+    }
+
+    private static Map<String, String> _list_refs(Path refs_dir) throws IOException {
+        var refs = new HashMap<String, String>();
+        var files = _list_files(refs_dir);
+        if (files == null) {
+            return null;
+        }
+        for (var ref : files) {
+            refs.put(ref, Files.readString(refs_dir.resolve(ref)));
+        }
+        return refs;
+    }
+
+    private static Set<String> _list_revisions(Path snapshots_dir) throws IOException {
+        if (!Files.isDirectory(snapshots_dir)) {
+            return Set.of();
+        }
+        if (!_watch(snapshots_dir)) {
+            return null;
+        }
+        try (var revisions = Files.list(snapshots_dir)) {
+            return revisions.map(revision -> revision.getFileName().toString()).collect(
+                    HashSet::new, Set::add, Set::addAll);
+        }
+    }
+
+    /**
+     * Regular files under `dir` (following symlinks), relative to it with `/` separators. Empty if `dir` does not
+     * exist: its parent is watched. `None` if a folder cannot be watched.
+     */
+    private static Set<String> _list_files(Path dir) throws IOException {
+        var files = new HashSet<String>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        // A folder is returned by `walk` before its content is listed: it is watched before that
+        try (var paths = Files.walk(dir)) {
+            for (var path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    if (!_watch(path)) {
+                        return null;
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    files.add(dir.relativize(path).toString().replace('\\', '/'));
+                }
+            }
+        }
+        return files;
+    }
+
+    private static boolean _watch_if_exists(Path dir) {
+        return !Files.isDirectory(dir) || _watch(dir);
+    }
+
+    private static boolean _watch(Path dir) {
+        try {
+            dir.register(_watchers.computeIfAbsent(dir.getFileSystem(), CacheIndex::_start_watcher), EVENTS);
+            return true;
+        } catch (IOException | UncheckedIOException | UnsupportedOperationException
+                | ClosedWatchServiceException e) {
+            LOGGER.debug("Cannot watch {}, its repo is not indexed: {}", dir, e.toString());
+            return false;
+        }
+    }
+
+    private static WatchService _start_watcher(FileSystem file_system) {
+        WatchService watcher;
+        try {
+            watcher = file_system.newWatchService();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var thread = new Thread(() -> _watch_changes(watcher), "hf-hub-cache-index");
+        thread.setDaemon(true);
+        thread.start();
+        return watcher;
+    }
+
+    private static void _watch_changes(WatchService watcher) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            var dir = (Path) key.watchable();
+            for (var event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Some changes were lost
+                    clear();
+                } else if (!_is_temporary(event.context().toString()) && !_is_blob_update(dir, event)) {
+                    invalidate(dir.resolve(event.context().toString()));
+                }
+            }
+            key.reset();
+        }
+    }
+
+    /** Files written while downloading, which do not change what is cached. */
+    private static boolean _is_temporary(String name) {
+        return name.endsWith(".incomplete") || name.endsWith(".ranges") || name.endsWith(".lock")
+                || name.endsWith(".tmp") || name.startsWith("tmp_");
+    }
+
+    /** Blobs modified in place (e.g. their access time, set by `CacheGC`): the same files are cached. */
+    private static boolean _is_blob_update(Path dir, WatchEvent<?> event) {
+        return event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && dir.endsWith("blobs");
+    }
+
+    private static boolean _is_name(String name) {
+        return !name.isEmpty() && !name.equals(".") && !name.equals("..") && name.indexOf('/') < 0
+                && name.indexOf('\\') < 0;
+    }
+}
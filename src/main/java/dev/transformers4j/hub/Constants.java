@@ -24,6 +24,14 @@ public class Constants {
         }
     }
 
+    public static long _as_long(String value, long default_value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return default_value;
+        }
+    }
+
     // Constants for file downloads
 
     public static final int DEFAULT_ETAG_TIMEOUT = 10;
@@ -89,6 +97,45 @@ public class Constants {
     // - https://github.com/huggingface/hf_transfer (private)
     public static final boolean HF_HUB_ENABLE_HF_TRANSFER = _is_true(System.getenv("HF_HUB_ENABLE_HF_TRANSFER"));
 
+    // Number of concurrent connections used by the parallel downloader (native replacement of "hf_transfer")
+    public static final int HF_TRANSFER_CONCURRENCY = _as_int(System.getenv("HF_TRANSFER_CONCURRENCY"), 8);
+
+    // Run hub I/O on virtual threads (Java 21+). On older runtimes, a pool of platform threads is used instead.
+    public static final boolean HF_HUB_ENABLE_VIRTUAL_THREADS = _is_true(
+            System.getenv("HF_HUB_ENABLE_VIRTUAL_THREADS"));
+
+    // Number of platform threads used to run hub operations when virtual threads are not enabled or not available
+    public static final int HF_HUB_EXECUTOR_POOL_SIZE = _as_int(System.getenv("HF_HUB_EXECUTOR_POOL_SIZE"), 64);
+
+    // How long (in seconds) to wait for another thread or process to release a lock in the cache before giving up
+    public static final int HF_HUB_LOCK_TIMEOUT = _as_int(System.getenv("HF_HUB_LOCK_TIMEOUT"), 600);
+
+    // Lease (in seconds) of a lock file: a lock whose holder hasn't renewed it for that long is considered stale
+    public static final int HF_HUB_LOCK_LEASE = _as_int(System.getenv("HF_HUB_LOCK_LEASE"), 60);
+
+    // Use lease files instead of OS locks, e.g. on network file systems where locks are not shared between hosts.
+    // Lease files are also used when the file system does not support OS locks.
+    public static final boolean HF_HUB_LOCK_USE_LEASE = _is_true(System.getenv("HF_HUB_LOCK_USE_LEASE"));
+
+    // Look up cached files on the disk every time instead of in the in-memory index of the cache, see `CacheIndex`.
+    public static final boolean HF_HUB_DISABLE_CACHE_INDEX = _is_true(System.getenv("HF_HUB_DISABLE_CACHE_INDEX"));
+
+    // Maximum size (in bytes) of the blobs of the cache, see `CacheGC`. Revisions used least recently are deleted
+    // in the background to stay under it. 0 means unlimited.
+    public static final long HF_HUB_CACHE_MAX_SIZE = _as_long(System.getenv("HF_HUB_CACHE_MAX_SIZE"), 0);
+
+    // Seconds between two collections of the cache in the background, when `HF_HUB_CACHE_MAX_SIZE` is set.
+    public static final int HF_HUB_CACHE_GC_INTERVAL = _as_int(System.getenv("HF_HUB_CACHE_GC_INTERVAL"), 3600);
+
+    // How files already in the cache are put in the `local_dir` of a download, in order of preference (comma-separated
+    // `hardlink`, `reflink`, `symlink`, `copy`), see `LocalFolder.materialize`.
+    public static final String HF_HUB_LOCAL_DIR_MATERIALIZATION = System.getenv()
+            .getOrDefault("HF_HUB_LOCAL_DIR_MATERIALIZATION", "hardlink,reflink,symlink,copy");
+
+    // Share the blobs of LFS files between the repos of the cache through a store keyed by their sha256, see
+    // `BlobStore`. A file already downloaded for another repo is linked instead of downloaded again.
+    public static final boolean HF_HUB_ENABLE_BLOB_STORE = _is_true(System.getenv("HF_HUB_ENABLE_BLOB_STORE"));
+
     // In the past, token was stored in a hardcoded location
     // `_OLD_HF_TOKEN_PATH` is deprecated and will be removed "at some point".
     // See https://github.com/huggingface/huggingface_hub/issues/1232
@@ -97,10 +144,44 @@ public class Constants {
     public static final String HF_TOKEN_PATH = System.getenv().getOrDefault("HF_TOKEN_PATH",
             HF_HOME + File.separatorChar + "token");
 
+    // How long (in seconds) the metadata of a file is reused without sending a HEAD request to the Hub. 0 disables
+    // the metadata cache.
+    public static final int HF_HUB_METADATA_TTL = _as_int(System.getenv("HF_HUB_METADATA_TTL"), 0);
+
+    // How long (in seconds) expired metadata is still used while being refreshed in the background
+    public static final int HF_HUB_METADATA_STALE_WHILE_REVALIDATE = _as_int(
+            System.getenv("HF_HUB_METADATA_STALE_WHILE_REVALIDATE"), 0);
+
+    // Folder where the metadata cache is persisted. If unset, metadata is only cached in memory.
+    public static final String HF_HUB_METADATA_CACHE_DIR = System.getenv("HF_HUB_METADATA_CACHE_DIR");
+
     // Used to override the etag timeout on a system level
     public static final int HF_HUB_ETAG_TIMEOUT = _as_int(System.getenv("HF_HUB_ETAG_TIMEOUT"), DEFAULT_ETAG_TIMEOUT);
 
     public static final int HF_HUB_DOWNLOAD_TIMEOUT = _as_int(System.getenv("HF_HUB_DOWNLOAD_TIMEOUT"),
             DEFAULT_DOWNLOAD_TIMEOUT);
 
+    // Maximum number of bytes per second downloaded by all the downloads of the process. 0 means unlimited.
+    public static final long HF_HUB_DOWNLOAD_MAX_BANDWIDTH = _as_long(System.getenv("HF_HUB_DOWNLOAD_MAX_BANDWIDTH"),
+            0);
+
+    // Maximum number of concurrent download connections to the same host (e.g. a CDN or a mirror). 0 means unlimited.
+    public static final int HF_HUB_DOWNLOAD_MAX_CONNECTIONS_PER_HOST = _as_int(
+            System.getenv("HF_HUB_DOWNLOAD_MAX_CONNECTIONS_PER_HOST"), 0);
+
+    // Comma-separated urls of mirrors of the Hub to use instead of `ENDPOINT`, see `Mirrors`.
+    public static final String HF_ENDPOINT_MIRRORS = System.getenv("HF_ENDPOINT_MIRRORS");
+
+    // Seconds between two probes of the latency of the mirrors. 0 to only measure it on requests.
+    public static final int HF_HUB_MIRROR_PROBE_INTERVAL = _as_int(System.getenv("HF_HUB_MIRROR_PROBE_INTERVAL"), 60);
+
+    // Size of the blocks fetched by the channels of `hf_hub_open`, see `HfFileChannel`.
+    public static final int HF_HUB_OPEN_BLOCK_SIZE = _as_int(System.getenv("HF_HUB_OPEN_BLOCK_SIZE"), 1024 * 1024);
+
+    // Number of blocks kept in memory by each channel of `hf_hub_open`.
+    public static final int HF_HUB_OPEN_CACHED_BLOCKS = _as_int(System.getenv("HF_HUB_OPEN_CACHED_BLOCKS"), 32);
+
+    // Maximum number of downloads running at the same time in the process, see `DownloadScheduler`.
+    public static final int HF_HUB_DOWNLOAD_WORKERS = _as_int(System.getenv("HF_HUB_DOWNLOAD_WORKERS"), 16);
+
 }
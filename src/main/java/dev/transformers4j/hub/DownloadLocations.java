@@ -0,0 +1,230 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.FileDownload.HfFileMetadata;
+import dev.transformers4j.hub.utils.HfHubHTTPException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the locations files are downloaded from, keyed by etag and by the `authorization` header the file has
+ * been resolved with: a location signed for one token is never handed to a caller with another token (or none).
+ *
+ * Resolving a file on the Hub answers with a redirect to a signed CDN url. The location is kept until the signature
+ * expires, so that another download of the same blob (for example from metadata served by the [`FileMetadataCache`],
+ * or to another `local_dir`) goes straight to the CDN. The expiry is read from the signed url itself (CloudFront
+ * `Expires`, S3 `X-Amz-Date` and `X-Amz-Expires`, or S3 legacy `Expires`), minus a safety margin. Urls that are not
+ * signed are kept for `DEFAULT_MAX_AGE`.
+ *
+ * If the CDN still rejects a location with a 403 or 410, it is dropped and the file is resolved again with the request
+ * that first resolved it. Entries only live in memory.
+ */
+class DownloadLocations {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadLocations.class);
+
+    /** How long before the expiry of a signed url it stops being used. */
+    static final Duration SAFETY_MARGIN = Duration.ofSeconds(30);
+
+    /** How long a location without any expiry in its url is used. */
+    static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(10);
+
+    private static final int MAX_ENTRIES = 4096;
+
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    private record Location(String url, long expires_at, Supplier<CompletableFuture<HfFileMetadata>> resolve) {
+        boolean is_fresh() {
+            return System.currentTimeMillis() < expires_at;
+        }
+    }
+
+    /** A blob, as resolved by a caller: `authorization` is the sha256 of its `authorization` header, if any. */
+    private record Key(String etag, String authorization) {
+        static Key of(String etag, Map<String, String> headers) {
+            var authorization = headers != null ? headers.get("authorization") : null;
+            return new Key(etag, authorization != null ? DigestUtils.sha256Hex(authorization) : null);
+        }
+    }
+
+    private static final Map<Key, Location> _locations = new ConcurrentHashMap<>();
+    // Key each remembered location has been resolved for, to find it back when the location is rejected
+    private static final Map<String, Key> _keys = new ConcurrentHashMap<>();
+    private static final SingleFlight<Key, String> _RESOLUTIONS = new SingleFlight<>();
+
+    /** Forget every location. */
+    static void clear() {
+        _locations.clear();
+        _keys.clear();
+    }
+
+    /**
+     * Remember that the blob with `etag` can be downloaded from `location`, and return the location to download it
+     * from: `location` itself, or a location resolved more recently if `location` has already expired (for instance
+     * when it comes from cached metadata).
+     *
+     * Args: etag (`str`): The etag of the blob. location (`str`): Where the blob has been resolved to. headers
+     * (`dict`): The headers the blob has been resolved with, before the `authorization` header is removed from them.
+     * resolve (`Supplier`): Fetch the metadata of the file again, when its location is rejected by the CDN.
+     */
+    static String remember(String etag, String location, Map<String, String> headers,
+            Supplier<CompletableFuture<HfFileMetadata>> resolve) {
+        return _remember(Key.of(etag, headers), location, resolve);
+    }
+
+    private static String _remember(Key key, String location, Supplier<CompletableFuture<HfFileMetadata>> resolve) {
+        var entry = new Location(location, expires_at(location), resolve);
+        var current = _locations.compute(key, (ignored, previous) -> {
+            if (previous != null && previous.is_fresh() && !entry.is_fresh()) {
+                return previous;
+            }
+            return entry;
+        });
+        _keys.put(location, key);
+        if (_locations.size() > MAX_ENTRIES || _keys.size() > MAX_ENTRIES) {
+            _locations.values().removeIf(l -> !l.is_fresh());
+            _keys.values().removeIf(k -> !_locations.containsKey(k));
+        }
+        return current.url();
+    }
+
+    /**
+     * Return the location the blob with `etag` can currently be downloaded from with `headers`, or `null` if none is
+     * known.
+     */
+    static String get(String etag, Map<String, String> headers) {
+        var entry = _locations.get(Key.of(etag, headers));
+        return entry != null && entry.is_fresh() ? entry.url() : null;
+    }
+
+    /**
+     * Whether `error`, raised while downloading the blob with `etag` from `location`, means that the location is no
+     * longer valid and the file must be resolved again.
+     */
+    static boolean is_rejected(String etag, String location, Throwable error) {
+        if (etag == null || !(error instanceof HfHubHTTPException http_error) || http_error.getResponse() == null) {
+            return false;
+        }
+        var status = http_error.getResponse().statusCode();
+        var key = _keys.get(location);
+        var entry = key != null && key.etag().equals(etag) ? _locations.get(key) : null;
+        return (status == 403 || status == 410) && entry != null && entry.url().equals(location);
+    }
+
+    /**
+     * Drop `location`, rejected by the CDN, and resolve the blob with `etag` again, with the request of the caller
+     * `location` has been resolved for. Concurrent callers share the same request.
+     *
+     * Returns: The new location of the blob.
+     *
+     * Raises: [`HfHubHTTPException`] `error` if the blob cannot be resolved again, or if the file has changed since.
+     */
+    static String resolve_again(String etag, String location, HfHubHTTPException error) throws IOException {
+        try {
+            return resolve_again_async(etag, location, error).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io_error) {
+                throw io_error;
+            }
+            throw e;
+        }
+    }
+
+    /** Asynchronous version of [`resolve_again`]. */
+    static CompletableFuture<String> resolve_again_async(String etag, String location, HfHubHTTPException error) {
+        var key = _keys.get(location);
+        if (key == null || !key.etag().equals(etag)) {
+            return CompletableFuture.failedFuture(error);
+        }
+        return _RESOLUTIONS.run_async(key, () -> {
+            var entry = _locations.get(key);
+            if (entry == null) {
+                return CompletableFuture.failedFuture(error);
+            }
+            if (!entry.url().equals(location) && entry.is_fresh()) {
+                // Someone else resolved it again in the meantime
+                return CompletableFuture.completedFuture(entry.url());
+            }
+            LOGGER.info("Download location of {} has been rejected ({}): resolving it again", etag,
+                    error.getResponse().statusCode());
+            CompletableFuture<HfFileMetadata> resolution;
+            try {
+                resolution = entry.resolve().get();
+            } catch (RuntimeException e) {
+                resolution = CompletableFuture.failedFuture(e);
+            }
+            return resolution.handle((metadata, resolve_error) -> {
+                if (resolve_error != null || metadata == null || !etag.equals(metadata.etag())) {
+                    // The file changed on the Hub: the blob we are downloading cannot be resolved anymore
+                    _locations.remove(key, entry);
+                    if (resolve_error != null) {
+                        error.addSuppressed(resolve_error);
+                    }
+                    throw new CompletionException(error);
+                }
+                return _remember(key, metadata.location(), entry.resolve());
+            });
+        });
+    }
+
+    /**
+     * Return when `url` stops being usable, in milliseconds since the epoch, read from the parameters of a signed url.
+     * The safety margin is already subtracted.
+     */
+    static long expires_at(String url) {
+        var query = URI.create(url).getRawQuery();
+        Long expires = null;
+        String amz_date = null;
+        Long amz_expires = null;
+        if (query != null) {
+            for (var parameter : query.split("&")) {
+                var index = parameter.indexOf('=');
+                if (index == -1) {
+                    continue;
+                }
+                var name = parameter.substring(0, index);
+                var value = URLDecoder.decode(parameter.substring(index + 1), StandardCharsets.UTF_8);
+                try {
+                    switch (name) {
+                    case "Expires" -> expires = Long.parseLong(value);
+                    case "X-Amz-Date" -> amz_date = value;
+                    case "X-Amz-Expires" -> amz_expires = Long.parseLong(value);
+                    default -> {
+                    }
+                    }
+                } catch (NumberFormatException e) {
+                    LOGGER.debug("Ignoring invalid {} in download location: {}", name, value);
+                }
+            }
+        }
+        long expires_at;
+        if (amz_date != null && amz_expires != null) {
+            try {
+                expires_at = LocalDateTime.parse(amz_date, AMZ_DATE).toInstant(ZoneOffset.UTC).toEpochMilli()
+                        + amz_expires * 1000;
+            } catch (DateTimeParseException e) {
+                expires_at = System.currentTimeMillis() + DEFAULT_MAX_AGE.toMillis();
+            }
+        } else if (expires != null) {
+            // CloudFront and S3 signature v2: seconds since the epoch
+            expires_at = expires * 1000;
+        } else {
+            return System.currentTimeMillis() + DEFAULT_MAX_AGE.toMillis();
+        }
+        return expires_at - SAFETY_MARGIN.toMillis();
+    }
+}
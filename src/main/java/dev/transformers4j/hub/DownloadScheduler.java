@@ -0,0 +1,347 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.utils.Threads;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_DOWNLOAD_WORKERS;
+
+/**
+ * Scheduler of the hub operations of this process: at most `HF_HUB_DOWNLOAD_WORKERS` of them run at a time (see
+ * [`configure`]), the others wait in queues.
+ *
+ * Operations are queued by [`Priority`] and a queue is only served when the queues of higher priorities are empty.
+ * Running operations are never preempted, so a quarter of the workers (at least one, unless there is a single worker)
+ * are kept for [`Priority.INTERACTIVE`] and [`Priority.SMALL`] operations: a `config.json` requested by a user does
+ * not wait behind the shards of a snapshot, even when they take all the other workers. Within a priority, the repos
+ * with queued operations take turns: a snapshot of thousands of files does not hold back the downloads of other repos.
+ *
+ * Blocking operations run on worker threads from [`Threads.thread_factory`]. Asynchronous operations hold a worker
+ * until the future they return completes, but no thread. An operation submitted from a worker (e.g. `hf_hub_download`
+ * called by a file of `snapshot_download`) runs right away, as part of the operation that submitted it: waiting for a
+ * worker there could deadlock.
+ *
+ * Cancelling the future returned by [`submit`] or [`submit_async`] removes a queued operation, interrupts a blocking
+ * operation that is running and cancels the future of an asynchronous one.
+ */
+public class DownloadScheduler {
+    /** Priority classes, from the most to the least urgent. */
+    public enum Priority {
+        /** Metadata requests, e.g. listing the files of a repo. */
+        INTERACTIVE,
+        /** Small files such as configs and tokenizers. */
+        SMALL,
+        /** Large files such as model weights. */
+        BULK
+    }
+
+    /** Number of operations running and waiting for a worker. */
+    public record SchedulerStats(int max_workers, int running, int queued) {
+    }
+
+    // Files downloaded with the priority [`Priority.SMALL`], see `priority_of`
+    private static final List<String> SMALL_FILE_EXTENSIONS = List.of(".json", ".txt");
+
+    private static final ThreadLocal<Boolean> _IN_WORKER = ThreadLocal.withInitial(() -> false);
+
+    private static final Object _lock = new Object();
+    private static int _max_workers = Math.max(1, HF_HUB_DOWNLOAD_WORKERS);
+    private static int _running = 0;
+    private static int _running_bulk = 0;
+    private static int _queued = 0;
+    // Per priority, the repos with queued operations in turn order, each with its operations in order of arrival
+    private static final Map<Priority, LinkedHashMap<String, ArrayDeque<Task<?>>>> _queues = new EnumMap<>(
+            Priority.class);
+
+    static {
+        for (var priority : Priority.values()) {
+            _queues.put(priority, new LinkedHashMap<>());
+        }
+    }
+
+    private static final ExecutorService _workers = _new_workers();
+
+    /** A queued or running operation. */
+    private static final class Task<T> {
+        private final Priority priority;
+        private final String repo;
+        private final Callable<T> call;
+        private final Supplier<CompletableFuture<T>> call_async;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        // Set once the task is started, to cancel it
+        private volatile Future<?> running = null;
+
+        private Task(Priority priority, String repo, Callable<T> call, Supplier<CompletableFuture<T>> call_async) {
+            this.priority = priority;
+            this.repo = repo;
+            this.call = call;
+            this.call_async = call_async;
+        }
+    }
+
+    /**
+     * Change the number of operations that can run at the same time. Operations in progress are not interrupted.
+     *
+     * Args: max_workers (`int`): Maximum number of operations running at once, at least 1.
+     */
+    public static void configure(int max_workers) {
+        synchronized (_lock) {
+            _max_workers = Math.max(1, max_workers);
+        }
+        _dispatch();
+    }
+
+    /** Current number of operations running and queued. */
+    public static SchedulerStats stats() {
+        synchronized (_lock) {
+            return new SchedulerStats(_max_workers, _running, _queued);
+        }
+    }
+
+    /** Priority of the download of `filename`: [`Priority.SMALL`] for configs and such, [`Priority.BULK`] otherwise. */
+    public static Priority priority_of(String filename) {
+        return SMALL_FILE_EXTENSIONS.stream().anyMatch(filename::endsWith) ? Priority.SMALL : Priority.BULK;
+    }
+
+    /** Key of a repo in the queues, e.g. `models/gpt2`. */
+    static String repo_key(String repo_id, String repo_type) {
+        return (repo_type != null ? repo_type : Constants.REPO_TYPE_MODEL) + "s/" + repo_id;
+    }
+
+    /**
+     * Queue a blocking operation.
+     *
+     * Args: priority ([`Priority`]): Priority class of the operation. repo (`str`): Key of the repo it works on (e.g.
+     * `models/gpt2`), for fair queuing across repos. call (`Callable`): The operation.
+     *
+     * Returns: A future completed with the result of `call`, or completed exceptionally with the error it raised.
+     */
+    public static <T> CompletableFuture<T> submit(Priority priority, String repo, Callable<T> call) {
+        return _submit(new Task<>(priority, repo, call, null));
+    }
+
+    /**
+     * Queue an asynchronous operation: `call` is invoked once a worker is free, and holds it until its future
+     * completes.
+     */
+    public static <T> CompletableFuture<T> submit_async(Priority priority, String repo,
+            Supplier<CompletableFuture<T>> call) {
+        return _submit(new Task<>(priority, repo, null, call));
+    }
+
+    /**
+     * Run a blocking operation through the scheduler and wait for its result. If the thread is interrupted while
+     * waiting, the operation is cancelled.
+     *
+     * Raises: The error raised by `call`, an `IOException` wrapping it if it is a checked exception of another type.
+     */
+    public static <T> T run(Priority priority, String repo, Callable<T> call) throws IOException {
+        if (_IN_WORKER.get()) {
+            return _call(call);
+        }
+        var future = submit(priority, repo, call);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw _rethrow(e.getCause());
+        }
+    }
+
+    private static <T> CompletableFuture<T> _submit(Task<T> task) {
+        task.result.whenComplete((result, error) -> {
+            if (task.result.isCancelled()) {
+                _cancel(task);
+            }
+        });
+        if (_IN_WORKER.get()) {
+            // Part of the operation running on this worker: a blocking one runs on this thread, as in `run`, instead
+            // of taking another thread
+            if (task.call == null) {
+                _start(task, false);
+                return task.result;
+            }
+            try {
+                task.result.complete(task.call.call());
+            } catch (Exception | Error e) {
+                task.result.completeExceptionally(e);
+            }
+            return task.result;
+        }
+        synchronized (_lock) {
+            _queues.get(task.priority).computeIfAbsent(task.repo, k -> new ArrayDeque<>()).add(task);
+            _queued++;
+        }
+        _dispatch();
+        return task.result;
+    }
+
+    /** Remove `task` from its queue, or interrupt it if it is running. */
+    private static void _cancel(Task<?> task) {
+        synchronized (_lock) {
+            var queue = _queues.get(task.priority).get(task.repo);
+            if (queue != null && queue.remove(task)) {
+                _queued--;
+                if (queue.isEmpty()) {
+                    _queues.get(task.priority).remove(task.repo);
+                }
+                return;
+            }
+        }
+        var running = task.running;
+        if (running != null) {
+            running.cancel(true);
+        }
+    }
+
+    /** Start queued operations while workers are free. */
+    private static void _dispatch() {
+        while (true) {
+            Task<?> task = null;
+            synchronized (_lock) {
+                if (_running >= _max_workers) {
+                    return;
+                }
+                for (var queues : _queues.entrySet()) {
+                    if (queues.getKey() == Priority.BULK && _running_bulk >= _max_bulk_workers()) {
+                        break;
+                    }
+                    var turn = queues.getValue().entrySet().iterator();
+                    if (turn.hasNext()) {
+                        var entry = turn.next();
+                        task = entry.getValue().poll();
+                        // The repo goes back to the end of the line
+                        turn.remove();
+                        if (!entry.getValue().isEmpty()) {
+                            queues.getValue().put(entry.getKey(), entry.getValue());
+                        }
+                        break;
+                    }
+                }
+                if (task == null) {
+                    return;
+                }
+                _queued--;
+                _running++;
+                if (task.priority == Priority.BULK) {
+                    _running_bulk++;
+                }
+            }
+            _start(task, true);
+        }
+    }
+
+    /** Run `task`, releasing its worker once it is over if it was `dispatched` from a queue. */
+    private static <T> void _start(Task<T> task, boolean dispatched) {
+        Runnable release = dispatched ? () -> _release(task) : () -> {
+        };
+        if (task.call != null) {
+            try {
+                task.running = _workers.submit(() -> {
+                    _IN_WORKER.set(true);
+                    try {
+                        if (!task.result.isDone()) {
+                            task.result.complete(task.call.call());
+                        }
+                    } catch (Exception | Error e) {
+                        task.result.completeExceptionally(e);
+                    } finally {
+                        _IN_WORKER.set(false);
+                        // Cleared so that a later cancellation does not interrupt the next operation of this thread
+                        Thread.interrupted();
+                        release.run();
+                    }
+                });
+            } catch (RuntimeException e) {
+                task.result.completeExceptionally(e);
+                release.run();
+            }
+            return;
+        }
+        CompletableFuture<T> future;
+        try {
+            future = task.result.isDone() ? CompletableFuture.failedFuture(new CancellationException())
+                    : task.call_async.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        task.running = future;
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                task.result.completeExceptionally(
+                        error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else {
+                task.result.complete(result);
+            }
+            release.run();
+        });
+    }
+
+    private static void _release(Task<?> task) {
+        synchronized (_lock) {
+            _running--;
+            if (task.priority == Priority.BULK) {
+                _running_bulk--;
+            }
+        }
+        _dispatch();
+    }
+
+    /** Workers [`Priority.BULK`] operations can take: the others are kept for more urgent ones. */
+    private static int _max_bulk_workers() {
+        return Math.max(1, _max_workers - Math.max(1, _max_workers / 4));
+    }
+
+    /** Threads are created on demand, at most one per running operation, and dropped after a minute of inactivity. */
+    private static ExecutorService _new_workers() {
+        var counter = new AtomicInteger();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    var thread = Threads.thread_factory().newThread(runnable);
+                    thread.setName("hf-hub-download-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    private static <T> T _call(Callable<T> call) throws IOException {
+        try {
+            return call.call();
+        } catch (Exception e) {
+            throw _rethrow(e);
+        }
+    }
+
+    private static IOException _rethrow(Throwable error) {
+        if (error instanceof IOException) {
+            return (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        return new IOException(error);
+    }
+}
@@ -1,50 +1,81 @@
 package dev.transformers4j.hub;
 
+import dev.transformers4j.hub.DownloadScheduler.Priority;
+import dev.transformers4j.hub.LocalFolder.LocalDownloadFileMetadata;
+import dev.transformers4j.hub.LocalFolder.LocalDownloadFilePaths;
+import dev.transformers4j.hub.LocalFolder.Materialization;
+import dev.transformers4j.hub.utils.DownloadLimits;
 import dev.transformers4j.hub.utils.EntryNotFoundException;
 import dev.transformers4j.hub.utils.FileMetadataException;
 import dev.transformers4j.hub.utils.GatedRepoException;
 import dev.transformers4j.hub.utils.HfHubHTTPException;
 import dev.transformers4j.hub.utils.LocalEntryNotFoundError;
+import dev.transformers4j.hub.utils.Mirrors;
 import dev.transformers4j.hub.utils.OfflineModelIsEnabledException;
 import dev.transformers4j.hub.utils.RepositoryNotFoundException;
+import dev.transformers4j.hub.utils.RetryPolicy;
+import dev.transformers4j.hub.utils.RetryPolicy.Operation;
 import dev.transformers4j.hub.utils.RevisionNotFoundException;
+import dev.transformers4j.hub.utils.StreamingSha256;
+import dev.transformers4j.hub.utils.WeakFileLock;
 import io.vavr.Tuple;
 import io.vavr.Tuple5;
 import io.vavr.control.Either;
 import me.tongfei.progressbar.ProgressBar;
 import me.tongfei.progressbar.ProgressBarBuilder;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLException;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.URI;
-import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 import static dev.transformers4j.hub.Constants.DEFAULT_ETAG_TIMEOUT;
 import static dev.transformers4j.hub.Constants.DEFAULT_REVISION;
@@ -54,36 +85,55 @@ import static dev.transformers4j.hub.Constants.HF_HUB_CACHE;
 import static dev.transformers4j.hub.Constants.HF_HUB_DOWNLOAD_TIMEOUT;
 import static dev.transformers4j.hub.Constants.HF_HUB_ENABLE_HF_TRANSFER;
 import static dev.transformers4j.hub.Constants.HF_HUB_ETAG_TIMEOUT;
+import static dev.transformers4j.hub.Constants.HF_HUB_OPEN_BLOCK_SIZE;
+import static dev.transformers4j.hub.Constants.HF_HUB_OPEN_CACHED_BLOCKS;
+import static dev.transformers4j.hub.Constants.HF_TRANSFER_CONCURRENCY;
 import static dev.transformers4j.hub.Constants.HUGGINGFACE_CO_URL_TEMPLATE;
 import static dev.transformers4j.hub.Constants.HUGGINGFACE_HEADER_X_LINKED_ETAG;
 import static dev.transformers4j.hub.Constants.HUGGINGFACE_HEADER_X_LINKED_SIZE;
 import static dev.transformers4j.hub.Constants.HUGGINGFACE_HEADER_X_REPO_COMMIT;
 import static dev.transformers4j.hub.Constants.REPO_ID_SEPARATOR;
 import static dev.transformers4j.hub.Constants.REPO_TYPES;
+import static dev.transformers4j.hub.Constants.REPO_TYPE_MODEL;
 import static dev.transformers4j.hub.Constants.REPO_TYPES_URL_PREFIXES;
 import static dev.transformers4j.hub.LocalFolder.get_local_download_paths;
+import static dev.transformers4j.hub.LocalFolder.materialize;
 import static dev.transformers4j.hub.LocalFolder.read_download_metadata;
 import static dev.transformers4j.hub.LocalFolder.write_download_metadata;
 import static dev.transformers4j.hub.utils.Errors.hf_raise_for_status;
 import static dev.transformers4j.hub.utils.Headers.build_hf_headers;
+import static dev.transformers4j.hub.utils.Headers.get_token_to_send;
+import static dev.transformers4j.hub.utils.Threads.hub_executor;
+import static dev.transformers4j.hub.utils.Threads.supply_async;
 
 public class FileDownload {
     private static final Logger LOGGER = LoggerFactory.getLogger(FileDownload.class);
 
     public static Path _CACHED_NO_EXIST = Path.of("___CACHED_NO_EXIST___");
 
+    // In-flight downloads, by requested file and by blob
+    private static final SingleFlight<DownloadKey, Path> _FILE_DOWNLOADS = new SingleFlight<>();
+    private static final SingleFlight<Path, Path> _BLOB_DOWNLOADS = new SingleFlight<>();
+
     // Regex to get filename from a "Content-Disposition" header for CDN-served files
     private static final Pattern HEADER_FILENAME_PATTERN = Pattern.compile("filename=\"(.*?)\";");
 
     // Regex to check if the revision IS directly a commit_hash
-    private static final Pattern REGEX_COMMIT_HASH = Pattern.compile("^[a-fA-F0-9]{40}$");
+    static final Pattern REGEX_COMMIT_HASH = Pattern.compile("^[a-fA-F0-9]{40}$");
 
     // Regex to check if the file etag IS a valid sha256
-    private static final Pattern REGEX_SHA256 = Pattern.compile("^[0-9a-f]{64}$");
+    static final Pattern REGEX_SHA256 = Pattern.compile("^[0-9a-f]{64}$");
 
-    record HfFileMetadata(String commit_hash, String etag, String location, Integer size) {
+    public record HfFileMetadata(String commit_hash, String etag, String location, Long size) {
     }
 
+    // Cached files up to this size are revalidated and fetched again with a single conditional GET, see
+    // `_get_small_file`
+    static final long SMALL_FILE_MAX_SIZE = 1024 * 1024;
+
+    // Maximum number of HEAD requests in flight when fetching the metadata of several files at once
+    private static final int METADATA_MAX_IN_FLIGHT = 32;
+
     /**
      * Construct the URL of a file from the given information.
      *
@@ -147,6 +197,8 @@ public class FileDownload {
             revision = DEFAULT_REVISION;
         }
         var url = MessageFormat.format(HUGGINGFACE_CO_URL_TEMPLATE, repo_id, revision, filename);
+        // Use the fastest mirror if none is provided and mirrors are configured
+        endpoint = Mirrors.resolve(endpoint);
         // Update endpoint if provided
         if (endpoint != null && url.startsWith(ENDPOINT)) {
             url = endpoint + url.substring(ENDPOINT.length());
@@ -179,7 +231,7 @@ public class FileDownload {
         return filename;
     }
 
-    private static HttpResponse<InputStream> _request_wrapper(String method, String url, Map<String, String> headers,
+    static HttpResponse<InputStream> _request_wrapper(String method, String url, Map<String, String> headers,
             boolean allow_redirects, boolean follow_relative_redirects, Map<String, String> proxies, float etagTimeout)
             throws IOException, InterruptedException {
         if (follow_relative_redirects) {
@@ -191,20 +243,64 @@ public class FileDownload {
                 if (location.isPresent()) {
                     var parsed_target = URI.create(location.get());
                     if (parsed_target.getHost() == null) {
-                        var next_url = URI.create(url).resolve(parsed_target).toString();
+                        // Resolved against the url that answered, which is on another mirror after a failover
+                        var next_url = response.request().uri().resolve(parsed_target).toString();
+                        // Release the connection of the intermediate response so that it can be reused.
+                        response.body().close();
                         return _request_wrapper(method, next_url, headers, allow_redirects, true, proxies, etagTimeout);
                     }
                 }
             }
             return response;
         }
+        return Mirrors.send(_operation(method), _build_request(method, url, headers, etagTimeout), allow_redirects,
+                HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    /** Retry policy of a request: HEAD requests fetch metadata, GET requests fetch the content of files. */
+    private static Operation _operation(String method) {
+        return "HEAD".equals(method) ? Operation.METADATA : Operation.DOWNLOAD;
+    }
+
+    /**
+     * Asynchronous counterpart of [`_request_wrapper`], built on `HttpClient.sendAsync`. The body of the response is
+     * handled by `body_handler`.
+     */
+    private static <T> CompletableFuture<HttpResponse<T>> _request_wrapper_async(String method, String url,
+            Map<String, String> headers, boolean allow_redirects, boolean follow_relative_redirects,
+            Map<String, String> proxies, float etagTimeout, HttpResponse.BodyHandler<T> body_handler) {
+        var future = Mirrors.send_async(_operation(method), _build_request(method, url, headers, etagTimeout),
+                allow_redirects, body_handler);
+        if (!follow_relative_redirects) {
+            return future;
+        }
+        // If redirection, we redirect only relative paths.
+        // This is useful in case of a renamed repository.
+        return future.thenCompose(response -> {
+            if (response.statusCode() >= 300 && response.statusCode() <= 399) {
+                var location = response.headers().firstValue("Location");
+                if (location.isPresent()) {
+                    var parsed_target = URI.create(location.get());
+                    if (parsed_target.getHost() == null) {
+                        var next_url = response.request().uri().resolve(parsed_target).toString();
+                        return _request_wrapper_async(method, next_url, headers, allow_redirects, true, proxies,
+                                etagTimeout, body_handler);
+                    }
+                }
+            }
+            return CompletableFuture.completedFuture(response);
+        });
+    }
+
+    private static HttpRequest _build_request(String method, String url, Map<String, String> headers,
+            float timeout) {
         var builder = HttpRequest.newBuilder().method(method, HttpRequest.BodyPublishers.noBody()).uri(URI.create(url));
-        builder = builder.headers(
-                headers.entrySet().stream().flatMap(e -> Stream.of(e.getKey(), e.getValue())).toArray(String[]::new));
-        builder = builder.timeout(Duration.ofSeconds((long) etagTimeout));
-        var client = HttpClient.newBuilder()
-                .followRedirects(allow_redirects ? HttpClient.Redirect.ALWAYS : HttpClient.Redirect.NEVER).build();
-        return client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        if (headers != null) {
+            for (var header : headers.entrySet()) {
+                builder = builder.header(header.getKey(), header.getValue());
+            }
+        }
+        return builder.timeout(Duration.ofSeconds((long) timeout)).build();
     }
 
     /**
@@ -212,104 +308,424 @@ public class FileDownload {
      *
      * If ConnectionError (SSLError) or ReadTimeout happen while streaming data from the server, it is most likely a
      * transient error (network outage?). We log a warning message and try to resume the download a few times before
-     * giving up. The method gives up after 5 attempts if no new data has being received from the server.
+     * giving up. The method gives up after the `max_retries` of the download [`RetryPolicy`] if no new data has being
+     * received from the server. Errors writing to `temp_file` (e.g. disk full) are not retried. A resumed download
+     * sends the validator the server returned for the file as `If-Range`, and restarts from scratch if the range sent
+     * back is not the one requested.
      *
-     * Args: url (`str`): The URL of the file to download. temp_file (`BinaryIO`): The file-like object where to save
-     * the file. proxies (`dict`, *optional*): Dictionary mapping protocol to the URL of the proxy passed to
-     * `requests.request`. resume_size (`float`, *optional*): The number of bytes already downloaded. If set to 0
+     * Args: url (`str`): The URL of the file to download. temp_file (`FileChannel`): The file channel where to save
+     * the file, content is written from its current position. proxies (`dict`, *optional*): Dictionary mapping protocol to the URL of the proxy passed to
+     * `requests.request`. resume_size (`long`, *optional*): The number of bytes already downloaded. If set to 0
      * (default), the whole file is download. If set to a positive number, the download will resume at the given
      * position. headers (`dict`, *optional*): Dictionary of HTTP Headers to send with the request. expected_size
-     * (`int`, *optional*): The expected size of the file to download. If set, the download will raise an error if the
+     * (`long`, *optional*): The expected size of the file to download. If set, the download will raise an error if the
      * size of the received content is different from the expected one. displayed_filename (`str`, *optional*): The
      * filename of the file that is being downloaded. Value is used only to display a nice progress bar. If not set, the
      * filename is guessed from the URL or the `Content-Disposition` header.
      */
 
-    public static void http_get(String url, OutputStream temp_file, Map<String, String> proxies, float resume_size,
-            Map<String, String> headers, Integer expected_size, String displayed_filename, int _nb_retries,
+    public static void http_get(String url, FileChannel temp_file, Map<String, String> proxies, long resume_size,
+            Map<String, String> headers, Long expected_size, String displayed_filename, int _nb_retries,
             ProgressBar _tqdm_bar) throws IOException, InterruptedException {
-        Object hf_transfer = null;
+        http_get(url, temp_file, proxies, resume_size, headers, expected_size, displayed_filename, _nb_retries,
+                _tqdm_bar, null);
+    }
+
+    /**
+     * Same as [`http_get`], also hashing the bytes written to `temp_file` with `sha256`, which must cover the first
+     * `resume_size` bytes of the file. It is reset if the download starts over.
+     */
+    public static void http_get(String url, FileChannel temp_file, Map<String, String> proxies, long resume_size,
+            Map<String, String> headers, Long expected_size, String displayed_filename, int _nb_retries,
+            ProgressBar _tqdm_bar, StreamingSha256 sha256) throws IOException, InterruptedException {
         if (HF_HUB_ENABLE_HF_TRANSFER) {
-            if (resume_size != 0) {
-                LOGGER.warn("'hf_transfer' does not support `resume_size`: falling back to regular download method");
-            } else if (proxies != null) {
-                LOGGER.warn("'hf_transfer' does not support proxies: falling back to regular download method");
-            } else {
-                throw new IllegalArgumentException("hf_transfer is not yet supported");
-            }
+            // Parallel downloads need positional writes in a file: they are handled by `_download_to_tmp_and_move`.
+            LOGGER.debug("'hf_transfer' is not supported by `http_get`: using regular download method");
         }
 
         var initial_headers = headers;
-        headers = ObjectUtils.clone(headers);
+        headers = headers != null ? new HashMap<>(headers) : new HashMap<>();
         if (resume_size > 0) {
-            headers.put("Range", String.format("bytes=%d-", (int) resume_size));
+            headers.put("Range", "bytes=" + resume_size + "-");
         }
 
-        var r = _request_wrapper("GET", url, headers, false, false, proxies, HF_HUB_DOWNLOAD_TIMEOUT);
-        hf_raise_for_status(r, null);
-        var content_length = r.headers().firstValue("Content-Length").orElse(null);
-
-        // NOTE: 'total' is the total number of bytes to download, not the number of bytes in the file.
-        // If the file is compressed, the number of bytes in the saved file will be higher than 'total'.
-        var total = content_length != null ? resume_size + Integer.parseInt(content_length) : null;
-
-        if (displayed_filename == null) {
-            displayed_filename = url;
-            var content_disposition = r.headers().firstValue("Content-Disposition").orElse(null);
-            if (content_disposition != null) {
-                var match = HEADER_FILENAME_PATTERN.matcher(content_disposition);
-                if (match.find()) {
-                    // Means file is on CDN
-                    displayed_filename = match.group(1);
+        var new_resume_size = resume_size;
+        IOException stream_error = null;
+        String validator = null;
+        ProgressBar progress;
+        // Wait for a connection to the host if their number is limited
+        var connection = DownloadLimits.acquire_connection(url);
+        try {
+            // Connection errors and timeouts are retried by `_request_wrapper`
+            var r = _request_wrapper("GET", url, headers, false, false, proxies, HF_HUB_DOWNLOAD_TIMEOUT);
+            hf_raise_for_status(r, null);
+            if (resume_size > 0 && r.statusCode() == 206 && !_resumes(r.headers(), resume_size, expected_size)) {
+                // Part of another version of the file: download the whole file instead
+                LOGGER.info("Server sent unexpected range '{}' for {}: restarting from scratch.",
+                        r.headers().firstValue("Content-Range").orElse(null), url);
+                r.body().close();
+                connection.close();
+                temp_file.truncate(0);
+                temp_file.position(0);
+                if (sha256 != null) {
+                    sha256.reset();
+                }
+                http_get(url, temp_file, proxies, 0, _without_if_range(initial_headers), expected_size,
+                        displayed_filename, _nb_retries, _tqdm_bar, sha256);
+                return;
+            }
+            if (resume_size > 0 && r.statusCode() != 206) {
+                // Range was ignored (e.g. `If-Range` did not match): the whole file is sent back => start over
+                LOGGER.info("Server did not resume download from {}: restarting from scratch.", url);
+                temp_file.truncate(0);
+                temp_file.position(0);
+                resume_size = 0;
+                new_resume_size = 0;
+                if (sha256 != null) {
+                    sha256.reset();
+                }
+            }
+            validator = _validator(r.headers());
+            var content_length = r.headers().firstValue("Content-Length").orElse(null);
+
+            // NOTE: 'total' is the total number of bytes to download, not the number of bytes in the file.
+            // If the file is compressed, the number of bytes in the saved file will be higher than 'total'.
+            var total = content_length != null ? resume_size + Long.parseLong(content_length) : null;
+
+            if (displayed_filename == null) {
+                displayed_filename = url;
+                var content_disposition = r.headers().firstValue("Content-Disposition").orElse(null);
+                if (content_disposition != null) {
+                    var match = HEADER_FILENAME_PATTERN.matcher(content_disposition);
+                    if (match.find()) {
+                        // Means file is on CDN
+                        displayed_filename = match.group(1);
+                    }
+                }
+            }
+
+            // Truncate filename if too long to display
+            if (displayed_filename.length() > 40) {
+                displayed_filename = "(…)" + displayed_filename.substring(displayed_filename.length() - 40);
+            }
+
+            // Stream file to buffer
+            progress = _tqdm_bar != null ? _tqdm_bar
+                    : new ProgressBarBuilder().setInitialMax(total != null ? total.longValue() : -1)
+                            .startsFrom(resume_size, Duration.ZERO).setTaskName("huggingface_hub.http_get").build();
+
+            var source = new _ResponseChannel(Channels.newChannel(r.body()));
+            try (var body = sha256 != null ? sha256.wrap(source) : source) {
+                // Let the channel move the bytes through its small reusable transfer buffer rather than allocating a
+                // DOWNLOAD_CHUNK_SIZE array for each chunk.
+                long transferred;
+                while ((transferred = temp_file.transferFrom(body, temp_file.position(),
+                        DownloadLimits.chunk_size(DOWNLOAD_CHUNK_SIZE))) > 0) {
+                    temp_file.position(temp_file.position() + transferred);
+                    DownloadLimits.throttle(transferred);
+                    progress.stepBy(transferred);
+                    new_resume_size += transferred;
+                    // Some data has been downloaded from the server so we reset the number of retries.
+                    _nb_retries = _max_download_retries();
+                }
+            } catch (IOException e) {
+                if (e != source.error) {
+                    // Writing to the file failed (e.g. disk full): resuming would fail the same way
+                    throw e;
+                }
+                // Connection lost or timed out while streaming: resume from the last byte written
+                stream_error = e;
+            } finally {
+                if (_tqdm_bar == null) {
+                    progress.close();
                 }
             }
+        } finally {
+            connection.close();
+        }
+        if (stream_error != null) {
+            // A bar created by this call has been closed: the retry creates its own, starting from `new_resume_size`
+            _retry_http_get(stream_error, url, validator, temp_file, proxies, new_resume_size, initial_headers,
+                    expected_size, displayed_filename, _nb_retries, _tqdm_bar, sha256);
+            return;
         }
 
-        // Truncate filename if too long to display
-        if (displayed_filename.length() > 40) {
-            displayed_filename = "(…)" + displayed_filename.substring(displayed_filename.length() - 40);
+        if (expected_size != null && expected_size != new_resume_size) {
+            throw new IOException(String.format("Consistency check failed: file should be of size " + expected_size
+                    + " but has size" + "%d (" + displayed_filename + ").\nWe are sorry for the inconvenience. Please"
+                    + " retry with `force_download=true`.\nIf the issue persists, please let us know by opening an"
+                    + " issue on https://github.com/huggingface/huggingface_hub.", new_resume_size));
         }
+    }
+
+    /**
+     * Resume a download interrupted by `error`. If it resumes from the same server, the validator it returned for the
+     * file (`validator`) is sent as `If-Range`, so that the download restarts if the file has changed there.
+     */
+    private static void _retry_http_get(IOException error, String url, String validator, FileChannel temp_file,
+            Map<String, String> proxies, long resume_size, Map<String, String> headers, Long expected_size,
+            String displayed_filename, int _nb_retries, ProgressBar _tqdm_bar, StreamingSha256 sha256)
+            throws IOException, InterruptedException {
+        var wait = _nb_retries > 0 ? RetryPolicy.retry(Operation.DOWNLOAD, _retry_attempt(_nb_retries)) : null;
+        if (wait == null) {
+            LOGGER.warn("Error while downloading from {}: {}\nMax retries exceeded.", url, error.getLocalizedMessage());
+            throw error;
+        }
+        LOGGER.warn("Error while downloading from {}: {}\nTrying to resume download in {} ms...", url,
+                error.getLocalizedMessage(), wait.toMillis());
+        Thread.sleep(wait.toMillis());
+        // Resume from another mirror if the download was from a mirror
+        var next_url = Mirrors.failover(url);
+        http_get(next_url, temp_file, proxies, resume_size, _with_if_range(headers, next_url.equals(url) ? validator
+                : null), expected_size, displayed_filename, _nb_retries - 1, _tqdm_bar, sha256);
+    }
+
+    /** How many times a download is resumed without receiving any new data, as set by the download [`RetryPolicy`]. */
+    private static int _max_download_retries() {
+        return RetryPolicy.of(Operation.DOWNLOAD).max_retries();
+    }
+
+    /** Number of retries already done when `nb_retries` are left. */
+    private static int _retry_attempt(int nb_retries) {
+        return Math.max(0, _max_download_retries() - nb_retries);
+    }
+
+    /** Body of a response to a resumed download that is part of another version of the file. */
+    private static final long _UNEXPECTED_RANGE = -1;
+
+    /** Body subscriber cancelling the transfer of the body right away, completed with `value`. */
+    private static HttpResponse.BodySubscriber<Long> _cancelled_body(long value) {
+        return new HttpResponse.BodySubscriber<>() {
+            private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+            @Override
+            public CompletionStage<Long> getBody() {
+                return result;
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.cancel();
+                result.complete(value);
+            }
+
+            @Override
+            public void onNext(List<ByteBuffer> item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(value);
+            }
+        };
+    }
 
-        var consistency_error_message = "Consistency check failed: file should be of size " + expected_size
-                + " but has size" + "%d (" + displayed_filename + ").\nWe are sorry for the inconvenience. Please retry"
-                + " with `force_download=true`.\nIf the issue persists, please let us know by opening an issue "
-                + "on https://github.com/huggingface/huggingface_hub.";
+    /** `bytes <start>-<end>/<size>` */
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+|\\*)$");
+
+    /**
+     * Whether a 206 response to a request for the bytes of a file from `resume_size` resumes it: its `Content-Range`
+     * starts at `resume_size` and, if known, has the size of the file.
+     */
+    private static boolean _resumes(HttpHeaders headers, long resume_size, Long expected_size) {
+        var content_range = headers.firstValue("Content-Range").orElse(null);
+        if (content_range == null) {
+            // Required in a 206 answering a single range: trust the status
+            return true;
+        }
+        var match = CONTENT_RANGE_PATTERN.matcher(content_range.trim());
+        if (!match.matches()) {
+            return false;
+        }
+        return Long.parseLong(match.group(1)) == resume_size && (expected_size == null || match.group(3).equals("*")
+                || Long.parseLong(match.group(3)) == expected_size);
+    }
 
-        // Stream file to buffer
-        var progress = _tqdm_bar;
-        if (progress == null) {
-            progress = new ProgressBarBuilder().setInitialMax(total.longValue())
-                    .startsFrom((long) resume_size, Duration.ZERO).setTaskName("huggingface_hub.http_get").build();
+    /**
+     * Validator of the content of a response to send as `If-Range` when resuming it from the same location: its strong
+     * `ETag`, or else its `Last-Modified` date. `None` if there is none.
+     */
+    private static String _validator(HttpHeaders headers) {
+        var etag = headers.firstValue("ETag").orElse(null);
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
         }
+        return headers.firstValue("Last-Modified").orElse(null);
+    }
 
-        if (hf_transfer != null && total != null && total > 5 * DOWNLOAD_CHUNK_SIZE) {
-            // TODO: implement hf_transfer
+    private static Map<String, String> _with_if_range(Map<String, String> headers, String validator) {
+        var result = _without_if_range(headers);
+        if (validator != null) {
+            result.put("If-Range", validator);
         }
-        var new_resume_size = resume_size;
-        try {
-            var chunk = r.body().readNBytes(DOWNLOAD_CHUNK_SIZE);
-            progress.stepBy(chunk.length);
-            temp_file.write(chunk);
-            new_resume_size += chunk.length;
-            // Some data has been downloaded from the server so we reset the number of retries.
-            _nb_retries = 5;
-        } catch (HttpTimeoutException e) {
-            if (_nb_retries <= 0) {
-                LOGGER.warn("Error while downloading from %s: %s\nMax retries exceeded.", url, e.getLocalizedMessage());
+        return result;
+    }
+
+    private static Map<String, String> _without_if_range(Map<String, String> headers) {
+        var result = headers != null ? new HashMap<>(headers) : new HashMap<String, String>();
+        result.keySet().removeIf(name -> name.equalsIgnoreCase("If-Range"));
+        return result;
+    }
+
+    /**
+     * Body of a response being downloaded, keeping the error that interrupted it, if any: other errors of the
+     * transfer are local (e.g. disk full) and are not retried.
+     */
+    private static final class _ResponseChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private IOException error;
+
+        private _ResponseChannel(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            try {
+                return channel.read(dst);
+            } catch (IOException e) {
+                error = e;
                 throw e;
             }
-            LOGGER.warn("Error while downloading from %s: %s\\nTrying to resume download...", url,
-                    e.getLocalizedMessage());
-            Thread.sleep(1000);
-            http_get(url, temp_file, proxies, new_resume_size, initial_headers, expected_size, displayed_filename,
-                    _nb_retries - 1, _tqdm_bar);
         }
 
-        progress.close();
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
 
-        if (expected_size != null && expected_size != new_resume_size) {
-            throw new IOException(String.format(consistency_error_message, new_resume_size));
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Asynchronous version of [`http_get`], built on `HttpClient.sendAsync`. The body of the response is written to
+     * `temp_file` as it is received, so that no thread is blocked on network or disk I/O.
+     *
+     * Like [`http_get`], a download interrupted by a network error is resumed from the last byte written, and the
+     * method gives up after the `max_retries` of the download [`RetryPolicy`] if no new data has been received from
+     * the server. No progress bar is displayed.
+     *
+     * Args: url (`str`): The URL of the file to download. temp_file (`AsynchronousFileChannel`): The file channel
+     * where to save the file, content is written from `resume_size`. proxies (`dict`, *optional*): Dictionary mapping
+     * protocol to the URL of the proxy passed to `requests.request`. resume_size (`long`): The number of bytes already
+     * downloaded. headers (`dict`, *optional*): Dictionary of HTTP Headers to send with the request. expected_size
+     * (`long`, *optional*): The expected size of the file to download.
+     *
+     * Returns: A future completed with the size of `temp_file` once the download is complete.
+     */
+    public static CompletableFuture<Long> http_get_async(String url, AsynchronousFileChannel temp_file,
+            Map<String, String> proxies, long resume_size, Map<String, String> headers, Long expected_size,
+            int _nb_retries) {
+        return http_get_async(url, temp_file, proxies, resume_size, headers, expected_size, _nb_retries, null);
+    }
+
+    /**
+     * Same as [`http_get_async`], also hashing the bytes written to `temp_file` with `sha256`, which must cover the
+     * first `resume_size` bytes of the file. It is reset if the download starts over.
+     */
+    public static CompletableFuture<Long> http_get_async(String url, AsynchronousFileChannel temp_file,
+            Map<String, String> proxies, long resume_size, Map<String, String> headers, Long expected_size,
+            int _nb_retries, StreamingSha256 sha256) {
+        var request_headers = headers != null ? new HashMap<>(headers) : new HashMap<String, String>();
+        if (resume_size > 0) {
+            request_headers.put("Range", "bytes=" + resume_size + "-");
         }
+
+        var validator = new AtomicReference<String>();
+        HttpResponse.BodyHandler<Long> body_handler = response_info -> {
+            if (response_info.statusCode() >= 400) {
+                // Error is raised from the status and headers: drop the body
+                return HttpResponse.BodySubscribers.replacing(null);
+            }
+            validator.set(_validator(response_info.headers()));
+            if (resume_size > 0 && response_info.statusCode() == 206
+                    && !_resumes(response_info.headers(), resume_size, expected_size)) {
+                // Part of another version of the file: download the whole file instead
+                LOGGER.info("Server sent unexpected range '{}' for {}: restarting from scratch.",
+                        response_info.headers().firstValue("Content-Range").orElse(null), url);
+                return _cancelled_body(_UNEXPECTED_RANGE);
+            }
+            if (resume_size > 0 && response_info.statusCode() != 206) {
+                // Range was ignored (e.g. `If-Range` did not match): the whole file is sent back => start over
+                LOGGER.info("Server did not resume download from {}: restarting from scratch.", url);
+                if (sha256 != null) {
+                    sha256.reset();
+                }
+                return new AsynchronousFileBodySubscriber(temp_file, 0, sha256);
+            }
+            return new AsynchronousFileBodySubscriber(temp_file, resume_size, sha256);
+        };
+
+        // Wait for a connection to the host if their number is limited
+        return DownloadLimits.acquire_connection_async(url)
+                .thenCompose(connection -> _request_wrapper_async("GET", url, request_headers, false, false, proxies,
+                        HF_HUB_DOWNLOAD_TIMEOUT, body_handler).whenComplete((r, error) -> connection.close()))
+                .handle((r, error) -> {
+                    if (error == null) {
+                        try {
+                            hf_raise_for_status(r, null);
+                            var size = r.body();
+                            if (size != null && size == _UNEXPECTED_RANGE) {
+                                temp_file.truncate(0);
+                                if (sha256 != null) {
+                                    sha256.reset();
+                                }
+                                return http_get_async(url, temp_file, proxies, 0, _without_if_range(headers),
+                                        expected_size, _nb_retries, sha256);
+                            }
+                            if (expected_size != null && !expected_size.equals(size)) {
+                                throw new IOException("Consistency check failed: file should be of size "
+                                        + expected_size + " but has size " + size + " (" + url + ").");
+                            }
+                            return CompletableFuture.completedFuture(size);
+                        } catch (IOException e) {
+                            return CompletableFuture.<Long> failedFuture(e);
+                        }
+                    }
+                    var io_error = _unwrap_io_exception(error);
+                    if (io_error instanceof AsynchronousFileBodySubscriber.WriteException) {
+                        // Writing to the file failed (e.g. disk full): resuming would fail the same way
+                        return CompletableFuture.<Long> failedFuture(
+                                io_error.getCause() instanceof IOException cause ? cause : io_error);
+                    }
+                    long new_resume_size;
+                    try {
+                        new_resume_size = temp_file.size();
+                    } catch (IOException e) {
+                        return CompletableFuture.<Long> failedFuture(e);
+                    }
+                    // Some data has been downloaded from the server so we reset the number of retries.
+                    var nb_retries = new_resume_size > resume_size ? _max_download_retries() : _nb_retries;
+                    // Connection errors and timeouts before any data are already retried by `_request_wrapper_async`
+                    var retried = RetryPolicy.is_transient(io_error) && new_resume_size == resume_size;
+                    var wait = nb_retries > 0 && !retried
+                            ? RetryPolicy.retry(Operation.DOWNLOAD, _retry_attempt(nb_retries))
+                            : null;
+                    if (wait == null) {
+                        LOGGER.warn("Error while downloading from {}: {}\nMax retries exceeded.", url,
+                                io_error.getLocalizedMessage());
+                        return CompletableFuture.<Long> failedFuture(io_error);
+                    }
+                    LOGGER.warn("Error while downloading from {}: {}\nTrying to resume download in {} ms...", url,
+                            io_error.getLocalizedMessage(), wait.toMillis());
+                    // Resume from another mirror if the download was from a mirror
+                    var next_url = Mirrors.failover(url);
+                    var next_headers = _with_if_range(headers, next_url.equals(url) ? validator.get() : null);
+                    return CompletableFuture
+                            .supplyAsync(() -> http_get_async(next_url, temp_file, proxies, new_resume_size,
+                                    next_headers, expected_size, nb_retries - 1, sha256),
+                                    CompletableFuture.delayedExecutor(wait.toMillis(), TimeUnit.MILLISECONDS,
+                                            hub_executor()))
+                            .thenCompose(Function.identity());
+                }).thenCompose(Function.identity());
     }
 
     /**
@@ -381,13 +797,14 @@ public class FileDownload {
 
         var url_to_download = url;
         String etag = null;
-        Integer expected_size = null;
+        Long expected_size = null;
         if (!local_files_only) {
             try {
                 // Temporary header: we want the full (decompressed) content size returned to be able to check the
                 // downloaded file size
                 headers.put("Accept-Encoding", "identity");
                 var r = _request_wrapper("HEAD", url, headers, false, true, proxies, etag_timeout);
+                r.body().close();
                 headers.remove("Accept-Encoding");
                 hf_raise_for_status(r, null);
                 etag = r.headers().firstValue(HUGGINGFACE_HEADER_X_LINKED_ETAG)
@@ -460,7 +877,7 @@ public class FileDownload {
         }
 
         // Prevent parallel downloads of the same file with a lock.
-        var lock_path = cache_path.resolve(".lock");
+        var lock_path = cache_path.resolveSibling(cache_path.getFileName() + ".lock");
 
         // Some Windows versions do not allow for paths longer than 255 characters.
         // In this case, we must specify it is an extended path by using the "\\?\" prefix.
@@ -471,17 +888,19 @@ public class FileDownload {
 
         if (System.getProperty("os.name").toLowerCase().contains("win")
                 && cache_path.toAbsolutePath().toString().length() > 255) {
-            lock_path = Paths.get("\\\\?\\" + cache_path.toAbsolutePath().toString());
+            cache_path = Paths.get("\\\\?\\" + cache_path.toAbsolutePath().toString());
         }
 
-        try (var channel = FileChannel.open(lock_path); var lock = channel.tryLock()) {
-            _download_to_tmp_and_move(cache_path.resolve(".incomplete"), cache_path, url_to_download, proxies, headers,
-                    expected_size, filename, force_download);
+        // If another process downloaded the file while we were waiting for the lock, it is not downloaded again.
+        try (var lock = WeakFileLock.acquire(lock_path)) {
+            _download_to_tmp_and_move(cache_path.resolveSibling(cache_path.getFileName() + ".incomplete"), cache_path,
+                    url_to_download, proxies, headers, expected_size, _normalize_etag(etag), filename,
+                    force_download);
 
             if (force_filename == null) {
                 LOGGER.info("creating metadata file for {}", cache_path);
                 // var meta = {"url": url, "etag": etag}
-                var meta_path = cache_path.resolve(".json");
+                var meta_path = cache_path.resolveSibling(cache_path.getFileName() + ".json");
                 Files.writeString(meta_path, "{\"url\":" + url + ", \"etag\"" + etag + "}");
             }
         }
@@ -533,15 +952,29 @@ public class FileDownload {
      * `huggingface_hub`. The warning message can be disabled with the `DISABLE_SYMLINKS_WARNING` environment variable.
      */
     private static void _create_symlink(Path src, Path dst, boolean new_blob) throws IOException {
-        if (System.getProperty("os.name").toLowerCase().contains("win")) {
-            if (new_blob) {
-                Files.move(src, dst);
+        // CacheGC deletes revisions while holding this lock: the revision of `dst` is either deleted before (and
+        // created again here) or kept, since the pointer is recent
+        try (var lock = WeakFileLock.acquire(CacheGC.snapshots_lock_path(src.getParent().getParent()))) {
+            Files.createDirectories(dst.getParent());
+            if (System.getProperty("os.name").toLowerCase().contains("win")) {
+                if (new_blob) {
+                    Files.move(src, dst);
+                } else {
+                    Files.copy(src, dst);
+                }
             } else {
-                Files.copy(src, dst);
+                // Create the link next to `dst` and rename it, so that an existing pointer is replaced atomically
+                var tmp_link = dst.resolveSibling(dst.getFileName() + "." + UUID.randomUUID() + ".tmp");
+                Files.createSymbolicLink(tmp_link, src);
+                try {
+                    Files.move(tmp_link, dst, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    Files.deleteIfExists(tmp_link);
+                    throw e;
+                }
             }
-        } else {
-            Files.createSymbolicLink(dst, src);
         }
+        CacheIndex.invalidate(dst);
     }
 
     /**
@@ -582,6 +1015,16 @@ public class FileDownload {
         }
         var object_id = repo_id.replace(File.separator, "--");
         var repo_cache = cache_dir.resolve(repo_type + "s--" + object_id);
+        var path = CacheIndex.enabled() ? CacheIndex.lookup(repo_cache, revision, filename)
+                : _find_in_cache(repo_cache, revision, filename);
+        if (path != null && path != _CACHED_NO_EXIST) {
+            CacheGC.record_access(path);
+        }
+        return path;
+    }
+
+    /** Look up `filename` at `revision` in the folder of a repo of the cache, on the disk. */
+    static Path _find_in_cache(Path repo_cache, String revision, String filename) throws IOException {
         if (!Files.isDirectory(repo_cache)) {
             return null;
         }
@@ -606,11 +1049,12 @@ public class FileDownload {
         if (!Files.exists(snapshots_dir)) {
             return null;
         }
-        var cached_shas = Files.list(snapshots_dir);
         String finalRevision = revision;
-        if (!cached_shas.anyMatch(p -> p.getFileName().toString().equals(finalRevision))) {
-            // No cache for this revision and we won't try to return a random revision
-            return null;
+        try (var cached_shas = Files.list(snapshots_dir)) {
+            if (cached_shas.noneMatch(p -> p.getFileName().toString().equals(finalRevision))) {
+                // No cache for this revision and we won't try to return a random revision
+                return null;
+            }
         }
 
         // Check if file exists in cache
@@ -632,7 +1076,7 @@ public class FileDownload {
      *
      * Returns: A [`HfFileMetadata`] object containing metadata such as location, etag, size and commit_hash.
      */
-    private static HfFileMetadata get_hf_file_metadata(String url, Either<Boolean, String> token,
+    public static HfFileMetadata get_hf_file_metadata(String url, Either<Boolean, String> token,
             Map<String, String> proxies, Float timeout, String library_name, String library_version,
             Either<Map<String, Object>, String> user_agent, Map<String, String> headers) throws IOException {
         headers = build_hf_headers(token, false, library_name, library_version, user_agent, headers);
@@ -642,27 +1086,191 @@ public class FileDownload {
         // Retrieve metadata
         try {
             var r = _request_wrapper("HEAD", url, headers, false, true, proxies, timeout);
-            hf_raise_for_status(r, null);
-
-            // Return
-            return new HfFileMetadata(r.headers().firstValue(HUGGINGFACE_HEADER_X_REPO_COMMIT).orElse(null),
-                    // We favor a custom header indicating the etag of the linked resource, and
-                    // we fallback to the regular etag header.
-                    _normalize_etag(r.headers().firstValue(HUGGINGFACE_HEADER_X_LINKED_ETAG)
-                            .or(() -> r.headers().firstValue("ETag")).orElse(null)),
-                    // Either from response headers (if redirected) or defaults to request url
-                    // Do not use directly `url`, as `_request_wrapper` might have followed relative
-                    // redirects.
-                    r.headers().firstValue("Location").or(() -> Optional.of(r.request().uri().toString())).orElse(null), // type:
-                                                                                                                         // ignore
-                    _int_or_none(r.headers().firstValue(HUGGINGFACE_HEADER_X_LINKED_SIZE)
-                            .or(() -> r.headers().firstValue("Content-Length")).orElse(null)));
+            r.body().close();
+            return _parse_file_metadata(r);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new IOException(e);
         }
     }
 
+    /**
+     * Asynchronous version of [`get_hf_file_metadata`]: the HEAD request is sent with `HttpClient.sendAsync` and no
+     * thread is blocked while waiting for the server.
+     *
+     * Returns: A future completed with a [`HfFileMetadata`] object, or completed exceptionally with the same errors as
+     * [`get_hf_file_metadata`].
+     */
+    public static CompletableFuture<HfFileMetadata> get_hf_file_metadata_async(String url,
+            Either<Boolean, String> token, Map<String, String> proxies, Float timeout, String library_name,
+            String library_version, Either<Map<String, Object>, String> user_agent, Map<String, String> headers) {
+        headers = build_hf_headers(token, false, library_name, library_version, user_agent, headers);
+        headers.put("Accept-Encoding", "identity"); // prevent any compression => we want to know the real size of the
+                                                    // file
+
+        return _request_wrapper_async("HEAD", url, headers, false, true, proxies, timeout,
+                HttpResponse.BodyHandlers.discarding()).thenApply(r -> {
+                    try {
+                        return _parse_file_metadata(r);
+                    } catch (HfHubHTTPException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * Fetch metadata of several files of the same revision of a repo at once.
+     *
+     * HEAD requests are pipelined on the shared HTTP client: with HTTP/2 they are multiplexed over a single
+     * connection, with HTTP/1.1 they are spread over the pooled connections. At most `METADATA_MAX_IN_FLIGHT`
+     * requests are in flight at the same time. Fresh entries of the [`FileMetadataCache`] are used without any
+     * request, and fetched metadata is added to it.
+     *
+     * Args: repo_id (`str`): A user or an organization name and a repo name separated by a `/`. filenames
+     * (`List[str]`): The paths of the files in the repo. repo_type (`str`, *optional*): Set to `"dataset"` or
+     * `"space"` if the files are in a dataset or space, `None` or `"model"` if in a model. revision (`str`,
+     * *optional*): An optional Git revision id which can be a branch name, a tag, or a commit hash. endpoint (`str`,
+     * *optional*): Hugging Face Hub base url. token, proxies, timeout, library_name, library_version, user_agent,
+     * headers: see [`get_hf_file_metadata`].
+     *
+     * Returns: A map from each filename to its [`HfFileMetadata`], in the order of `filenames`.
+     *
+     * Raises: The first error raised while fetching the metadata of a file, e.g. [`EntryNotFoundException`] if one of
+     * the files does not exist.
+     */
+    public static Map<String, HfFileMetadata> get_hf_files_metadata(String repo_id, List<String> filenames,
+            String repo_type, String revision, String endpoint, Either<Boolean, String> token,
+            Map<String, String> proxies, Float timeout, String library_name, String library_version,
+            Either<Map<String, Object>, String> user_agent, Map<String, String> headers) throws IOException {
+        try {
+            return get_hf_files_metadata_async(repo_id, filenames, repo_type, revision, endpoint, token, proxies,
+                    timeout, library_name, library_version, user_agent, headers).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime_error) {
+                throw runtime_error;
+            }
+            var error = _unwrap_io_exception(e);
+            if (error != null) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    /** Asynchronous version of [`get_hf_files_metadata`]. */
+    public static CompletableFuture<Map<String, HfFileMetadata>> get_hf_files_metadata_async(String repo_id,
+            List<String> filenames, String repo_type, String revision, String endpoint,
+            Either<Boolean, String> token, Map<String, String> proxies, Float timeout, String library_name,
+            String library_version, Either<Map<String, Object>, String> user_agent, Map<String, String> headers) {
+        var revision_ = revision != null ? revision : DEFAULT_REVISION;
+        var repo_type_ = repo_type != null ? repo_type : REPO_TYPE_MODEL;
+        Either<Boolean, String> token_;
+        Map<String, String> hf_headers;
+        try {
+            // Read the token and build the headers once for all files
+            var token_to_send = get_token_to_send(token);
+            token_ = token_to_send != null ? Either.right(token_to_send) : Either.left(false);
+            hf_headers = build_hf_headers(token_, false, library_name, library_version, user_agent, headers);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Function<String, CompletableFuture<HfFileMetadata>> fetch = filename -> {
+            var url = hf_hub_url(repo_id, filename, null, repo_type_, revision_, endpoint);
+            var cache_key = FileMetadataCache.key(endpoint, repo_type_, repo_id, revision_, filename, hf_headers);
+            var cached = FileMetadataCache.get(cache_key,
+                    () -> get_hf_file_metadata_async(url, token_, proxies, timeout, null, null, null, hf_headers));
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+            return get_hf_file_metadata_async(url, token_, proxies, timeout, null, null, null, hf_headers)
+                    .thenApply(metadata -> {
+                        FileMetadataCache.put(cache_key, metadata);
+                        return metadata;
+                    });
+        };
+
+        var results = new ConcurrentHashMap<String, HfFileMetadata>();
+        var pending = new ConcurrentLinkedQueue<>(filenames);
+        var remaining = new AtomicInteger(filenames.size());
+        var done = new CompletableFuture<Void>();
+        if (filenames.isEmpty()) {
+            done.complete(null);
+        }
+        for (var i = 0; i < Math.min(METADATA_MAX_IN_FLIGHT, filenames.size()); i++) {
+            _fetch_next_metadata(pending, fetch, results, remaining, done);
+        }
+        return done.thenApply(ignored -> {
+            var ordered = new LinkedHashMap<String, HfFileMetadata>();
+            filenames.forEach(filename -> ordered.put(filename, results.get(filename)));
+            return ordered;
+        });
+    }
+
+    /**
+     * Fetch the metadata of the pending files one after the other, until none is left or one fails. Metadata already
+     * available (e.g. from the cache) is handled in the loop; the loop is resumed from the callback of the first
+     * request that is still in flight.
+     */
+    private static void _fetch_next_metadata(Queue<String> pending,
+            Function<String, CompletableFuture<HfFileMetadata>> fetch, Map<String, HfFileMetadata> results,
+            AtomicInteger remaining, CompletableFuture<Void> done) {
+        String filename;
+        while (!done.isDone() && (filename = pending.poll()) != null) {
+            CompletableFuture<HfFileMetadata> future;
+            try {
+                future = fetch.apply(filename);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            var name = filename;
+            if (!future.isDone()) {
+                future.whenComplete((metadata, error) -> {
+                    if (_add_metadata(name, metadata, error, results, remaining, done)) {
+                        _fetch_next_metadata(pending, fetch, results, remaining, done);
+                    }
+                });
+                return;
+            }
+            if (!future.handle((metadata, error) -> _add_metadata(name, metadata, error, results, remaining, done))
+                    .join()) {
+                return;
+            }
+        }
+    }
+
+    /** Record the metadata of `filename`, or fail `done` with `error`. Returns whether to fetch the next file. */
+    private static boolean _add_metadata(String filename, HfFileMetadata metadata, Throwable error,
+            Map<String, HfFileMetadata> results, AtomicInteger remaining, CompletableFuture<Void> done) {
+        if (error != null) {
+            done.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+            return false;
+        }
+        results.put(filename, metadata);
+        if (remaining.decrementAndGet() == 0) {
+            done.complete(null);
+            return false;
+        }
+        return true;
+    }
+
+    private static HfFileMetadata _parse_file_metadata(HttpResponse<?> r) throws HfHubHTTPException {
+        hf_raise_for_status(r, null);
+
+        // Return
+        return new HfFileMetadata(r.headers().firstValue(HUGGINGFACE_HEADER_X_REPO_COMMIT).orElse(null),
+                // We favor a custom header indicating the etag of the linked resource, and
+                // we fallback to the regular etag header.
+                _normalize_etag(r.headers().firstValue(HUGGINGFACE_HEADER_X_LINKED_ETAG)
+                        .or(() -> r.headers().firstValue("ETag")).orElse(null)),
+                // Either from response headers (if redirected) or defaults to request url
+                // Do not use directly `url`, as `_request_wrapper` might have followed relative
+                // redirects.
+                r.headers().firstValue("Location").or(() -> Optional.of(r.request().uri().toString())).orElse(null),
+                _int_or_none(r.headers().firstValue(HUGGINGFACE_HEADER_X_LINKED_SIZE)
+                        .or(() -> r.headers().firstValue("Content-Length")).orElse(null)));
+    }
+
     /**
      * Download a given file if it's not already present in the local cache.
      *
@@ -687,6 +1295,10 @@ public class FileDownload {
      * to store some metadata related to the downloaded files. While this mechanism is not as robust as the main
      * cache-system, it's optimized for regularly pulling the latest version of a repository.
      *
+     * The download is run by the [`DownloadScheduler`], with the priority of small files for configuration files and
+     * vocabularies, and of bulk downloads otherwise. Downloads that only read the cache (`local_files_only`, or a file
+     * already cached at a commit hash) run right away instead.
+     *
      * Args: repo_id (`str`): A user or an organization name and a repo name separated by a `/`. filename (`str`): The
      * name of the file in the repo. subfolder (`str`, *optional*): An optional value corresponding to a folder inside
      * the model repo. repo_type (`str`, *optional*): Set to `"dataset"` or `"space"` if downloading from a dataset or
@@ -727,6 +1339,48 @@ public class FileDownload {
             // Deprecated args
             boolean legacy_cache_layout, Boolean resume_download, String force_filename,
             Either<Boolean, String> local_dir_use_symlinks) throws IOException {
+        if (_is_cache_only(repo_id, filename, subfolder, repo_type, revision, cache_dir, local_dir, force_download,
+                local_files_only, legacy_cache_layout || force_filename != null)) {
+            return _hf_hub_download(repo_id, filename, subfolder, repo_type, revision, library_name, library_version,
+                    cache_dir, local_dir, user_agent, force_download, proxies, etag_timeout, token, local_files_only,
+                    headers, endpoint, legacy_cache_layout, resume_download, force_filename, local_dir_use_symlinks);
+        }
+        return DownloadScheduler.run(DownloadScheduler.priority_of(filename),
+                DownloadScheduler.repo_key(repo_id, repo_type),
+                () -> _hf_hub_download(repo_id, filename, subfolder, repo_type, revision, library_name,
+                        library_version, cache_dir, local_dir, user_agent, force_download, proxies, etag_timeout, token,
+                        local_files_only, headers, endpoint, legacy_cache_layout, resume_download, force_filename,
+                        local_dir_use_symlinks));
+    }
+
+    /**
+     * Whether a download only reads the cache, so that it does not need a worker of the [`DownloadScheduler`]: with
+     * `local_files_only`, or when the file is already in the snapshot of a commit hash.
+     */
+    private static boolean _is_cache_only(String repo_id, String filename, String subfolder, String repo_type,
+            String revision, Path cache_dir, Path local_dir, boolean force_download, boolean local_files_only,
+            boolean legacy_cache_layout) {
+        if (local_files_only) {
+            return true;
+        }
+        if (force_download || local_dir != null || legacy_cache_layout || revision == null
+                || !REGEX_COMMIT_HASH.matcher(revision).matches()) {
+            return false;
+        }
+        if (subfolder != null && !subfolder.isEmpty()) {
+            filename = subfolder + File.separator + filename;
+        }
+        var storage_folder = (cache_dir != null ? cache_dir : Path.of(HF_HUB_CACHE))
+                .resolve(repo_folder_name(repo_id, repo_type != null ? repo_type : REPO_TYPE_MODEL));
+        return Files.exists(_get_pointer_path(storage_folder, revision, _relative_filename(filename)));
+    }
+
+    private static Path _hf_hub_download(String repo_id, String filename, String subfolder, String repo_type,
+            String revision, String library_name, String library_version, Path cache_dir, Path local_dir,
+            Either<Map<String, Object>, String> user_agent, boolean force_download, Map<String, String> proxies,
+            float etag_timeout, Either<Boolean, String> token, boolean local_files_only, Map<String, String> headers,
+            String endpoint, boolean legacy_cache_layout, Boolean resume_download, String force_filename,
+            Either<Boolean, String> local_dir_use_symlinks) throws IOException {
         if (HF_HUB_ETAG_TIMEOUT != DEFAULT_ETAG_TIMEOUT) {
             // Respect environment variable above user value
             etag_timeout = HF_HUB_ETAG_TIMEOUT;
@@ -801,41 +1455,496 @@ public class FileDownload {
     }
 
     /**
-     * Download a given file to a cache folder, if not already present.
+     * Asynchronous version of [`hf_hub_download`].
      *
-     * Method should not be called directly. Please use `hf_hub_download` instead.
+     * Metadata and file contents are fetched with `HttpClient.sendAsync` and written through an
+     * `AsynchronousFileChannel`, so that no thread is blocked while waiting for the network. Many files can therefore
+     * be resolved and downloaded concurrently and composed with the usual `CompletableFuture` methods. The cache layout
+     * and the locks are the same as with [`hf_hub_download`]. Deprecated arguments are not supported and `hf_transfer`
+     * is ignored. The download holds a worker of the [`DownloadScheduler`] until it completes, unless it only reads the
+     * cache.
+     *
+     * Returns: A future completed with the local path of the file, or completed exceptionally with the same errors as
+     * [`hf_hub_download`].
      */
-    private static Path _hf_hub_download_to_cache_dir(
-            // Destination
-            Path cache_dir,
-            // File info
-            String repo_id, String filename, String repo_type, String revision,
-            // HTTP info
-            Map<String, String> headers, Map<String, String> proxies, float etag_timeout, String endpoint,
-            // Additional options
-            boolean local_files_only, boolean force_download) throws IOException {
-        var locks_dir = cache_dir.resolve(".locks");
-        var storage_folder = cache_dir.resolve(repo_folder_name(repo_id, repo_type));
-        var relative_filename = filename.replace('/', File.separatorChar);
-        if (System.getProperty("os.name").toLowerCase().contains("win")) {
-            if (relative_filename.startsWith("..\\") || relative_filename.contains("\\..\\")) {
-                throw new IllegalArgumentException("Invalid filename: cannot handle filename '" + filename
-                        + "' on Windows. Please ask the repository owner to rename this file.");
+    public static CompletableFuture<Path> hf_hub_download_async(String repo_id, String filename, String subfolder,
+            String repo_type, String revision, String library_name, String library_version, Path cache_dir,
+            Path local_dir, Either<Map<String, Object>, String> user_agent, boolean force_download,
+            Map<String, String> proxies, float etag_timeout, Either<Boolean, String> token, boolean local_files_only,
+            Map<String, String> headers, String endpoint) {
+        if (_is_cache_only(repo_id, filename, subfolder, repo_type, revision, cache_dir, local_dir, force_download,
+                local_files_only, false)) {
+            return _hf_hub_download_async(repo_id, filename, subfolder, repo_type, revision, library_name,
+                    library_version, cache_dir, local_dir, user_agent, force_download, proxies, etag_timeout, token,
+                    local_files_only, headers, endpoint);
+        }
+        return DownloadScheduler.submit_async(DownloadScheduler.priority_of(filename),
+                DownloadScheduler.repo_key(repo_id, repo_type),
+                () -> _hf_hub_download_async(repo_id, filename, subfolder, repo_type, revision, library_name,
+                        library_version, cache_dir, local_dir, user_agent, force_download, proxies, etag_timeout, token,
+                        local_files_only, headers, endpoint));
+    }
+
+    private static CompletableFuture<Path> _hf_hub_download_async(String repo_id, String filename, String subfolder,
+            String repo_type, String revision, String library_name, String library_version, Path cache_dir,
+            Path local_dir, Either<Map<String, Object>, String> user_agent, boolean force_download,
+            Map<String, String> proxies, float etag_timeout, Either<Boolean, String> token, boolean local_files_only,
+            Map<String, String> headers, String endpoint) {
+        try {
+            if (HF_HUB_ETAG_TIMEOUT != DEFAULT_ETAG_TIMEOUT) {
+                // Respect environment variable above user value
+                etag_timeout = HF_HUB_ETAG_TIMEOUT;
+            }
+            if (cache_dir == null) {
+                cache_dir = Path.of(HF_HUB_CACHE);
+            }
+            if (revision == null) {
+                revision = DEFAULT_REVISION;
+            }
+            if (subfolder != null && !subfolder.isEmpty()) {
+                filename = subfolder + File.separator + filename;
             }
+            if (repo_type == null) {
+                repo_type = REPO_TYPE_MODEL;
+            }
+            if (!REPO_TYPES.contains(repo_type)) {
+                throw new IllegalArgumentException(
+                        "Invalid repo type: " + repo_type + ". Accepted repo types are: " + REPO_TYPES);
+            }
+
+            headers = build_hf_headers(token, false, library_name, library_version, user_agent, headers);
+
+            if (local_dir != null) {
+                return _hf_hub_download_to_local_dir_async(local_dir, repo_id, repo_type, filename, revision, proxies,
+                        etag_timeout, headers, endpoint, cache_dir, force_download, local_files_only);
+            }
+            return _hf_hub_download_to_cache_dir_async(cache_dir, repo_id, filename, repo_type, revision, headers,
+                    proxies, etag_timeout, endpoint, local_files_only, force_download);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
         }
+    }
 
-        // if user provides a commit_hash and they already have the file on disk, shortcut everything.
+    /**
+     * Open a file of the Hub for reading, without downloading it first.
+     *
+     * If the file is in the cache, it is opened from there. Otherwise, the returned [`HfFileChannel`] reads the parts
+     * of the file that are actually read, with HTTP Range requests: reading the header of a safetensors file or a few
+     * of its tensors does not download the whole checkpoint. If the whole file ends up read, it is added to the cache
+     * when the channel is closed, as if it had been downloaded by [`hf_hub_download`].
+     *
+     * Args: repo_id (`str`): A user or an organization name and a repo name separated by a `/`. filename (`str`): The
+     * name of the file in the repo. subfolder (`str`, *optional*): An optional value corresponding to a folder inside
+     * the model repo. repo_type (`str`, *optional*): Set to `"dataset"` or `"space"` if opening from a dataset or
+     * space, `None` or `"model"` if opening from a model. Default is `None`. revision (`str`, *optional*): An optional
+     * Git revision id which can be a branch name, a tag, or a commit hash. cache_dir (`str`, `Path`, *optional*): Path
+     * to the folder where cached files are stored. token (`str`, `bool`, *optional*): A token to be used for the
+     * download. headers (`dict`, *optional*): Additional headers to be sent with each request. endpoint (`str`,
+     * *optional*): Hub endpoint, a mirror is picked if it is `None` and mirrors are configured.
+     *
+     * Returns: A `SeekableByteChannel` on the file, to be closed once done.
+     *
+     * Raises: The same errors as [`hf_hub_download`].
+     */
+    public static SeekableByteChannel hf_hub_open(String repo_id, String filename, String subfolder, String repo_type,
+            String revision, Path cache_dir, Either<Boolean, String> token, boolean local_files_only,
+            Map<String, String> headers, String endpoint) throws IOException {
+        // Opening the file only fetches its metadata: the reads are not scheduled
+        return DownloadScheduler.run(Priority.INTERACTIVE, DownloadScheduler.repo_key(repo_id, repo_type),
+                () -> _hf_hub_open(repo_id, filename, subfolder, repo_type, revision, cache_dir, token,
+                        local_files_only, headers, endpoint));
+    }
+
+    private static SeekableByteChannel _hf_hub_open(String repo_id, String filename, String subfolder,
+            String repo_type, String revision, Path cache_dir, Either<Boolean, String> token,
+            boolean local_files_only, Map<String, String> headers, String endpoint) throws IOException {
+        if (cache_dir == null) {
+            cache_dir = Path.of(HF_HUB_CACHE);
+        }
+        if (revision == null) {
+            revision = DEFAULT_REVISION;
+        }
+        if (subfolder != null && !subfolder.isEmpty()) {
+            filename = subfolder + File.separator + filename;
+        }
+        if (repo_type == null) {
+            repo_type = REPO_TYPE_MODEL;
+        }
+        if (!REPO_TYPES.contains(repo_type)) {
+            throw new IllegalArgumentException(
+                    "Invalid repo type: " + repo_type + ". Accepted repo types are: " + REPO_TYPES);
+        }
+        headers = build_hf_headers(token, false, null, null, null, headers);
+
+        var storage_folder = cache_dir.resolve(repo_folder_name(repo_id, repo_type));
+        var relative_filename = _relative_filename(filename);
         if (REGEX_COMMIT_HASH.matcher(revision).matches()) {
             var pointer_path = _get_pointer_path(storage_folder, revision, relative_filename);
-            if (Files.exists(pointer_path) && !force_download) {
-                return pointer_path;
+            if (Files.exists(pointer_path)) {
+                CacheGC.record_access(pointer_path);
+                return FileChannel.open(pointer_path, StandardOpenOption.READ);
             }
         }
 
-        // Try to get metadata (etag, commit_hash, url, size) from the server.
-        // If we can't, a HEAD request error is returned.
-        var result = _get_metadata_or_catch_error(repo_id, filename, repo_type, revision, endpoint, proxies,
-                etag_timeout, headers, local_files_only, relative_filename, storage_folder);
+        var result = _get_metadata_or_catch_error(repo_id, filename, repo_type, revision, endpoint, null,
+                (float) HF_HUB_ETAG_TIMEOUT, headers, local_files_only, false, relative_filename, storage_folder);
+        var target = _resolve_cache_dir_target(cache_dir, storage_folder, repo_id, repo_type, revision,
+                relative_filename, result, local_files_only, false);
+        if (target.cached()) {
+            CacheGC.record_access(target.pointer_path());
+            return FileChannel.open(target.pointer_path(), StandardOpenOption.READ);
+        }
+        var etag = result._2();
+        var size = result._4();
+        return new HfFileChannel(result._1(), etag, size, headers, null, HF_HUB_OPEN_BLOCK_SIZE,
+                HF_HUB_OPEN_CACHED_BLOCKS, target.blob_path().getParent(),
+                temp_file -> _add_to_cache(temp_file, target, etag, size));
+    }
+
+    /** Move `temp_file`, holding the whole content of the file of `target`, to its blob and create its pointer. */
+    private static void _add_to_cache(Path temp_file, CacheDirTarget target, String etag, long size)
+            throws IOException {
+        var sha256 = _streaming_sha256(etag);
+        if (sha256 != null) {
+            sha256.verify(temp_file, size, etag);
+        }
+        try (var lock = WeakFileLock.acquire(target.lock_path())) {
+            // The blob may have been downloaded by another process in the meantime
+            var new_blob = !Files.exists(target.blob_path());
+            if (new_blob) {
+                _chmod_and_move(temp_file, target.blob_path());
+                if (BlobStore.applies(etag)) {
+                    // As in `_download_blob`: other repos link the entry while holding its lock
+                    try (var store_lock = WeakFileLock.acquire(BlobStore.lock_path(target.blob_path()))) {
+                        BlobStore.add(target.blob_path(), false);
+                    }
+                }
+            }
+            _create_symlink(target.blob_path(), target.pointer_path(), new_blob);
+        }
+    }
+
+    /**
+     * Download a given file to a cache folder, if not already present.
+     *
+     * Method should not be called directly. Please use `hf_hub_download` instead.
+     *
+     * Concurrent calls for the same file in this process are coalesced: only one of them fetches the metadata and
+     * downloads the file, the others wait for it and return the same pointer path.
+     */
+    private static Path _hf_hub_download_to_cache_dir(
+            // Destination
+            Path cache_dir,
+            // File info
+            String repo_id, String filename, String repo_type, String revision,
+            // HTTP info
+            Map<String, String> headers, Map<String, String> proxies, float etag_timeout, String endpoint,
+            // Additional options
+            boolean local_files_only, boolean force_download) throws IOException {
+        var key = DownloadKey.of(cache_dir, endpoint, repo_type, repo_id, revision, filename, headers,
+                local_files_only, force_download);
+        var pointer_path = _FILE_DOWNLOADS.run(key, () -> _do_hf_hub_download_to_cache_dir(cache_dir, repo_id,
+                filename, repo_type, revision, headers, proxies, etag_timeout, endpoint, local_files_only,
+                force_download));
+        CacheGC.record_access(pointer_path);
+        return pointer_path;
+    }
+
+    private static Path _do_hf_hub_download_to_cache_dir(Path cache_dir, String repo_id, String filename,
+            String repo_type, String revision, Map<String, String> headers, Map<String, String> proxies,
+            float etag_timeout, String endpoint, boolean local_files_only, boolean force_download)
+            throws IOException {
+        var storage_folder = cache_dir.resolve(repo_folder_name(repo_id, repo_type));
+        var relative_filename = _relative_filename(filename);
+
+        // if user provides a commit_hash and they already have the file on disk, shortcut everything.
+        if (REGEX_COMMIT_HASH.matcher(revision).matches()) {
+            var pointer_path = _get_pointer_path(storage_folder, revision, relative_filename);
+            if (Files.exists(pointer_path) && !force_download) {
+                return pointer_path;
+            }
+        }
+
+        var single_get = _single_get(storage_folder, revision, filename, relative_filename, local_files_only,
+                force_download);
+        if (single_get != null) {
+            try (var small_file = _get_small_file(repo_id, filename, repo_type, revision, endpoint, proxies,
+                    etag_timeout, headers, relative_filename, storage_folder, single_get.cached())) {
+                var target = _resolve_cache_dir_target(cache_dir, storage_folder, repo_id, repo_type, revision,
+                        relative_filename, small_file.result(), local_files_only, force_download);
+                if (target.cached()) {
+                    return target.pointer_path();
+                }
+                // A download interrupted earlier is resumed as usual
+                if (small_file.response() != null && !Files.exists(target.incomplete_path())) {
+                    return _write_small_file(small_file.content(), target, small_file.result()._4());
+                }
+                // Otherwise (e.g. the file is on a CDN, or it is not small anymore), download it as usual
+                small_file.close();
+                return _download_to_cache_dir(target, small_file.result(), proxies, headers, filename,
+                        force_download);
+            }
+        }
+
+        // Try to get metadata (etag, commit_hash, url, size) from the server.
+        // If we can't, a HEAD request error is returned.
+        var result = _get_metadata_or_catch_error(repo_id, filename, repo_type, revision, endpoint, proxies,
+                etag_timeout, headers, local_files_only, force_download, relative_filename, storage_folder);
+        var target = _resolve_cache_dir_target(cache_dir, storage_folder, repo_id, repo_type, revision,
+                relative_filename, result, local_files_only, force_download);
+        if (target.cached()) {
+            return target.pointer_path();
+        }
+        return _download_to_cache_dir(target, result, proxies, headers, filename, force_download);
+    }
+
+    /** Download the blob of `target` from the location in `result` and create its pointer. */
+    private static Path _download_to_cache_dir(CacheDirTarget target,
+            Tuple5<String, String, String, Long, Exception> result, Map<String, String> proxies,
+            Map<String, String> headers, String filename, boolean force_download) throws IOException {
+        // Files of different revisions may share the same blob: download it only once in this process.
+        var pointer_path = _BLOB_DOWNLOADS.run(target.blob_path(), () -> {
+            // Prevent parallel downloads of the same file with a lock. If another process downloaded the blob while
+            // we were waiting for it, it is not downloaded again.
+            try (var lock = WeakFileLock.acquire(target.lock_path())) {
+                _download_blob(target, result, proxies, headers, filename, force_download);
+                _create_symlink(target.blob_path(), target.pointer_path(), true);
+            }
+            return target.pointer_path();
+        });
+        if (!pointer_path.equals(target.pointer_path())
+                && !_link_existing_blob(target.blob_path(), target.pointer_path(), target.lock_path())) {
+            // The blob has been downloaded for another pointer, and deleted by CacheGC since then
+            return _download_to_cache_dir(target, result, proxies, headers, filename, force_download);
+        }
+
+        return target.pointer_path();
+    }
+
+    /**
+     * Create the pointer `pointer_path` to `blob_path`, a blob written by another download, while holding the lock of
+     * the blob. The modification time of the blob is updated: [`CacheGC`] checks it under the same lock before
+     * deleting a blob, so that it either deleted the blob before or leaves it to the new pointer.
+     *
+     * Returns: `true` if the pointer has been created, `false` if the blob does not exist (anymore) and must be
+     * downloaded.
+     */
+    private static boolean _link_existing_blob(Path blob_path, Path pointer_path, Path lock_path) throws IOException {
+        try (var lock = WeakFileLock.acquire(lock_path)) {
+            if (!Files.exists(blob_path)) {
+                return false;
+            }
+            try {
+                Files.setLastModifiedTime(blob_path, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // E.g. a blob of a shared cache owned by another user
+                LOGGER.debug("Cannot update the modification time of {}: {}", blob_path, e.toString());
+            }
+            _create_symlink(blob_path, pointer_path, false);
+            return true;
+        }
+    }
+
+    /**
+     * Download the blob of `target`, unless the same content is in the blob store (see [`BlobStore`]): the blob is
+     * then linked to it. Called while holding the lock of the blob.
+     */
+    private static void _download_blob(CacheDirTarget target, Tuple5<String, String, String, Long, Exception> result,
+            Map<String, String> proxies, Map<String, String> headers, String filename, boolean force_download)
+            throws IOException {
+        var blob_path = target.blob_path();
+        if (!BlobStore.applies(result._2())) {
+            _download_to_tmp_and_move(target.incomplete_path(), blob_path, result._1(), proxies, headers,
+                    result._4(), result._2(), filename, force_download);
+            return;
+        }
+        // The same content may be downloaded for another repo at the same time: wait for it and link it.
+        try (var store_lock = WeakFileLock.acquire(BlobStore.lock_path(blob_path))) {
+            if (force_download || Files.exists(blob_path) || !BlobStore.restore(blob_path, result._4())) {
+                _download_to_tmp_and_move(target.incomplete_path(), blob_path, result._1(), proxies, headers,
+                        result._4(), result._2(), filename, force_download);
+            }
+            BlobStore.add(blob_path, force_download);
+        }
+    }
+
+    /** Asynchronous version of [`_download_blob`]. */
+    private static CompletableFuture<Void> _download_blob_async(CacheDirTarget target,
+            Tuple5<String, String, String, Long, Exception> result, Map<String, String> proxies,
+            Map<String, String> headers, String filename, boolean force_download) {
+        var blob_path = target.blob_path();
+        if (!BlobStore.applies(result._2())) {
+            return _download_to_tmp_and_move_async(target.incomplete_path(), blob_path, result._1(), proxies,
+                    headers, result._4(), result._2(), filename, force_download);
+        }
+        return WeakFileLock.acquire_async(BlobStore.lock_path(blob_path)).thenCompose(store_lock -> {
+            var download = CompletableFuture.<Void>completedFuture(null);
+            if (force_download || Files.exists(blob_path) || !BlobStore.restore(blob_path, result._4())) {
+                download = _download_to_tmp_and_move_async(target.incomplete_path(), blob_path, result._1(),
+                        proxies, headers, result._4(), result._2(), filename, force_download);
+            }
+            return download.thenRun(() -> BlobStore.add(blob_path, force_download))
+                    .whenComplete((ignored, error) -> store_lock.close());
+        });
+    }
+
+    /**
+     * Asynchronous version of [`_hf_hub_download_to_cache_dir`]. The cache layout and the lock are the same, but the
+     * lock is acquired with [`WeakFileLock.acquire_async`] so that no thread is blocked while another process holds
+     * it. Calls are coalesced with the blocking ones.
+     */
+    private static CompletableFuture<Path> _hf_hub_download_to_cache_dir_async(
+            // Destination
+            Path cache_dir,
+            // File info
+            String repo_id, String filename, String repo_type, String revision,
+            // HTTP info
+            Map<String, String> headers, Map<String, String> proxies, float etag_timeout, String endpoint,
+            // Additional options
+            boolean local_files_only, boolean force_download) {
+        var key = DownloadKey.of(cache_dir, endpoint, repo_type, repo_id, revision, filename, headers,
+                local_files_only, force_download);
+        return _FILE_DOWNLOADS.run_async(key, () -> _do_hf_hub_download_to_cache_dir_async(cache_dir, repo_id,
+                filename, repo_type, revision, headers, proxies, etag_timeout, endpoint, local_files_only,
+                force_download)).thenApply(pointer_path -> {
+                    CacheGC.record_access(pointer_path);
+                    return pointer_path;
+                });
+    }
+
+    private static CompletableFuture<Path> _do_hf_hub_download_to_cache_dir_async(Path cache_dir, String repo_id,
+            String filename, String repo_type, String revision, Map<String, String> headers,
+            Map<String, String> proxies, float etag_timeout, String endpoint, boolean local_files_only,
+            boolean force_download) {
+        var storage_folder = cache_dir.resolve(repo_folder_name(repo_id, repo_type));
+        var relative_filename = _relative_filename(filename);
+
+        // if user provides a commit_hash and they already have the file on disk, shortcut everything.
+        if (REGEX_COMMIT_HASH.matcher(revision).matches()) {
+            var pointer_path = _get_pointer_path(storage_folder, revision, relative_filename);
+            if (Files.exists(pointer_path) && !force_download) {
+                return CompletableFuture.completedFuture(pointer_path);
+            }
+        }
+
+        SingleGet single_get;
+        try {
+            single_get = _single_get(storage_folder, revision, filename, relative_filename, local_files_only,
+                    force_download);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (single_get != null) {
+            return _get_small_file_async(repo_id, filename, repo_type, revision, endpoint, proxies, etag_timeout,
+                    headers, relative_filename, storage_folder, single_get.cached())
+                    .thenCompose(small_file -> {
+                        CacheDirTarget target;
+                        try {
+                            target = _resolve_cache_dir_target(cache_dir, storage_folder, repo_id, repo_type,
+                                    revision, relative_filename, small_file.result(), local_files_only,
+                                    force_download);
+                            if (small_file.response() != null && !target.cached()
+                                    && !Files.exists(target.incomplete_path())) {
+                                // The content has been read with the response: only the lock may be waited for
+                                return supply_async(() -> _write_small_file(small_file.content(), target,
+                                        small_file.result()._4()));
+                            }
+                            small_file.close();
+                        } catch (IOException e) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                        if (target.cached()) {
+                            return CompletableFuture.completedFuture(target.pointer_path());
+                        }
+                        return _download_to_cache_dir_async(target, small_file.result(), proxies, headers,
+                                filename, force_download);
+                    });
+        }
+
+        return _get_metadata_or_catch_error_async(repo_id, filename, repo_type, revision, endpoint, proxies,
+                etag_timeout, headers, local_files_only, force_download, relative_filename, storage_folder)
+                .thenCompose(result -> {
+                    CacheDirTarget target;
+                    try {
+                        target = _resolve_cache_dir_target(cache_dir, storage_folder, repo_id, repo_type, revision,
+                                relative_filename, result, local_files_only, force_download);
+                    } catch (IOException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    if (target.cached()) {
+                        return CompletableFuture.completedFuture(target.pointer_path());
+                    }
+                    return _download_to_cache_dir_async(target, result, proxies, headers, filename,
+                            force_download);
+                });
+    }
+
+    /** Asynchronous version of [`_download_to_cache_dir`]. */
+    private static CompletableFuture<Path> _download_to_cache_dir_async(CacheDirTarget target,
+            Tuple5<String, String, String, Long, Exception> result, Map<String, String> proxies,
+            Map<String, String> headers, String filename, boolean force_download) {
+        // Files of different revisions may share the same blob: download it only once in this process.
+        // Prevent parallel downloads of the same file with a lock.
+        return _BLOB_DOWNLOADS.run_async(target.blob_path(),
+                () -> WeakFileLock.acquire_async(target.lock_path())
+                        .thenCompose(lock -> _download_blob_async(target, result, proxies, headers, filename,
+                                force_download).thenApply(ignored -> {
+                                    try {
+                                        _create_symlink(target.blob_path(), target.pointer_path(), true);
+                                    } catch (IOException e) {
+                                        throw new CompletionException(e);
+                                    }
+                                    return target.pointer_path();
+                                }).whenComplete((path, error) -> lock.close())))
+                .thenCompose(pointer_path -> {
+                    if (pointer_path.equals(target.pointer_path())) {
+                        return CompletableFuture.completedFuture(pointer_path);
+                    }
+                    // The blob has been downloaded for another pointer
+                    try {
+                        if (_link_existing_blob(target.blob_path(), target.pointer_path(), target.lock_path())) {
+                            return CompletableFuture.completedFuture(target.pointer_path());
+                        }
+                    } catch (IOException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    // ... and deleted by CacheGC since then
+                    return _download_to_cache_dir_async(target, result, proxies, headers, filename, force_download);
+                });
+    }
+
+    /**
+     * Key of an in-flight download to a cache folder: calls sharing a key fetch the same file with the same options
+     * and the same credentials. The `authorization` header is kept as a sha256, so that a call with another token (or
+     * none) never gets a file resolved with someone else's access rights.
+     */
+    private record DownloadKey(Path cache_dir, String endpoint, String repo_type, String repo_id, String revision,
+            String filename, String authorization, boolean local_files_only, boolean force_download) {
+        static DownloadKey of(Path cache_dir, String endpoint, String repo_type, String repo_id, String revision,
+                String filename, Map<String, String> headers, boolean local_files_only, boolean force_download) {
+            var authorization = headers != null ? headers.get("authorization") : null;
+            return new DownloadKey(cache_dir, endpoint, repo_type, repo_id, revision, filename,
+                    authorization != null ? DigestUtils.sha256Hex(authorization) : null, local_files_only,
+                    force_download);
+        }
+    }
+
+    /**
+     * Paths of a file in the cache, as resolved from the metadata returned by the server. If `cached` is true, the
+     * file is already in the cache and `pointer_path` can be returned right away.
+     */
+    private record CacheDirTarget(Path pointer_path, Path blob_path, Path incomplete_path, Path lock_path,
+            boolean cached) {
+    }
+
+    /**
+     * Resolve where a file lives in the cache once its metadata has been fetched. Shared by the blocking and
+     * asynchronous code paths.
+     */
+    private static CacheDirTarget _resolve_cache_dir_target(Path cache_dir, Path storage_folder, String repo_id,
+            String repo_type, String revision, String relative_filename,
+            Tuple5<String, String, String, Long, Exception> result, boolean local_files_only, boolean force_download)
+            throws IOException {
         var url_to_download = result._1();
         var etag = result._2();
         var commit_hash = result._3();
@@ -864,6 +1973,14 @@ public class FileDownload {
                         commit_hash = Files.readString(ref_path);
                     }
                 }
+
+                // Return pointer file if exists
+                if (commit_hash != null) {
+                    var pointer_path = _get_pointer_path(storage_folder, commit_hash, relative_filename);
+                    if (Files.exists(pointer_path)) {
+                        return new CacheDirTarget(pointer_path, null, null, null, true);
+                    }
+                }
             }
             // Otherwise, raise appropriate error
             _raise_on_head_call_error(head_call_error, force_download, local_files_only);
@@ -886,22 +2003,9 @@ public class FileDownload {
         // In that case store a ref.
         _cache_commit_hash_for_specific_revision(storage_folder, revision, commit_hash);
 
-        // If file already exists, return it (except if force_download=True)
-        if (!force_download) {
-            if (Files.exists(pointer_path)) {
-                return pointer_path;
-            }
-
-            if (Files.exists(blob_path)) {
-                // we have the blob already, but not the pointer
-                _create_symlink(blob_path, pointer_path, false);
-                return pointer_path;
-            }
-        }
-
         // Prevent parallel downloads of the same file with a lock.
         // etag could be duplicated across repos,
-        var lock_path = locks_dir.resolve(repo_folder_name(repo_id = repo_id, repo_type = repo_type))
+        var lock_path = cache_dir.resolve(".locks").resolve(repo_folder_name(repo_id, repo_type))
                 .resolve(etag + ".lock");
 
         // Some Windows versions do not allow for paths longer than 255 characters.
@@ -910,19 +2014,248 @@ public class FileDownload {
             lock_path = Paths.get("\\\\?\\" + lock_path.toAbsolutePath().toString());
         }
 
+        // If file already exists, return it (except if force_download=True)
+        if (!force_download) {
+            if (Files.exists(pointer_path)) {
+                return new CacheDirTarget(pointer_path, blob_path, null, null, true);
+            }
+
+            // we have the blob already, but not the pointer
+            if (Files.exists(blob_path) && _link_existing_blob(blob_path, pointer_path, lock_path)) {
+                return new CacheDirTarget(pointer_path, blob_path, null, null, true);
+            }
+        }
+
         if (System.getProperty("os.name").contains("win") && blob_path.toString().length() > 255) {
             blob_path = Paths.get("\\\\?\\" + blob_path.toAbsolutePath().toString());
         }
 
-        Files.createDirectories(lock_path.getParent());
-        try (var channel = FileChannel.open(lock_path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-                var lock = channel.tryLock()) {
-            _download_to_tmp_and_move(blob_path.resolveSibling(blob_path.getFileName() + ".incomplete"), blob_path,
-                    url_to_download, proxies, headers, expected_size, filename, force_download);
-            _create_symlink(blob_path, pointer_path, true);
+        return new CacheDirTarget(pointer_path, blob_path,
+                blob_path.resolveSibling(blob_path.getFileName() + ".incomplete"), lock_path, false);
+    }
+
+    /** Convert a filename from the repo to a relative path on the local file system. */
+    private static String _relative_filename(String filename) {
+        var relative_filename = filename.replace('/', File.separatorChar);
+        if (System.getProperty("os.name").toLowerCase().contains("win")) {
+            if (relative_filename.startsWith("..\\") || relative_filename.contains("\\..\\")) {
+                throw new IllegalArgumentException("Invalid filename: cannot handle filename '" + filename
+                        + "' on Windows. Please ask the repository owner to rename this file.");
+            }
         }
+        return relative_filename;
+    }
 
-        return pointer_path;
+    /**
+     * Response to the conditional GET of a small file: `result` is the same as the one of
+     * [`_get_metadata_or_catch_error`] and `response` is the response carrying the new content of the file, if the
+     * server sent it and it is still small.
+     */
+    private record SmallFile(Tuple5<String, String, String, Long, Exception> result,
+            HttpResponse<InputStream> response) implements AutoCloseable {
+        /** Read the whole content of the file. */
+        byte[] content() throws IOException {
+            try (var body = response.body()) {
+                return body.readNBytes((int) SMALL_FILE_MAX_SIZE + 1);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (response != null) {
+                response.body().close();
+            }
+        }
+    }
+
+    /** File fetched with a single GET request: `cached` is the blob to revalidate, `null` if it is not cached. */
+    private record SingleGet(CachedBlob cached) {
+    }
+
+    /** Commit hash and blob of a file of the cache. */
+    private record CachedBlob(String commit_hash, String etag, Path blob_path) {
+    }
+
+    /**
+     * Whether `filename` is fetched with a single GET request, which brings its metadata along with its content,
+     * instead of a HEAD request followed by a GET: small files already in the cache, revalidated with a conditional
+     * request, and files not in the cache that are likely small (see [`DownloadScheduler.priority_of`]). Larger files
+     * are redirected to a CDN by the Hub, so a GET of one of them brings no content either. When metadata is cached,
+     * the [`FileMetadataCache`] decides when it is revalidated instead.
+     *
+     * Returns: [`SingleGet`] or `None` if a HEAD request is sent first.
+     */
+    private static SingleGet _single_get(Path storage_folder, String revision, String filename,
+            String relative_filename, boolean local_files_only, boolean force_download) throws IOException {
+        if (local_files_only || force_download || FileMetadataCache.enabled()) {
+            return null;
+        }
+        var cached = _cached_blob(storage_folder, revision, relative_filename);
+        if (cached != null) {
+            return Files.size(cached.blob_path()) <= SMALL_FILE_MAX_SIZE ? new SingleGet(cached) : null;
+        }
+        if (DownloadScheduler.priority_of(filename) == Priority.SMALL
+                && _find_in_cache(storage_folder, revision, relative_filename) == null) {
+            return new SingleGet(null);
+        }
+        return null;
+    }
+
+    /**
+     * Get metadata and content of a small file with a single GET request.
+     *
+     * If the file is in the cache, the request carries `If-None-Match` with the etag of the `cached` blob: the server
+     * answers `304 Not Modified` without any content if the file didn't change. Otherwise, the response carries the
+     * same metadata headers as a HEAD request (`X-Repo-Commit`, `ETag`, ...) along with the content of the file,
+     * which is kept if its size is at most `SMALL_FILE_MAX_SIZE`. Errors are returned the same way as by
+     * [`_get_metadata_or_catch_error`].
+     */
+    private static SmallFile _get_small_file(String repo_id, String filename, String repo_type, String revision,
+            String endpoint, Map<String, String> proxies, float etag_timeout, Map<String, String> headers,
+            String relative_filename, Path storage_folder, CachedBlob cached) throws IOException {
+        var url = hf_hub_url(repo_id, filename, null, repo_type, revision, endpoint);
+        var resolve = _resolver(url, proxies, etag_timeout, headers);
+        HttpResponse<InputStream> response = null;
+        IOException error = null;
+        try {
+            response = _request_wrapper("GET", url, _small_file_headers(headers, cached), false, true, proxies,
+                    etag_timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (IOException e) {
+            error = e;
+        }
+        return _small_file(url, revision, response, error, cached, headers, resolve, relative_filename,
+                storage_folder);
+    }
+
+    /**
+     * Asynchronous version of [`_get_small_file`]. The content of a small file is read along with the response, so
+     * that no thread is blocked reading it.
+     */
+    private static CompletableFuture<SmallFile> _get_small_file_async(String repo_id, String filename,
+            String repo_type, String revision, String endpoint, Map<String, String> proxies, float etag_timeout,
+            Map<String, String> headers, String relative_filename, Path storage_folder, CachedBlob cached) {
+        var url = hf_hub_url(repo_id, filename, null, repo_type, revision, endpoint);
+        var resolve = _resolver(url, proxies, etag_timeout, headers);
+        HttpResponse.BodyHandler<InputStream> body_handler = info -> {
+            if (info.statusCode() != 200) {
+                return HttpResponse.BodySubscribers.replacing(InputStream.nullInputStream());
+            }
+            if (info.headers().firstValueAsLong("Content-Length").orElse(Long.MAX_VALUE) <= SMALL_FILE_MAX_SIZE) {
+                return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(),
+                        ByteArrayInputStream::new);
+            }
+            // Closed right away
+            return HttpResponse.BodySubscribers.ofInputStream();
+        };
+        return _request_wrapper_async("GET", url, _small_file_headers(headers, cached), false, true, proxies,
+                etag_timeout, body_handler).handle((response, error) -> {
+                    try {
+                        return _small_file(url, revision, response, _unwrap_io_exception(error), cached, headers,
+                                resolve, relative_filename, storage_folder);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    private static Map<String, String> _small_file_headers(Map<String, String> headers, CachedBlob cached) {
+        var request_headers = new HashMap<>(headers);
+        // prevent any compression => we want to know the real size of the file
+        request_headers.put("Accept-Encoding", "identity");
+        if (cached != null) {
+            request_headers.put("If-None-Match", "\"" + cached.etag() + "\"");
+        }
+        return request_headers;
+    }
+
+    /** Sort out the `response` to the GET of a small file, or the `error` raised while sending it. */
+    private static SmallFile _small_file(String url, String revision, HttpResponse<InputStream> response,
+            IOException error, CachedBlob cached, Map<String, String> headers, // mutated inplace!
+            Supplier<CompletableFuture<HfFileMetadata>> resolve, String relative_filename, Path storage_folder)
+            throws IOException {
+        HfFileMetadata metadata = null;
+        if (response != null) {
+            try {
+                if (response.statusCode() == 304 && cached != null) {
+                    // Not modified: the commit may have changed, but not the file
+                    metadata = new HfFileMetadata(response.headers().firstValue(HUGGINGFACE_HEADER_X_REPO_COMMIT)
+                            .orElse(cached.commit_hash()), cached.etag(), url, Files.size(cached.blob_path()));
+                } else {
+                    metadata = _parse_file_metadata(response);
+                }
+                if (response.statusCode() != 200 || metadata.size() == null
+                        || metadata.size() > SMALL_FILE_MAX_SIZE) {
+                    // No content (not modified, or redirected to a CDN), or too much of it to be kept in memory
+                    response.body().close();
+                    response = null;
+                }
+            } catch (IOException e) {
+                response.body().close();
+                response = null;
+                error = e;
+            }
+        }
+        var result = _metadata_or_catch_error(url, revision, metadata, error, headers, resolve, false,
+                relative_filename, storage_folder);
+        return new SmallFile(result, response);
+    }
+
+    /** Return the blob of `relative_filename` cached for `revision`, or `null` if there is none. */
+    private static CachedBlob _cached_blob(Path storage_folder, String revision, String relative_filename)
+            throws IOException {
+        var commit_hash = revision;
+        if (!REGEX_COMMIT_HASH.matcher(revision).matches()) {
+            var ref_path = storage_folder.resolve("refs").resolve(revision);
+            if (!Files.isRegularFile(ref_path)) {
+                return null;
+            }
+            commit_hash = Files.readString(ref_path);
+        }
+        var pointer_path = _get_pointer_path(storage_folder, commit_hash, relative_filename);
+        if (!Files.isSymbolicLink(pointer_path)) {
+            // Without symlinks (e.g. on Windows), the blob of a pointer is unknown
+            return null;
+        }
+        var blob_path = pointer_path.resolveSibling(Files.readSymbolicLink(pointer_path)).normalize();
+        if (!Files.isRegularFile(blob_path)) {
+            return null;
+        }
+        return new CachedBlob(commit_hash, blob_path.getFileName().toString(), blob_path);
+    }
+
+    /**
+     * Write the content of a small file sent by the server to the blob of `target` and create its pointer. The content
+     * has been read before: the response is not held open while waiting for the lock.
+     */
+    private static Path _write_small_file(byte[] content, CacheDirTarget target, Long expected_size)
+            throws IOException {
+        if (expected_size != null && expected_size != content.length) {
+            throw new IOException("Consistency check failed: file should be of size " + expected_size
+                    + " but has size " + content.length + " (" + target.blob_path()
+                    + "). Please retry with `force_download=True`.");
+        }
+        // Files of different revisions may share the same blob: write it only once in this process.
+        var pointer_path = _BLOB_DOWNLOADS.run(target.blob_path(), () -> {
+            try (var lock = WeakFileLock.acquire(target.lock_path())) {
+                // The blob may have been written by another process while we were waiting for the lock
+                var new_blob = !Files.exists(target.blob_path());
+                if (new_blob) {
+                    Files.write(target.incomplete_path(), content);
+                    _chmod_and_move(target.incomplete_path(), target.blob_path());
+                }
+                _create_symlink(target.blob_path(), target.pointer_path(), new_blob);
+            }
+            return target.pointer_path();
+        });
+        if (!pointer_path.equals(target.pointer_path())
+                && !_link_existing_blob(target.blob_path(), target.pointer_path(), target.lock_path())) {
+            // The blob has been written for another pointer, and deleted by CacheGC since then
+            return _write_small_file(content, target, expected_size);
+        }
+        return target.pointer_path();
     }
 
     /**
@@ -948,7 +2281,109 @@ public class FileDownload {
 
         // Local file doesn't exist or commit_hash doesn't match => we need the etag
         var result = _get_metadata_or_catch_error(repo_id, filename, repo_type, revision, endpoint, proxies,
-                etag_timeout, headers, local_files_only, null, null);
+                etag_timeout, headers, local_files_only, force_download, null, null);
+        var local_path = _resolve_local_dir_file(local_dir, repo_id, repo_type, filename, paths, local_metadata,
+                result, cache_dir, force_download, local_files_only);
+        if (local_path != null) {
+            return local_path;
+        }
+
+        // Otherwise, let's download the file!
+        var etag = result._2();
+        try (var lock = WeakFileLock.acquire(paths.lock_path())) {
+            if (!force_download && _is_downloaded_to_local_dir(local_dir, filename, paths, etag)) {
+                // Downloaded by another process while we were waiting for the lock
+                return paths.file_path();
+            }
+            Files.deleteIfExists(paths.file_path());
+            _download_to_tmp_and_move(paths.incomplete_path(etag), paths.file_path(), result._1(), proxies, headers,
+                    result._4(), etag, filename, force_download);
+            write_download_metadata(local_dir, filename, result._3(), etag, Materialization.DOWNLOAD);
+        }
+        return paths.file_path();
+    }
+
+    /** Whether `filename` is in `local_dir` with up-to-date metadata matching `etag`. */
+    private static boolean _is_downloaded_to_local_dir(Path local_dir, String filename, LocalDownloadFilePaths paths,
+            String etag) throws IOException {
+        var local_metadata = read_download_metadata(local_dir, filename);
+        return local_metadata != null && etag.equals(local_metadata.etag()) && Files.isRegularFile(paths.file_path());
+    }
+
+    /** Asynchronous version of [`_hf_hub_download_to_local_dir`]. */
+    private static CompletableFuture<Path> _hf_hub_download_to_local_dir_async(Path local_dir,
+            // File info
+            String repo_id, String repo_type, String filename, String revision,
+            // HTTP info
+            Map<String, String> proxies, float etag_timeout, Map<String, String> headers, String endpoint,
+            // Additional options
+            Path cache_dir, boolean force_download, boolean local_files_only) {
+        LocalDownloadFilePaths paths;
+        LocalDownloadFileMetadata local_metadata;
+        try {
+            paths = get_local_download_paths(local_dir, filename);
+            local_metadata = read_download_metadata(local_dir, filename);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // Local file exists + metadata exists + commit_hash matches => return file
+        if (!force_download && REGEX_COMMIT_HASH.matcher(revision).matches() && Files.isRegularFile(paths.file_path())
+                && local_metadata != null && local_metadata.commit_hash().equals(revision)) {
+            return CompletableFuture.completedFuture(paths.file_path());
+        }
+
+        // Local file doesn't exist or commit_hash doesn't match => we need the etag
+        return _get_metadata_or_catch_error_async(repo_id, filename, repo_type, revision, endpoint, proxies,
+                etag_timeout, headers, local_files_only, force_download, null, null).thenCompose(result -> {
+                    var etag = result._2();
+                    try {
+                        var local_path = _resolve_local_dir_file(local_dir, repo_id, repo_type, filename, paths,
+                                local_metadata, result, cache_dir, force_download, local_files_only);
+                        if (local_path != null) {
+                            return CompletableFuture.completedFuture(local_path);
+                        }
+                    } catch (IOException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    return WeakFileLock.acquire_async(paths.lock_path()).thenCompose(lock -> {
+                        CompletableFuture<Path> download;
+                        try {
+                            if (!force_download && _is_downloaded_to_local_dir(local_dir, filename, paths, etag)) {
+                                // Downloaded by another process while we were waiting for the lock
+                                download = CompletableFuture.completedFuture(paths.file_path());
+                            } else {
+                                Files.deleteIfExists(paths.file_path());
+                                download = _download_to_tmp_and_move_async(paths.incomplete_path(etag),
+                                        paths.file_path(), result._1(), proxies, headers, result._4(), etag,
+                                        filename, force_download).thenApply(ignored -> {
+                                            try {
+                                                write_download_metadata(local_dir, filename, result._3(), etag,
+                                                        Materialization.DOWNLOAD);
+                                            } catch (IOException e) {
+                                                throw new CompletionException(e);
+                                            }
+                                            return paths.file_path();
+                                        });
+                            }
+                        } catch (IOException e) {
+                            download = CompletableFuture.failedFuture(e);
+                        }
+                        return download.whenComplete((path, error) -> lock.close());
+                    });
+                });
+    }
+
+    /**
+     * Look for an up-to-date version of a file in `local_dir` (or in the cache) once its metadata has been fetched.
+     * Shared by the blocking and asynchronous code paths.
+     *
+     * Returns: the path of the file in `local_dir` if it doesn't need to be downloaded, `null` otherwise.
+     */
+    private static Path _resolve_local_dir_file(Path local_dir, String repo_id, String repo_type, String filename,
+            LocalDownloadFilePaths paths, LocalDownloadFileMetadata local_metadata,
+            Tuple5<String, String, String, Long, Exception> result, Path cache_dir, boolean force_download,
+            boolean local_files_only) throws IOException {
         var url_to_download = result._1();
         var etag = result._2();
         var commit_hash = result._3();
@@ -977,7 +2412,7 @@ public class FileDownload {
         if (!force_download && Files.isRegularFile(paths.file_path())) {
             // etag matches => update metadata and return file
             if (local_metadata != null && local_metadata.etag().equals(etag)) {
-                write_download_metadata(local_dir, filename, etag, commit_hash);
+                write_download_metadata(local_dir, filename, commit_hash, etag, local_metadata.materialization());
                 return paths.file_path();
             }
 
@@ -986,9 +2421,12 @@ public class FileDownload {
             // => let's compute local hash and compare
             // => if match, update metadata and return file
             if (local_metadata != null && REGEX_SHA256.matcher(etag).matches()) {
-                var file_hash = DigestUtils.sha256Hex(Files.readString(paths.file_path()));
-                if (file_hash.equals(local_metadata.etag())) {
-                    write_download_metadata(local_dir, filename, etag, commit_hash);
+                String file_hash;
+                try (var f = Files.newInputStream(paths.file_path())) {
+                    file_hash = DigestUtils.sha256Hex(f);
+                }
+                if (file_hash.equals(etag)) {
+                    write_download_metadata(local_dir, filename, commit_hash, etag, local_metadata.materialization());
                     return paths.file_path();
                 }
             }
@@ -996,22 +2434,16 @@ public class FileDownload {
 
         // Local file doesn't exist or etag isn't a match => retrieve file from remote (or cache)
 
-        // If we are lucky enough, the file is already in the cache => copy it
+        // If we are lucky enough, the file is already in the cache => link it (or copy it)
         if (!force_download) {
             var cached_path = try_to_load_from_cache(repo_id, filename, cache_dir, commit_hash, repo_type);
-            if (cached_path != null) {
-                Files.copy(cached_path, paths.file_path());
-                write_download_metadata(local_dir, filename, etag, commit_hash);
+            if (cached_path != null && cached_path != _CACHED_NO_EXIST) {
+                var materialization = materialize(cached_path, paths.file_path());
+                write_download_metadata(local_dir, filename, commit_hash, etag, materialization);
                 return paths.file_path();
             }
         }
-
-        // Otherwise, let's download the file!
-        Files.deleteIfExists(paths.file_path());
-        _download_to_tmp_and_move(paths.incomplete_path(etag), paths.file_path(), url_to_download, proxies, headers,
-                expected_size, filename, force_download);
-        write_download_metadata(local_dir, filename, commit_hash, etag);
-        return paths.file_path();
+        return null;
     }
 
     /**
@@ -1020,47 +2452,127 @@ public class FileDownload {
      * Returns either the etag, commit_hash and expected size of the file, or the error raised while fetching the
      * metadata.
      *
+     * Metadata is served from the [`FileMetadataCache`] when it is enabled, unless `force_download` is set.
+     *
      * NOTE: This function mutates `headers` inplace! It removes the `authorization` header if the file is a LFS blob
      * and the domain of the url is different from the domain of the location (typically an S3 bucket).
      */
-    private static Tuple5<String, String, String, Integer, Exception> _get_metadata_or_catch_error(String repo_id,
+    private static Tuple5<String, String, String, Long, Exception> _get_metadata_or_catch_error(String repo_id,
             String filename, String repo_type, String revision, String endpoint, Map<String, String> proxies,
             Float etag_timeout, Map<String, String> headers, // mutated inplace!
-            boolean local_files_only, String relative_filename, // only used to store `.no_exists` in cache
+            boolean local_files_only, boolean force_download, // skip the metadata cache
+            String relative_filename, // only used to store `.no_exists` in cache
             Path storage_folder // only used to store `.no_exists` in cache
     ) throws IOException {
         if (local_files_only) {
-            return Tuple.of(null, null, null, null, new OfflineModelIsEnabledException(
-                    "Cannot access file since 'local_files_only=true' as been set. (repo_id: " + repo_id
-                            + ", repo_type: " + repo_type + ", revision: " + revision + ", filename: " + filename));
+            return _offline_metadata_result(repo_id, filename, repo_type, revision);
+        }
+
+        var url = hf_hub_url(repo_id, filename, null, repo_type, revision, endpoint);
+        var cache_key = FileMetadataCache.key(endpoint, repo_type, repo_id, revision, filename, headers);
+        var resolve = _resolver(url, proxies, etag_timeout, headers);
+        var metadata = force_download ? null
+                : FileMetadataCache.get(cache_key, resolve);
+        IOException error = null;
+
+        // Try to get metadata from the server.
+        if (metadata == null) {
+            try {
+                metadata = get_hf_file_metadata(url, null, proxies, etag_timeout, null, null, null, headers);
+                FileMetadataCache.put(cache_key, metadata);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        return _metadata_or_catch_error(url, revision, metadata, error, headers, resolve, local_files_only,
+                relative_filename, storage_folder);
+    }
+
+    /**
+     * Asynchronous version of [`_get_metadata_or_catch_error`]. The returned future only completes exceptionally with
+     * the errors that [`_get_metadata_or_catch_error`] raises instead of returning them.
+     */
+    private static CompletableFuture<Tuple5<String, String, String, Long, Exception>> _get_metadata_or_catch_error_async(
+            String repo_id, String filename, String repo_type, String revision, String endpoint,
+            Map<String, String> proxies, Float etag_timeout, Map<String, String> headers, // mutated inplace!
+            boolean local_files_only, boolean force_download, String relative_filename, Path storage_folder) {
+        if (local_files_only) {
+            return CompletableFuture.completedFuture(_offline_metadata_result(repo_id, filename, repo_type, revision));
         }
 
         var url = hf_hub_url(repo_id, filename, null, repo_type, revision, endpoint);
+        var cache_key = FileMetadataCache.key(endpoint, repo_type, repo_id, revision, filename, headers);
+        var resolve = _resolver(url, proxies, etag_timeout, headers);
+        var cached = force_download ? null
+                : FileMetadataCache.get(cache_key, resolve);
+        var fetch = cached != null ? CompletableFuture.completedFuture(cached)
+                : resolve.get().thenApply(metadata -> {
+                            FileMetadataCache.put(cache_key, metadata);
+                            return metadata;
+                        });
+        return fetch.handle((metadata, error) -> {
+            try {
+                return _metadata_or_catch_error(url, revision, metadata, _unwrap_io_exception(error), headers,
+                        resolve, local_files_only, relative_filename, storage_folder);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private static Tuple5<String, String, String, Long, Exception> _offline_metadata_result(String repo_id,
+            String filename, String repo_type, String revision) {
+        return Tuple.of(null, null, null, null, new OfflineModelIsEnabledException(
+                "Cannot access file since 'local_files_only=true' as been set. (repo_id: " + repo_id + ", repo_type: "
+                        + repo_type + ", revision: " + revision + ", filename: " + filename));
+    }
+
+    /**
+     * Return a call fetching the metadata of `url` again. `headers` are copied before
+     * [`_metadata_or_catch_error`] removes the `authorization` header from them.
+     */
+    private static Supplier<CompletableFuture<HfFileMetadata>> _resolver(String url, Map<String, String> proxies,
+            Float etag_timeout, Map<String, String> headers) {
+        var resolve_headers = new HashMap<>(headers);
+        return () -> get_hf_file_metadata_async(url, null, proxies, etag_timeout, null, null, null, resolve_headers);
+    }
+
+    /**
+     * Validate the metadata returned by the server, or sort out the error raised while fetching it. Shared by the
+     * blocking and asynchronous code paths.
+     *
+     * When the file is redirected, its location is remembered by [`DownloadLocations`], which `resolve` is handed to
+     * so that it can resolve the file again if the location is rejected.
+     */
+    private static Tuple5<String, String, String, Long, Exception> _metadata_or_catch_error(String url,
+            String revision, HfFileMetadata metadata, IOException metadata_error, Map<String, String> headers, // mutated inplace!
+            Supplier<CompletableFuture<HfFileMetadata>> resolve, boolean local_files_only, String relative_filename, Path storage_folder) throws IOException {
         String url_to_download = url;
         String etag = null;
         String commit_hash = null;
-        Integer expected_size = null;
+        Long expected_size = null;
         Exception head_error_call = null;
-        HfFileMetadata metadata = null;
 
-        // Try to get metadata from the server.
         // Do not raise yet if the file is not found or not accessible.
         try {
-            try {
-                metadata = get_hf_file_metadata(url, null, proxies, etag_timeout, null, null, null, headers);
-            } catch (HfHubHTTPException http_error) {
-                if (storage_folder != null && relative_filename != null) {
+            if (metadata_error != null) {
+                if (metadata_error instanceof HfHubHTTPException http_error && storage_folder != null
+                        && relative_filename != null) {
                     // Cache the non-existence of the file
                     commit_hash = http_error.getResponse().headers().firstValue(HUGGINGFACE_HEADER_X_REPO_COMMIT)
                             .orElse(null);
                     if (commit_hash != null) {
                         var no_exist_file_path = storage_folder.resolve(".no_exist").resolve(commit_hash)
                                 .resolve(relative_filename);
-                        Files.createDirectories(no_exist_file_path);
+                        Files.createDirectories(no_exist_file_path.getParent());
+                        if (!Files.exists(no_exist_file_path)) {
+                            Files.createFile(no_exist_file_path);
+                        }
+                        CacheIndex.invalidate(storage_folder);
                         _cache_commit_hash_for_specific_revision(storage_folder, revision, commit_hash);
                     }
                 }
-                throw http_error;
+                throw metadata_error;
             }
 
             // Commit hash must exist
@@ -1093,7 +2605,8 @@ public class FileDownload {
             // If url domain is different => we are downloading from a CDN => url is signed => don't send auth
             // If url domain is the same => redirect due to repo rename AND downloading a regular file => keep auth
             if (!url.equals(metadata.location)) {
-                url_to_download = metadata.location;
+                // Metadata may come from the metadata cache: use the freshest location known for this blob
+                url_to_download = DownloadLocations.remember(etag, metadata.location, headers, resolve);
                 if (!URI.create(url).getHost().equals(URI.create(metadata.location).getHost())) {
                     // Remove authorization header when downloading a LFS blob
                     headers.remove("authorization");
@@ -1172,36 +2685,86 @@ public class FileDownload {
      * Download content from a URL to a destination path.
      *
      * Internal logic: - return early if file is already downloaded - resume download if possible (from incomplete file)
-     * - do not resume download if `force_download=True` or `HF_HUB_ENABLE_HF_TRANSFER=True` - check disk space before
-     * downloading - download content to a temporary file - set correct permissions on temporary file - move the
-     * temporary file to the destination path
+     * - do not resume download if `force_download=True` - check disk space before downloading - download content to a
+     * temporary file - set correct permissions on temporary file - move the temporary file to the destination path
      *
      * Both `incomplete_path` and `destination_path` must be on the same volume to avoid a local copy.
+     *
+     * The incomplete file is named after `etag`, so it is only resumed for the same version of the file. The range the
+     * server sends back is checked against the one requested, and the download restarts from scratch if it does not
+     * match (see [`http_get`]). When `etag` is the SHA-256 of an LFS file, the content is hashed while it is
+     * downloaded and checked against it before the file is moved to `destination_path` (except with `hf_transfer`,
+     * which writes the parts of the file out of order).
+     *
+     * If `url_to_download` is a location remembered by [`DownloadLocations`] and the CDN rejects it (403 or 410, for
+     * instance because its signature has expired), the file is resolved again and the download resumes from the new
+     * location, once.
      */
     private static void _download_to_tmp_and_move(Path incomplete_path, Path destination_path, String url_to_download,
-            Map<String, String> proxies, Map<String, String> headers, Integer expected_size, String filename,
-            boolean force_download) throws IOException {
+            Map<String, String> proxies, Map<String, String> headers, Long expected_size, String etag,
+            String filename, boolean force_download) throws IOException {
+        try {
+            _try_download_to_tmp_and_move(incomplete_path, destination_path, url_to_download, proxies, headers,
+                    expected_size, etag, filename, force_download);
+        } catch (HfHubHTTPException e) {
+            if (!DownloadLocations.is_rejected(etag, url_to_download, e)) {
+                throw e;
+            }
+            var location = DownloadLocations.resolve_again(etag, url_to_download, e);
+            _try_download_to_tmp_and_move(incomplete_path, destination_path, location, proxies, headers,
+                    expected_size, etag, filename, force_download);
+        }
+    }
+
+    private static void _try_download_to_tmp_and_move(Path incomplete_path, Path destination_path,
+            String url_to_download, Map<String, String> proxies, Map<String, String> headers, Long expected_size,
+            String etag, String filename, boolean force_download) throws IOException {
         if (Files.exists(destination_path) && !force_download) {
             // Do nothing if already exists (except if force_download=True)
             return;
         }
 
-        if (Files.exists(incomplete_path) && (force_download || (HF_HUB_ENABLE_HF_TRANSFER && proxies == null))) {
-            // By default, we will try to resume the download if possible.
-            // However, if the user has set `force_download=True` or if `hf_transfer` is enabled, then we should
-            // not resume the download => delete the incomplete file.
-            var message = "Removing incomplete file '" + incomplete_path + "'";
-            if (force_download) {
-                message += " (force_download=True)";
-            } else if (HF_HUB_ENABLE_HF_TRANSFER && proxies == null) {
-                message += " (hf_transfer=True)";
-            }
-            LOGGER.info(message);
+        if (force_download && Files.exists(incomplete_path)) {
+            // By default, we will try to resume the download if possible, in parallel as well (see
+            // `ParallelDownload`). However, if the user has set `force_download=True`, then we should not resume the
+            // download => delete the incomplete file.
+            LOGGER.info("Removing incomplete file '" + incomplete_path + "' (force_download=True)");
             Files.deleteIfExists(incomplete_path);
+            ParallelDownload.discard_progress(incomplete_path);
+        }
+
+        if (HF_HUB_ENABLE_HF_TRANSFER && proxies == null && expected_size != null
+                && expected_size > 5 * DOWNLOAD_CHUNK_SIZE) {
+            LOGGER.info("Downloading '" + filename + "' to '" + incomplete_path + "' using "
+                    + HF_TRANSFER_CONCURRENCY + " connections");
+            _check_disk_space(expected_size, incomplete_path.getParent());
+            _check_disk_space(expected_size, destination_path.getParent());
+            try (var progress = new ProgressBarBuilder().setInitialMax(expected_size)
+                    .setTaskName("huggingface_hub.http_get").build()) {
+                ParallelDownload.download(url_to_download, incomplete_path, expected_size, HF_TRANSFER_CONCURRENCY,
+                        DOWNLOAD_CHUNK_SIZE, headers, _max_download_retries(), progress::stepBy);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            LOGGER.info("Download complete. Moving file to " + destination_path);
+            _chmod_and_move(incomplete_path, destination_path);
+            return;
         }
 
-        try (var stream = Files.newOutputStream(incomplete_path)) {
-            var resume_size = Files.size(incomplete_path);
+        var sha256 = _streaming_sha256(etag);
+        // Open the incomplete file without truncating it so that a previous partial download can be resumed
+        try (var channel = FileChannel.open(incomplete_path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            var resume_size = _resume_size(incomplete_path, channel.size());
+            if (resume_size < channel.size()) {
+                channel.truncate(resume_size);
+            }
+            if (expected_size != null && resume_size > expected_size) {
+                LOGGER.info("Incomplete file '" + incomplete_path + "' is larger than expected: restarting download");
+                channel.truncate(0);
+                resume_size = 0;
+            }
+            channel.position(resume_size);
             var message = "Downloading '" + filename + "' to '" + incomplete_path + "'";
             if (resume_size > 0 && expected_size != null) {
                 // might be None if HTTP header not set correctly
@@ -1216,21 +2779,176 @@ public class FileDownload {
                 _check_disk_space(expected_size, incomplete_path.getParent());
                 _check_disk_space(expected_size, destination_path.getParent());
             }
-            http_get(url_to_download, stream, proxies, resume_size, headers, expected_size, null, 5, null);
-            LOGGER.info("Download complete. Moving file to " + destination_path);
-            _chmod_and_move(incomplete_path, destination_path);
+            if (expected_size == null || resume_size < expected_size) {
+                if (sha256 != null) {
+                    // Only the part downloaded before is read back
+                    sha256.sync(incomplete_path, resume_size);
+                }
+                http_get(url_to_download, channel, proxies, resume_size, headers, expected_size, null,
+                        _max_download_retries(), null, sha256);
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new IOException(e);
         }
+        if (sha256 != null) {
+            sha256.verify(incomplete_path, Files.size(incomplete_path), etag);
+        }
+        LOGGER.info("Download complete. Moving file to " + destination_path);
+        _chmod_and_move(incomplete_path, destination_path);
+    }
+
+    /**
+     * Number of bytes of `incomplete_path` a sequential download resumes after. If the file has been written out of
+     * order by a parallel download, only the bytes received from its start are kept and its progress file is dropped.
+     */
+    private static long _resume_size(Path incomplete_path, long size) throws IOException {
+        var prefix = ParallelDownload.downloaded_prefix(incomplete_path);
+        if (prefix < 0) {
+            return size;
+        }
+        ParallelDownload.discard_progress(incomplete_path);
+        return Math.min(prefix, size);
+    }
+
+    /**
+     * Asynchronous version of [`_download_to_tmp_and_move`], writing to the incomplete file through an
+     * `AsynchronousFileChannel`.
+     *
+     * `hf_transfer` is not supported: parallel range downloads rely on blocking I/O, so files are always downloaded
+     * over a single connection.
+     */
+    private static CompletableFuture<Void> _download_to_tmp_and_move_async(Path incomplete_path,
+            Path destination_path, String url_to_download, Map<String, String> proxies, Map<String, String> headers,
+            Long expected_size, String etag, String filename, boolean force_download) {
+        return _try_download_to_tmp_and_move_async(incomplete_path, destination_path, url_to_download, proxies,
+                headers, expected_size, etag, filename, force_download).exceptionallyCompose(error -> {
+                    var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                            : error;
+                    if (!DownloadLocations.is_rejected(etag, url_to_download, cause)) {
+                        return CompletableFuture.failedFuture(cause);
+                    }
+                    return DownloadLocations
+                            .resolve_again_async(etag, url_to_download, (HfHubHTTPException) cause)
+                            .thenCompose(location -> _try_download_to_tmp_and_move_async(incomplete_path,
+                                    destination_path, location, proxies, headers, expected_size, etag, filename,
+                                    force_download));
+                });
+    }
+
+    private static CompletableFuture<Void> _try_download_to_tmp_and_move_async(Path incomplete_path,
+            Path destination_path, String url_to_download, Map<String, String> proxies, Map<String, String> headers,
+            Long expected_size, String etag, String filename, boolean force_download) {
+        if (Files.exists(destination_path) && !force_download) {
+            // Do nothing if already exists (except if force_download=True)
+            return CompletableFuture.completedFuture(null);
+        }
+
+        AsynchronousFileChannel channel = null;
+        long resume_size;
+        try {
+            if (Files.exists(incomplete_path) && force_download) {
+                // By default, we will try to resume the download if possible.
+                LOGGER.info("Removing incomplete file '" + incomplete_path + "' (force_download=True)");
+                Files.deleteIfExists(incomplete_path);
+                ParallelDownload.discard_progress(incomplete_path);
+            }
+
+            // Open the incomplete file without truncating it so that a previous partial download can be resumed
+            channel = AsynchronousFileChannel.open(incomplete_path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            resume_size = _resume_size(incomplete_path, channel.size());
+            if (resume_size < channel.size()) {
+                channel.truncate(resume_size);
+            }
+            if (expected_size != null && resume_size > expected_size) {
+                LOGGER.info("Incomplete file '" + incomplete_path + "' is larger than expected: restarting download");
+                channel.truncate(0);
+                resume_size = 0;
+            }
+            var message = "Downloading '" + filename + "' to '" + incomplete_path + "'";
+            if (resume_size > 0 && expected_size != null) {
+                message += " (resume from " + resume_size + "/" + expected_size + ")";
+            }
+            LOGGER.info(message);
+
+            if (expected_size != null) {
+                // might be None if HTTP header not set correctly
+                // Check disk space in both tmp and destination path
+                _check_disk_space(expected_size, incomplete_path.getParent());
+                _check_disk_space(expected_size, destination_path.getParent());
+            }
+        } catch (IOException e) {
+            _close_quietly(channel);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        var temp_file = channel;
+        var sha256 = _streaming_sha256(etag);
+        CompletableFuture<Long> download;
+        if (expected_size == null || resume_size < expected_size) {
+            var request_headers = headers;
+            var start = resume_size;
+            // Only the part downloaded before is read back, on the hub executor
+            var hashed = sha256 != null && start > 0 ? supply_async(() -> {
+                sha256.sync(incomplete_path, start);
+                return null;
+            }) : CompletableFuture.completedFuture(null);
+            download = hashed.thenCompose(ignored -> http_get_async(url_to_download, temp_file,
+                    proxies, start, request_headers, expected_size, _max_download_retries(), sha256));
+        } else {
+            download = CompletableFuture.completedFuture(resume_size);
+        }
+        return download.whenComplete((size, error) -> _close_quietly(temp_file)).thenAccept(size -> {
+            try {
+                if (sha256 != null) {
+                    sha256.verify(incomplete_path, size, etag);
+                }
+                LOGGER.info("Download complete. Moving file to " + destination_path);
+                _chmod_and_move(incomplete_path, destination_path);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /** Hash of a download to check against `etag`, if it is the SHA-256 of the file (LFS files). */
+    private static StreamingSha256 _streaming_sha256(String etag) {
+        return etag != null && REGEX_SHA256.matcher(etag).matches() ? new StreamingSha256() : null;
+    }
+
+    private static void _close_quietly(AsynchronousFileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Error while closing file channel: {}", e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Return the `IOException` that made a future complete exceptionally, or `null` if it completed normally. Other
+     * errors are propagated as they are.
+     */
+    private static IOException _unwrap_io_exception(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null || error instanceof IOException) {
+            return (IOException) error;
+        }
+        throw error instanceof CompletionException e ? e : new CompletionException(error);
     }
 
-    private static Integer _int_or_none(String value) {
+    private static Long _int_or_none(String value) {
         if (value == null) {
             return null;
         }
         try {
-            return Integer.parseInt(value);
+            return Long.parseLong(value);
         } catch (NumberFormatException e) {
             return null;
         }
@@ -1259,7 +2977,9 @@ public class FileDownload {
                 Files.deleteIfExists(tmp_file);
             }
         }
-        Files.move(src, dst);
+        // With `force_download`, an existing file is replaced
+        Files.move(src, dst, StandardCopyOption.REPLACE_EXISTING);
+        CacheIndex.invalidate(dst);
     }
 
     /**
@@ -1267,7 +2987,7 @@ public class FileDownload {
      *
      * Does nothing if `revision` is already a proper `commit_hash` or reference is already cached.
      */
-    private static void _cache_commit_hash_for_specific_revision(Path storage_folder, String revision,
+    static void _cache_commit_hash_for_specific_revision(Path storage_folder, String revision,
             String commit_hash) throws IOException {
         if (!revision.equals(commit_hash)) {
             var ref_path = storage_folder.resolve("refs").resolve(revision);
@@ -1277,6 +2997,7 @@ public class FileDownload {
                 // repo is already cached and user doesn't have write access to cache folder.
                 // See See https://github.com/huggingface/huggingface_hub/issues/1216.
                 Files.writeString(ref_path, commit_hash);
+                CacheIndex.invalidate(storage_folder);
             }
         }
     }
@@ -1286,7 +3007,7 @@ public class FileDownload {
      *
      * Example: models--julien-c--EsperBERTo-small
      */
-    private static String repo_folder_name(String repo_id, String repo_type) {
+    static String repo_folder_name(String repo_id, String repo_type) {
         // remove all `/` occurrences to correctly convert repo to directory name
         var parts = new ArrayList<String>();
         parts.add(repo_type + "s");
@@ -1297,10 +3018,10 @@ public class FileDownload {
     /**
      * Check disk usage and log a warning if there is not enough disk space to download the file.
      *
-     * Args: expected_size (`int`): The expected size of the file in bytes. target_dir (`str`): The directory where the
+     * Args: expected_size (`long`): The expected size of the file in bytes. target_dir (`str`): The directory where the
      * file will be stored after downloading.
      */
-    private static void _check_disk_space(int expected_size, Path target_dir) throws IOException {
+    private static void _check_disk_space(long expected_size, Path target_dir) throws IOException {
         var free = Files.getFileStore(target_dir).getUsableSpace();
         if (free < expected_size) {
             LOGGER.warn(
@@ -0,0 +1,187 @@
+package dev.transformers4j.hub;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import dev.transformers4j.hub.FileDownload.HfFileMetadata;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static dev.transformers4j.hub.Constants.ENDPOINT;
+import static dev.transformers4j.hub.Constants.HF_HUB_METADATA_CACHE_DIR;
+import static dev.transformers4j.hub.Constants.HF_HUB_METADATA_STALE_WHILE_REVALIDATE;
+import static dev.transformers4j.hub.Constants.HF_HUB_METADATA_TTL;
+
+/**
+ * Cache of the metadata returned by [`get_hf_file_metadata`], so that loading a file already resolved recently does not
+ * need a HEAD request.
+ *
+ * Entries are keyed by endpoint, repo type, repo id, revision, filename and the token used to fetch them, so that a
+ * token never gets metadata it could not have fetched itself. An entry is fresh for `ttl` after it has been fetched:
+ * it is then returned without any network call. For `stale_while_revalidate` more, it is still returned but refreshed
+ * in the background (at most one refresh per entry at a time). Older entries are ignored.
+ *
+ * The cache is disabled by default (`HF_HUB_METADATA_TTL=0`). When enabled, changes pushed to a branch are only seen
+ * once the entries of that branch have expired. `location` may be a signed CDN url that expired in the meantime: the
+ * download then goes through [`DownloadLocations`], which resolves the file again if needed. If
+ * `HF_HUB_METADATA_CACHE_DIR` is set, entries are also persisted as one JSON file per entry in that folder, so that
+ * they are shared between processes and survive restarts.
+ */
+public class FileMetadataCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileMetadataCache.class);
+
+    private static final Gson GSON = new Gson();
+
+    record Key(String endpoint, String repo_type, String repo_id, String revision, String filename, String auth) {
+    }
+
+    private record Entry(HfFileMetadata metadata, long fetched_at) {
+    }
+
+    private static final Map<Key, Entry> _entries = new ConcurrentHashMap<>();
+    private static final Set<Key> _revalidating = ConcurrentHashMap.newKeySet();
+
+    private static volatile Duration _ttl = Duration.ofSeconds(HF_HUB_METADATA_TTL);
+    private static volatile Duration _stale_while_revalidate = Duration
+            .ofSeconds(HF_HUB_METADATA_STALE_WHILE_REVALIDATE);
+    private static volatile Path _persist_dir = HF_HUB_METADATA_CACHE_DIR != null ? Path.of(HF_HUB_METADATA_CACHE_DIR)
+            : null;
+
+    /**
+     * Configure the cache. Cached entries are discarded from memory.
+     *
+     * Args: ttl (`Duration`): How long an entry is fresh. `Duration.ZERO` disables the cache. stale_while_revalidate
+     * (`Duration`): How long an expired entry is still returned while being refreshed in the background. persist_dir
+     * (`Path`, *optional*): Folder where entries are persisted. `null` to only keep them in memory.
+     */
+    public static void configure(Duration ttl, Duration stale_while_revalidate, Path persist_dir) {
+        _ttl = ttl;
+        _stale_while_revalidate = stale_while_revalidate;
+        _persist_dir = persist_dir;
+        clear();
+    }
+
+    /** Whether metadata is cached at all. */
+    public static boolean enabled() {
+        return !_ttl.isZero() && !_ttl.isNegative();
+    }
+
+    /** Discard the entries kept in memory. Persisted entries are kept. */
+    public static void clear() {
+        _entries.clear();
+    }
+
+    static Key key(String endpoint, String repo_type, String repo_id, String revision, String filename,
+            Map<String, String> headers) {
+        var authorization = headers != null ? headers.get("authorization") : null;
+        return new Key(endpoint != null ? endpoint : ENDPOINT, repo_type != null ? repo_type : "model", repo_id,
+                revision, filename, authorization != null ? DigestUtils.sha256Hex(authorization) : null);
+    }
+
+    /**
+     * Return the cached metadata of `key` if it is fresh, or if it is stale but can still be served while being
+     * refreshed. In the latter case, `revalidate` is called to fetch it again in the background.
+     *
+     * Returns: The cached metadata, or `null` if the caller must fetch it.
+     */
+    static HfFileMetadata get(Key key, Supplier<CompletableFuture<HfFileMetadata>> revalidate) {
+        if (!enabled()) {
+            return null;
+        }
+        var entry = _entries.get(key);
+        if (entry == null) {
+            entry = _load(key);
+            if (entry == null) {
+                return null;
+            }
+            _entries.putIfAbsent(key, entry);
+        }
+        var age = System.currentTimeMillis() - entry.fetched_at();
+        if (age <= _ttl.toMillis()) {
+            return entry.metadata();
+        }
+        if (age > _ttl.plus(_stale_while_revalidate).toMillis()) {
+            return null;
+        }
+        if (_revalidating.add(key)) {
+            CompletableFuture<HfFileMetadata> refresh;
+            try {
+                refresh = revalidate.get();
+            } catch (RuntimeException e) {
+                refresh = CompletableFuture.failedFuture(e);
+            }
+            refresh.whenComplete((metadata, error) -> {
+                _revalidating.remove(key);
+                if (error != null) {
+                    // The stale entry is served until it expires: the next call after that fetches it again
+                    LOGGER.debug("Could not revalidate metadata of {}: {}", key.filename(), error.toString());
+                } else {
+                    put(key, metadata);
+                }
+            });
+        }
+        return entry.metadata();
+    }
+
+    /** Cache `metadata`, fetched just now for `key`. */
+    static void put(Key key, HfFileMetadata metadata) {
+        if (!enabled() || metadata == null) {
+            return;
+        }
+        var entry = new Entry(metadata, System.currentTimeMillis());
+        _entries.put(key, entry);
+        _store(key, entry);
+    }
+
+    private static Path _entry_path(Key key) {
+        var persist_dir = _persist_dir;
+        if (persist_dir == null) {
+            return null;
+        }
+        return persist_dir.resolve(DigestUtils.sha256Hex(GSON.toJson(key)) + ".json");
+    }
+
+    private static Entry _load(Key key) {
+        var path = _entry_path(key);
+        if (path == null) {
+            return null;
+        }
+        try {
+            return GSON.fromJson(Files.readString(path), Entry.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn("Ignoring invalid metadata cache entry {}: {}", path, e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private static void _store(Key key, Entry entry) {
+        var path = _entry_path(key);
+        if (path == null) {
+            return;
+        }
+        try {
+            // Write then rename so that other processes never read a partial entry
+            Files.createDirectories(path.getParent());
+            var tmp_path = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            Files.writeString(tmp_path, GSON.toJson(entry));
+            Files.move(tmp_path, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("Could not persist metadata cache entry {}: {}", path, e.getLocalizedMessage());
+        }
+    }
+}
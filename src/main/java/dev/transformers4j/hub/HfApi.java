@@ -0,0 +1,118 @@
+package dev.transformers4j.hub;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import dev.transformers4j.hub.DownloadScheduler.Priority;
+import dev.transformers4j.hub.utils.Mirrors;
+import dev.transformers4j.hub.utils.RetryPolicy.Operation;
+import io.vavr.control.Either;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static dev.transformers4j.hub.Constants.ENDPOINT;
+import static dev.transformers4j.hub.Constants.REPO_TYPES;
+import static dev.transformers4j.hub.Constants.REPO_TYPE_MODEL;
+import static dev.transformers4j.hub.utils.Errors.hf_raise_for_status;
+import static dev.transformers4j.hub.utils.Headers.build_hf_headers;
+
+/**
+ * Client for the Hub API. Only the endpoints needed to download repositories are implemented.
+ */
+public class HfApi {
+
+    /** A file of a repository, as listed by the Hub API. */
+    public record RepoSibling(String rfilename, Long size) {
+    }
+
+    /**
+     * Information about a repository at a given revision.
+     *
+     * Args: id (`str`): ID of the repository. sha (`str`): Commit hash of the revision. siblings (`List[RepoSibling]`):
+     * The files of the repository at this revision.
+     */
+    public record RepoInfo(String id, String sha, List<RepoSibling> siblings) {
+    }
+
+    /**
+     * Get the info object for a given repo of a given type.
+     *
+     * Args: repo_id (`str`): A namespace (user or an organization) and a repo name separated by a `/`. revision
+     * (`str`, *optional*): The revision of the repository from which to get the information. repo_type (`str`,
+     * *optional*): Set to `"dataset"` or `"space"` if getting repository info from a dataset or a space, `None` or
+     * `"model"` if getting repository info from a model. Default is `None`. timeout (`float`, *optional*): Whether to
+     * set a timeout for the request to the Hub. token (`str` or `bool`, *optional*): A token to be used for the
+     * request. headers (`dict`, *optional*): Additional headers to be sent with the request. endpoint (`str`,
+     * *optional*): Hugging Face Hub base url. Defaults to `ENDPOINT`.
+     *
+     * Returns: [`RepoInfo`]: The repository information.
+     *
+     * Raises: - [`~utils.RepositoryNotFoundError`] If the repository to download from cannot be found. This may be
+     * because it doesn't exist, or because it is set to `private` and you do not have access. -
+     * [`~utils.RevisionNotFoundError`] If the revision to download from cannot be found.
+     */
+    public static RepoInfo repo_info(String repo_id, String revision, String repo_type, Float timeout,
+            Either<Boolean, String> token, Map<String, String> headers, String endpoint) throws IOException {
+        // Requested before any file of the repo can be downloaded: it goes first
+        return DownloadScheduler.run(Priority.INTERACTIVE, DownloadScheduler.repo_key(repo_id, repo_type),
+                () -> _repo_info(repo_id, revision, repo_type, timeout, token, headers, endpoint));
+    }
+
+    private static RepoInfo _repo_info(String repo_id, String revision, String repo_type, Float timeout,
+            Either<Boolean, String> token, Map<String, String> headers, String endpoint) throws IOException {
+        if (repo_type == null) {
+            repo_type = REPO_TYPE_MODEL;
+        }
+        if (!REPO_TYPES.contains(repo_type)) {
+            throw new IllegalArgumentException(
+                    "Invalid repo type: " + repo_type + ". Accepted repo types are: " + REPO_TYPES);
+        }
+        endpoint = Mirrors.resolve(endpoint);
+        var path = endpoint != null ? endpoint : ENDPOINT;
+        path += "/api/" + repo_type + "s/" + repo_id;
+        if (revision != null) {
+            path += "/revision/" + URLEncoder.encode(revision, StandardCharsets.UTF_8);
+        }
+
+        var builder = HttpRequest.newBuilder().GET().uri(URI.create(path));
+        for (var header : build_hf_headers(token, false, null, null, null, headers).entrySet()) {
+            builder = builder.header(header.getKey(), header.getValue());
+        }
+        if (timeout != null) {
+            builder = builder.timeout(Duration.ofMillis((long) (timeout * 1000)));
+        }
+        try {
+            var r = Mirrors.send(Operation.METADATA, builder.build(), true, HttpResponse.BodyHandlers.ofString());
+            hf_raise_for_status(r, null);
+            return _parse_repo_info(JsonParser.parseString(r.body()).getAsJsonObject());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static RepoInfo _parse_repo_info(JsonObject data) {
+        var siblings = new ArrayList<RepoSibling>();
+        if (data.has("siblings")) {
+            for (var sibling : data.getAsJsonArray("siblings")) {
+                var object = sibling.getAsJsonObject();
+                siblings.add(new RepoSibling(object.get("rfilename").getAsString(),
+                        object.has("size") ? object.get("size").getAsLong() : null));
+            }
+        }
+        return new RepoInfo(_string_or_none(data.get("id")), _string_or_none(data.get("sha")), siblings);
+    }
+
+    private static String _string_or_none(JsonElement element) {
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+}
@@ -0,0 +1,340 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.utils.DownloadLimits;
+import dev.transformers4j.hub.utils.HfHubHTTPException;
+import dev.transformers4j.hub.utils.Mirrors;
+import dev.transformers4j.hub.utils.RetryPolicy;
+import dev.transformers4j.hub.utils.RetryPolicy.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_DOWNLOAD_TIMEOUT;
+import static dev.transformers4j.hub.utils.Errors.hf_raise_for_status;
+
+/**
+ * Read-only channel on a file of the Hub, reading it with HTTP Range requests instead of downloading it first. Opened
+ * by [`FileDownload.hf_hub_open`].
+ *
+ * The file is read by blocks of `block_size` bytes and the `cached_blocks` blocks read last are kept in memory. A read
+ * of the block following the previous one also fetches the next blocks, in the same request: this read-ahead window
+ * doubles with each sequential read, up to `MAX_READ_AHEAD` blocks, and falls back to a single block after a seek.
+ * Reading the header of a safetensors file therefore costs a single small request, while reading it from start to end
+ * takes a few large ones.
+ *
+ * Blocks are also written at their offset in a temporary file next to the blobs of the cache. Blocks dropped from
+ * memory are read from there instead of being fetched again. If all the blocks of the file have been read when the
+ * channel is closed, the temporary file becomes the blob of the file in the cache (once its SHA-256 is checked, for
+ * LFS files), so that `hf_hub_download` does not download it again. Otherwise it is deleted.
+ *
+ * Like `FileChannel`, the channel can be shared by several threads.
+ */
+public class HfFileChannel implements SeekableByteChannel {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HfFileChannel.class);
+
+    /** Maximum number of blocks fetched by a single request when reading sequentially. */
+    static final int MAX_READ_AHEAD = 16;
+
+    /** Moves the temporary file, holding the whole file, to the cache. */
+    interface Publisher {
+        void publish(Path temp_file) throws IOException;
+    }
+
+    private String url;
+    private final String etag;
+    private final long size;
+    private final Map<String, String> headers;
+    private final Map<String, String> proxies;
+    private final int block_size;
+    private final int cached_blocks;
+    // Blocks read last, least recently used first
+    private final LinkedHashMap<Integer, ByteBuffer> blocks;
+    private Path temp_dir;
+    private final Publisher publisher;
+
+    // Blocks written to `temp_file`
+    private final BitSet stored = new BitSet();
+    private Path temp_path = null;
+    private FileChannel temp_file = null;
+
+    private long position = 0;
+    private int last_block = -1;
+    private int read_ahead = 1;
+    private boolean open = true;
+
+    /**
+     * Args: url (`str`): Location of the file, as resolved by `get_hf_file_metadata`. etag (`str`): Etag of the file,
+     * sent as `If-Range` so that blocks of different versions of the file are never mixed. size (`long`): Size of the
+     * file. headers (`dict`): HTTP headers sent with each request. block_size (`int`): Size of the blocks fetched.
+     * cached_blocks (`int`): Number of blocks kept in memory. temp_dir (`Path`, *optional*): Where to write the
+     * temporary file, `None` to keep blocks in memory only. publisher: Called with the temporary file when all the
+     * blocks have been read.
+     */
+    HfFileChannel(String url, String etag, long size, Map<String, String> headers, Map<String, String> proxies,
+            int block_size, int cached_blocks, Path temp_dir, Publisher publisher) {
+        this.url = url;
+        this.etag = etag;
+        this.size = size;
+        this.headers = headers != null ? headers : Map.of();
+        this.proxies = proxies;
+        this.block_size = Math.max(1, block_size);
+        this.cached_blocks = Math.max(1, cached_blocks);
+        this.temp_dir = temp_dir;
+        this.publisher = publisher;
+        this.blocks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest) {
+                return size() > HfFileChannel.this.cached_blocks;
+            }
+        };
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        _ensure_open();
+        if (position >= size) {
+            return -1;
+        }
+        var read = 0;
+        while (dst.hasRemaining() && position < size) {
+            var index = (int) (position / block_size);
+            var needed = (int) ((Math.min(size, position + dst.remaining()) - 1) / block_size) - index + 1;
+            var block = _block(index, needed).duplicate();
+            block.position((int) (position - (long) index * block_size));
+            if (block.remaining() > dst.remaining()) {
+                block.limit(block.position() + dst.remaining());
+            }
+            read += block.remaining();
+            position += block.remaining();
+            dst.put(block);
+        }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        _ensure_open();
+        return position;
+    }
+
+    @Override
+    public synchronized HfFileChannel position(long new_position) throws IOException {
+        _ensure_open();
+        if (new_position < 0) {
+            throw new IllegalArgumentException("Negative position: " + new_position);
+        }
+        position = new_position;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        _ensure_open();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Close the channel. If the whole file has been read, it is added to the cache: an error while doing so is logged,
+     * the data read is not affected.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            blocks.clear();
+        }
+        if (temp_file == null) {
+            return;
+        }
+        try {
+            temp_file.close();
+            if (stored.cardinality() == _nb_blocks()) {
+                publisher.publish(temp_path);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not add {} to the cache: {}", url, e.getLocalizedMessage());
+        } finally {
+            Files.deleteIfExists(temp_path);
+        }
+    }
+
+    private void _ensure_open() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private int _nb_blocks() {
+        return (int) ((size + block_size - 1) / block_size);
+    }
+
+    /** Return block `index`, fetching it along with the blocks read ahead if needed. `needed` blocks are to be read. */
+    private ByteBuffer _block(int index, int needed) throws IOException {
+        var sequential = index > 0 && index == last_block + 1;
+        last_block = index;
+        var block = blocks.get(index);
+        if (block != null) {
+            return block;
+        }
+        if (stored.get(index)) {
+            block = _read_stored(index);
+            blocks.put(index, block);
+            return block;
+        }
+        read_ahead = sequential ? Math.min(read_ahead * 2, MAX_READ_AHEAD) : 1;
+        var count = Math.min(Math.max(read_ahead, needed), Math.min(cached_blocks, _nb_blocks() - index));
+        // Stop at the first block that is already there
+        for (var i = 1; i < count; i++) {
+            if (blocks.containsKey(index + i) || stored.get(index + i)) {
+                count = i;
+                break;
+            }
+        }
+        var start = (long) index * block_size;
+        var data = ByteBuffer.allocate((int) (Math.min(size, start + (long) count * block_size) - start));
+        _get_range(start, data);
+        data.flip();
+        for (var i = count - 1; i >= 0; i--) {
+            block = data.duplicate().position(i * block_size).limit(Math.min(data.limit(), (i + 1) * block_size))
+                    .slice();
+            blocks.put(index + i, block);
+            _store(index + i, block);
+        }
+        // The block to read is the last one added, it is never the first one dropped
+        return block;
+    }
+
+    /**
+     * Fill `data` with the bytes of the file from `start`. If the connection is lost, the request is sent again (to
+     * another mirror, if any) for the bytes not received yet.
+     */
+    private void _get_range(long start, ByteBuffer data) throws IOException {
+        var max_retries = RetryPolicy.of(Operation.DOWNLOAD).max_retries();
+        var nb_retries = max_retries;
+        var resolved_again = false;
+        while (data.hasRemaining()) {
+            var range = "bytes=" + (start + data.position()) + "-" + (start + data.limit() - 1);
+            var request_headers = new HashMap<>(headers);
+            request_headers.put("Range", range);
+            if (etag != null) {
+                request_headers.put("If-Range", "\"" + etag + "\"");
+            }
+            // Wait for a connection to the host if their number is limited
+            try (var connection = DownloadLimits.acquire_connection(url)) {
+                var response = FileDownload._request_wrapper("GET", url, request_headers, false, false, proxies,
+                        HF_HUB_DOWNLOAD_TIMEOUT);
+                try (var body = Channels.newChannel(response.body())) {
+                    hf_raise_for_status(response, null);
+                    if (response.statusCode() != 206) {
+                        // Range ignored: the server does not support ranges, or the file has changed
+                        throw new HfHubHTTPException("Server did not send range " + range + " of " + url
+                                + " (status " + response.statusCode() + ")", response);
+                    }
+                    int read;
+                    while (data.hasRemaining() && (read = body.read(data)) != -1) {
+                        DownloadLimits.throttle(read);
+                        // Some data has been downloaded from the server so we reset the number of retries.
+                        nb_retries = max_retries;
+                    }
+                }
+                if (data.hasRemaining()) {
+                    throw new IOException("Connection closed before receiving " + range + " of " + url);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (HfHubHTTPException e) {
+                // The signed location of the file may have expired since the channel was opened
+                if (resolved_again || !DownloadLocations.is_rejected(etag, url, e)) {
+                    throw e;
+                }
+                url = DownloadLocations.resolve_again(etag, url, e);
+                resolved_again = true;
+            } catch (IOException e) {
+                // Errors before any response have already been retried by `_request_wrapper`.
+                if (RetryPolicy.is_transient(e) || nb_retries <= 0) {
+                    throw e;
+                }
+                var wait = RetryPolicy.retry(Operation.DOWNLOAD, max_retries - nb_retries);
+                if (wait == null) {
+                    throw e;
+                }
+                LOGGER.warn("Error while reading {}: {}\nTrying to resume in {} ms...", url, e.getLocalizedMessage(),
+                        wait.toMillis());
+                try {
+                    Thread.sleep(wait.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(interrupted);
+                }
+                nb_retries--;
+                url = Mirrors.failover(url);
+            }
+        }
+    }
+
+    /** Write block `index` to the temporary file. Blocks are only kept in memory if this fails. */
+    private void _store(int index, ByteBuffer block) {
+        if (temp_dir == null) {
+            return;
+        }
+        try {
+            if (temp_file == null) {
+                temp_path = Files.createTempFile(temp_dir, etag != null ? etag + "." : "hf_hub_open", ".incomplete");
+                temp_file = FileChannel.open(temp_path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            var buffer = block.duplicate();
+            var offset = (long) index * block_size;
+            while (buffer.hasRemaining()) {
+                offset += temp_file.write(buffer, offset);
+            }
+            stored.set(index);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot write the blocks read from {} to {}: {}", url, temp_dir, e.getLocalizedMessage());
+            temp_dir = null;
+        }
+    }
+
+    private ByteBuffer _read_stored(int index) throws IOException {
+        var offset = (long) index * block_size;
+        var block = ByteBuffer.allocate((int) (Math.min(size, offset + block_size) - offset));
+        while (block.hasRemaining()) {
+            if (temp_file.read(block, offset + block.position()) < 0) {
+                throw new IOException("File " + temp_path + " is shorter than expected.");
+            }
+        }
+        return block.flip();
+    }
+}
@@ -6,9 +6,20 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributeView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_LOCAL_DIR_MATERIALIZATION;
 
 public class LocalFolder {
     private static final Logger LOGGER = LoggerFactory.getLogger(LocalFolder.class);
@@ -30,7 +41,72 @@ public class LocalFolder {
         }
     }
 
-    public record LocalDownloadFileMetadata(String filename, String commit_hash, String etag, double timestamp) {
+    /**
+     * Metadata about a file in the local directory related to a download process.
+     *
+     * Args: filename (`str`): Path of the file in the repo. commit_hash (`str`): Commit hash of the file in the repo.
+     * etag (`str`): ETag of the file in the repo. Used to check if the file has changed. timestamp (`float`):
+     * Timestamp of when this metadata was saved (i.e. when the file was downloaded). materialization
+     * ([`Materialization`], *optional*): How the file has been put in the local directory, `None` if unknown.
+     */
+    public record LocalDownloadFileMetadata(String filename, String commit_hash, String etag, double timestamp,
+            Materialization materialization) {
+    }
+
+    /** How a file is put in a local directory. */
+    public enum Materialization {
+        /** Hard link to the blob of the cache: same file, on the same file system. */
+        HARDLINK,
+        /** Copy-on-write clone of the blob of the cache: shares its blocks until one of them is modified. */
+        REFLINK,
+        /** Symbolic link to the blob of the cache. */
+        SYMLINK,
+        /** Copy of the blob of the cache. */
+        COPY,
+        /** Downloaded to the local directory. */
+        DOWNLOAD;
+
+        /** Name of the strategy, as written in the metadata and in `HF_HUB_LOCAL_DIR_MATERIALIZATION`. */
+        public String value() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        /** Strategy named `value`, `None` if unknown. */
+        public static Materialization of(String value) {
+            for (var materialization : values()) {
+                if (materialization.value().equals(value.strip().toLowerCase(Locale.ROOT))) {
+                    return materialization;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Strategies tried by [`materialize`], from `HF_HUB_LOCAL_DIR_MATERIALIZATION`. */
+    static final List<Materialization> MATERIALIZATION_STRATEGIES = _strategies(HF_HUB_LOCAL_DIR_MATERIALIZATION);
+
+    // Pairs of file stores (source, destination) that cannot clone files: clones are not tried again between them
+    private static final Map<List<FileStore>, Boolean> _reflink_unsupported = new ConcurrentHashMap<>();
+
+    // Errors of `cp` meaning that the file system cannot clone files at all
+    private static final List<String> REFLINK_UNSUPPORTED_ERRORS = List.of("Operation not supported",
+            "Inappropriate ioctl for device", "Invalid cross-device link", "Function not implemented");
+
+    private static List<Materialization> _strategies(String value) {
+        var strategies = new ArrayList<Materialization>();
+        for (var name : value.split(",")) {
+            var strategy = Materialization.of(name);
+            if (strategy == null || strategy == Materialization.DOWNLOAD) {
+                LOGGER.warn("Unknown strategy '{}' in HF_HUB_LOCAL_DIR_MATERIALIZATION, ignoring it.", name);
+            } else if (!strategies.contains(strategy)) {
+                strategies.add(strategy);
+            }
+        }
+        // Whatever the preferences, the file ends up in the local directory
+        if (!strategies.contains(Materialization.COPY)) {
+            strategies.add(Materialization.COPY);
+        }
+        return List.copyOf(strategies);
     }
 
     /**
@@ -83,9 +159,11 @@ public class LocalFolder {
                 var commit_hash = lines.get(0);
                 var etag = lines.get(1);
                 var timestamp = Double.parseDouble(lines.get(2));
-                metadata = new LocalDownloadFileMetadata(filename, commit_hash, etag, timestamp);
+                // Not written by older versions
+                var materialization = lines.size() > 3 ? Materialization.of(lines.get(3)) : null;
+                metadata = new LocalDownloadFileMetadata(filename, commit_hash, etag, timestamp, materialization);
             }
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             // remove the metadata file if it is corrupted / not the right format
             LOGGER.warn("Invalid metadata file " + path.meta_data_path() + ": " + e
                     + ". Removing it from disk and continue.");
@@ -96,10 +174,13 @@ public class LocalFolder {
             }
         }
 
+        if (metadata == null) {
+            return null;
+        }
         try {
-            // check if the file exists and hasn't been modified since the metadata was saved
+            // check if the file exists and hasn't been modified since the metadata was saved (timestamps in seconds)
             var stat = Files.getFileAttributeView(path.file_path(), BasicFileAttributeView.class).readAttributes();
-            if (stat.lastModifiedTime().toMillis() - 1000 <= metadata.timestamp()) {
+            if (stat.lastModifiedTime().toMillis() / 1000.0 - 1 <= metadata.timestamp()) {
                 return metadata;
             }
             LOGGER.info("Ignored metadata for '" + filename + "' (outdated). Will re-compute hash.");
@@ -117,9 +198,136 @@ public class LocalFolder {
      */
     public static void write_download_metadata(Path local_dir, String filename, String commit_hash, String etag)
             throws IOException {
+        write_download_metadata(local_dir, filename, commit_hash, etag, null);
+    }
+
+    /**
+     * Write metadata about a file in the local directory related to a download process, with how the file has been
+     * put in the local directory.
+     *
+     * Args: local_dir (`Path`): Path to the local directory in which files are downloaded. materialization
+     * ([`Materialization`], *optional*): How the file has been put in `local_dir`, `None` if unknown.
+     */
+    public static void write_download_metadata(Path local_dir, String filename, String commit_hash, String etag,
+            Materialization materialization) throws IOException {
         var paths = get_local_download_paths(local_dir, filename);
-        Files.writeString(paths.meta_data_path(),
-                commit_hash + "\n" + etag + "\n" + System.currentTimeMillis() / 1000.0 + "\n");
+        var metadata = commit_hash + "\n" + etag + "\n" + System.currentTimeMillis() / 1000.0 + "\n";
+        if (materialization != null) {
+            metadata += materialization.value() + "\n";
+        }
+        Files.writeString(paths.meta_data_path(), metadata);
+    }
+
+    /**
+     * Put the file `source` of the cache at `destination`, in a local directory, without copying it if possible.
+     *
+     * The strategies of `HF_HUB_LOCAL_DIR_MATERIALIZATION` are tried in order, by default:
+     * - a hard link, if both are on the same file system: constant time, no space used;
+     * - a copy-on-write clone (`cp --reflink` on Linux, `clonefile` on macOS), on file systems supporting it (Btrfs,
+     *   XFS, APFS, ...): constant time, blocks are only copied when modified;
+     * - a symbolic link: constant time, but the file is lost if the blob is deleted from the cache (e.g. by
+     *   [`CacheGC`]);
+     * - a copy.
+     *
+     * A hard link and the blob are the same file: writing into the local file in place (rather than replacing it, as
+     * most editors do) also modifies the cache. Put `copy` or `reflink` first if the local files are to be edited.
+     * An existing file at `destination` is replaced atomically.
+     *
+     * Args: source (`Path`): The file in the cache (a pointer or a blob). destination (`Path`): Where to put it. Its
+     * folder must exist.
+     *
+     * Returns: [`Materialization`]: The strategy used.
+     */
+    public static Materialization materialize(Path source, Path destination) throws IOException {
+        return materialize(source, destination, MATERIALIZATION_STRATEGIES);
+    }
+
+    static Materialization materialize(Path source, Path destination, List<Materialization> strategies)
+            throws IOException {
+        // Link to the blob itself, not to the pointer
+        var blob = source.toRealPath();
+        var stores = List.of(Files.getFileStore(blob), Files.getFileStore(destination.getParent()));
+        var same_store = stores.get(0).equals(stores.get(1));
+        var tmp_path = destination.resolveSibling(destination.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        IOException last_error = null;
+        for (var strategy : strategies) {
+            if (!same_store && (strategy == Materialization.HARDLINK || strategy == Materialization.REFLINK)) {
+                continue;
+            }
+            if (strategy == Materialization.REFLINK && _reflink_unsupported.containsKey(stores)) {
+                continue;
+            }
+            try {
+                if (strategy == Materialization.HARDLINK) {
+                    Files.createLink(tmp_path, blob);
+                } else if (strategy == Materialization.REFLINK) {
+                    _reflink(blob, tmp_path);
+                } else if (strategy == Materialization.SYMLINK) {
+                    Files.createSymbolicLink(tmp_path, blob);
+                } else {
+                    Files.copy(blob, tmp_path);
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.deleteIfExists(tmp_path);
+                LOGGER.debug("Cannot materialize {} at {} with a {}: {}", blob, destination, strategy.value(),
+                        e.toString());
+                if (strategy == Materialization.REFLINK
+                        && (e instanceof ReflinkUnsupportedException || e instanceof UnsupportedOperationException)) {
+                    // Other errors (e.g. no space left, interrupted) may not happen with the next file
+                    _reflink_unsupported.put(stores, true);
+                }
+                last_error = e instanceof IOException ? (IOException) e : new IOException(e);
+                continue;
+            }
+            try {
+                Files.move(tmp_path, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp_path);
+                throw e;
+            }
+            return strategy;
+        }
+        throw last_error != null ? last_error
+                : new IOException("No strategy to put " + source + " at " + destination + ": " + strategies);
+    }
+
+    /** Raised when the file system does not support copy-on-write clones. */
+    private static final class ReflinkUnsupportedException extends IOException {
+        ReflinkUnsupportedException(String message) {
+            super(message);
+        }
+    }
+
+    /** Clone `source` to `destination` with copy-on-write, failing rather than copying if not supported. */
+    private static void _reflink(Path source, Path destination) throws IOException {
+        List<String> command;
+        if (SystemUtils.IS_OS_LINUX) {
+            command = List.of("cp", "--reflink=always", source.toString(), destination.toString());
+        } else if (SystemUtils.IS_OS_MAC) {
+            command = List.of("cp", "-c", source.toString(), destination.toString());
+        } else {
+            throw new UnsupportedOperationException("Copy-on-write clones are not supported on " + SystemUtils.OS_NAME);
+        }
+        var builder = new ProcessBuilder(command).redirectErrorStream(true);
+        // Errors are recognized by their message: not translated
+        builder.environment().put("LC_ALL", "C");
+        var process = builder.start();
+        String output;
+        try (var stream = process.getInputStream()) {
+            output = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try {
+            if (process.waitFor() != 0) {
+                if (REFLINK_UNSUPPORTED_ERRORS.stream().anyMatch(output::contains)) {
+                    throw new ReflinkUnsupportedException(output.strip());
+                }
+                throw new IOException(output.strip());
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
     }
 
     /** Return the path to the `.huggingface` directory in a local directory. */
@@ -0,0 +1,286 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.utils.DownloadLimits;
+import dev.transformers4j.hub.utils.HfHubHTTPException;
+import dev.transformers4j.hub.utils.RetryPolicy;
+import dev.transformers4j.hub.utils.RetryPolicy.Operation;
+import dev.transformers4j.hub.utils.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_DOWNLOAD_TIMEOUT;
+import static dev.transformers4j.hub.utils.Errors.hf_raise_for_status;
+import static dev.transformers4j.hub.utils.Http.get_session;
+
+/**
+ * Pure Java replacement for `hf_transfer`: downloads a file over several connections at once.
+ *
+ * The file is split into byte ranges of `chunk_size` bytes. Ranges are fetched concurrently with HTTP Range requests
+ * and each one is written at its own offset in a preallocated file using positional `FileChannel` writes, so no
+ * reassembly step is needed once all ranges have been received.
+ *
+ * The ranges received are recorded in a progress file next to the downloaded file (see [`progress_path`]), so that an
+ * interrupted download resumes with the missing ranges only. A file without a progress file has been written from its
+ * start by a sequential download: its content is kept and the download resumes after it.
+ */
+public class ParallelDownload {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelDownload.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Progress file of a download: one `<start> <end>` line per byte range received, both inclusive. */
+    private static final class Progress implements Closeable {
+        private final FileChannel channel;
+
+        private Progress(Path filename) throws IOException {
+            this.channel = FileChannel.open(progress_path(filename), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        private synchronized void record(long start, long end) throws IOException {
+            if (end < start) {
+                return;
+            }
+            var line = ByteBuffer.wrap((start + " " + end + "\n").getBytes(StandardCharsets.US_ASCII));
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /** Progress file of the download to `filename`, deleted once the download completes. */
+    public static Path progress_path(Path filename) {
+        return filename.resolveSibling(filename.getFileName() + ".ranges");
+    }
+
+    /**
+     * Number of bytes received from the start of `filename`, if it is being written by [`download`]: a sequential
+     * download can resume after them, the rest of the file must be truncated.
+     *
+     * Returns: `long`: The number of bytes, -1 if `filename` has no progress file.
+     */
+    public static long downloaded_prefix(Path filename) throws IOException {
+        var ranges = _read_progress(filename);
+        if (ranges == null) {
+            return -1;
+        }
+        var prefix = 0L;
+        for (var range : ranges.entrySet()) {
+            if (range.getKey() > prefix) {
+                break;
+            }
+            prefix = Math.max(prefix, range.getValue() + 1);
+        }
+        return prefix;
+    }
+
+    /** Delete the progress file of `filename`, e.g. once it is resumed sequentially or downloaded again. */
+    public static void discard_progress(Path filename) throws IOException {
+        Files.deleteIfExists(progress_path(filename));
+    }
+
+    /**
+     * Ranges recorded in the progress file of `filename`, by start. Only whole lines are read: the last one may have
+     * been cut by a crash.
+     *
+     * Returns: The ranges, `None` if there is no progress file.
+     */
+    private static TreeMap<Long, Long> _read_progress(Path filename) throws IOException {
+        var path = progress_path(filename);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        var ranges = new TreeMap<Long, Long>();
+        var content = Files.readString(path, StandardCharsets.US_ASCII);
+        var lines = content.split("\n", -1);
+        // The last element follows the last line break: empty, or a line being written
+        for (var i = 0; i < lines.length - 1; i++) {
+            var parts = lines[i].split(" ");
+            try {
+                ranges.merge(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Math::max);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Ignoring invalid range '{}' in {}", lines[i], path);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Download `url` to `filename` using parallel range requests.
+     *
+     * Args: url (`str`): The URL of the file to download. filename (`Path`): The file where to save the content. It is
+     * preallocated to `size` bytes, and the ranges already received by a previous download are not downloaded again.
+     * size (`long`): The size of the remote file. max_files (`int`): The maximum number of concurrent connections.
+     * chunk_size (`int`): The size of each byte range. headers (`dict`): Dictionary of HTTP Headers to send with each
+     * request. max_retries (`int`): How many times a single range is retried before giving up. callback
+     * (`LongConsumer`, *optional*): Called with the number of bytes written each time some data has been received.
+     */
+    public static void download(String url, Path filename, long size, int max_files, int chunk_size,
+            Map<String, String> headers, int max_retries, LongConsumer callback)
+            throws IOException, InterruptedException {
+        var received = _read_progress(filename);
+        try (var channel = FileChannel.open(filename, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                var progress = new Progress(filename)) {
+            if (received == null) {
+                // Written from its start by a sequential download, unless it is larger than the file
+                received = new TreeMap<>();
+                var prefix = channel.size();
+                if (prefix > size) {
+                    channel.truncate(0);
+                } else if (prefix > 0) {
+                    received.put(0L, prefix - 1);
+                    progress.record(0, prefix - 1);
+                }
+            }
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+            if (size > 0 && channel.size() < size) {
+                // Preallocate the file (sparse on most file systems) so that ranges can be written in any order
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+
+            var chunks = _missing_chunks(received, size, chunk_size);
+            if (callback != null && chunks.size() > 0) {
+                var missing = chunks.stream().mapToLong(chunk -> chunk[1] - chunk[0] + 1).sum();
+                if (missing < size) {
+                    LOGGER.info("Resuming download of {}: {}/{} bytes missing", filename, missing, size);
+                    callback.accept(size - missing);
+                }
+            }
+            var executor = Threads.new_executor(Math.max(1, Math.min(max_files, chunks.size())));
+            try {
+                var futures = new ArrayList<Future<Void>>(chunks.size());
+                for (var chunk : chunks) {
+                    futures.add(executor.submit(() -> {
+                        _download_range(url, channel, progress, chunk[0], chunk[1], headers, max_retries, callback);
+                        return null;
+                    }));
+                }
+                for (var future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        futures.forEach(f -> f.cancel(true));
+                        if (e.getCause() instanceof IOException) {
+                            throw (IOException) e.getCause();
+                        }
+                        throw new IOException(e.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        discard_progress(filename);
+    }
+
+    /** Ranges `[start, end]` of at most `chunk_size` bytes of a file of `size` bytes not in `received`. */
+    private static List<long[]> _missing_chunks(TreeMap<Long, Long> received, long size, int chunk_size) {
+        var chunks = new ArrayList<long[]>();
+        var position = 0L;
+        var ranges = new ArrayList<>(received.entrySet());
+        // Sentinel: the end of the file
+        ranges.add(Map.entry(size, size));
+        for (var range : ranges) {
+            for (var start = position; start < Math.min(range.getKey(), size); start += chunk_size) {
+                chunks.add(new long[] { start, Math.min(start + chunk_size, range.getKey()) - 1 });
+            }
+            position = Math.max(position, range.getValue() + 1);
+        }
+        return chunks;
+    }
+
+    /**
+     * Download the `[start, end]` byte range, retrying from the last written byte on failure. The bytes written are
+     * recorded in `progress`, even if the download fails.
+     */
+    private static void _download_range(String url, FileChannel channel, Progress progress, long start, long end,
+            Map<String, String> headers, int max_retries, LongConsumer callback)
+            throws IOException, InterruptedException {
+        var position = start;
+        try {
+            var buffer = new byte[BUFFER_SIZE];
+            var nb_retries = max_retries;
+            while (position <= end) {
+                var builder = HttpRequest.newBuilder().GET().uri(URI.create(url))
+                        .timeout(Duration.ofSeconds(HF_HUB_DOWNLOAD_TIMEOUT));
+                for (var header : headers.entrySet()) {
+                    builder = builder.header(header.getKey(), header.getValue());
+                }
+                builder = builder.header("Range", "bytes=" + position + "-" + end);
+                // Wait for a connection to the host if their number is limited
+                try (var connection = DownloadLimits.acquire_connection(url)) {
+                    var response = RetryPolicy.send(Operation.DOWNLOAD, get_session(url, false), builder.build(),
+                            HttpResponse.BodyHandlers.ofInputStream());
+                    try (var body = response.body()) {
+                        hf_raise_for_status(response, null);
+                        if (response.statusCode() != 206) {
+                            throw new HfHubHTTPException("Server does not support range requests for " + url
+                                    + " (status " + response.statusCode() + ")", response);
+                        }
+                        int read;
+                        while (position <= end
+                                && (read = body.read(buffer, 0,
+                                        (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                            var byte_buffer = ByteBuffer.wrap(buffer, 0, read);
+                            while (byte_buffer.hasRemaining()) {
+                                position += channel.write(byte_buffer, position);
+                            }
+                            DownloadLimits.throttle(read);
+                            if (callback != null) {
+                                callback.accept(read);
+                            }
+                            // Some data has been downloaded from the server so we reset the number of retries.
+                            nb_retries = max_retries;
+                        }
+                    }
+                    if (position <= end) {
+                        throw new IOException("Connection closed before receiving bytes " + position + "-" + end);
+                    }
+                } catch (IOException e) {
+                    // HTTP errors are not transient: only retry on network errors. Errors before any response have
+                    // already been retried by `RetryPolicy.send`.
+                    if (e instanceof HfHubHTTPException || RetryPolicy.is_transient(e) || nb_retries <= 0) {
+                        throw e;
+                    }
+                    var wait = RetryPolicy.retry(Operation.DOWNLOAD, max_retries - nb_retries);
+                    if (wait == null) {
+                        throw e;
+                    }
+                    nb_retries--;
+                    LOGGER.warn("Error while downloading bytes {}-{} from {}: {}. Retrying in {} ms...", position, end,
+                            url, e.getLocalizedMessage(), wait.toMillis());
+                    Thread.sleep(wait.toMillis());
+                }
+            }
+        } finally {
+            progress.record(start, position - 1);
+        }
+    }
+}
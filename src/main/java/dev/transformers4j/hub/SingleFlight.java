@@ -0,0 +1,93 @@
+package dev.transformers4j.hub;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesce concurrent calls sharing the same key within the process.
+ *
+ * The first caller of a given key runs the call. Callers arriving while it is in flight do not run anything: they wait
+ * for the same result (or error). Once the call is over, the key is forgotten and the next caller runs it again.
+ */
+class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    /** Run `call` unless a call with the same key is in flight, in which case wait for its result. */
+    V run(K key, Callable<V> call) throws IOException {
+        var promise = new CompletableFuture<V>();
+        var in_flight = calls.putIfAbsent(key, promise);
+        if (in_flight != null) {
+            return _await(in_flight);
+        }
+        try {
+            var result = call.call();
+            promise.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            promise.completeExceptionally(e);
+            throw _rethrow(e);
+        } finally {
+            calls.remove(key, promise);
+        }
+    }
+
+    /** Asynchronous version of [`run`]: `call` is only invoked if no call with the same key is in flight. */
+    CompletableFuture<V> run_async(K key, Supplier<CompletableFuture<V>> call) {
+        var promise = new CompletableFuture<V>();
+        var in_flight = calls.putIfAbsent(key, promise);
+        if (in_flight != null) {
+            return in_flight;
+        }
+        CompletableFuture<V> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, error) -> {
+            calls.remove(key, promise);
+            if (error != null) {
+                promise.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                promise.complete(result);
+            }
+        });
+        return promise;
+    }
+
+    /** Number of calls currently in flight. */
+    int size() {
+        return calls.size();
+    }
+
+    private static <V> V _await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw _rethrow(e.getCause());
+        }
+    }
+
+    private static IOException _rethrow(Throwable error) {
+        if (error instanceof IOException) {
+            return (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        return new IOException(error);
+    }
+}
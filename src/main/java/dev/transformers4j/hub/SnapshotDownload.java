@@ -0,0 +1,296 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.HfApi.RepoInfo;
+import dev.transformers4j.hub.HfApi.RepoSibling;
+import dev.transformers4j.hub.utils.GatedRepoException;
+import dev.transformers4j.hub.utils.HfHubHTTPException;
+import dev.transformers4j.hub.utils.LocalEntryNotFoundError;
+import dev.transformers4j.hub.utils.OfflineModelIsEnabledException;
+import dev.transformers4j.hub.utils.RepositoryNotFoundException;
+import dev.transformers4j.hub.utils.RevisionNotFoundException;
+import io.vavr.control.Either;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static dev.transformers4j.hub.Constants.DEFAULT_ETAG_TIMEOUT;
+import static dev.transformers4j.hub.Constants.HF_HUB_CACHE;
+import static dev.transformers4j.hub.Constants.HF_HUB_ENABLE_HF_TRANSFER;
+import static dev.transformers4j.hub.Constants.HF_HUB_ETAG_TIMEOUT;
+import static dev.transformers4j.hub.Constants.REPO_TYPES;
+import static dev.transformers4j.hub.Constants.REPO_TYPE_MODEL;
+import static dev.transformers4j.hub.FileDownload.REGEX_COMMIT_HASH;
+import static dev.transformers4j.hub.FileDownload._cache_commit_hash_for_specific_revision;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download;
+import static dev.transformers4j.hub.FileDownload.repo_folder_name;
+import static dev.transformers4j.hub.utils.Paths.filter_repo_objects;
+
+public class SnapshotDownload {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotDownload.class);
+
+    /**
+     * Download repo files.
+     *
+     * Download a whole snapshot of a repo's files at the specified revision. This is useful when you want all files
+     * from a repo, because you don't know which ones you will need a priori. All files are nested inside a folder in
+     * order to keep their actual filename relative to that folder. You can also filter which files to download using
+     * `allow_patterns` and `ignore_patterns`.
+     *
+     * If `local_dir` is provided, the file structure from the repo will be replicated in this location. When using this
+     * option, the `cache_dir` will not be used and a `.huggingface/` folder will be created at the root of `local_dir`
+     * to store some metadata related to the downloaded files.
+     *
+     * An alternative would be to clone the repo but this requires git and git-lfs to be installed and properly
+     * configured. It is also not possible to filter which files to download when cloning a repository using git.
+     *
+     * Files are downloaded concurrently, with at most `max_workers` downloads at a time. Each file goes through
+     * [`hf_hub_download`], so files already in the cache are not downloaded again.
+     *
+     * Args: repo_id (`str`): A user or an organization name and a repo name separated by a `/`. repo_type (`str`,
+     * *optional*): Set to `"dataset"` or `"space"` if downloading from a dataset or space, `None` or `"model"` if
+     * downloading from a model. Default is `None`. revision (`str`, *optional*): An optional Git revision id which can
+     * be a branch name, a tag, or a commit hash. cache_dir (`str`, `Path`, *optional*): Path to the folder where cached
+     * files are stored. local_dir (`str` or `Path`, *optional*): If provided, the downloaded files will be placed under
+     * this directory. library_name (`str`, *optional*): The name of the library to which the object corresponds.
+     * library_version (`str`, *optional*): The version of the library. user_agent (`str`, `dict`, *optional*): The
+     * user-agent info in the form of a dictionary or a string. proxies (`dict`, *optional*): Dictionary mapping
+     * protocol to the URL of the proxy passed to `requests.request`. etag_timeout (`float`, *optional*, defaults to
+     * `10`): When fetching ETag, how many seconds to wait for the server to send data before giving up which is passed
+     * to `requests.request`. force_download (`bool`, *optional*, defaults to `False`): Whether the file should be
+     * downloaded even if it already exists in the local cache. token (`str`, `bool`, *optional*): A token to be used
+     * for the download. headers (`dict`, *optional*): Additional headers to include in the request. Those headers take
+     * precedence over the others. endpoint (`str`, *optional*): Hugging Face Hub base url. local_files_only (`bool`,
+     * *optional*, defaults to `False`): If `True`, avoid downloading the file and return the path to the local cached
+     * file if it exists. allow_patterns (`List[str]`, *optional*): If provided, only files matching at least one
+     * pattern are downloaded. ignore_patterns (`List[str]`, *optional*): If provided, files matching any of the
+     * patterns are not downloaded. max_workers (`int`, *optional*): Number of concurrent downloads. Defaults to 8.
+     *
+     * Returns: `Path`: folder path of the repo snapshot.
+     *
+     * Raises: - [`EnvironmentError`](https://docs.python.org/3/library/exceptions.html#EnvironmentError) if
+     * `token=True` and the token cannot be found. -
+     * [`OSError`](https://docs.python.org/3/library/exceptions.html#OSError) if ETag cannot be determined. -
+     * [`ValueError`](https://docs.python.org/3/library/exceptions.html#ValueError) if some parameter value is invalid
+     */
+    public static Path snapshot_download(String repo_id, String repo_type, String revision, Path cache_dir,
+            Path local_dir, String library_name, String library_version, Either<Map<String, Object>, String> user_agent,
+            Map<String, String> proxies, float etag_timeout, boolean force_download, Either<Boolean, String> token,
+            boolean local_files_only, List<String> allow_patterns, List<String> ignore_patterns, Integer max_workers,
+            Map<String, String> headers, String endpoint) throws IOException {
+        if (cache_dir == null) {
+            cache_dir = Path.of(HF_HUB_CACHE);
+        }
+        if (revision == null) {
+            revision = "main";
+        }
+        if (repo_type == null) {
+            repo_type = REPO_TYPE_MODEL;
+        }
+        if (!REPO_TYPES.contains(repo_type)) {
+            throw new IllegalArgumentException(
+                    "Invalid repo type: " + repo_type + ". Accepted repo types are: " + REPO_TYPES);
+        }
+        if (max_workers == null) {
+            max_workers = 8;
+        }
+        if (HF_HUB_ETAG_TIMEOUT != DEFAULT_ETAG_TIMEOUT) {
+            // Respect environment variable above user value
+            etag_timeout = HF_HUB_ETAG_TIMEOUT;
+        }
+
+        var storage_folder = cache_dir.resolve(repo_folder_name(repo_id, repo_type));
+
+        RepoInfo repo_info = null;
+        IOException api_call_error = null;
+        if (!local_files_only) {
+            // try/except logic to handle different errors => taken from `hf_hub_download`
+            try {
+                // if we have internet connection we want to list files to download
+                repo_info = HfApi.repo_info(repo_id, revision, repo_type, etag_timeout, token, headers, endpoint);
+            } catch (SSLException e) {
+                // Actually raise for those subclasses of ConnectionError
+                throw e;
+            } catch (HttpTimeoutException | ConnectException error) {
+                // Internet connection is down
+                // => will try to use local files only
+                api_call_error = error;
+            } catch (RevisionNotFoundException e) {
+                // The repo was found but the revision doesn't exist on the Hub (never existed or got deleted)
+                throw e;
+            } catch (HfHubHTTPException error) {
+                // Multiple reasons for an http error:
+                // - Repository is private and invalid/missing token sent
+                // - Repository is gated and invalid/missing token sent
+                // - Hub is down (error 500 or 504)
+                // => let's switch to 'local_files_only=True' to check if the files are already cached.
+                // (if it's not the case, the error will be re-raised)
+                api_call_error = error;
+            }
+        }
+
+        // At this stage, if `repo_info` is None it means either:
+        // - internet connection is down
+        // - internet connection is deactivated (local_files_only=True or HF_HUB_OFFLINE=True)
+        // - repo is private/gated and invalid/missing token sent
+        // - Hub is down
+        // => let's look if we can find the appropriate folder in the cache:
+        // - if the specified revision is a commit hash, look inside "snapshots".
+        // - f the specified revision is a branch or tag, look inside "refs".
+        if (repo_info == null) {
+            // Try to get which commit hash corresponds to the specified revision
+            String commit_hash = null;
+            if (REGEX_COMMIT_HASH.matcher(revision).matches()) {
+                commit_hash = revision;
+            } else {
+                var ref_path = storage_folder.resolve("refs").resolve(revision);
+                if (Files.exists(ref_path)) {
+                    // retrieve commit_hash from refs file
+                    commit_hash = Files.readString(ref_path);
+                }
+            }
+
+            // Try to locate snapshot folder for this commit hash
+            if (commit_hash != null) {
+                var snapshot_folder = storage_folder.resolve("snapshots").resolve(commit_hash);
+                if (Files.exists(snapshot_folder)) {
+                    // Snapshot folder exists => let's return it
+                    // (but we can't check if all the files are actually there)
+                    return local_dir != null && Files.exists(local_dir) ? local_dir.toRealPath() : snapshot_folder;
+                }
+            }
+
+            // If we couldn't find the appropriate folder on disk, raise an error.
+            if (local_files_only) {
+                throw new LocalEntryNotFoundError(
+                        "Cannot find an appropriate cached snapshot folder for the specified revision on the local disk"
+                                + " and outgoing traffic has been disabled. To enable repo look-ups and downloads"
+                                + " online, pass 'local_files_only=false' as input.");
+            } else if (api_call_error instanceof OfflineModelIsEnabledException) {
+                throw new LocalEntryNotFoundError(
+                        "Cannot find an appropriate cached snapshot folder for the specified revision on the local disk"
+                                + " and outgoing traffic has been disabled. To enable repo look-ups and downloads"
+                                + " online, set 'HF_HUB_OFFLINE=0' as environment variable.",
+                        null, api_call_error);
+            } else if (api_call_error instanceof RepositoryNotFoundException
+                    || api_call_error instanceof GatedRepoException) {
+                // Repo not found => let's raise the actual error
+                throw api_call_error;
+            } else {
+                // Otherwise: most likely a connection issue or Hub downtime => let's warn the user
+                throw new LocalEntryNotFoundError(
+                        "An error happened while trying to locate the files on the Hub and we cannot find the"
+                                + " appropriate snapshot folder for the specified revision on the local disk. Please"
+                                + " check your internet connection and try again.",
+                        null, api_call_error);
+            }
+        }
+
+        // At this stage, internet connection is up and running
+        // => let's download the files!
+        assert repo_info.sha() != null : "Repo info returned from server must have a revision sha.";
+        assert repo_info.siblings() != null : "Repo info returned from server must have a siblings list.";
+        var filtered_repo_files = filter_repo_objects(repo_info.siblings(), allow_patterns, ignore_patterns,
+                RepoSibling::rfilename).stream().map(RepoSibling::rfilename).toList();
+        var commit_hash = repo_info.sha();
+        var snapshot_folder = storage_folder.resolve("snapshots").resolve(commit_hash);
+        // if passed revision is not identical to commit_hash
+        // then revision has to be a branch name or tag name.
+        // In that case store a ref.
+        _cache_commit_hash_for_specific_revision(storage_folder, revision, commit_hash);
+
+        var final_cache_dir = cache_dir;
+        var final_repo_type = repo_type;
+        var final_etag_timeout = etag_timeout;
+        // we pass the commit_hash to hf_hub_download
+        // so no network call happens if we already
+        // have the file locally.
+        Worker inner_hf_hub_download = repo_file -> hf_hub_download(repo_id, repo_file, null, final_repo_type,
+                commit_hash, library_name, library_version, final_cache_dir, local_dir, user_agent, force_download,
+                proxies, final_etag_timeout, token, local_files_only, headers, endpoint, false, null, null, null);
+
+        if (HF_HUB_ENABLE_HF_TRANSFER) {
+            // when using hf_transfer we don't want extra parallelism
+            // from the one hf_transfer provides
+            for (var file : filtered_repo_files) {
+                inner_hf_hub_download.download(file);
+            }
+        } else {
+            LOGGER.info("Fetching {} files", filtered_repo_files.size());
+            _download_concurrently(inner_hf_hub_download, DownloadScheduler.repo_key(repo_id, repo_type),
+                    filtered_repo_files, max_workers);
+        }
+
+        if (local_dir != null) {
+            return local_dir.toRealPath();
+        }
+        return snapshot_folder;
+    }
+
+    @FunctionalInterface
+    private interface Worker {
+        Path download(String repo_file) throws IOException;
+    }
+
+    /**
+     * Run `worker` on each file through the [`DownloadScheduler`], with at most `max_workers` downloads of this
+     * snapshot queued or running at a time. If a download fails, pending downloads are cancelled and the error is
+     * raised.
+     */
+    private static void _download_concurrently(Worker worker, String repo_key, List<String> repo_files,
+            int max_workers) throws IOException {
+        if (repo_files.isEmpty()) {
+            return;
+        }
+        var window = new Semaphore(Math.max(1, max_workers));
+        var failed = new AtomicBoolean(false);
+        var futures = new ArrayList<CompletableFuture<Path>>(repo_files.size());
+        try {
+            for (var repo_file : repo_files) {
+                window.acquire();
+                if (failed.get()) {
+                    break;
+                }
+                var future = DownloadScheduler.submit(DownloadScheduler.priority_of(repo_file), repo_key,
+                        () -> worker.download(repo_file));
+                future.whenComplete((path, error) -> {
+                    if (error != null) {
+                        failed.set(true);
+                    }
+                    window.release();
+                });
+                futures.add(future);
+            }
+            for (var future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package dev.transformers4j.hub.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_CACHE;
+
+/**
+ * Contains utilities to manage the HF cache directory.
+ *
+ * The cache is scanned with a fork/join traversal: one task per repo and per revision, and blobs are read by batches
+ * of `BLOBS_PER_TASK`. Threads of the pool mostly wait for the file system, there are more of them than cores.
+ */
+public class CacheManager {
+    /** Number of blobs read by a single task of the scan. */
+    static final int BLOBS_PER_TASK = 256;
+
+    private static final List<String> REPO_TYPES = List.of("model", "dataset", "space");
+
+    private static final ForkJoinPool _pool = new ForkJoinPool(
+            Math.max(8, java.lang.Runtime.getRuntime().availableProcessors() * 2), pool -> {
+                var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("hf-hub-cache-scan-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+
+    /**
+     * Frozen data structure holding information about a single cached file.
+     *
+     * Args: file_name (`str`): Name of the file. Example: `config.json`. file_path (`Path`): Path of the file in the
+     * `snapshots` directory. The file path is a symlink referring to a blob in the `blobs` folder. blob_path (`Path`):
+     * Path of the blob file. This is equivalent to `file_path.resolve()`. size_on_disk (`int`): Size of the blob file
+     * in bytes. blob_last_accessed (`Instant`): Timestamp of the last time the blob file has been accessed (from any
+     * revision). blob_last_modified (`Instant`): Timestamp of the last time the blob file has been modified/created.
+     * file_key (`Object`): Identity of the blob file on its file system (see `BasicFileAttributes.fileKey`), the same
+     * for the blobs of different repos shared through the [`BlobStore`]. `None` if the file system has none.
+     *
+     * `blob_last_accessed` relies on the access time of the blob, which [`CacheGC`] sets each time the file is
+     * returned from the cache. It is only partially updated by file systems mounted with `noatime` or `relatime`.
+     */
+    public record CachedFileInfo(String file_name, Path file_path, Path blob_path, long size_on_disk,
+            Instant blob_last_accessed, Instant blob_last_modified, Object file_key) {
+    }
+
+    /**
+     * Frozen data structure holding information about a blob of a repo, referred to by no file of its snapshots.
+     *
+     * Args: blob_path (`Path`): Path of the blob file. size_on_disk (`int`): Size of the blob file in bytes.
+     * blob_last_accessed (`Instant`): Timestamp of the last time the blob file has been accessed.
+     * blob_last_modified (`Instant`): Timestamp of the last time the blob file has been modified/created. file_key
+     * (`Object`): Identity of the blob file on its file system, `None` if the file system has none.
+     */
+    public record CachedBlobInfo(Path blob_path, long size_on_disk, Instant blob_last_accessed,
+            Instant blob_last_modified, Object file_key) {
+    }
+
+    /**
+     * Frozen data structure holding information about a revision.
+     *
+     * A revision correspond to a folder in the `snapshots` folder and is populated with the exact tree structure as
+     * the repo on the Hub but contains only symlinks. A revision can be either referenced by 1 or more `refs` or be
+     * "detached" (no refs).
+     *
+     * Args: commit_hash (`str`): Hash of the revision (unique). Example: `"9338f7b671827df886678df2bdd7cc7b4f36dffd"`.
+     * snapshot_path (`Path`): Path to the revision directory in the `snapshots` folder. It contains the exact tree
+     * structure as the repo on the Hub. size_on_disk (`int`): Sum of the blob file sizes that are symlink-ed by the
+     * revision. files: (`Set[CachedFileInfo]`): Set of [`CachedFileInfo`] describing all files contained in the
+     * snapshot. refs (`Set[str]`): Set of `refs` pointing to this revision. If the revision has no `refs`, it is
+     * considered detached. Example: `{"main", "2.4.0"}` or `{"refs/pr/1"}`. last_modified (`Instant`): Timestamp of
+     * the last time the revision has been created/modified. last_accessed (`Instant`): Timestamp of the last time a
+     * file of the revision has been accessed, its creation if it holds no file.
+     *
+     * `size_on_disk` is not necessarily the sum of all file sizes because of possible duplicated files. Besides, only
+     * blobs are taken into account, not the (negligible) size of folders and symlinks.
+     */
+    public record CachedRevisionInfo(String commit_hash, Path snapshot_path, long size_on_disk,
+            Set<CachedFileInfo> files, Set<String> refs, Instant last_modified, Instant last_accessed) {
+        /** Number of files in the revision. */
+        public int nb_files() {
+            return files.size();
+        }
+    }
+
+    /**
+     * Frozen data structure holding information about a cached repository.
+     *
+     * Args: repo_id (`str`): Repo id of the repo on the Hub. Example: `"google/fleurs"`. repo_type (`Literal["dataset",
+     * "model", "space"]`): Type of the cached repo. repo_path (`Path`): Local path to the cached repo. size_on_disk
+     * (`int`): Sum of the blob file sizes in the cached repo. nb_files (`int`): Total number of blob files in the
+     * cached repo. revisions (`Set[CachedRevisionInfo]`): Set of [`CachedRevisionInfo`] describing all revisions
+     * cached in the repo. last_accessed (`Instant`): Timestamp of the last time a blob file of the repo has been
+     * accessed. last_modified (`Instant`): Timestamp of the last time a blob file of the repo has been
+     * modified/created. dangling_pointers (`Set[Path]`): Files of the snapshots whose blob does not exist. They are
+     * not in `revisions`. dangling_refs (`Set[str]`): Refs pointing to a revision that is not in the cache.
+     * unreferenced_blobs (`Set[CachedBlobInfo]`): Blobs no file of the snapshots refers to. They are not counted in
+     * `size_on_disk` nor in `nb_files`.
+     *
+     * `size_on_disk` is not necessarily the sum of all revisions sizes because of duplicated files. Besides, only
+     * blobs are taken into account, not the (negligible) size of folders and symlinks.
+     */
+    public record CachedRepoInfo(String repo_id, String repo_type, Path repo_path, long size_on_disk, int nb_files,
+            Set<CachedRevisionInfo> revisions, Instant last_accessed, Instant last_modified,
+            Set<Path> dangling_pointers, Set<String> dangling_refs, Set<CachedBlobInfo> unreferenced_blobs) {
+        /** Mapping between `refs` and revision data structures. */
+        public Map<String, CachedRevisionInfo> refs() {
+            var refs = new HashMap<String, CachedRevisionInfo>();
+            for (var revision : revisions) {
+                for (var ref : revision.refs()) {
+                    refs.put(ref, revision);
+                }
+            }
+            return refs;
+        }
+
+        /** Blobs referred to by several revisions of the repo, stored once. */
+        public Set<Path> shared_blobs() {
+            var seen = new HashSet<Path>();
+            var shared = new HashSet<Path>();
+            for (var revision : revisions) {
+                for (var blob_path : revision.files().stream().map(CachedFileInfo::blob_path)
+                        .collect(Collectors.toSet())) {
+                    if (!seen.add(blob_path)) {
+                        shared.add(blob_path);
+                    }
+                }
+            }
+            return shared;
+        }
+
+        /** Whether the repo has dangling pointers, dangling refs or unreferenced blobs. */
+        public boolean is_broken() {
+            return !dangling_pointers.isEmpty() || !dangling_refs.isEmpty() || !unreferenced_blobs.isEmpty();
+        }
+    }
+
+    /**
+     * Frozen data structure holding information about the entire cache-system.
+     *
+     * This data structure is returned by [`scan_cache_dir`] and is immutable.
+     *
+     * Args: size_on_disk (`int`): Sum of all valid repo sizes in the cache-system, blobs shared by several repos
+     * through the [`BlobStore`] counted once. repos (`Set[CachedRepoInfo]`): Set of [`~CachedRepoInfo`] describing all
+     * valid cached repos found on the cache-system while scanning. warnings
+     * (`List[CorruptedCacheException]`): List of [`~CorruptedCacheException`] that occurred while scanning the cache.
+     * Those exceptions are captured so that the scan can continue. Corrupted repos are skipped from the scan.
+     */
+    public record HFCacheInfo(long size_on_disk, Set<CachedRepoInfo> repos, List<CorruptedCacheException> warnings) {
+    }
+
+    /**
+     * Scan the entire HF cache-system and return a [`~HFCacheInfo`] structure.
+     *
+     * Use `scan_cache_dir` in order to programmatically scan your cache-system. The cache will be scanned repo by
+     * repo. If a repo is corrupted, a [`~CorruptedCacheException`] will be added to the returned report's `warnings`
+     * and the scan continues: the folder is skipped. Broken entries of a valid repo (dangling pointers and refs,
+     * unreferenced blobs) are reported in its [`~CachedRepoInfo`].
+     *
+     * Args: cache_dir (`Path`, *optional*): Cache directory to cache. Defaults to the default HF cache directory.
+     *
+     * Returns: a [`~HFCacheInfo`] object.
+     *
+     * Raises: [`CacheNotFoundException`] If the cache directory does not exist. `IOException` If the cache directory
+     * is a file, instead of a directory, or cannot be read.
+     */
+    public static HFCacheInfo scan_cache_dir(Path cache_dir) throws IOException {
+        if (cache_dir == null) {
+            cache_dir = Path.of(HF_HUB_CACHE);
+        }
+        cache_dir = cache_dir.toAbsolutePath().normalize();
+        if (!Files.exists(cache_dir)) {
+            throw new CacheNotFoundException("Cache directory not found: " + cache_dir
+                    + ". Please use `cache_dir` argument or set `HF_HUB_CACHE` environment variable.", cache_dir);
+        }
+        if (Files.isRegularFile(cache_dir)) {
+            throw new IOException("Scan cache expects a directory but found a file: " + cache_dir
+                    + ". Please use `cache_dir` argument or set `HF_HUB_CACHE` environment variable.");
+        }
+
+        List<Path> repo_paths;
+        try (var paths = Files.list(cache_dir)) {
+            // Ignore `.locks` and other hidden files
+            repo_paths = paths.filter(path -> !path.getFileName().toString().startsWith(".")).toList();
+        }
+        var results = _map(repo_paths, 1, repo_path -> {
+            try {
+                return (Object) _scan_cached_repo(repo_path);
+            } catch (CorruptedCacheException e) {
+                return e;
+            }
+        });
+
+        var repos = new HashSet<CachedRepoInfo>();
+        var warnings = new ArrayList<CorruptedCacheException>();
+        for (var result : results) {
+            if (result instanceof CachedRepoInfo repo) {
+                repos.add(repo);
+            } else {
+                warnings.add((CorruptedCacheException) result);
+            }
+        }
+        // Blobs shared by repos through the store are counted once
+        var size_on_disk = _size_on_disk(repos.stream().flatMap(repo -> repo.revisions().stream())
+                .flatMap(revision -> revision.files().stream())::iterator);
+        return new HFCacheInfo(size_on_disk, Set.copyOf(repos), List.copyOf(warnings));
+    }
+
+    /** Scan a single cache repo and return information about it. Any unexpected behavior will raise. */
+    private static CachedRepoInfo _scan_cached_repo(Path repo_path) throws IOException {
+        if (!Files.isDirectory(repo_path)) {
+            throw new CorruptedCacheException("Repo path is not a directory: " + repo_path);
+        }
+        var name = repo_path.getFileName().toString();
+        if (!name.contains("--")) {
+            throw new CorruptedCacheException("Repo path is not a valid HuggingFace cache directory: " + repo_path);
+        }
+        var parts = name.split("--", 2);
+        var repo_type = parts[0].endsWith("s") ? parts[0].substring(0, parts[0].length() - 1) : parts[0];
+        var repo_id = parts[1].replace("--", "/");
+        if (!REPO_TYPES.contains(repo_type)) {
+            throw new CorruptedCacheException("Repo type must be `dataset`, `model` or `space`, found `" + repo_type
+                    + "` (" + repo_path + ").");
+        }
+
+        var snapshots_path = repo_path.resolve("snapshots");
+        var refs_path = repo_path.resolve("refs");
+        if (Files.exists(snapshots_path) && !Files.isDirectory(snapshots_path)) {
+            throw new CorruptedCacheException("Snapshots dir is not a directory in cached repo: " + snapshots_path);
+        }
+        if (Files.isRegularFile(refs_path)) {
+            throw new CorruptedCacheException("Refs directory cannot be a file: " + refs_path);
+        }
+
+        // Scan over `refs` directory: key is revision hash, value is set of refs
+        var refs_by_hash = new HashMap<String, Set<String>>();
+        if (Files.isDirectory(refs_path)) {
+            try (var paths = Files.walk(refs_path)) {
+                for (var ref_path : (Iterable<Path>) paths::iterator) {
+                    if (Files.isRegularFile(ref_path)) {
+                        var ref_name = refs_path.relativize(ref_path).toString().replace('\\', '/');
+                        var commit_hash = Files.readString(ref_path).strip();
+                        refs_by_hash.computeIfAbsent(commit_hash, ignored -> new HashSet<>()).add(ref_name);
+                    }
+                }
+            }
+        }
+
+        // Blobs, read by batches
+        var blobs_path = repo_path.resolve("blobs");
+        var blobs = new HashMap<Path, CachedBlobInfo>();
+        if (Files.isDirectory(blobs_path)) {
+            List<Path> blob_paths;
+            try (var paths = Files.list(blobs_path)) {
+                blob_paths = paths.filter(path -> !_is_download(path.getFileName().toString())).toList();
+            }
+            for (var blob : _map(blob_paths, BLOBS_PER_TASK, CacheManager::_blob_info)) {
+                if (blob != null) {
+                    blobs.put(blob.blob_path(), blob);
+                }
+            }
+        }
+
+        // Scan snapshots directory, a revision per task
+        var snapshot_paths = new ArrayList<Path>();
+        if (Files.isDirectory(snapshots_path)) {
+            try (var paths = Files.list(snapshots_path)) {
+                for (var revision_path : (Iterable<Path>) paths::iterator) {
+                    if (!Files.isDirectory(revision_path)) {
+                        throw new CorruptedCacheException(
+                                "Snapshots folder corrupted. Found a file: " + revision_path);
+                    }
+                    snapshot_paths.add(revision_path);
+                }
+            }
+        }
+        var revision_scans = _map(snapshot_paths, 1,
+                revision_path -> _scan_revision(revision_path, blobs, refs_by_hash));
+
+        var revisions = new HashSet<CachedRevisionInfo>();
+        var dangling_pointers = new HashSet<Path>();
+        var blob_stats = new HashMap<Path, CachedFileInfo>();
+        for (var scan : revision_scans) {
+            revisions.add(scan.revision());
+            dangling_pointers.addAll(scan.dangling_pointers());
+            for (var file : scan.revision().files()) {
+                blob_stats.putIfAbsent(file.blob_path(), file);
+            }
+        }
+        var commit_hashes = revisions.stream().map(CachedRevisionInfo::commit_hash).collect(Collectors.toSet());
+        var dangling_refs = new HashSet<String>();
+        refs_by_hash.forEach((commit_hash, refs) -> {
+            if (!commit_hashes.contains(commit_hash)) {
+                dangling_refs.addAll(refs);
+            }
+        });
+        var unreferenced_blobs = new HashSet<CachedBlobInfo>();
+        for (var blob : blobs.values()) {
+            if (!blob_stats.containsKey(blob.blob_path())) {
+                unreferenced_blobs.add(blob);
+            }
+        }
+
+        // Last modified/accessed is the most recent of the blobs
+        Instant last_accessed;
+        Instant last_modified;
+        if (blob_stats.isEmpty()) {
+            var attributes = Files.readAttributes(repo_path, BasicFileAttributes.class);
+            last_accessed = attributes.lastAccessTime().toInstant();
+            last_modified = attributes.lastModifiedTime().toInstant();
+        } else {
+            last_accessed = blob_stats.values().stream().map(CachedFileInfo::blob_last_accessed)
+                    .max(Comparator.naturalOrder()).orElseThrow();
+            last_modified = blob_stats.values().stream().map(CachedFileInfo::blob_last_modified)
+                    .max(Comparator.naturalOrder()).orElseThrow();
+        }
+
+        return new CachedRepoInfo(repo_id, repo_type, repo_path, _size_on_disk(blob_stats.values()),
+                blob_stats.size(), Set.copyOf(revisions), last_accessed, last_modified, Set.copyOf(dangling_pointers),
+                Set.copyOf(dangling_refs), Set.copyOf(unreferenced_blobs));
+    }
+
+    private record RevisionScan(CachedRevisionInfo revision, List<Path> dangling_pointers) {
+    }
+
+    private static RevisionScan _scan_revision(Path revision_path, Map<Path, CachedBlobInfo> blobs,
+            Map<String, Set<String>> refs_by_hash) throws IOException {
+        var files = new HashSet<CachedFileInfo>();
+        var dangling_pointers = new ArrayList<Path>();
+        try (var paths = Files.walk(revision_path)) {
+            for (var file_path : (Iterable<Path>) paths::iterator) {
+                var attributes = _attributes(file_path);
+                if (attributes == null || attributes.isDirectory()) {
+                    continue;
+                }
+                CachedBlobInfo blob;
+                if (attributes.isSymbolicLink()) {
+                    var target = file_path.getParent().resolve(Files.readSymbolicLink(file_path)).normalize();
+                    blob = blobs.get(target);
+                    if (blob == null) {
+                        // Not a blob of the repo (or added since the blobs were listed)
+                        blob = Files.exists(file_path) ? _blob_info(file_path.toRealPath()) : null;
+                    }
+                    if (blob == null) {
+                        dangling_pointers.add(file_path);
+                        continue;
+                    }
+                } else {
+                    // Copy of the blob, where symlinks are not supported
+                    blob = new CachedBlobInfo(file_path, attributes.size(),
+                            attributes.lastAccessTime().toInstant(), attributes.lastModifiedTime().toInstant(),
+                            attributes.fileKey());
+                }
+                files.add(new CachedFileInfo(revision_path.relativize(file_path).toString().replace('\\', '/'),
+                        file_path, blob.blob_path(), blob.size_on_disk(), blob.blob_last_accessed(),
+                        blob.blob_last_modified(), blob.file_key()));
+            }
+        }
+
+        var last_modified = Files.getLastModifiedTime(revision_path).toInstant();
+        var last_accessed = files.stream().map(CachedFileInfo::blob_last_accessed).max(Comparator.naturalOrder())
+                .orElse(last_modified);
+        var commit_hash = revision_path.getFileName().toString();
+        var revision = new CachedRevisionInfo(commit_hash, revision_path, _size_on_disk(files), Set.copyOf(files),
+                Set.copyOf(refs_by_hash.getOrDefault(commit_hash, Set.of())), last_modified, last_accessed);
+        return new RevisionScan(revision, dangling_pointers);
+    }
+
+    /** Sum of the sizes of the distinct blob files of `files`: blobs sharing the same file are counted once. */
+    private static long _size_on_disk(Iterable<CachedFileInfo> files) {
+        var sizes = new HashMap<Object, Long>();
+        for (var file : files) {
+            sizes.put(file.file_key() != null ? file.file_key() : file.blob_path(), file.size_on_disk());
+        }
+        return sizes.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Files of a download in progress next to the blobs: partial blobs, their progress files (see `ParallelDownload`)
+     * and links being created (see `BlobStore`).
+     */
+    private static boolean _is_download(String name) {
+        return name.endsWith(".incomplete") || name.endsWith(".incomplete.ranges") || name.endsWith(".tmp");
+    }
+
+    /** Information about the blob `path`, `None` if it is not a regular file or has been deleted in the meantime. */
+    private static CachedBlobInfo _blob_info(Path path) throws IOException {
+        var attributes = _attributes(path);
+        if (attributes == null || !attributes.isRegularFile()) {
+            return null;
+        }
+        return new CachedBlobInfo(path, attributes.size(), attributes.lastAccessTime().toInstant(),
+                attributes.lastModifiedTime().toInstant(), attributes.fileKey());
+    }
+
+    private static BasicFileAttributes _attributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IOFunction<T, R> {
+        R apply(T value) throws IOException;
+    }
+
+    /**
+     * Apply `function` to each of `items` on the pool of the scan, in tasks of at most `batch` items. Results are in
+     * the order of `items`.
+     */
+    private static <T, R> List<R> _map(List<T> items, int batch, IOFunction<T, R> function) throws IOException {
+        var task = new MapTask<>(items, batch, function);
+        try {
+            // Tasks forked by a task of the scan run in the same pool
+            return ForkJoinTask.getPool() == _pool ? task.invoke() : _pool.invoke(task);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class MapTask<T, R> extends RecursiveTask<List<R>> {
+        private final List<T> items;
+        private final int batch;
+        private final IOFunction<T, R> function;
+
+        private MapTask(List<T> items, int batch, IOFunction<T, R> function) {
+            this.items = items;
+            this.batch = batch;
+            this.function = function;
+        }
+
+        @Override
+        protected List<R> compute() {
+            if (items.size() <= batch) {
+                var results = new ArrayList<R>(items.size());
+                for (var item : items) {
+                    try {
+                        results.add(function.apply(item));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return results;
+            }
+            var middle = items.size() / 2;
+            var left = new MapTask<>(items.subList(0, middle), batch, function);
+            var right = new MapTask<>(items.subList(middle, items.size()), batch, function);
+            left.fork();
+            var results = new ArrayList<>(right.compute());
+            results.addAll(0, left.join());
+            return results;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package dev.transformers4j.hub.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/** Raised when the cache to scan does not exist. */
+public class CacheNotFoundException extends IOException {
+    private final Path cache_dir;
+
+    public CacheNotFoundException(String message, Path cache_dir) {
+        super(message);
+        this.cache_dir = cache_dir;
+    }
+
+    public Path cache_dir() {
+        return cache_dir;
+    }
+}
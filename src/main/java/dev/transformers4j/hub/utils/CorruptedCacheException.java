@@ -0,0 +1,10 @@
+package dev.transformers4j.hub.utils;
+
+import java.io.IOException;
+
+/** Raised when a folder of the cache does not have the layout of a cached repo. Reported by the cache scan. */
+public class CorruptedCacheException extends IOException {
+    public CorruptedCacheException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,194 @@
+package dev.transformers4j.hub.utils;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_DOWNLOAD_MAX_BANDWIDTH;
+import static dev.transformers4j.hub.Constants.HF_HUB_DOWNLOAD_MAX_CONNECTIONS_PER_HOST;
+
+/**
+ * Limits shared by all the downloads of this process: a maximum bandwidth and a maximum number of concurrent download
+ * connections per host.
+ *
+ * The bandwidth is limited with a token bucket: downloads [`reserve`] the bytes they have just received, and wait until
+ * the bucket has been refilled before reading more. Up to `BURST_NANOS` worth of unused bandwidth is accumulated while
+ * downloads are idle. Connections are limited per scheme and authority of the url (e.g. the CDN a file is downloaded
+ * from) with [`acquire_connection`].
+ *
+ * Both limits are read from `HF_HUB_DOWNLOAD_MAX_BANDWIDTH` and `HF_HUB_DOWNLOAD_MAX_CONNECTIONS_PER_HOST` (0 means
+ * unlimited, the default) and can be changed at any time with [`configure`]: downloads in progress pick up the new
+ * limits. When a limit is disabled, it costs a single volatile read per call.
+ */
+public class DownloadLimits {
+    /** How much unused bandwidth can be spent at once after an idle period, in nanoseconds of bandwidth. */
+    static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** Smallest read when the bandwidth is limited: smaller reads would only add overhead. */
+    private static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+    private static volatile long _max_bandwidth = HF_HUB_DOWNLOAD_MAX_BANDWIDTH;
+    private static volatile int _max_connections_per_host = HF_HUB_DOWNLOAD_MAX_CONNECTIONS_PER_HOST;
+
+    private static final Object _bucket_lock = new Object();
+    // Time at which all the bytes reserved so far will have been paid for
+    private static long _available_at = System.nanoTime();
+
+    private static final Map<String, HostSlots> _hosts = new ConcurrentHashMap<>();
+
+    /** Connections to a host: the number in use and the downloads waiting for one, in order of arrival. */
+    private static final class HostSlots {
+        private int in_use = 0;
+        private final ArrayDeque<CompletableFuture<Connection>> waiters = new ArrayDeque<>();
+    }
+
+    /** A download connection to a host, released by [`close`]. */
+    public static final class Connection implements AutoCloseable {
+        private static final Connection UNLIMITED = new Connection(null);
+
+        private final HostSlots slots;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Connection(HostSlots slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public void close() {
+            if (slots != null && released.compareAndSet(false, true)) {
+                synchronized (slots) {
+                    slots.in_use--;
+                }
+                _grant(slots);
+            }
+        }
+    }
+
+    /**
+     * Change the limits of all downloads, including the ones in progress.
+     *
+     * Args: max_bandwidth (`long`): Maximum number of bytes downloaded per second. 0 for no limit.
+     * max_connections_per_host (`int`): Maximum number of concurrent downloads from the same host. 0 for no limit.
+     */
+    public static void configure(long max_bandwidth, int max_connections_per_host) {
+        synchronized (_bucket_lock) {
+            _max_bandwidth = Math.max(0, max_bandwidth);
+            _available_at = System.nanoTime();
+        }
+        _max_connections_per_host = Math.max(0, max_connections_per_host);
+        // More connections may be allowed now
+        _hosts.values().forEach(DownloadLimits::_grant);
+    }
+
+    /** Maximum number of bytes downloaded per second, or 0 if the bandwidth is not limited. */
+    public static long max_bandwidth() {
+        return _max_bandwidth;
+    }
+
+    /** Maximum number of concurrent downloads from the same host, or 0 if they are not limited. */
+    public static int max_connections_per_host() {
+        return _max_connections_per_host;
+    }
+
+    /**
+     * Reserve `bytes` of bandwidth.
+     *
+     * Returns: How long to wait, in nanoseconds, before receiving more data. 0 if the bandwidth is not limited.
+     */
+    public static long reserve(long bytes) {
+        var max_bandwidth = _max_bandwidth;
+        if (max_bandwidth == 0 || bytes <= 0) {
+            return 0;
+        }
+        synchronized (_bucket_lock) {
+            var now = System.nanoTime();
+            var start = Math.max(_available_at, now - BURST_NANOS);
+            _available_at = start + (long) (bytes * 1_000_000_000d / max_bandwidth);
+            return Math.max(0, _available_at - now);
+        }
+    }
+
+    /** Reserve `bytes` of bandwidth and wait until more data can be received. */
+    public static void throttle(long bytes) throws InterruptedException {
+        var wait = reserve(bytes);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Size of the next read of a download, at most `chunk_size`. When the bandwidth is limited, reads are kept small
+     * enough that the download is throttled smoothly instead of by bursts of `chunk_size` bytes.
+     */
+    public static long chunk_size(long chunk_size) {
+        var max_bandwidth = _max_bandwidth;
+        if (max_bandwidth == 0) {
+            return chunk_size;
+        }
+        return Math.min(chunk_size, Math.max(MIN_CHUNK_SIZE, max_bandwidth / 10));
+    }
+
+    /**
+     * Wait for a download connection to the host of `url`. The connection must be closed once the download is over.
+     *
+     * Raises: `InterruptedException` if the thread is interrupted while waiting.
+     */
+    public static Connection acquire_connection(String url) throws InterruptedException {
+        var future = acquire_connection_async(url);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (!future.cancel(false)) {
+                // Granted in the meantime
+                future.join().close();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /** Asynchronous version of [`acquire_connection`]. */
+    public static CompletableFuture<Connection> acquire_connection_async(String url) {
+        if (_max_connections_per_host == 0) {
+            return CompletableFuture.completedFuture(Connection.UNLIMITED);
+        }
+        var uri = URI.create(url);
+        var slots = _hosts.computeIfAbsent(uri.getScheme() + "://" + uri.getRawAuthority(), k -> new HostSlots());
+        var future = new CompletableFuture<Connection>();
+        synchronized (slots) {
+            slots.waiters.add(future);
+        }
+        _grant(slots);
+        return future;
+    }
+
+    /** Hand out the connections of `slots` that are free to the downloads waiting for them. */
+    private static void _grant(HostSlots slots) {
+        var granted = new ArrayList<CompletableFuture<Connection>>();
+        synchronized (slots) {
+            while (!slots.waiters.isEmpty()
+                    && (_max_connections_per_host == 0 || slots.in_use < _max_connections_per_host)) {
+                var waiter = slots.waiters.poll();
+                if (!waiter.isDone()) {
+                    slots.in_use++;
+                    granted.add(waiter);
+                }
+            }
+        }
+        // Complete outside of the lock: callbacks may start downloads right away
+        for (var waiter : granted) {
+            var connection = new Connection(slots);
+            if (!waiter.complete(connection)) {
+                // Cancelled in the meantime
+                connection.close();
+            }
+        }
+    }
+}
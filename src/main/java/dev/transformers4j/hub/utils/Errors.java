@@ -74,7 +74,7 @@ public class Errors {
                 var message = response.statusCode() + " Client Error." + "\n\n" + "Cannot access gated repo for url "
                         + response.uri() + ".";
                 throw new GatedRepoException(message, response);
-            } else if (error_message.equals("Access to this resource is disabled.")) {
+            } else if ("Access to this resource is disabled.".equals(error_message)) {
                 var message = response.statusCode() + " Client Error." + "\n\n" + "Cannot access repository for url "
                         + response.uri() + "." + "\n" + "Access to this resource is disabled.";
                 throw new DisabledRepoException(message, response);
@@ -0,0 +1,96 @@
+package dev.transformers4j.hub.utils;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+
+public class Http {
+
+    /** Key of a cached session: the scheme and authority of the target and the redirect policy. */
+    record SessionKey(String endpoint, HttpClient.Redirect redirect) {
+    }
+
+    private static final Map<SessionKey, HttpClient> _sessions = new ConcurrentHashMap<>();
+
+    private static volatile BiFunction<String, HttpClient.Redirect, HttpClient> _backend_factory = Http::_default_backend_factory;
+
+    private static volatile Executor _executor = null;
+
+    /**
+     * Default factory used to build the `HttpClient` of a given endpoint.
+     *
+     * Clients negotiate HTTP/2 when the server supports it (and fall back to HTTP/1.1 otherwise) so that all requests
+     * to the same host share a single multiplexed connection. If an executor has been configured with
+     * [`configure_http_executor`], it is used to run the asynchronous tasks of the client. Otherwise, the client runs
+     * them on virtual threads if they are enabled (see [`Threads`]).
+     */
+    public static HttpClient _default_backend_factory(String endpoint, HttpClient.Redirect redirect) {
+        var builder = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).followRedirects(redirect);
+        var executor = _executor;
+        if (executor == null && Threads.use_virtual_threads()) {
+            executor = Threads.hub_executor();
+        }
+        if (executor != null) {
+            builder = builder.executor(executor);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Configure the HTTP backend by providing a `backend_factory`. Any HTTP calls made by `huggingface_hub` will use a
+     * client built by this factory. This can be useful if you are running your scripts in a specific environment
+     * requiring custom configuration (e.g. custom proxy, SSL context or authenticator).
+     *
+     * Since clients are long-lived and shared, the factory is called at most once per endpoint and redirect policy.
+     * Previously created clients are discarded when a new factory is configured.
+     *
+     * Args: backend_factory (`BiFunction[str, Redirect, HttpClient]`): A function that takes the endpoint (scheme and
+     * authority, e.g. `https://huggingface.co`) and the redirect policy and returns a `HttpClient` instance.
+     */
+    public static void configure_http_backend(BiFunction<String, HttpClient.Redirect, HttpClient> backend_factory) {
+        _backend_factory = backend_factory != null ? backend_factory : Http::_default_backend_factory;
+        reset_sessions();
+    }
+
+    /**
+     * Configure the executor used by the default backend factory to run asynchronous tasks. Pass `null` to use the
+     * default executor of `HttpClient`. Previously created clients are discarded.
+     */
+    public static void configure_http_executor(Executor executor) {
+        _executor = executor;
+        reset_sessions();
+    }
+
+    /**
+     * Get a `HttpClient` object, using the backend factory set by the user with [`configure_http_backend`].
+     *
+     * Clients are cached per endpoint and redirect policy so that TLS sessions and pooled connections are reused
+     * across requests. A client is never closed explicitly: it is released when it is discarded by
+     * [`reset_sessions`].
+     *
+     * Args: url (`str`): The URL the client will be used for. allow_redirects (`bool`): Whether the client should
+     * follow redirects.
+     */
+    public static HttpClient get_session(String url, boolean allow_redirects) {
+        var redirect = allow_redirects ? HttpClient.Redirect.ALWAYS : HttpClient.Redirect.NEVER;
+        var key = new SessionKey(_get_endpoint(url), redirect);
+        return _sessions.computeIfAbsent(key, k -> _backend_factory.apply(k.endpoint(), k.redirect()));
+    }
+
+    /**
+     * Reset the cache of sessions.
+     *
+     * Mostly used internally when sessions are reconfigured or an SSLError is raised.
+     */
+    public static void reset_sessions() {
+        _sessions.clear();
+    }
+
+    private static String _get_endpoint(String url) {
+        var uri = URI.create(url);
+        return uri.getScheme() + "://" + uri.getRawAuthority();
+    }
+}
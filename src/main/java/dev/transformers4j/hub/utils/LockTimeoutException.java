@@ -0,0 +1,10 @@
+package dev.transformers4j.hub.utils;
+
+import java.io.IOException;
+
+/** Raised when a lock in the cache could not be acquired before the timeout. */
+public class LockTimeoutException extends IOException {
+    public LockTimeoutException(String message) {
+        super(message);
+    }
+}
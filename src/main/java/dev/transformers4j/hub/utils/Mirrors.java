@@ -0,0 +1,401 @@
+package dev.transformers4j.hub.utils;
+
+import dev.transformers4j.hub.utils.RetryPolicy.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static dev.transformers4j.hub.Constants.HF_ENDPOINT_MIRRORS;
+import static dev.transformers4j.hub.Constants.HF_HUB_MIRROR_PROBE_INTERVAL;
+
+/**
+ * Mirrors of the Hub, used instead of `ENDPOINT` when they are set with `HF_ENDPOINT_MIRRORS` (comma-separated urls)
+ * or [`configure`].
+ *
+ * Requests for which no endpoint is given go to the fastest available mirror ([`resolve`]). The latency of each
+ * mirror is a moving average of the time it takes to answer, measured on the requests themselves and on probes (a
+ * `HEAD` of its root) sent every `HF_HUB_MIRROR_PROBE_INTERVAL` seconds. A mirror that fails a probe or
+ * `FAILURE_THRESHOLD` requests in a row is left out for `COOLDOWN` (circuit breaker); it is then tried again, and a
+ * single success puts it back in rotation.
+ *
+ * A request to a mirror that fails with a network error or a 5xx status is sent again to the next mirror ([`send`]),
+ * with the same path and headers: a download resumed with a `Range` header continues where it stopped. Only the last
+ * mirror tried retries according to the [`RetryPolicy`], so that a mirror that is down does not delay the failover.
+ */
+public class Mirrors {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Mirrors.class);
+
+    /** Number of failed requests in a row after which a mirror is left out. */
+    public static final int FAILURE_THRESHOLD = 3;
+
+    /** How long a failing mirror is left out before being tried again. */
+    public static final Duration COOLDOWN = Duration.ofSeconds(30);
+
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+
+    // Weight of the last measure in the moving average of the latency
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    /**
+     * Health of a mirror.
+     *
+     * Args: endpoint (`str`): Url of the mirror. available (`bool`): Whether requests are sent to it. latency
+     * (`Duration`, *optional*): Moving average of its response time, `None` until it has answered once. successes
+     * (`long`): Number of requests and probes it answered. failures (`long`): Number of requests and probes that
+     * failed.
+     */
+    public record MirrorStats(String endpoint, boolean available, Duration latency, long successes, long failures) {
+    }
+
+    private static final class Mirror {
+        private final String endpoint;
+        private final int rank;
+        private double latency_nanos = Double.NaN;
+        private int consecutive_failures = 0;
+        // Left out until `open_until` (`System.nanoTime()`) when the circuit is open
+        private boolean open = false;
+        private long open_until = 0;
+        private long successes = 0;
+        private long failures = 0;
+
+        private Mirror(String endpoint, int rank) {
+            this.endpoint = endpoint;
+            this.rank = rank;
+        }
+
+        private synchronized boolean available(long now) {
+            return !open || open_until - now <= 0;
+        }
+
+        private synchronized long retry_in(long now) {
+            return open ? open_until - now : 0;
+        }
+
+        /** Latency used to rank mirrors: mirrors that have not answered yet come after the others. */
+        private synchronized double latency() {
+            return Double.isNaN(latency_nanos) ? Double.MAX_VALUE : latency_nanos;
+        }
+    }
+
+    private static volatile List<Mirror> _mirrors = List.of();
+    private static ScheduledExecutorService _prober = null;
+
+    static {
+        if (HF_ENDPOINT_MIRRORS != null && !HF_ENDPOINT_MIRRORS.isBlank()) {
+            configure(Arrays.asList(HF_ENDPOINT_MIRRORS.split(",")),
+                    Duration.ofSeconds(HF_HUB_MIRROR_PROBE_INTERVAL));
+        }
+    }
+
+    /**
+     * Set the mirrors to use, replacing the previous ones.
+     *
+     * Args: endpoints (`List[str]`): Urls of the mirrors, in order of preference until their latency is known. Empty
+     * to stop using mirrors. probe_interval (`Duration`): Time between two probes of the mirrors. Zero to only measure
+     * their latency on requests.
+     */
+    public static synchronized void configure(List<String> endpoints, Duration probe_interval) {
+        if (_prober != null) {
+            _prober.shutdownNow();
+            _prober = null;
+        }
+        var mirrors = new ArrayList<Mirror>();
+        for (var endpoint : endpoints) {
+            endpoint = endpoint.strip();
+            while (endpoint.endsWith("/")) {
+                endpoint = endpoint.substring(0, endpoint.length() - 1);
+            }
+            if (!endpoint.isEmpty()) {
+                mirrors.add(new Mirror(endpoint, mirrors.size()));
+            }
+        }
+        _mirrors = List.copyOf(mirrors);
+        if (!mirrors.isEmpty() && probe_interval != null && !probe_interval.isZero()
+                && !probe_interval.isNegative()) {
+            _prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "hf-hub-mirror-probe");
+                thread.setDaemon(true);
+                return thread;
+            });
+            _prober.scheduleWithFixedDelay(Mirrors::probe, 0, probe_interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Urls of the configured mirrors. */
+    public static List<String> endpoints() {
+        return _mirrors.stream().map(mirror -> mirror.endpoint).toList();
+    }
+
+    /** Health of the configured mirrors. */
+    public static List<MirrorStats> stats() {
+        var now = System.nanoTime();
+        var stats = new ArrayList<MirrorStats>();
+        for (var mirror : _mirrors) {
+            synchronized (mirror) {
+                stats.add(new MirrorStats(mirror.endpoint, mirror.available(now),
+                        Double.isNaN(mirror.latency_nanos) ? null : Duration.ofNanos((long) mirror.latency_nanos),
+                        mirror.successes, mirror.failures));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Endpoint to send a request to: `endpoint` if it is given, otherwise the fastest available mirror, or `None` if
+     * no mirrors are configured (the default `ENDPOINT` is used then).
+     */
+    public static String resolve(String endpoint) {
+        if (endpoint != null) {
+            return endpoint;
+        }
+        var mirrors = _mirrors;
+        if (mirrors.isEmpty()) {
+            return null;
+        }
+        var best = _best(mirrors, Set.of());
+        if (best == null) {
+            // All mirrors are failing: use the one that will be tried again first
+            var now = System.nanoTime();
+            best = mirrors.stream().min(Comparator.comparingLong(mirror -> mirror.retry_in(now))).get();
+        }
+        return best.endpoint;
+    }
+
+    /**
+     * A download from `url` was interrupted: record the failure of its mirror and return the same url on the best
+     * other available mirror, to resume the download from there. `url` is returned if it is not on a mirror or if no
+     * other mirror is available.
+     */
+    public static String failover(String url) {
+        var mirror = _mirror_of(url);
+        if (mirror == null) {
+            return url;
+        }
+        _failure(mirror, false);
+        var next = _best(_mirrors, Set.of(mirror));
+        if (next == null) {
+            return url;
+        }
+        LOGGER.warn("Resuming download of {} from mirror {}", url, next.endpoint);
+        return _move(url, mirror, next);
+    }
+
+    /**
+     * Send `request` with the [`RetryPolicy`] of `operation`. If it targets a mirror that fails, it is sent to the
+     * other mirrors in turn, until one of them answers.
+     *
+     * Returns: The first response that is not a server error, or the response of the last mirror tried.
+     *
+     * Raises: `IOException` if the request failed on the last mirror tried.
+     */
+    public static <T> HttpResponse<T> send(Operation operation, HttpRequest request, boolean allow_redirects,
+            HttpResponse.BodyHandler<T> body_handler) throws IOException, InterruptedException {
+        var url = request.uri().toString();
+        var mirror = _start(url);
+        if (mirror == null) {
+            return RetryPolicy.send(operation, Http.get_session(url, allow_redirects), request, body_handler);
+        }
+        var tried = new HashSet<Mirror>();
+        while (true) {
+            tried.add(mirror);
+            var next = _best(_mirrors, tried);
+            var target = _move(request, mirror);
+            var session = Http.get_session(target.uri().toString(), allow_redirects);
+            var start = System.nanoTime();
+            try {
+                var response = next == null ? RetryPolicy.send(operation, session, target, body_handler)
+                        : session.send(target, body_handler);
+                if (response.statusCode() < 500) {
+                    _success(mirror, System.nanoTime() - start);
+                    return response;
+                }
+                _failure(mirror, false);
+                if (next == null) {
+                    return response;
+                }
+                _discard(response);
+                LOGGER.warn("Mirror {} answered {} to {}: trying mirror {}", mirror.endpoint, response.statusCode(),
+                        target.uri(), next.endpoint);
+            } catch (IOException e) {
+                _failure(mirror, false);
+                if (next == null) {
+                    throw e;
+                }
+                LOGGER.warn("Error while requesting {} from mirror {}: {}. Trying mirror {}", target.uri(),
+                        mirror.endpoint, e.getLocalizedMessage(), next.endpoint);
+            }
+            mirror = next;
+        }
+    }
+
+    /** Asynchronous version of [`send`]. */
+    public static <T> CompletableFuture<HttpResponse<T>> send_async(Operation operation, HttpRequest request,
+            boolean allow_redirects, HttpResponse.BodyHandler<T> body_handler) {
+        var url = request.uri().toString();
+        var mirror = _start(url);
+        if (mirror == null) {
+            return RetryPolicy.send_async(operation, Http.get_session(url, allow_redirects), request, body_handler);
+        }
+        return _send_async(operation, request, allow_redirects, body_handler, mirror, new HashSet<>());
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> _send_async(Operation operation, HttpRequest request,
+            boolean allow_redirects, HttpResponse.BodyHandler<T> body_handler, Mirror mirror, Set<Mirror> tried) {
+        tried.add(mirror);
+        var next = _best(_mirrors, tried);
+        var target = _move(request, mirror);
+        var session = Http.get_session(target.uri().toString(), allow_redirects);
+        var start = System.nanoTime();
+        // The future only completes once the body is received: an error after the headers is left to the caller,
+        // which knows what was received and can resume from there (see `FileDownload.http_get_async`)
+        var received = new AtomicBoolean(false);
+        HttpResponse.BodyHandler<T> handler = response_info -> {
+            received.set(response_info.statusCode() < 500);
+            return body_handler.apply(response_info);
+        };
+        var future = next == null ? RetryPolicy.send_async(operation, session, target, handler)
+                : session.sendAsync(target, handler);
+        return future.handle((response, error) -> {
+            if (error == null && response.statusCode() < 500) {
+                _success(mirror, System.nanoTime() - start);
+                return CompletableFuture.completedFuture(response);
+            }
+            _failure(mirror, false);
+            if (next == null || received.get()) {
+                return error == null ? CompletableFuture.completedFuture(response)
+                        : CompletableFuture.<HttpResponse<T>> failedFuture(
+                                error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                                        : error);
+            }
+            if (error == null) {
+                _discard(response);
+            }
+            LOGGER.warn("Request {} to mirror {} failed: trying mirror {}", target.uri(), mirror.endpoint,
+                    next.endpoint);
+            return _send_async(operation, request, allow_redirects, body_handler, next, tried);
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * Probe all mirrors now and wait for their answers. A mirror answering with a server error or not answering
+     * within 5 seconds is left out right away.
+     */
+    public static void probe() {
+        var probes = new ArrayList<CompletableFuture<?>>();
+        for (var mirror : _mirrors) {
+            var request = HttpRequest.newBuilder(URI.create(mirror.endpoint + "/"))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody()).timeout(PROBE_TIMEOUT).build();
+            var start = System.nanoTime();
+            probes.add(Http.get_session(mirror.endpoint, false)
+                    .sendAsync(request, HttpResponse.BodyHandlers.discarding()).handle((response, error) -> {
+                        if (error == null && response.statusCode() < 500) {
+                            _success(mirror, System.nanoTime() - start);
+                        } else {
+                            LOGGER.debug("Probe of mirror {} failed: {}", mirror.endpoint,
+                                    error != null ? error.getLocalizedMessage() : response.statusCode());
+                            _failure(mirror, true);
+                        }
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(probes.toArray(CompletableFuture[]::new)).join();
+    }
+
+    /** Mirror to send a request for `url` to first: its own, unless it is left out and another one is available. */
+    private static Mirror _start(String url) {
+        var mirror = _mirror_of(url);
+        if (mirror == null || mirror.available(System.nanoTime())) {
+            return mirror;
+        }
+        var best = _best(_mirrors, Set.of(mirror));
+        return best != null ? best : mirror;
+    }
+
+    /** Configured mirror `url` belongs to, if any. */
+    private static Mirror _mirror_of(String url) {
+        for (var mirror : _mirrors) {
+            if (url.startsWith(mirror.endpoint) && (url.length() == mirror.endpoint.length()
+                    || url.charAt(mirror.endpoint.length()) == '/')) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    /** Fastest available mirror that has not been tried, or `None`. */
+    private static Mirror _best(List<Mirror> mirrors, Set<Mirror> tried) {
+        var now = System.nanoTime();
+        return mirrors.stream().filter(mirror -> !tried.contains(mirror) && mirror.available(now))
+                .min(Comparator.comparingDouble(Mirror::latency).thenComparingInt(mirror -> mirror.rank))
+                .orElse(null);
+    }
+
+    private static String _move(String url, Mirror from, Mirror to) {
+        return to.endpoint + url.substring(from.endpoint.length());
+    }
+
+    /** `request`, sent to `mirror` instead of the mirror of its url. */
+    private static HttpRequest _move(HttpRequest request, Mirror mirror) {
+        var url = request.uri().toString();
+        var current = _mirror_of(url);
+        if (current == mirror) {
+            return request;
+        }
+        return HttpRequest.newBuilder(request, (name, value) -> true).uri(URI.create(_move(url, current, mirror)))
+                .build();
+    }
+
+    private static void _success(Mirror mirror, long latency_nanos) {
+        synchronized (mirror) {
+            mirror.latency_nanos = Double.isNaN(mirror.latency_nanos) ? latency_nanos
+                    : LATENCY_WEIGHT * latency_nanos + (1 - LATENCY_WEIGHT) * mirror.latency_nanos;
+            mirror.consecutive_failures = 0;
+            mirror.open = false;
+            mirror.successes++;
+        }
+    }
+
+    private static void _failure(Mirror mirror, boolean open) {
+        synchronized (mirror) {
+            mirror.failures++;
+            mirror.consecutive_failures++;
+            if (open || mirror.consecutive_failures >= FAILURE_THRESHOLD) {
+                if (mirror.available(System.nanoTime())) {
+                    LOGGER.warn("Mirror {} is failing: leaving it out for {} seconds", mirror.endpoint,
+                            COOLDOWN.toSeconds());
+                }
+                mirror.open = true;
+                mirror.open_until = System.nanoTime() + COOLDOWN.toNanos();
+            }
+        }
+    }
+
+    /** Release the connection of a response that is not used. */
+    private static void _discard(HttpResponse<?> response) {
+        if (response.body() instanceof Closeable body) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close response body: {}", e.getLocalizedMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package dev.transformers4j.hub.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/** Helpers to filter files of a repository by path. */
+public class Paths {
+
+    /**
+     * Filter repo objects based on an allowlist and a denylist.
+     *
+     * Input must be a list of paths (`str`) or a list of arbitrary objects. In the latter case, `key` must be provided
+     * and specifies a function of one argument that is used to extract a path from each element in iterable.
+     *
+     * Patterns are Unix shell-style wildcards which are NOT regular expressions. See
+     * https://docs.python.org/3/library/fnmatch.html for more details. In particular, `*` also matches `/`. A pattern
+     * ending with `/` matches everything inside that folder.
+     *
+     * Args: items (`List`): List of items to filter. allow_patterns (`List[str]`, *optional*): Patterns constituting
+     * the allowlist. If provided, item paths must match at least one pattern from the allowlist. ignore_patterns
+     * (`List[str]`, *optional*): Patterns constituting the denylist. If provided, item paths must not match any
+     * patterns from the denylist. key (`Callable[[T], str]`, *optional*): Single-argument function to extract a path
+     * from each item. If not provided, the `items` must already be `str`.
+     *
+     * Returns: Filtered list of objects, as a list.
+     *
+     * Example:
+     *
+     * ```python >>> # Filter only PDFs that are not hidden. >>> list(filter_repo_objects( ... ["aaa.pdf", "bbb.jpg",
+     * ".ccc.pdf", ".ddd.png"], ... allow_patterns=["*.pdf"], ... ignore_patterns=[".*"], ... )) ["aaa.pdf"] ```
+     */
+    public static <T> List<T> filter_repo_objects(Iterable<T> items, List<String> allow_patterns,
+            List<String> ignore_patterns, Function<T, String> key) {
+        var allow = allow_patterns != null ? allow_patterns.stream().map(Paths::_fnmatch_pattern).toList() : null;
+        var ignore = ignore_patterns != null ? ignore_patterns.stream().map(Paths::_fnmatch_pattern).toList() : null;
+
+        var filtered = new ArrayList<T>();
+        for (var item : items) {
+            var path = key != null ? key.apply(item) : (String) item;
+
+            // Skip if there's an allowlist and path doesn't match any
+            if (allow != null && allow.stream().noneMatch(pattern -> pattern.matcher(path).matches())) {
+                continue;
+            }
+
+            // Skip if there's a denylist and path matches any
+            if (ignore != null && ignore.stream().anyMatch(pattern -> pattern.matcher(path).matches())) {
+                continue;
+            }
+
+            filtered.add(item);
+        }
+        return filtered;
+    }
+
+    public static List<String> filter_repo_objects(Iterable<String> items, List<String> allow_patterns,
+            List<String> ignore_patterns) {
+        return filter_repo_objects(items, allow_patterns, ignore_patterns, null);
+    }
+
+    /** Translate a Unix shell-style pattern to a regular expression, following Python's `fnmatch.translate`. */
+    private static Pattern _fnmatch_pattern(String pattern) {
+        if (pattern.endsWith("/")) {
+            pattern += "*";
+        }
+        var regex = new StringBuilder();
+        var i = 0;
+        while (i < pattern.length()) {
+            var c = pattern.charAt(i++);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '[') {
+                var j = i;
+                if (j < pattern.length() && pattern.charAt(j) == '!') {
+                    j++;
+                }
+                if (j < pattern.length() && pattern.charAt(j) == ']') {
+                    j++;
+                }
+                while (j < pattern.length() && pattern.charAt(j) != ']') {
+                    j++;
+                }
+                if (j >= pattern.length()) {
+                    regex.append("\\[");
+                } else {
+                    var set = pattern.substring(i, j).replace("\\", "\\\\");
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    } else if (set.startsWith("^")) {
+                        set = "\\" + set;
+                    }
+                    regex.append('[').append(set).append(']');
+                    i = j + 1;
+                }
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
@@ -0,0 +1,313 @@
+package dev.transformers4j.hub.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static dev.transformers4j.hub.utils.Threads.hub_executor;
+
+/**
+ * How requests to the Hub are retried when they fail with a transient error.
+ *
+ * A request is retried when the connection cannot be established, when the server does not answer in time, or when it
+ * answers with one of `retry_on_status_codes`. The n-th retry waits a random time between zero and
+ * `min(max_wait_time, base_wait_time * 2^n)` ("full jitter"), so that clients that failed at the same time do not
+ * retry at the same time. A `Retry-After` header sent with a 429 or 503 is honored, with some jitter on top.
+ *
+ * Policies are set per [`Operation`] with [`configure`]. All operations share a retry budget, as in gRPC retry
+ * throttling: every retried failure takes a token, every successful request gives back `token_ratio` tokens, and
+ * retries are only allowed while more than half of the `max_tokens` are left. When the Hub or a mirror is down,
+ * clients thus quickly stop retrying instead of adding to its load. Retries are counted per operation in [`stats`].
+ *
+ * Args: max_retries (`int`): Maximum number of retries of a request. base_wait_time (`Duration`): Upper bound of the
+ * wait before the first retry. max_wait_time (`Duration`): Upper bound of the wait before any retry.
+ * retry_on_status_codes (`Set[int]`): Status codes that are retried.
+ */
+public record RetryPolicy(int max_retries, Duration base_wait_time, Duration max_wait_time,
+        Set<Integer> retry_on_status_codes) {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryPolicy.class);
+
+    /** Longest `Retry-After` that is waited for. Requests asked to come back later than that are not retried. */
+    public static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(5);
+
+    /** Kind of request a policy applies to. */
+    public enum Operation {
+        /** HEAD requests and API calls: small and cheap, but on the critical path of every download. */
+        METADATA,
+        /** Requests for the content of files. */
+        DOWNLOAD
+    }
+
+    /**
+     * Snapshot of the retry metrics of an operation.
+     *
+     * Args: requests (`long`): Number of requests sent, retries included. retries (`long`): Number of retries.
+     * budget_exhausted (`long`): Number of retries denied by the retry budget. retry_after (`long`): Number of retries
+     * that waited for a `Retry-After` delay.
+     */
+    public record RetryStats(long requests, long retries, long budget_exhausted, long retry_after) {
+    }
+
+    private static final Set<Integer> RETRY_ON_STATUS_CODES = Set.of(429, 500, 502, 503, 504);
+
+    public static final RetryPolicy DEFAULT_METADATA_POLICY = new RetryPolicy(3, Duration.ofMillis(500),
+            Duration.ofSeconds(4), RETRY_ON_STATUS_CODES);
+
+    public static final RetryPolicy DEFAULT_DOWNLOAD_POLICY = new RetryPolicy(5, Duration.ofSeconds(1),
+            Duration.ofSeconds(8), RETRY_ON_STATUS_CODES);
+
+    private static volatile Map<Operation, RetryPolicy> _policies = new EnumMap<>(
+            Map.of(Operation.METADATA, DEFAULT_METADATA_POLICY, Operation.DOWNLOAD, DEFAULT_DOWNLOAD_POLICY));
+
+    private static final Map<Operation, Counters> _counters = new EnumMap<>(
+            Map.of(Operation.METADATA, new Counters(), Operation.DOWNLOAD, new Counters()));
+
+    // Retry budget, in thousandths of a token
+    private static volatile long _max_tokens = 20_000;
+    private static volatile long _token_ratio = 100;
+    private static final AtomicLong _tokens = new AtomicLong(_max_tokens);
+
+    private record Counters(LongAdder requests, LongAdder retries, LongAdder budget_exhausted,
+            LongAdder retry_after) {
+        Counters() {
+            this(new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder());
+        }
+    }
+
+    /**
+     * Set the policy of `operation`.
+     *
+     * Args: operation (`Operation`): The kind of requests. policy (`RetryPolicy`): Their retry policy. `null` to
+     * restore the default one.
+     */
+    public static synchronized void configure(Operation operation, RetryPolicy policy) {
+        if (policy == null) {
+            policy = operation == Operation.METADATA ? DEFAULT_METADATA_POLICY : DEFAULT_DOWNLOAD_POLICY;
+        }
+        var policies = new EnumMap<>(_policies);
+        policies.put(operation, policy);
+        _policies = policies;
+    }
+
+    /**
+     * Configure the retry budget shared by all operations. The budget is refilled.
+     *
+     * Args: max_tokens (`double`): Size of the budget. Retries stop once half of it has been spent. token_ratio
+     * (`double`): Tokens given back by every successful request.
+     */
+    public static void configure_budget(double max_tokens, double token_ratio) {
+        _max_tokens = (long) (max_tokens * 1000);
+        _token_ratio = (long) (token_ratio * 1000);
+        _tokens.set(_max_tokens);
+    }
+
+    /** The policy currently used for `operation`. */
+    public static RetryPolicy of(Operation operation) {
+        return _policies.get(operation);
+    }
+
+    /** Snapshot of the retry metrics of `operation` since the start of the process. */
+    public static RetryStats stats(Operation operation) {
+        var counters = _counters.get(operation);
+        return new RetryStats(counters.requests().sum(), counters.retries().sum(), counters.budget_exhausted().sum(),
+                counters.retry_after().sum());
+    }
+
+    /**
+     * Send `request` with `client`, retrying it according to the policy of `operation`.
+     *
+     * Returns: The first response that is not retried. Its status is not checked.
+     *
+     * Raises: `IOException` if the last attempt failed.
+     */
+    public static <T> HttpResponse<T> send(Operation operation, HttpClient client, HttpRequest request,
+            HttpResponse.BodyHandler<T> body_handler) throws IOException, InterruptedException {
+        for (var attempt = 0;; attempt++) {
+            _counters.get(operation).requests().increment();
+            HttpResponse<T> response;
+            try {
+                response = client.send(request, body_handler);
+            } catch (IOException e) {
+                var wait = _on_error(operation, request, attempt, e);
+                if (wait == null) {
+                    throw e;
+                }
+                Thread.sleep(wait.toMillis());
+                continue;
+            }
+            var wait = _on_response(operation, request, attempt, response);
+            if (wait == null) {
+                return response;
+            }
+            _discard(response);
+            Thread.sleep(wait.toMillis());
+        }
+    }
+
+    /** Asynchronous version of [`send`]: retries are scheduled without blocking any thread while waiting. */
+    public static <T> CompletableFuture<HttpResponse<T>> send_async(Operation operation, HttpClient client,
+            HttpRequest request, HttpResponse.BodyHandler<T> body_handler) {
+        return _send_async(operation, client, request, body_handler, 0);
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> _send_async(Operation operation, HttpClient client,
+            HttpRequest request, HttpResponse.BodyHandler<T> body_handler, int attempt) {
+        _counters.get(operation).requests().increment();
+        return client.sendAsync(request, body_handler).handle((response, error) -> {
+            Duration wait;
+            if (error != null) {
+                var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                        : error;
+                wait = cause instanceof IOException io_error ? _on_error(operation, request, attempt, io_error) : null;
+                if (wait == null) {
+                    return CompletableFuture.<HttpResponse<T>> failedFuture(cause);
+                }
+            } else {
+                wait = _on_response(operation, request, attempt, response);
+                if (wait == null) {
+                    return CompletableFuture.completedFuture(response);
+                }
+                _discard(response);
+            }
+            return CompletableFuture
+                    .supplyAsync(() -> _send_async(operation, client, request, body_handler, attempt + 1),
+                            CompletableFuture.delayedExecutor(wait.toMillis(), TimeUnit.MILLISECONDS, hub_executor()))
+                    .thenCompose(Function.identity());
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Decide whether a transfer interrupted after `attempt` previous retries is resumed, for callers that retry on
+     * their own (e.g. to resume a download from the last byte received). Records the retry.
+     *
+     * Returns: How long to wait before resuming, or `null` if it must not be resumed because `max_retries` retries
+     * have been done already or the retry budget is exhausted.
+     */
+    public static Duration retry(Operation operation, int attempt) {
+        var policy = of(operation);
+        if (attempt >= policy.max_retries()) {
+            return null;
+        }
+        return _retry(operation, policy, attempt, null);
+    }
+
+    /** Whether an error raised by `HttpClient.send` is transient: the request did not reach the server in time. */
+    public static boolean is_transient(IOException error) {
+        return error instanceof ConnectException || error instanceof HttpTimeoutException;
+    }
+
+    private static Duration _on_error(Operation operation, HttpRequest request, int attempt, IOException error) {
+        var policy = of(operation);
+        if (!is_transient(error) || attempt >= policy.max_retries()) {
+            return null;
+        }
+        var wait = _retry(operation, policy, attempt, null);
+        if (wait != null) {
+            LOGGER.warn("Error while requesting {} {}: {}. Retrying in {} ms ({}/{})...", request.method(),
+                    request.uri(), error.getLocalizedMessage(), wait.toMillis(), attempt + 1, policy.max_retries());
+        }
+        return wait;
+    }
+
+    private static Duration _on_response(Operation operation, HttpRequest request, int attempt,
+            HttpResponse<?> response) {
+        var policy = of(operation);
+        var status = response.statusCode();
+        if (!policy.retry_on_status_codes().contains(status)) {
+            // Any answer of the server that is not retried counts as a success for the budget
+            _tokens.getAndUpdate(tokens -> Math.min(_max_tokens, tokens + _token_ratio));
+            return null;
+        }
+        if (attempt >= policy.max_retries()) {
+            return null;
+        }
+        var retry_after = status == 429 || status == 503 ? retry_after(response) : null;
+        if (retry_after != null && retry_after.compareTo(MAX_RETRY_AFTER) > 0) {
+            LOGGER.warn("{} {} answered {} with Retry-After {} s: not retrying.", request.method(), request.uri(),
+                    status, retry_after.toSeconds());
+            return null;
+        }
+        var wait = _retry(operation, policy, attempt, retry_after);
+        if (wait != null) {
+            LOGGER.warn("{} {} answered {}. Retrying in {} ms ({}/{})...", request.method(), request.uri(), status,
+                    wait.toMillis(), attempt + 1, policy.max_retries());
+        }
+        return wait;
+    }
+
+    private static Duration _retry(Operation operation, RetryPolicy policy, int attempt, Duration retry_after) {
+        var counters = _counters.get(operation);
+        var tokens = _tokens.getAndUpdate(t -> Math.max(0, t - 1000)) - 1000;
+        if (tokens <= _max_tokens / 2) {
+            counters.budget_exhausted().increment();
+            LOGGER.warn("Retry budget exhausted: not retrying.");
+            return null;
+        }
+        counters.retries().increment();
+        if (retry_after != null) {
+            counters.retry_after().increment();
+            return retry_after.plus(policy._jitter(0));
+        }
+        return policy._jitter(attempt);
+    }
+
+    /** Random wait before the retry following `attempt` previous ones, between 0 and the exponential backoff. */
+    private Duration _jitter(int attempt) {
+        var backoff = base_wait_time.toMillis() << Math.min(attempt, 30);
+        var bound = Math.min(max_wait_time.toMillis(), backoff < 0 ? Long.MAX_VALUE : backoff);
+        return Duration.ofMillis(bound > 0 ? ThreadLocalRandom.current().nextLong(bound + 1) : 0);
+    }
+
+    /** Parse the `Retry-After` header of `response`: a number of seconds or an HTTP date. */
+    static Duration retry_after(HttpResponse<?> response) {
+        var value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            // Not a number of seconds: must be a date
+        }
+        try {
+            var date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            var wait = Duration.between(ZonedDateTime.now(date.getZone()), date);
+            return wait.isNegative() ? Duration.ZERO : wait;
+        } catch (DateTimeParseException e) {
+            LOGGER.debug("Ignoring invalid Retry-After header: {}", value);
+            return null;
+        }
+    }
+
+    /** Release the connection of a response that is retried. */
+    private static void _discard(HttpResponse<?> response) {
+        if (response.body() instanceof Closeable body) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close response body: {}", e.getLocalizedMessage());
+            }
+        }
+    }
+}
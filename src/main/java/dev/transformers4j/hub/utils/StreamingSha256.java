@@ -0,0 +1,131 @@
+package dev.transformers4j.hub.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 of a file being downloaded, computed from the bytes as they are received instead of by reading the file
+ * again once it is complete.
+ *
+ * The digest covers the first [`size`] bytes of the file. When a download is resumed, [`sync`] hashes the part of the
+ * file downloaded before (the only bytes read back from the disk); when the server sends the whole file again, the
+ * digest is [`reset`]. LFS files are identified by the SHA-256 of their content, so the result can be compared with
+ * their etag by [`verify`] before the file is published.
+ */
+public class StreamingSha256 {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final MessageDigest digest;
+    private long size = 0;
+
+    public StreamingSha256() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Number of bytes hashed so far. */
+    public synchronized long size() {
+        return size;
+    }
+
+    /** Forget the bytes hashed so far, when a download starts over. */
+    public synchronized void reset() {
+        digest.reset();
+        size = 0;
+    }
+
+    /** Hash the remaining bytes of `buffer`, without moving its position. */
+    public synchronized void update(ByteBuffer buffer) {
+        size += buffer.remaining();
+        digest.update(buffer.duplicate());
+    }
+
+    /** Wrap `channel` so that the bytes read from it are hashed. */
+    public ReadableByteChannel wrap(ReadableByteChannel channel) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                var start = dst.position();
+                var read = channel.read(dst);
+                if (read > 0) {
+                    update(dst.duplicate().flip().position(start));
+                }
+                return read;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Make the digest cover the first `length` bytes of `path`. Nothing is read if it already does, which is the case
+     * once a download went through without errors. Otherwise (resumed download, data lost between the network and the
+     * disk), the digest is computed again from the file.
+     */
+    public synchronized void sync(Path path, long length) throws IOException {
+        if (size == length) {
+            return;
+        }
+        reset();
+        if (length == 0) {
+            return;
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, length));
+            while (size < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - size));
+                if (channel.read(buffer, size) < 0) {
+                    throw new IOException("File " + path + " is shorter than " + length + " bytes.");
+                }
+                update(buffer.flip());
+            }
+        }
+    }
+
+    /** Hexadecimal SHA-256 of the bytes hashed so far. */
+    public synchronized String hexdigest() {
+        try {
+            return HexFormat.of().formatHex(((MessageDigest) digest.clone()).digest());
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Check that the `length` bytes of `path` have the SHA-256 `expected`. If not, the file is deleted: resuming from
+     * corrupted data would only produce another corrupted file.
+     *
+     * Raises: `IOException` if the SHA-256 does not match.
+     */
+    public void verify(Path path, long length, String expected) throws IOException {
+        sync(path, length);
+        var actual = hexdigest();
+        if (!actual.equals(expected)) {
+            Files.deleteIfExists(path);
+            throw new IOException("Consistency check failed: file should have sha256 " + expected + " but has sha256 "
+                    + actual + " (" + path + ").\nWe are sorry for the inconvenience. Please retry the download.\nIf"
+                    + " the issue persists, please let us know by opening an issue on"
+                    + " https://github.com/huggingface/huggingface_hub.");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package dev.transformers4j.hub.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_ENABLE_VIRTUAL_THREADS;
+import static dev.transformers4j.hub.Constants.HF_HUB_EXECUTOR_POOL_SIZE;
+
+/**
+ * Threads used to run hub I/O.
+ *
+ * By default, hub operations run on platform threads. When virtual threads are enabled (with the
+ * `HF_HUB_ENABLE_VIRTUAL_THREADS` environment variable or [`configure_virtual_threads`]) and the runtime supports them
+ * (Java 21+), worker pools, HTTP clients and the executor returned by [`hub_executor`] use virtual threads instead:
+ * blocking network calls and retry sleeps then park the virtual thread without holding a platform thread, so
+ * thousands of concurrent fetches are cheap. On older runtimes, a pool of `HF_HUB_EXECUTOR_POOL_SIZE` platform threads
+ * is used.
+ */
+public class Threads {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Threads.class);
+
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = _virtual_thread_factory();
+
+    private static volatile boolean _virtual_threads_enabled = HF_HUB_ENABLE_VIRTUAL_THREADS;
+
+    private static volatile Executor _hub_executor = null;
+
+    /** Whether the runtime supports virtual threads. */
+    public static boolean virtual_threads_available() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    /** Whether hub I/O currently runs on virtual threads. */
+    public static boolean use_virtual_threads() {
+        return _virtual_threads_enabled && VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    /**
+     * Enable or disable virtual threads for hub I/O. Cached HTTP clients are discarded so that new ones are built
+     * with the right executor.
+     */
+    public static synchronized void configure_virtual_threads(boolean enabled) {
+        if (enabled && VIRTUAL_THREAD_FACTORY == null) {
+            LOGGER.warn("Virtual threads are not supported by this Java runtime (Java 21+ is required). Falling back "
+                    + "to a pool of {} platform threads.", HF_HUB_EXECUTOR_POOL_SIZE);
+        }
+        _virtual_threads_enabled = enabled;
+        var executor = _hub_executor;
+        _hub_executor = null;
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+        Http.reset_sessions();
+    }
+
+    /** Factory of the worker threads used for hub I/O: virtual threads if enabled, platform threads otherwise. */
+    public static ThreadFactory thread_factory() {
+        return use_virtual_threads() ? VIRTUAL_THREAD_FACTORY : Executors.defaultThreadFactory();
+    }
+
+    /** Create a pool of at most `max_workers` threads from [`thread_factory`]. */
+    public static ExecutorService new_executor(int max_workers) {
+        return Executors.newFixedThreadPool(max_workers, thread_factory());
+    }
+
+    /**
+     * Shared executor to run hub operations. With virtual threads, each task gets its own virtual thread. Otherwise,
+     * tasks are queued on a pool of `HF_HUB_EXECUTOR_POOL_SIZE` daemon threads.
+     */
+    public static Executor hub_executor() {
+        var executor = _hub_executor;
+        if (executor == null) {
+            synchronized (Threads.class) {
+                executor = _hub_executor;
+                if (executor == null) {
+                    if (use_virtual_threads()) {
+                        executor = command -> VIRTUAL_THREAD_FACTORY.newThread(command).start();
+                    } else {
+                        var counter = new AtomicInteger();
+                        executor = Executors.newFixedThreadPool(HF_HUB_EXECUTOR_POOL_SIZE, runnable -> {
+                            var thread = new Thread(runnable, "hf-hub-" + counter.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                    }
+                    _hub_executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Run a blocking hub operation (e.g. `hf_hub_download` or `cached_file`) on the [`hub_executor`].
+     *
+     * Returns: A future completed with the result of `task`, or completed exceptionally with the error it raised.
+     */
+    public static <T> CompletableFuture<T> supply_async(Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, hub_executor());
+    }
+
+    /** `Thread.ofVirtual().name("hf-hub-virtual-", 0).factory()`, looked up reflectively to run on Java 17. */
+    private static ThreadFactory _virtual_thread_factory() {
+        try {
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            var builder_class = Class.forName("java.lang.Thread$Builder");
+            builder = builder_class.getMethod("name", String.class, long.class).invoke(builder, "hf-hub-virtual-",
+                    0L);
+            return (ThreadFactory) builder_class.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
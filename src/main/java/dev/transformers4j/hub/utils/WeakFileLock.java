@@ -0,0 +1,404 @@
+package dev.transformers4j.hub.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_LOCK_LEASE;
+import static dev.transformers4j.hub.Constants.HF_HUB_LOCK_TIMEOUT;
+import static dev.transformers4j.hub.Constants.HF_HUB_LOCK_USE_LEASE;
+
+/**
+ * Exclusive lock on a file of the cache, shared by the threads of this process and by other processes on the host.
+ *
+ * By default, the lock is an OS advisory lock on `lock_path` (the file is created if needed and never deleted). The OS
+ * releases it when the holder dies, so such a lock is never stale. When the file system does not support OS locks, or
+ * when `HF_HUB_LOCK_USE_LEASE` is set (e.g. on network file systems where OS locks are not shared between hosts), the
+ * lock is a lease file `{lock_path}.lease` created exclusively. Its holder renews the lease every third of the lease
+ * duration (`HF_HUB_LOCK_LEASE` seconds by default) by touching the file; a lease that hasn't been renewed for a whole
+ * lease duration belongs to a dead or hung holder and is broken by the next waiter.
+ *
+ * Waiters poll the lock with an exponential backoff until they get it or the timeout expires. Once they get it, they
+ * are expected to check whether the holder already did the work (e.g. downloaded the blob) before doing it again.
+ * Time spent waiting is recorded and exposed by [`stats`].
+ */
+public class WeakFileLock implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WeakFileLock.class);
+
+    private static final long MIN_POLL_INTERVAL_MS = 10;
+    private static final long MAX_POLL_INTERVAL_MS = 500;
+    private static final long LOG_INTERVAL_NS = TimeUnit.SECONDS.toNanos(10);
+
+    // Locks held by this process, by absolute path. OS locks are held by the whole process and are therefore not
+    // enough to exclude the threads of this process from each other.
+    private static final Map<Path, WeakFileLock> _held = new ConcurrentHashMap<>();
+
+    // Marker returned by `_try_os_lock` when the file system does not support OS locks
+    private static final WeakFileLock UNSUPPORTED = new WeakFileLock(null, null, null, null, null, Duration.ZERO);
+
+    private static volatile boolean _use_lease = HF_HUB_LOCK_USE_LEASE;
+    private static volatile Duration _lease = Duration.ofSeconds(HF_HUB_LOCK_LEASE);
+
+    private static volatile ScheduledExecutorService _heartbeat = null;
+
+    private static final LongAdder _acquisitions = new LongAdder();
+    private static final LongAdder _contended = new LongAdder();
+    private static final LongAdder _timeouts = new LongAdder();
+    private static final LongAdder _stale_leases = new LongAdder();
+    private static final LongAdder _total_wait_ns = new LongAdder();
+    private static final AtomicLong _max_wait_ns = new AtomicLong();
+
+    /**
+     * Snapshot of the lock metrics of this process.
+     *
+     * Args: acquisitions (`long`): Number of locks acquired. contended (`long`): Number of acquisitions that had to
+     * wait for another holder. timeouts (`long`): Number of acquisitions that gave up. stale_leases (`long`): Number of
+     * stale leases that have been broken. total_wait (`Duration`): Total time spent waiting for locks. max_wait
+     * (`Duration`): Longest time spent waiting for a single lock.
+     */
+    public record LockStats(long acquisitions, long contended, long timeouts, long stale_leases, Duration total_wait,
+            Duration max_wait) {
+    }
+
+    private final Path key;
+    private final Path lock_path;
+    private final FileChannel channel;
+    private final FileLock os_lock;
+    private final Path lease_path;
+    private final Duration wait_time;
+    private ScheduledFuture<?> renewal;
+    private boolean released = false;
+
+    private WeakFileLock(Path key, Path lock_path, FileChannel channel, FileLock os_lock, Path lease_path,
+            Duration wait_time) {
+        this.key = key;
+        this.lock_path = lock_path;
+        this.channel = channel;
+        this.os_lock = os_lock;
+        this.lease_path = lease_path;
+        this.wait_time = wait_time;
+    }
+
+    /**
+     * Configure how locks are taken by this process.
+     *
+     * Args: use_lease (`bool`): Whether to use lease files instead of OS locks. lease (`Duration`): How long a lease
+     * stays valid without being renewed.
+     */
+    public static void configure(boolean use_lease, Duration lease) {
+        _use_lease = use_lease;
+        _lease = lease;
+    }
+
+    /** Acquire the lock on `lock_path`, waiting at most `HF_HUB_LOCK_TIMEOUT` seconds. */
+    public static WeakFileLock acquire(Path lock_path) throws IOException {
+        return acquire(lock_path, Duration.ofSeconds(HF_HUB_LOCK_TIMEOUT));
+    }
+
+    /**
+     * Acquire the lock on `lock_path`, blocking the calling thread until it is available.
+     *
+     * Args: lock_path (`Path`): The file to lock. Parent folders are created if needed. timeout (`Duration`): How long
+     * to wait for the lock.
+     *
+     * Returns: The lock, to be released with [`close`].
+     *
+     * Raises: [`LockTimeoutException`] if the lock is still held by someone else after `timeout`.
+     */
+    public static WeakFileLock acquire(Path lock_path, Duration timeout) throws IOException {
+        var start = System.nanoTime();
+        var delay = MIN_POLL_INTERVAL_MS;
+        var last_log = start;
+        for (var attempt = 0;; attempt++) {
+            var lock = _try_acquire(lock_path, start, attempt);
+            if (lock != null) {
+                return lock;
+            }
+            var now = System.nanoTime();
+            if (now - start >= timeout.toNanos()) {
+                throw _timeout(lock_path, timeout);
+            }
+            if (now - last_log >= LOG_INTERVAL_NS) {
+                last_log = now;
+                _log_waiting(lock_path, now - start);
+            }
+            try {
+                Thread.sleep(Math.min(delay, TimeUnit.NANOSECONDS.toMillis(timeout.toNanos() - (now - start)) + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for lock " + lock_path);
+            }
+            delay = Math.min(delay * 2, MAX_POLL_INTERVAL_MS);
+        }
+    }
+
+    /** Asynchronous version of [`acquire`], waiting at most `HF_HUB_LOCK_TIMEOUT` seconds. */
+    public static CompletableFuture<WeakFileLock> acquire_async(Path lock_path) {
+        return acquire_async(lock_path, Duration.ofSeconds(HF_HUB_LOCK_TIMEOUT));
+    }
+
+    /**
+     * Asynchronous version of [`acquire`]: no thread is blocked while the lock is held by someone else, the lock is
+     * polled from the [`Threads.hub_executor`].
+     *
+     * Returns: A future completed with the lock, or completed exceptionally with a [`LockTimeoutException`].
+     */
+    public static CompletableFuture<WeakFileLock> acquire_async(Path lock_path, Duration timeout) {
+        var future = new CompletableFuture<WeakFileLock>();
+        _poll_async(lock_path, timeout, System.nanoTime(), 0, future);
+        return future;
+    }
+
+    private static void _poll_async(Path lock_path, Duration timeout, long start, int attempt,
+            CompletableFuture<WeakFileLock> future) {
+        try {
+            var lock = _try_acquire(lock_path, start, attempt);
+            if (lock != null) {
+                if (!future.complete(lock)) {
+                    // Cancelled in the meantime
+                    lock.close();
+                }
+                return;
+            }
+            if (System.nanoTime() - start >= timeout.toNanos()) {
+                future.completeExceptionally(_timeout(lock_path, timeout));
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            return;
+        }
+        if (future.isDone()) {
+            return;
+        }
+        var delay = Math.min(MIN_POLL_INTERVAL_MS << Math.min(attempt, 16), MAX_POLL_INTERVAL_MS);
+        var executor = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, Threads.hub_executor());
+        executor.execute(() -> _poll_async(lock_path, timeout, start, attempt + 1, future));
+    }
+
+    /** Snapshot of the lock metrics since the start of the process. */
+    public static LockStats stats() {
+        return new LockStats(_acquisitions.sum(), _contended.sum(), _timeouts.sum(), _stale_leases.sum(),
+                Duration.ofNanos(_total_wait_ns.sum()), Duration.ofNanos(_max_wait_ns.get()));
+    }
+
+    /** Time spent waiting for this lock before it was acquired. */
+    public Duration wait_time() {
+        return wait_time;
+    }
+
+    public Path lock_path() {
+        return lock_path;
+    }
+
+    /** Release the lock. Calling it more than once has no effect. */
+    @Override
+    public synchronized void close() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+        try {
+            if (os_lock != null) {
+                os_lock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            if (lease_path != null) {
+                Files.deleteIfExists(lease_path);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error while releasing lock {}: {}", lock_path, e.getLocalizedMessage());
+        } finally {
+            _held.remove(key, this);
+        }
+    }
+
+    /** Try to acquire the lock once, without waiting. Returns `null` if it is held by someone else. */
+    private static WeakFileLock _try_acquire(Path lock_path, long start, int attempt) throws IOException {
+        var key = lock_path.toAbsolutePath().normalize();
+        // Claim the lock for this thread within the process before taking it on the file system
+        var placeholder = new WeakFileLock(key, lock_path, null, null, null, Duration.ZERO);
+        if (_held.putIfAbsent(key, placeholder) != null) {
+            return null;
+        }
+        WeakFileLock lock = null;
+        try {
+            Files.createDirectories(key.getParent());
+            var wait_time = Duration.ofNanos(System.nanoTime() - start);
+            var use_lease = _use_lease;
+            if (!use_lease) {
+                lock = _try_os_lock(key, lock_path, wait_time);
+            }
+            if (use_lease || lock == UNSUPPORTED) {
+                lock = _try_lease(key, lock_path, wait_time);
+            }
+        } finally {
+            if (lock == null || lock == UNSUPPORTED) {
+                _held.remove(key, placeholder);
+            }
+        }
+        if (lock == null) {
+            return null;
+        }
+        _held.replace(key, placeholder, lock);
+        _record_acquisition(lock.wait_time, attempt > 0);
+        return lock;
+    }
+
+    private static WeakFileLock _try_os_lock(Path key, Path lock_path, Duration wait_time) throws IOException {
+        var channel = FileChannel.open(key, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock os_lock;
+        try {
+            os_lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by this process through a channel we don't know about
+            os_lock = null;
+        } catch (IOException e) {
+            channel.close();
+            LOGGER.debug("OS locks are not supported for {} ({}): using a lease file instead", lock_path,
+                    e.getLocalizedMessage());
+            return UNSUPPORTED;
+        }
+        if (os_lock == null) {
+            channel.close();
+            return null;
+        }
+        return new WeakFileLock(key, lock_path, channel, os_lock, null, wait_time);
+    }
+
+    private static WeakFileLock _try_lease(Path key, Path lock_path, Duration wait_time) throws IOException {
+        var lease_path = key.resolveSibling(key.getFileName() + ".lease");
+        try {
+            Files.writeString(lease_path, ProcessHandle.current().pid() + "\n", StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            _break_if_stale(lease_path);
+            return null;
+        }
+        var lock = new WeakFileLock(key, lock_path, null, null, lease_path, wait_time);
+        var period = Math.max(1, _lease.toMillis() / 3);
+        lock.renewal = _heartbeat().scheduleAtFixedRate(lock::_renew, period, period, TimeUnit.MILLISECONDS);
+        return lock;
+    }
+
+    /** Extend the lease of the lock by touching the lease file. */
+    private synchronized void _renew() {
+        if (released) {
+            return;
+        }
+        try {
+            Files.setLastModifiedTime(lease_path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            LOGGER.warn("Lease {} has been broken by another process while held: the lock is lost", lease_path);
+            renewal.cancel(false);
+        } catch (IOException e) {
+            LOGGER.warn("Could not renew lease {}: {}", lease_path, e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Delete `lease_path` if it hasn't been renewed for a whole lease duration. The file is first renamed to a
+     * unique name so that two waiters breaking the same lease don't delete the lease of a new holder.
+     */
+    private static void _break_if_stale(Path lease_path) throws IOException {
+        if (!_is_stale(lease_path)) {
+            return;
+        }
+        var stale_path = lease_path.resolveSibling(lease_path.getFileName() + "." + UUID.randomUUID() + ".stale");
+        try {
+            Files.move(lease_path, stale_path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Released or broken by someone else in the meantime
+            return;
+        }
+        if (!_is_stale(stale_path)) {
+            // The lease has been renewed or taken by a new holder right before the move: give it back
+            try {
+                Files.move(stale_path, lease_path, StandardCopyOption.ATOMIC_MOVE);
+                return;
+            } catch (FileAlreadyExistsException e) {
+                // Too late, another waiter got the lock
+            }
+        }
+        LOGGER.warn("Breaking stale lock {} (not renewed for more than {} seconds)", lease_path, _lease.toSeconds());
+        _stale_leases.increment();
+        Files.deleteIfExists(stale_path);
+    }
+
+    private static boolean _is_stale(Path lease_path) throws IOException {
+        try {
+            var age = System.currentTimeMillis() - Files.getLastModifiedTime(lease_path).toMillis();
+            return age > _lease.toMillis();
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static ScheduledExecutorService _heartbeat() {
+        var heartbeat = _heartbeat;
+        if (heartbeat == null) {
+            synchronized (WeakFileLock.class) {
+                heartbeat = _heartbeat;
+                if (heartbeat == null) {
+                    heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        var thread = new Thread(runnable, "hf-hub-lock-heartbeat");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    _heartbeat = heartbeat;
+                }
+            }
+        }
+        return heartbeat;
+    }
+
+    private static void _record_acquisition(Duration wait_time, boolean contended) {
+        var wait_ns = wait_time.toNanos();
+        _acquisitions.increment();
+        _total_wait_ns.add(wait_ns);
+        _max_wait_ns.accumulateAndGet(wait_ns, Math::max);
+        if (contended) {
+            _contended.increment();
+            LOGGER.debug("Acquired lock after waiting {} ms", wait_time.toMillis());
+        }
+    }
+
+    private static LockTimeoutException _timeout(Path lock_path, Duration timeout) {
+        _timeouts.increment();
+        return new LockTimeoutException("Could not acquire lock " + lock_path + " within " + timeout.toMillis()
+                + " ms: it is still held by another thread or process.");
+    }
+
+    private static void _log_waiting(Path lock_path, long elapsed_ns) {
+        LOGGER.info("Still waiting to acquire lock on {} (elapsed: {} seconds)", lock_path,
+                String.format("%.1f", elapsed_ns / 1e9));
+    }
+}
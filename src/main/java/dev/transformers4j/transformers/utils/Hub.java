@@ -19,11 +19,14 @@ import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static dev.transformers4j.Init.__version__;
@@ -34,6 +37,8 @@ import static dev.transformers4j.hub.FileDownload.http_get;
 import static dev.transformers4j.hub.FileDownload.try_to_load_from_cache;
 import static dev.transformers4j.hub.utils.Hub.HUGGINGFACE_CO_RESOLVE_ENDPOINT;
 import static dev.transformers4j.hub.utils.Hub._get_cache_file_to_return;
+import static dev.transformers4j.hub.utils.Http.get_session;
+import static dev.transformers4j.hub.utils.Threads.supply_async;
 import static dev.transformers4j.transformers.utils.ImportUtils.ENV_VARS_TRUE_VALUES;
 import static dev.transformers4j.transformers.utils.ImportUtils._tf_version;
 import static dev.transformers4j.transformers.utils.ImportUtils._torch_version;
@@ -84,7 +89,7 @@ public class Hub {
 
     private static JSONObject readJsonFromUrl(String urlString)
             throws IOException, InterruptedException, URISyntaxException {
-        HttpClient client = HttpClient.newHttpClient();
+        HttpClient client = get_session(urlString, false);
         HttpRequest request = HttpRequest.newBuilder().uri(new URI(urlString)).build();
 
         var response = client.send(request, HttpResponse.BodyHandlers.ofString());
@@ -314,6 +319,26 @@ public class Hub {
         return resolved_file;
     }
 
+    /**
+     * Asynchronous version of [`cached_file`], run on the hub executor. When virtual threads are enabled, each call
+     * runs on its own virtual thread so that many files can be resolved concurrently without holding platform
+     * threads (see [`dev.transformers4j.hub.utils.Threads`]).
+     *
+     * Returns: A future completed with the resolved file, or completed exceptionally with the error raised by
+     * [`cached_file`].
+     */
+    public static CompletableFuture<Path> cached_file_async(Path path_or_repo_id, String filename, Path cache_dir,
+            boolean force_download, boolean resume_download, Map<String, String> proxies,
+            Either<Boolean, String> token, String revision, boolean local_files_only, String subfolder,
+            String repo_type, Either<Map<String, Object>, String> user_agent, boolean _raise_exceptions_for_gated_repo,
+            boolean _raise_exceptions_for_missing_entries, boolean _raise_exceptions_for_connection_errors,
+            String _commit_hash, Map<String, Object> deprecated_kwargs) {
+        return supply_async(() -> cached_file(path_or_repo_id, filename, cache_dir, force_download, resume_download,
+                proxies, token, revision, local_files_only, subfolder, repo_type, user_agent,
+                _raise_exceptions_for_gated_repo, _raise_exceptions_for_missing_entries,
+                _raise_exceptions_for_connection_errors, _commit_hash, deprecated_kwargs));
+    }
+
     /**
      * Downloads a given url in a temporary file. This function is not safe to use in multiple processes. Its only use
      * is for deprecated behavior allowing to download config/models with a single url instead of using the Hub.
@@ -331,8 +356,8 @@ public class Hub {
                         + " that this is not compatible with the caching system (your file will be downloaded at each execution) or"
                         + " multiple processes (each process will download the file in a different temporary file).");
         var tmp_file = Files.createTempFile(null, null);
-        try (var stream = Files.newOutputStream(tmp_file)) {
-            http_get(url, stream, proxies, 0, null, null, null, 5, null);
+        try (var channel = FileChannel.open(tmp_file, StandardOpenOption.WRITE)) {
+            http_get(url, channel, proxies, 0, null, null, null, 5, null);
             return tmp_file;
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
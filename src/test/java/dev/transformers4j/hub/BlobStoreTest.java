@@ -0,0 +1,160 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.utils.CacheManager;
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Random;
+
+import static dev.transformers4j.hub.FileDownload.hf_hub_download;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download_async;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BlobStoreTest {
+    private static final String MODEL = "user/model";
+    private static final String FINE_TUNE = "other/fine-tune";
+
+    @TempDir
+    Path cache_dir;
+
+    private final byte[] content = new byte[1_000_000];
+
+    @BeforeEach
+    public void enable_store() {
+        new Random(42).nextBytes(content);
+        BlobStore.configure(true);
+    }
+
+    @AfterEach
+    public void disable_store() {
+        BlobStore.configure(false);
+    }
+
+    private Path download(HubStubServer server, String repo_id) throws IOException {
+        return hf_hub_download(repo_id, "model.safetensors", null, null, null, null, null, cache_dir, null, null,
+                false, null, 10, Either.left(false), false, null, server.endpoint(), false, null, null, null);
+    }
+
+    private static Object file_key(Path path) throws IOException {
+        return Files.readAttributes(path.toRealPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    @Test
+    public void test_same_content_is_downloaded_once() throws IOException {
+        try (var server = HubStubServer.start()) {
+            server.add_file(MODEL, "model.safetensors", content);
+            server.add_file(FINE_TUNE, "model.safetensors", content);
+            var hits = BlobStore.stats().hits();
+
+            var model = download(server, MODEL);
+            var get_requests = server.get_requests();
+            var fine_tune = download(server, FINE_TUNE);
+
+            assertEquals(get_requests, server.get_requests());
+            assertEquals(hits + 1, BlobStore.stats().hits());
+            assertArrayEquals(content, Files.readAllBytes(fine_tune));
+            // Both repos have their blob, sharing the same file
+            assertNotEquals(model.toRealPath(), fine_tune.toRealPath());
+            assertEquals(file_key(model), file_key(fine_tune));
+            assertEquals(file_key(model), file_key(cache_dir.resolve(".blobs").resolve(HubStubServer.etag(content))));
+        }
+    }
+
+    @Test
+    public void test_store_disabled() throws IOException {
+        BlobStore.configure(false);
+        try (var server = HubStubServer.start()) {
+            server.add_file(MODEL, "model.safetensors", content);
+            server.add_file(FINE_TUNE, "model.safetensors", content);
+
+            var model = download(server, MODEL);
+            var get_requests = server.get_requests();
+            var fine_tune = download(server, FINE_TUNE);
+
+            assertTrue(server.get_requests() > get_requests);
+            assertNotEquals(file_key(model), file_key(fine_tune));
+            assertFalse(Files.exists(cache_dir.resolve(".blobs")));
+        }
+    }
+
+    @Test
+    public void test_concurrent_downloads_of_the_same_content() throws IOException {
+        try (var server = HubStubServer.start()) {
+            server.add_file(MODEL, "model.safetensors", content);
+            server.add_file(FINE_TUNE, "model.safetensors", content);
+            server.latency(200);
+
+            var model = hf_hub_download_async(MODEL, "model.safetensors", null, null, null, null, null, cache_dir,
+                    null, null, false, null, 10, Either.left(false), false, null, server.endpoint());
+            var fine_tune = hf_hub_download_async(FINE_TUNE, "model.safetensors", null, null, null, null, null,
+                    cache_dir, null, null, false, null, 10, Either.left(false), false, null, server.endpoint());
+
+            assertEquals(file_key(model.join()), file_key(fine_tune.join()));
+            assertEquals(1, server.get_requests());
+        }
+    }
+
+    @Test
+    public void test_unused_entries_are_collected() throws IOException {
+        try (var server = HubStubServer.start()) {
+            server.add_file(MODEL, "model.safetensors", content);
+            var pointer = download(server, MODEL);
+            var entry = cache_dir.resolve(".blobs").resolve(HubStubServer.etag(content));
+
+            // Still linked from the repo
+            assertEquals(0, CacheGC.collect(cache_dir, 0).blobs_deleted());
+            assertTrue(Files.exists(entry));
+
+            Files.delete(pointer.toRealPath());
+            var report = CacheGC.collect(cache_dir, 0);
+
+            assertEquals(1, report.pointers_deleted());
+            assertEquals(1, report.blobs_deleted());
+            assertFalse(Files.exists(entry));
+        }
+    }
+
+    @Test
+    public void test_shared_blobs_are_counted_once() throws IOException {
+        try (var server = HubStubServer.start()) {
+            server.add_file(MODEL, "model.safetensors", content);
+            server.add_file(FINE_TUNE, "model.safetensors", content);
+            var model = download(server, MODEL);
+            download(server, FINE_TUNE);
+            // Link being created next to the blobs (see `BlobStore.restore`)
+            var blob = model.toRealPath();
+            Files.createLink(blob.resolveSibling(blob.getFileName() + ".0123.tmp"), blob);
+
+            var cache_info = CacheManager.scan_cache_dir(cache_dir);
+
+            assertEquals(content.length, cache_info.size_on_disk());
+            for (var repo : cache_info.repos()) {
+                assertEquals(content.length, repo.size_on_disk());
+                assertTrue(repo.unreferenced_blobs().isEmpty());
+            }
+
+            // The blob of the model is not referred to anymore, but the fine-tune still links its file
+            Files.delete(model);
+            var time = FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2).toMillis());
+            Files.setLastModifiedTime(blob, time);
+            var report = CacheGC.collect(cache_dir, 0);
+
+            assertEquals(1, report.blobs_deleted());
+            assertEquals(content.length, report.size_before());
+            assertEquals(content.length, report.size_after());
+        }
+    }
+}
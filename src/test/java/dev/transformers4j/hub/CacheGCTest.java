@@ -0,0 +1,220 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.utils.CacheManager;
+import dev.transformers4j.hub.utils.WeakFileLock;
+import io.vavr.control.Either;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Random;
+
+import static dev.transformers4j.hub.FileDownload.hf_hub_download_async;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheGCTest {
+    private static final String COMMIT_A = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+    private static final String COMMIT_B = "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+    private static final String COMMIT_C = "cccccccccccccccccccccccccccccccccccccccc";
+
+    @TempDir
+    Path cache_dir;
+
+    private Path storage_folder(String repo_id) {
+        return cache_dir.resolve(FileDownload.repo_folder_name(repo_id, "model"));
+    }
+
+    /** Add a blob of `size` bytes, written and last used `age` ago. */
+    private Path add_blob(String repo_id, String etag, int size, Duration age) throws IOException {
+        var blob = storage_folder(repo_id).resolve("blobs").resolve(etag);
+        Files.createDirectories(blob.getParent());
+        Files.write(blob, new byte[size]);
+        var time = FileTime.fromMillis(System.currentTimeMillis() - age.toMillis());
+        Files.getFileAttributeView(blob, BasicFileAttributeView.class).setTimes(time, time, null);
+        return blob;
+    }
+
+    /** Add a pointer, written long ago as its revision. */
+    private Path add_pointer(String repo_id, String commit, String filename, String etag) throws IOException {
+        var pointer = storage_folder(repo_id).resolve("snapshots").resolve(commit).resolve(filename);
+        Files.createDirectories(pointer.getParent());
+        Files.createSymbolicLink(pointer, Path.of("../../blobs").resolve(etag));
+        written_long_ago(pointer);
+        written_long_ago(pointer.getParent());
+        return pointer;
+    }
+
+    private void add_ref(String repo_id, String ref, String commit) throws IOException {
+        var path = storage_folder(repo_id).resolve("refs").resolve(ref);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, commit, StandardCharsets.UTF_8);
+        written_long_ago(path);
+    }
+
+    private static void written_long_ago(Path path) throws IOException {
+        var time = FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2).toMillis());
+        Files.getFileAttributeView(path, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).setTimes(time, null,
+                null);
+    }
+
+    private static long last_access(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).lastAccessTime().toMillis();
+    }
+
+    @Test
+    public void test_dangling_pointers_and_orphan_blobs_are_deleted() throws IOException {
+        add_blob("user/model", "used", 10, Duration.ofHours(2));
+        var pointer = add_pointer("user/model", COMMIT_A, "config.json", "used");
+        var dangling = add_pointer("user/model", COMMIT_A, "dangling.json", "deleted");
+        var orphan = add_blob("user/model", "orphan", 100, Duration.ofHours(2));
+        // Just downloaded: its pointer may not be created yet
+        var recent = add_blob("user/model", "recent", 1000, Duration.ZERO);
+        var incomplete = add_blob("user/model", "downloading.incomplete", 1000, Duration.ofHours(2));
+
+        var report = CacheGC.collect(cache_dir, 0);
+
+        assertEquals(new CacheGC.GCReport(1110, 1010, 0, 1, 1), report);
+        assertTrue(Files.exists(pointer));
+        assertFalse(Files.exists(dangling, LinkOption.NOFOLLOW_LINKS));
+        assertFalse(Files.exists(orphan));
+        assertTrue(Files.exists(recent));
+        assertTrue(Files.exists(incomplete));
+    }
+
+    @Test
+    public void test_least_recently_used_revisions_are_evicted() throws IOException {
+        add_blob("user/model", "a", 100, Duration.ofHours(3));
+        add_blob("user/model", "b", 100, Duration.ofHours(2));
+        add_blob("user/model", "shared", 100, Duration.ofHours(3));
+        add_blob("user/other", "c", 100, Duration.ofHours(1));
+        add_pointer("user/model", COMMIT_A, "model.bin", "a");
+        add_pointer("user/model", COMMIT_A, "config.json", "shared");
+        add_pointer("user/model", COMMIT_B, "model.bin", "b");
+        add_pointer("user/model", COMMIT_B, "config.json", "shared");
+        add_pointer("user/other", COMMIT_C, "model.bin", "c");
+        add_ref("user/model", "v1", COMMIT_A);
+        add_ref("user/model", "main", COMMIT_B);
+        Files.createDirectories(storage_folder("user/model").resolve(".no_exist").resolve(COMMIT_A));
+
+        var report = CacheGC.collect(cache_dir, 300);
+
+        // Only the blob of A is freed, the other one is used by B
+        assertEquals(new CacheGC.GCReport(400, 300, 1, 1, 0), report);
+        var folder = storage_folder("user/model");
+        assertFalse(Files.exists(folder.resolve("snapshots").resolve(COMMIT_A)));
+        assertFalse(Files.exists(folder.resolve(".no_exist").resolve(COMMIT_A)));
+        assertFalse(Files.exists(folder.resolve("refs").resolve("v1")));
+        assertFalse(Files.exists(folder.resolve("blobs").resolve("a")));
+        assertTrue(Files.exists(folder.resolve("snapshots").resolve(COMMIT_B).resolve("config.json")));
+        assertTrue(Files.exists(folder.resolve("refs").resolve("main")));
+
+        // Then B, the least recently used of the others
+        assertEquals(new CacheGC.GCReport(300, 100, 1, 2, 0), CacheGC.collect(cache_dir, 150));
+        assertTrue(Files.exists(storage_folder("user/other").resolve("snapshots").resolve(COMMIT_C)
+                .resolve("model.bin")));
+        assertEquals(FileDownload._find_in_cache(storage_folder("user/model"), "main", "config.json"),
+                FileDownload.try_to_load_from_cache("user/model", "config.json", cache_dir, "main", null));
+    }
+
+    @Test
+    public void test_revisions_used_recently_are_kept() throws IOException {
+        add_blob("user/model", "a", 100, Duration.ofHours(2));
+        var pointer = add_pointer("user/model", COMMIT_A, "model.bin", "a");
+        CacheGC.record_access(pointer);
+
+        var report = CacheGC.collect(cache_dir, 10);
+
+        assertEquals(new CacheGC.GCReport(100, 100, 0, 0, 0), report);
+        assertTrue(Files.exists(pointer));
+    }
+
+    @Test
+    public void test_blobs_being_downloaded_are_kept() throws IOException {
+        var orphan = add_blob("user/model", "orphan", 100, Duration.ofHours(2));
+        var lock_path = cache_dir.resolve(".locks").resolve(FileDownload.repo_folder_name("user/model", "model"))
+                .resolve("orphan.lock");
+
+        try (var lock = WeakFileLock.acquire(lock_path)) {
+            assertEquals(0, CacheGC.collect(cache_dir, 0).blobs_deleted());
+            assertTrue(Files.exists(orphan));
+        }
+        assertEquals(1, CacheGC.collect(cache_dir, 0).blobs_deleted());
+        assertFalse(Files.exists(orphan));
+    }
+
+    @Test
+    public void test_revisions_written_since_the_scan_are_kept() throws IOException {
+        add_blob("user/model", "a", 100, Duration.ofHours(2));
+        var pointer = add_pointer("user/model", COMMIT_A, "model.bin", "a");
+        var cache_info = CacheManager.scan_cache_dir(cache_dir);
+
+        // A download adds a file to the revision after the scan
+        var added = pointer.resolveSibling("config.json");
+        Files.createSymbolicLink(added, Path.of("../../blobs/a"));
+
+        assertEquals(0, CacheGC.collect(cache_info, 10).revisions_deleted());
+        assertTrue(Files.exists(added));
+    }
+
+    @Test
+    public void test_revisions_are_kept_while_pointers_are_created() throws IOException {
+        add_blob("user/model", "a", 100, Duration.ofHours(2));
+        var pointer = add_pointer("user/model", COMMIT_A, "model.bin", "a");
+
+        try (var lock = WeakFileLock.acquire(CacheGC.snapshots_lock_path(storage_folder("user/model")))) {
+            assertEquals(0, CacheGC.collect(cache_dir, 10).revisions_deleted());
+            assertTrue(Files.exists(pointer));
+        }
+        assertEquals(1, CacheGC.collect(cache_dir, 10).revisions_deleted());
+        assertFalse(Files.exists(pointer, LinkOption.NOFOLLOW_LINKS));
+    }
+
+    @Test
+    public void test_cached_files_returned_are_recorded_as_used() throws IOException {
+        var blob = add_blob("user/model", "a", 100, Duration.ofHours(2));
+        add_pointer("user/model", COMMIT_A, "model.bin", "a");
+        add_ref("user/model", "main", COMMIT_A);
+        var start = System.currentTimeMillis();
+
+        assertTrue(FileDownload.try_to_load_from_cache("user/model", "model.bin", cache_dir, null, null) != null);
+
+        assertTrue(last_access(blob) >= start - 1000);
+        assertEquals(0, CacheGC.collect(cache_dir, 10).revisions_deleted());
+    }
+
+    @Test
+    public void test_downloads_of_a_blob_found_unreferenced_are_kept() throws IOException {
+        // Large enough not to be revalidated as a small file: the new revision links the blob in the cache
+        var content = new byte[2_000_000];
+        new Random(42).nextBytes(content);
+        try (var server = HubStubServer.start()) {
+            server.add_file("user/model", "model.safetensors", content);
+            for (var i = 1; i <= 20; i++) {
+                // Each download is for a new revision sharing the blob of the previous one, which is gone
+                server.commit(String.format("%040x", i));
+                var download = hf_hub_download_async("user/model", "model.safetensors", null, null, null, null,
+                        null, cache_dir, null, null, false, null, 10, Either.left(false), false, null,
+                        server.endpoint());
+                CacheGC.collect(cache_dir, Long.MAX_VALUE);
+                var pointer = download.join();
+
+                assertArrayEquals(content, Files.readAllBytes(pointer));
+                var blob = pointer.toRealPath();
+                Files.delete(pointer);
+                var time = FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2).toMillis());
+                Files.setLastModifiedTime(blob, time);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package dev.transformers4j.hub;
+
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_DISABLE_CACHE_INDEX;
+import static dev.transformers4j.hub.FileDownload._CACHED_NO_EXIST;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download;
+import static dev.transformers4j.hub.FileDownload.try_to_load_from_cache;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CacheIndexTest {
+    private static final String COMMIT = HubStubServer.COMMIT_HASH;
+    private static final String OTHER_COMMIT = "fedcba9876543210fedcba9876543210fedcba98";
+
+    @TempDir
+    Path cache_dir;
+
+    @BeforeEach
+    public void setUp() {
+        CacheIndex.configure(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        CacheIndex.configure(!HF_HUB_DISABLE_CACHE_INDEX);
+    }
+
+    /** Create a repo in the cache with `main` pointing to `COMMIT`, as written by `hf_hub_download`. */
+    private Path create_repo(String repo_id, String... filenames) throws IOException {
+        var storage_folder = cache_dir.resolve(FileDownload.repo_folder_name(repo_id, "model"));
+        Files.createDirectories(storage_folder.resolve("refs"));
+        Files.writeString(storage_folder.resolve("refs").resolve("main"), COMMIT);
+        for (var filename : filenames) {
+            add_file(storage_folder, COMMIT, filename);
+        }
+        return storage_folder;
+    }
+
+    private static void add_file(Path storage_folder, String commit, String filename) throws IOException {
+        var blob = storage_folder.resolve("blobs").resolve(Integer.toHexString((commit + filename).hashCode()));
+        Files.createDirectories(blob.getParent());
+        Files.writeString(blob, filename, StandardCharsets.UTF_8);
+        var pointer = storage_folder.resolve("snapshots").resolve(commit).resolve(filename);
+        Files.createDirectories(pointer.getParent());
+        Files.createSymbolicLink(pointer, pointer.getParent().relativize(blob));
+    }
+
+    private Path lookup(String repo_id, String filename, String revision) throws IOException {
+        return try_to_load_from_cache(repo_id, filename, cache_dir, revision, null);
+    }
+
+    /** Wait for `condition` to become true, as changes made by other processes are reported asynchronously. */
+    private static void await(Callable<Boolean> condition) throws Exception {
+        var deadline = System.nanoTime() + 20_000_000_000L;
+        while (!condition.call()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met in time");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void test_same_results_as_the_disk() throws IOException {
+        var storage_folder = create_repo("user/model", "config.json", "sub/tokenizer.json");
+        add_file(storage_folder, OTHER_COMMIT, "config.json");
+        Files.createDirectories(storage_folder.resolve(".no_exist").resolve(COMMIT));
+        Files.createFile(storage_folder.resolve(".no_exist").resolve(COMMIT).resolve("missing.json"));
+        // Dangling pointer
+        var dangling = storage_folder.resolve("snapshots").resolve(COMMIT).resolve("dangling.json");
+        Files.createSymbolicLink(dangling, Path.of("../../blobs/none"));
+
+        var cases = List.of(List.of("config.json", "main"), List.of("config.json", COMMIT),
+                List.of("config.json", OTHER_COMMIT), List.of("sub/tokenizer.json", "main"),
+                List.of("missing.json", "main"), List.of("dangling.json", "main"), List.of("unknown.json", "main"),
+                List.of("config.json", "v1.0"), List.of("config.json", "refs/pr/1"));
+        for (var c : cases) {
+            var expected = FileDownload._find_in_cache(storage_folder, c.get(1), c.get(0));
+            assertEquals(expected, lookup("user/model", c.get(0), c.get(1)), c.toString());
+        }
+        assertEquals(storage_folder.resolve("snapshots").resolve(COMMIT).resolve("config.json"),
+                lookup("user/model", "config.json", null));
+        assertEquals(_CACHED_NO_EXIST, lookup("user/model", "missing.json", "main"));
+        assertNull(lookup("user/unknown", "config.json", "main"));
+    }
+
+    @Test
+    public void test_lookups_are_answered_from_memory() throws IOException {
+        create_repo("user/model", "config.json");
+        lookup("user/model", "config.json", "main");
+        var listings = CacheIndex.stats().listings();
+
+        for (var i = 0; i < 100; i++) {
+            lookup("user/model", "config.json", "main");
+            lookup("user/model", "other.json", "main");
+        }
+
+        assertEquals(listings, CacheIndex.stats().listings());
+        assertEquals(1, CacheIndex.stats().repos());
+    }
+
+    @Test
+    public void test_downloads_are_seen_right_away() throws IOException {
+        try (var server = HubStubServer.start()) {
+            server.add_file("user/model", "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+            assertNull(lookup("user/model", "config.json", "main"));
+
+            var path = hf_hub_download("user/model", "config.json", null, null, null, null, null, cache_dir, null,
+                    null, false, null, 10, Either.left(false), false, null, server.endpoint(), false, null, null,
+                    null);
+
+            assertEquals(path, lookup("user/model", "config.json", "main"));
+            // Cached as missing
+            try {
+                hf_hub_download("user/model", "missing.json", null, null, null, null, null, cache_dir, null, null,
+                        false, null, 10, Either.left(false), false, null, server.endpoint(), false, null, null, null);
+            } catch (IOException expected) {
+            }
+            assertEquals(_CACHED_NO_EXIST, lookup("user/model", "missing.json", "main"));
+        }
+    }
+
+    @Test
+    public void test_changes_made_by_other_processes_are_seen() throws Exception {
+        var storage_folder = create_repo("user/model", "config.json");
+        assertNull(lookup("user/model", "new.json", "main"));
+        assertNull(lookup("user/other", "config.json", "main"));
+
+        // New file, new repo, moved ref and deleted blob, written behind the back of the index
+        add_file(storage_folder, COMMIT, "new.json");
+        await(() -> lookup("user/model", "new.json", "main") != null);
+        create_repo("user/other", "config.json");
+        await(() -> lookup("user/other", "config.json", "main") != null);
+        add_file(storage_folder, OTHER_COMMIT, "config.json");
+        Files.writeString(storage_folder.resolve("refs").resolve("main"), OTHER_COMMIT);
+        await(() -> lookup("user/model", "config.json", "main").startsWith(
+                storage_folder.resolve("snapshots").resolve(OTHER_COMMIT)));
+        try (var blobs = Files.list(storage_folder.resolve("blobs"))) {
+            for (var blob : blobs.toList()) {
+                Files.delete(blob);
+            }
+        }
+        await(() -> lookup("user/model", "config.json", "main") == null);
+    }
+
+    /**
+     * Look up files of a cache of 500 repos through the index: the answers are the same as on the disk, and once the
+     * repos have been listed, lookups do not touch the disk anymore.
+     */
+    @Test
+    public void test_lookups_in_500_repos() throws IOException {
+        var repo_ids = new ArrayList<String>();
+        for (var i = 0; i < 500; i++) {
+            repo_ids.add("user/model-" + i);
+            create_repo(repo_ids.get(i), "config.json", "tokenizer.json", "model.safetensors");
+        }
+        var filenames = List.of("config.json", "generation_config.json", "tokenizer.json");
+
+        var expected = new ArrayList<Path>();
+        for (var repo_id : repo_ids) {
+            var repo_cache = cache_dir.resolve(FileDownload.repo_folder_name(repo_id, "model"));
+            for (var filename : filenames) {
+                expected.add(FileDownload._find_in_cache(repo_cache, "main", filename));
+            }
+        }
+
+        var listings = 0L;
+        for (var round = 0; round < 10; round++) {
+            var actual = new ArrayList<Path>();
+            for (var repo_id : repo_ids) {
+                for (var filename : filenames) {
+                    actual.add(lookup(repo_id, filename, "main"));
+                }
+            }
+            assertEquals(expected, actual);
+            if (round == 0) {
+                // Repos are listed during the first round
+                listings = CacheIndex.stats().listings();
+            } else {
+                assertEquals(listings, CacheIndex.stats().listings());
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package dev.transformers4j.hub;
+
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_METADATA_CACHE_DIR;
+import static dev.transformers4j.hub.Constants.HF_HUB_METADATA_STALE_WHILE_REVALIDATE;
+import static dev.transformers4j.hub.Constants.HF_HUB_METADATA_TTL;
+import static dev.transformers4j.hub.FileDownload.get_hf_file_metadata;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download_async;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DownloadLocationsTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+    private static final String FILENAME = "model.safetensors";
+    private static final byte[] CONTENT = "{\"weights\": []}".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path cache_dir;
+
+    private HubStubServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HubStubServer.start();
+        server.add_file(REPO_ID, FILENAME, CONTENT);
+        DownloadLocations.clear();
+        FileMetadataCache.configure(Duration.ofHours(1), Duration.ZERO, null);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+        DownloadLocations.clear();
+        FileMetadataCache.configure(Duration.ofSeconds(HF_HUB_METADATA_TTL),
+                Duration.ofSeconds(HF_HUB_METADATA_STALE_WHILE_REVALIDATE),
+                HF_HUB_METADATA_CACHE_DIR != null ? Path.of(HF_HUB_METADATA_CACHE_DIR) : null);
+    }
+
+    private Path download(Path cache_dir, String revision) throws IOException {
+        return hf_hub_download(REPO_ID, FILENAME, null, null, revision, null, null, cache_dir, null, null, false, null,
+                10, Either.left(false), false, null, server.endpoint(), false, null, null, null);
+    }
+
+    private CompletableFuture<Path> download_async(Path cache_dir) {
+        return hf_hub_download_async(REPO_ID, FILENAME, null, null, null, null, null, cache_dir, null, null, false,
+                null, 10, Either.left(false), false, null, server.endpoint());
+    }
+
+    /** Put metadata pointing to an expired CDN location in the metadata cache, as if it had been fetched long ago. */
+    private void cache_expired_location() throws IOException {
+        server.cdn(-60);
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/" + FILENAME;
+        var metadata = get_hf_file_metadata(url, Either.left(false), null, 10f, null, null, null, null);
+        FileMetadataCache.put(FileMetadataCache.key(server.endpoint(), null, REPO_ID, "main", FILENAME, Map.of()),
+                metadata);
+        server.cdn(3600);
+    }
+
+    @Test
+    public void test_expiry_from_signed_urls() {
+        var margin = DownloadLocations.SAFETY_MARGIN.toMillis();
+        assertEquals(1760000000_000L - margin, DownloadLocations
+                .expires_at("https://cdn-lfs.hf.co/repos/ab/cd?response-content-disposition=x&Expires=1760000000"
+                        + "&Policy=p&Signature=s&Key-Pair-Id=k"));
+        assertEquals(Instant.parse("2026-10-16T13:00:00Z").toEpochMilli() - margin,
+                DownloadLocations.expires_at("https://bucket.s3.amazonaws.com/blob?X-Amz-Algorithm=AWS4-HMAC-SHA256"
+                        + "&X-Amz-Date=20261016T120000Z&X-Amz-Expires=3600&X-Amz-Signature=s"));
+
+        var unsigned = DownloadLocations.expires_at("https://cdn.example.com/blob");
+        var now = System.currentTimeMillis();
+        assertTrue(unsigned > now && unsigned <= now + DownloadLocations.DEFAULT_MAX_AGE.toMillis());
+    }
+
+    @Test
+    public void test_locations_are_not_shared_across_tokens() {
+        var expires = Instant.now().plus(Duration.ofHours(1)).getEpochSecond();
+        Supplier<CompletableFuture<FileDownload.HfFileMetadata>> resolve = () -> CompletableFuture
+                .failedFuture(new IllegalStateException());
+        var first = "https://cdn.example.com/blob?Expires=" + expires + "&Signature=first";
+        var second = "https://cdn.example.com/blob?Expires=0&Signature=second";
+
+        DownloadLocations.remember("etag", first, Map.of("authorization", "Bearer hf_first"), resolve);
+
+        // An expired location is only replaced by a fresh one resolved with the same token
+        assertEquals(second, DownloadLocations.remember("etag", second, Map.of(), resolve));
+        assertEquals(first, DownloadLocations.remember("etag", second, Map.of("authorization", "Bearer hf_first"),
+                resolve));
+        assertEquals(first, DownloadLocations.get("etag", Map.of("authorization", "Bearer hf_first")));
+        assertNull(DownloadLocations.get("etag", Map.of("authorization", "Bearer hf_second")));
+    }
+
+    @Test
+    public void test_fresh_location_is_reused() throws IOException {
+        cache_expired_location();
+        // Another revision of the same blob is resolved, to a location that is still valid
+        download(cache_dir.resolve("a"), HubStubServer.COMMIT_HASH);
+
+        var path = download(cache_dir.resolve("b"), null);
+
+        assertEquals(new String(CONTENT, StandardCharsets.UTF_8), Files.readString(path));
+        assertEquals(0, server.forbidden());
+        assertEquals(2, server.head_requests());
+    }
+
+    @Test
+    public void test_rejected_location_is_resolved_again() throws IOException {
+        cache_expired_location();
+
+        var path = download(cache_dir, null);
+
+        assertEquals(new String(CONTENT, StandardCharsets.UTF_8), Files.readString(path));
+        assertEquals(1, server.forbidden());
+        assertEquals(2, server.head_requests());
+    }
+
+    @Test
+    public void test_rejected_location_is_resolved_again_async() throws IOException {
+        cache_expired_location();
+
+        var path = download_async(cache_dir).join();
+
+        assertEquals(new String(CONTENT, StandardCharsets.UTF_8), Files.readString(path));
+        assertEquals(1, server.forbidden());
+        assertEquals(2, server.head_requests());
+    }
+}
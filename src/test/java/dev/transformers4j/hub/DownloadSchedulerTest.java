@@ -0,0 +1,168 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.DownloadScheduler.Priority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_DOWNLOAD_WORKERS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DownloadSchedulerTest {
+    private CountDownLatch release;
+    private CompletableFuture<Void> blocker;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        DownloadScheduler.configure(1);
+        // Hold the only worker until the operations of the test are queued
+        release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        blocker = DownloadScheduler.submit(Priority.BULK, "models/blocker", () -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        DownloadScheduler.configure(HF_HUB_DOWNLOAD_WORKERS);
+    }
+
+    private static CompletableFuture<String> record(List<String> order, Priority priority, String repo, String name) {
+        return DownloadScheduler.submit(priority, repo, () -> {
+            order.add(name);
+            return name;
+        });
+    }
+
+    private static void join(List<CompletableFuture<String>> futures) {
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+    }
+
+    @Test
+    public void test_higher_priorities_go_first() {
+        var order = Collections.synchronizedList(new ArrayList<String>());
+        var futures = List.of(record(order, Priority.BULK, "models/a", "model.safetensors"),
+                record(order, Priority.SMALL, "models/a", "config.json"),
+                record(order, Priority.INTERACTIVE, "models/b", "repo_info"));
+        assertEquals(3, DownloadScheduler.stats().queued());
+
+        release.countDown();
+        join(futures);
+
+        assertEquals(List.of("repo_info", "config.json", "model.safetensors"), order);
+    }
+
+    @Test
+    public void test_repos_take_turns() {
+        var order = Collections.synchronizedList(new ArrayList<String>());
+        var futures = List.of(record(order, Priority.BULK, "models/a", "a1"),
+                record(order, Priority.BULK, "models/a", "a2"), record(order, Priority.BULK, "models/a", "a3"),
+                record(order, Priority.BULK, "models/b", "b1"), record(order, Priority.BULK, "models/b", "b2"));
+
+        release.countDown();
+        join(futures);
+
+        assertEquals(List.of("a1", "b1", "a2", "b2", "a3"), order);
+    }
+
+    @Test
+    public void test_cancel_queued_and_running() throws Exception {
+        var ran = new AtomicBoolean(false);
+        var queued = DownloadScheduler.submit(Priority.BULK, "models/a", () -> ran.getAndSet(true));
+
+        assertTrue(queued.cancel(true));
+        assertEquals(0, DownloadScheduler.stats().queued());
+
+        // The blocker is interrupted while waiting for the latch
+        assertTrue(blocker.cancel(true));
+        var next = DownloadScheduler.submit(Priority.BULK, "models/a", () -> "next");
+        assertEquals("next", next.get(10, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+        // The worker is released right after the operation completes its future
+        for (var i = 0; i < 100 && DownloadScheduler.stats().running() != 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, DownloadScheduler.stats().running());
+    }
+
+    @Test
+    public void test_workers_are_bounded() {
+        DownloadScheduler.configure(2);
+        release.countDown();
+        var running = new AtomicInteger();
+        var max_running = new AtomicInteger();
+        var futures = new ArrayList<CompletableFuture<String>>();
+        for (var i = 0; i < 8; i++) {
+            futures.add(DownloadScheduler.submit(Priority.SMALL, "models/" + i % 3, () -> {
+                max_running.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(20);
+                running.decrementAndGet();
+                return "done";
+            }));
+        }
+        join(futures);
+
+        assertEquals(2, max_running.get());
+    }
+
+    @Test
+    public void test_small_operations_do_not_wait_behind_bulk() throws Exception {
+        DownloadScheduler.configure(4);
+        // With the blocker, the shards of a snapshot take all the workers bulk operations can have
+        var shards = new ArrayList<CompletableFuture<String>>();
+        for (var i = 0; i < 5; i++) {
+            shards.add(DownloadScheduler.submit(Priority.BULK, "models/snapshot", () -> {
+                release.await();
+                return "shard";
+            }));
+        }
+
+        var config = DownloadScheduler.submit(Priority.SMALL, "models/a", () -> "config.json");
+        var info = DownloadScheduler.submit(Priority.INTERACTIVE, "models/a", () -> "repo_info");
+
+        assertEquals("config.json", config.get(10, TimeUnit.SECONDS));
+        assertEquals("repo_info", info.get(10, TimeUnit.SECONDS));
+        assertEquals(3, DownloadScheduler.stats().queued());
+        assertTrue(shards.stream().noneMatch(CompletableFuture::isDone));
+        release.countDown();
+        join(shards);
+    }
+
+    @Test
+    public void test_nested_operations_run_inline() throws Exception {
+        release.countDown();
+        blocker.join();
+
+        // With a single worker, waiting for another one from the worker would never return
+        var result = DownloadScheduler.submit(Priority.BULK, "models/a",
+                () -> DownloadScheduler.run(Priority.SMALL, "models/a", () -> "nested")
+                        + DownloadScheduler.submit_async(Priority.SMALL, "models/a",
+                                () -> CompletableFuture.completedFuture("-async")).join());
+
+        assertEquals("nested-async", result.get(10, TimeUnit.SECONDS));
+
+        // Blocking operations submitted from a worker do not take another thread
+        var threads = DownloadScheduler.submit(Priority.BULK, "models/a", () -> {
+            var worker = Thread.currentThread();
+            return DownloadScheduler.submit(Priority.SMALL, "models/a", () -> Thread.currentThread() == worker)
+                    .get();
+        });
+        assertTrue(threads.get(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,595 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.utils.EntryNotFoundException;
+import dev.transformers4j.hub.utils.WeakFileLock;
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.transformers4j.hub.FileDownload.get_hf_file_metadata;
+import static dev.transformers4j.hub.FileDownload.get_hf_files_metadata;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download_async;
+import static dev.transformers4j.hub.FileDownload.http_get;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileDownloadTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+    private static final String NEW_COMMIT_HASH = "fedcba9876543210fedcba9876543210fedcba98";
+
+    @TempDir
+    Path cache_dir;
+
+    private HubStubServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HubStubServer.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private Path download(String filename) throws IOException {
+        return download(filename, null);
+    }
+
+    private Path download(String filename, String revision) throws IOException {
+        return hf_hub_download(REPO_ID, filename, null, null, revision, null, null, cache_dir, null, null, false, null,
+                10, Either.left(false), false, null, server.endpoint(), false, null, null, null);
+    }
+
+    /** Run `task` on `nb_threads` threads at once and return the results in order. */
+    private static <T> List<T> run_concurrently(int nb_threads, Callable<T> task) throws Exception {
+        var executor = Executors.newFixedThreadPool(nb_threads);
+        try {
+            var start = new CountDownLatch(1);
+            var futures = new ArrayList<Future<T>>();
+            for (var i = 0; i < nb_threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            var results = new ArrayList<T>();
+            for (var future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CompletableFuture<Path> download_async(String filename, Path local_dir) {
+        return hf_hub_download_async(REPO_ID, filename, null, null, null, null, null, cache_dir, local_dir, null,
+                false, null, 10, Either.left(false), false, null, server.endpoint());
+    }
+
+    @Test
+    public void test_hf_hub_download_to_cache_dir() throws IOException {
+        server.add_file(REPO_ID, "config.json", "{\"model_type\": \"roberta\"}".getBytes(StandardCharsets.UTF_8));
+
+        var path = download("config.json");
+
+        assertEquals("{\"model_type\": \"roberta\"}", Files.readString(path));
+        assertEquals(cache_dir.resolve("models--julien-c--dummy-unknown").resolve("snapshots")
+                .resolve(HubStubServer.COMMIT_HASH).resolve("config.json"), path);
+    }
+
+    @Test
+    public void test_hf_hub_download_changed_small_file_with_single_request() throws IOException {
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+        download("config.json");
+        server.add_file(REPO_ID, "config.json", "{\"model_type\": \"bert\"}".getBytes(StandardCharsets.UTF_8))
+                .commit(NEW_COMMIT_HASH);
+
+        var path = download("config.json");
+
+        assertEquals("{\"model_type\": \"bert\"}", Files.readString(path));
+        // The changed file is revalidated and fetched by the same GET
+        assertEquals(0, server.head_requests());
+        assertEquals(2, server.get_requests());
+        assertTrue(Files.isSymbolicLink(path));
+    }
+
+    @Test
+    public void test_hf_hub_download_small_file_with_single_request_on_cold_cache() throws IOException {
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+
+        var path = download("config.json");
+
+        assertEquals("{}", Files.readString(path));
+        assertTrue(Files.isSymbolicLink(path));
+        assertEquals(0, server.head_requests());
+        assertEquals(1, server.get_requests());
+    }
+
+    @Test
+    public void test_hf_hub_download_async_small_file_with_single_request_on_cold_cache() throws IOException {
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+
+        var path = download_async("config.json", null).join();
+
+        assertEquals("{}", Files.readString(path));
+        assertTrue(Files.isSymbolicLink(path));
+        assertEquals(0, server.head_requests());
+        assertEquals(1, server.get_requests());
+    }
+
+    @Test
+    public void test_hf_hub_download_from_cache_does_not_wait_for_workers() throws Exception {
+        server.add_file(REPO_ID, "model.safetensors", "weights".getBytes(StandardCharsets.UTF_8));
+        var path = download("model.safetensors");
+        // The only worker runs a bulk download until the end of the test
+        DownloadScheduler.configure(1);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        DownloadScheduler.submit(DownloadScheduler.Priority.BULK, "models/blocker", () -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        try {
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            assertEquals(path, download("model.safetensors", HubStubServer.COMMIT_HASH));
+            assertEquals(path, hf_hub_download(REPO_ID, "model.safetensors", null, null, null, null, null, cache_dir,
+                    null, null, false, null, 10, Either.left(false), true, null, server.endpoint(), false, null, null,
+                    null));
+            assertEquals(path, hf_hub_download_async(REPO_ID, "model.safetensors", null, null,
+                    HubStubServer.COMMIT_HASH, null, null, cache_dir, null, null, false, null, 10, Either.left(false),
+                    false, null, server.endpoint()).get(10, TimeUnit.SECONDS));
+            assertEquals(1, server.get_requests());
+        } finally {
+            release.countDown();
+            DownloadScheduler.configure(Constants.HF_HUB_DOWNLOAD_WORKERS);
+        }
+    }
+
+    @Test
+    public void test_hf_hub_download_small_file_not_modified() throws IOException {
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+        var path = download("config.json");
+
+        assertEquals(path, download("config.json"));
+
+        assertEquals(0, server.head_requests());
+        assertEquals(2, server.get_requests());
+        assertEquals(1, server.not_modified());
+    }
+
+    @Test
+    public void test_hf_hub_download_large_file_revalidated_with_head() throws IOException {
+        var content = new byte[(int) FileDownload.SMALL_FILE_MAX_SIZE + 1];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "config.json", content);
+        var path = download("config.json");
+        var head_requests = server.head_requests();
+        var get_requests = server.get_requests();
+
+        assertEquals(path, download("config.json"));
+
+        assertEquals(head_requests + 1, server.head_requests());
+        assertEquals(get_requests, server.get_requests());
+        assertEquals(0, server.not_modified());
+    }
+
+    @Test
+    public void test_hf_hub_download_changed_small_file_resumes_incomplete_blob() throws IOException {
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+        download("config.json");
+        var content = new byte[1000];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "config.json", content).commit(NEW_COMMIT_HASH);
+        var blobs = cache_dir.resolve("models--julien-c--dummy-unknown").resolve("blobs");
+        Files.write(blobs.resolve(HubStubServer.etag(content) + ".incomplete"), Arrays.copyOf(content, 400));
+
+        var path = download("config.json");
+
+        assertArrayEquals(content, Files.readAllBytes(path));
+        assertEquals(List.of("bytes=400-"), server.ranges());
+    }
+
+    @Test
+    public void test_hf_hub_download_file_larger_than_chunk_size() throws IOException {
+        var content = new byte[Constants.DOWNLOAD_CHUNK_SIZE * 2 + 123];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "pytorch_model.bin", content);
+
+        var path = download("pytorch_model.bin");
+
+        assertArrayEquals(content, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void test_hf_hub_download_resumes_incomplete_blob() throws IOException {
+        var content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "pytorch_model.bin", content);
+        var blobs = cache_dir.resolve("models--julien-c--dummy-unknown").resolve("blobs");
+        Files.createDirectories(blobs);
+        Files.write(blobs.resolve(HubStubServer.etag(content) + ".incomplete"), Arrays.copyOf(content, 40_000));
+
+        var path = download("pytorch_model.bin");
+
+        assertArrayEquals(content, Files.readAllBytes(path));
+        assertEquals(List.of("bytes=40000-"), server.ranges());
+    }
+
+    @Test
+    public void test_hf_hub_download_rejects_corrupted_blob() throws IOException {
+        var content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "pytorch_model.bin", content);
+        server.corrupt(1);
+        var blobs = cache_dir.resolve("models--julien-c--dummy-unknown").resolve("blobs");
+
+        var error = assertThrows(IOException.class, () -> download("pytorch_model.bin"));
+
+        assertTrue(error.getMessage().startsWith("Consistency check failed"), error.getMessage());
+        assertFalse(Files.exists(blobs.resolve(HubStubServer.etag(content))));
+        assertFalse(Files.exists(blobs.resolve(HubStubServer.etag(content) + ".incomplete")));
+        // Nothing is left to resume from: the next download starts over
+        assertArrayEquals(content, Files.readAllBytes(download("pytorch_model.bin")));
+    }
+
+    @Test
+    public void test_hf_hub_download_rejects_corrupted_incomplete_blob() throws IOException {
+        var content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "pytorch_model.bin", content);
+        var blobs = cache_dir.resolve("models--julien-c--dummy-unknown").resolve("blobs");
+        Files.createDirectories(blobs);
+        var partial = Arrays.copyOf(content, 40_000);
+        partial[123] ^= 1;
+        Files.write(blobs.resolve(HubStubServer.etag(content) + ".incomplete"), partial);
+
+        assertThrows(IOException.class, () -> download("pytorch_model.bin"));
+
+        assertEquals(List.of("bytes=40000-"), server.ranges());
+        assertFalse(Files.exists(blobs.resolve(HubStubServer.etag(content))));
+    }
+
+    @Test
+    public void test_hf_hub_download_async_rejects_corrupted_blob() {
+        var content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "pytorch_model.bin", content);
+        server.corrupt(1);
+
+        var error = assertThrows(CompletionException.class, () -> download_async("pytorch_model.bin", null).join());
+
+        assertInstanceOf(IOException.class, error.getCause());
+        assertTrue(error.getCause().getMessage().startsWith("Consistency check failed"));
+        assertFalse(Files.exists(cache_dir.resolve("models--julien-c--dummy-unknown").resolve("blobs")
+                .resolve(HubStubServer.etag(content))));
+    }
+
+    @Test
+    public void test_hf_hub_download_coalesces_concurrent_calls() throws Exception {
+        var content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "pytorch_model.bin", content).latency(200);
+
+        var paths = run_concurrently(8, () -> download("pytorch_model.bin"));
+
+        assertEquals(1, new HashSet<>(paths).size());
+        assertArrayEquals(content, Files.readAllBytes(paths.get(0)));
+        assertEquals(1, server.head_requests());
+        assertEquals(1, server.get_requests());
+    }
+
+    @Test
+    public void test_hf_hub_download_does_not_coalesce_calls_with_different_tokens() throws Exception {
+        var content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "pytorch_model.bin", content).latency(200);
+
+        var tokens = List.of("hf_first", "hf_second");
+        var index = new AtomicInteger();
+        var paths = run_concurrently(8, () -> hf_hub_download(REPO_ID, "pytorch_model.bin", null, null, null, null,
+                null, cache_dir, null, null, false, null, 10,
+                Either.right(tokens.get(index.getAndIncrement() % 2)), false, null, server.endpoint(), false, null,
+                null, null));
+
+        assertEquals(1, new HashSet<>(paths).size());
+        // The metadata is fetched once per token, the blob is still downloaded once
+        assertEquals(2, server.head_requests());
+        assertEquals(1, server.get_requests());
+    }
+
+    @Test
+    public void test_hf_hub_download_coalesces_blob_across_revisions() throws Exception {
+        var content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "pytorch_model.bin", content).latency(200);
+
+        var revisions = List.of("main", HubStubServer.COMMIT_HASH);
+        var index = new AtomicInteger();
+        var paths = run_concurrently(8, () -> download("pytorch_model.bin",
+                revisions.get(index.getAndIncrement() % 2)));
+
+        assertEquals(1, new HashSet<>(paths).size());
+        assertArrayEquals(content, Files.readAllBytes(paths.get(0)));
+        assertEquals(1, server.get_requests());
+    }
+
+    @Test
+    public void test_hf_hub_download_waits_for_lock_and_reuses_blob() throws Exception {
+        var content = "{\"model_type\": \"bert\"}".getBytes(StandardCharsets.UTF_8);
+        server.add_file(REPO_ID, "config.json", content);
+        var etag = HubStubServer.etag(content);
+        var blob_path = cache_dir.resolve("models--julien-c--dummy-unknown").resolve("blobs").resolve(etag);
+        var lock_path = cache_dir.resolve(".locks").resolve("models--julien-c--dummy-unknown").resolve(etag + ".lock");
+
+        CompletableFuture<Path> future;
+        // Another process is downloading the blob
+        try (var lock = WeakFileLock.acquire(lock_path)) {
+            future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return download("config.json");
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+            Thread.sleep(300);
+            assertFalse(future.isDone());
+            Files.createDirectories(blob_path.getParent());
+            Files.write(blob_path, content);
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(future.join()));
+        // Only the single GET bringing the metadata of the small file: its content is not fetched again
+        assertEquals(0, server.head_requests());
+        assertEquals(1, server.get_requests());
+    }
+
+    @Test
+    public void test_hf_hub_download_async_to_cache_dir() throws IOException {
+        var files = new HashMap<String, byte[]>();
+        for (var i = 0; i < 10; i++) {
+            var content = new byte[Constants.DOWNLOAD_CHUNK_SIZE + i];
+            new Random(i).nextBytes(content);
+            files.put("model-0000" + i + ".safetensors", content);
+            server.add_file(REPO_ID, "model-0000" + i + ".safetensors", content);
+        }
+
+        var futures = new HashMap<String, CompletableFuture<Path>>();
+        files.keySet().forEach(filename -> futures.put(filename, download_async(filename, null)));
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+
+        var snapshot = cache_dir.resolve("models--julien-c--dummy-unknown").resolve("snapshots")
+                .resolve(HubStubServer.COMMIT_HASH);
+        for (var entry : futures.entrySet()) {
+            var path = entry.getValue().join();
+            assertEquals(snapshot.resolve(entry.getKey()), path);
+            assertArrayEquals(files.get(entry.getKey()), Files.readAllBytes(path));
+        }
+    }
+
+    @Test
+    public void test_hf_hub_download_async_resumes_incomplete_blob() throws IOException {
+        var content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "pytorch_model.bin", content);
+        var blobs = cache_dir.resolve("models--julien-c--dummy-unknown").resolve("blobs");
+        Files.createDirectories(blobs);
+        Files.write(blobs.resolve(HubStubServer.etag(content) + ".incomplete"), Arrays.copyOf(content, 40_000));
+
+        var path = download_async("pytorch_model.bin", null).join();
+
+        assertArrayEquals(content, Files.readAllBytes(path));
+        assertEquals(List.of("bytes=40000-"), server.ranges());
+    }
+
+    @Test
+    public void test_hf_hub_download_async_to_local_dir() throws IOException {
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+        var local_dir = cache_dir.resolve("local");
+
+        var path = download_async("config.json", local_dir).join();
+
+        assertEquals(local_dir.resolve("config.json"), path);
+        assertEquals("{}", Files.readString(path));
+    }
+
+    @Test
+    public void test_hf_hub_download_async_entry_not_found() {
+        var future = download_async("missing.json", null);
+
+        var error = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(EntryNotFoundException.class, error.getCause());
+    }
+
+    @Test
+    public void test_get_hf_files_metadata() throws IOException {
+        var filenames = new ArrayList<String>();
+        var etags = new HashMap<String, String>();
+        for (var i = 1; i <= 20; i++) {
+            var filename = String.format("model-%05d-of-00020.safetensors", i);
+            var content = new byte[100 + i];
+            new Random(i).nextBytes(content);
+            server.add_file(REPO_ID, filename, content);
+            filenames.add(filename);
+            etags.put(filename, HubStubServer.etag(content));
+        }
+        server.latency(100);
+
+        var metadata = get_hf_files_metadata(REPO_ID, filenames, null, null, server.endpoint(), Either.left(false),
+                null, 10f, null, null, null, null);
+
+        assertEquals(filenames, new ArrayList<>(metadata.keySet()));
+        for (var filename : filenames) {
+            assertEquals(etags.get(filename), metadata.get(filename).etag());
+            assertEquals(HubStubServer.COMMIT_HASH, metadata.get(filename).commit_hash());
+        }
+        assertEquals(20, server.head_requests());
+        // Requests are pipelined instead of being sent one after the other
+        assertTrue(server.max_concurrent_requests() > 1);
+    }
+
+    @Test
+    public void test_get_hf_files_metadata_entry_not_found() {
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(EntryNotFoundException.class, () -> get_hf_files_metadata(REPO_ID,
+                List.of("config.json", "missing.json"), null, null, server.endpoint(), Either.left(false), null, 10f,
+                null, null, null, null));
+    }
+
+    @Test
+    public void test_http_get_restarts_when_remote_file_changed() throws IOException, InterruptedException {
+        var content = "new content".getBytes(StandardCharsets.UTF_8);
+        server.add_file(REPO_ID, "config.json", content);
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/config.json";
+        var file = cache_dir.resolve("config.json.incomplete");
+        Files.writeString(file, "old");
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.position(channel.size());
+            http_get(url, channel, null, channel.size(), new HashMap<>(Map.of("If-Range", "\"old-etag\"")),
+                    (long) content.length, null, 5, null);
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertTrue(server.ranges().isEmpty());
+    }
+
+    @Test
+    public void test_http_get_restarts_on_unexpected_range() throws IOException, InterruptedException {
+        var content = "another version".getBytes(StandardCharsets.UTF_8);
+        server.add_file(REPO_ID, "config.json", content);
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/config.json";
+        var file = cache_dir.resolve("config.json.incomplete");
+        Files.writeString(file, "old");
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.position(channel.size());
+            // The range sent back is part of a file of another size
+            assertThrows(IOException.class, () -> http_get(url, channel, null, channel.size(), new HashMap<>(),
+                    (long) content.length + 10, null, 5, null));
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertEquals(List.of("bytes=3-"), server.ranges());
+        assertEquals(2, server.get_requests());
+    }
+
+    @Test
+    public void test_http_get_does_not_retry_local_errors() throws IOException {
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/config.json";
+        var channel = FileChannel.open(cache_dir.resolve("config.json"), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        channel.close();
+
+        assertThrows(ClosedChannelException.class, () -> http_get(url, channel, null, 0, new HashMap<>(), 2L, null,
+                5, null));
+        assertEquals(1, server.get_requests());
+    }
+
+    @Test
+    public void test_get_hf_file_metadata_larger_than_2gb() throws IOException {
+        var size = 3L * 1024 * 1024 * 1024;
+        server.add_sparse_file(REPO_ID, "model-00001-of-00002.safetensors", size);
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/model-00001-of-00002.safetensors";
+
+        var metadata = get_hf_file_metadata(url, Either.left(false), null, 10f, null, null, null, null);
+
+        assertEquals(size, (long) metadata.size());
+        assertEquals(HubStubServer.sparse_etag(size), metadata.etag());
+        assertEquals(HubStubServer.COMMIT_HASH, metadata.commit_hash());
+    }
+
+    @Test
+    public void test_http_get_resumes_after_2gb() throws IOException, InterruptedException {
+        var size = 3L * 1024 * 1024 * 1024;
+        server.add_sparse_file(REPO_ID, "model-00001-of-00002.safetensors", size);
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/model-00001-of-00002.safetensors";
+        var file = cache_dir.resolve("model-00001-of-00002.safetensors.incomplete");
+        var resume_size = size - 1024;
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                StandardOpenOption.SPARSE)) {
+            // Sparse incomplete file of `resume_size` bytes
+            channel.write(ByteBuffer.allocate(1), resume_size - 1);
+            channel.position(resume_size);
+            http_get(url, channel, null, resume_size, new HashMap<>(), size, null, 5, null);
+        }
+
+        assertEquals(size, Files.size(file));
+        assertEquals(List.of("bytes=" + resume_size + "-"), server.ranges());
+    }
+
+    @Test
+    public void test_http_get_reuses_connections() throws IOException, InterruptedException {
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/config.json";
+
+        for (var i = 0; i < 5; i++) {
+            var file = cache_dir.resolve("config" + i + ".json");
+            try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                http_get(url, channel, null, 0, new HashMap<>(), 2L, null, 5, null);
+            }
+            assertEquals("{}", Files.readString(file));
+        }
+
+        // All requests must go through the same pooled connection
+        assertEquals(5, server.get_requests());
+        assertEquals(1, server.connections());
+    }
+
+    @Test
+    public void test_hf_hub_download_reuses_connections() throws IOException {
+        for (var i = 0; i < 5; i++) {
+            var content = new byte[1000];
+            Arrays.fill(content, (byte) i);
+            server.add_file(REPO_ID, "model-" + i + ".safetensors", content);
+        }
+
+        for (var i = 0; i < 5; i++) {
+            download("model-" + i + ".safetensors");
+        }
+
+        // HEAD requests do not close their connection either. The client may open another connection when a request
+        // starts before the connection of the previous one is back in its pool, but never one per download.
+        assertEquals(5, server.head_requests());
+        assertEquals(5, server.get_requests());
+        assertTrue(server.connections() < 5);
+    }
+}
@@ -0,0 +1,123 @@
+package dev.transformers4j.hub;
+
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_METADATA_CACHE_DIR;
+import static dev.transformers4j.hub.Constants.HF_HUB_METADATA_STALE_WHILE_REVALIDATE;
+import static dev.transformers4j.hub.Constants.HF_HUB_METADATA_TTL;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FileMetadataCacheTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+
+    @TempDir
+    Path cache_dir;
+
+    private HubStubServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HubStubServer.start();
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+        FileMetadataCache.configure(Duration.ofSeconds(HF_HUB_METADATA_TTL),
+                Duration.ofSeconds(HF_HUB_METADATA_STALE_WHILE_REVALIDATE),
+                HF_HUB_METADATA_CACHE_DIR != null ? Path.of(HF_HUB_METADATA_CACHE_DIR) : null);
+    }
+
+    private Path download(boolean force_download) throws IOException {
+        return hf_hub_download(REPO_ID, "config.json", null, null, null, null, null, cache_dir, null, null,
+                force_download, null, 10, Either.left(false), false, null, server.endpoint(), false, null, null,
+                null);
+    }
+
+    @Test
+    public void test_fresh_metadata_skips_network() throws IOException {
+        FileMetadataCache.configure(Duration.ofHours(1), Duration.ZERO, null);
+
+        var path = download(false);
+        for (var i = 0; i < 5; i++) {
+            assertEquals(path, download(false));
+        }
+
+        assertEquals(1, server.head_requests());
+        assertEquals(1, server.get_requests());
+    }
+
+    @Test
+    public void test_force_download_bypasses_cache() throws IOException {
+        FileMetadataCache.configure(Duration.ofHours(1), Duration.ZERO, null);
+
+        download(false);
+        download(true);
+
+        assertEquals(2, server.head_requests());
+    }
+
+    @Test
+    public void test_expired_metadata_is_fetched_again() throws Exception {
+        FileMetadataCache.configure(Duration.ofMillis(50), Duration.ZERO, null);
+
+        download(false);
+        Thread.sleep(100);
+        download(false);
+
+        assertEquals(2, server.head_requests());
+    }
+
+    @Test
+    public void test_stale_metadata_is_revalidated_in_background() throws Exception {
+        FileMetadataCache.configure(Duration.ofMillis(50), Duration.ofHours(1), null);
+        var path = download(false);
+        Thread.sleep(100);
+        var gate = new CountDownLatch(1);
+        server.hold(gate);
+
+        // Served from the stale entry while the server holds the revalidation
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals(path, executor.submit(() -> download(false)).get(10, TimeUnit.SECONDS));
+        } finally {
+            gate.countDown();
+            executor.shutdown();
+        }
+        for (var i = 0; i < 100 && server.head_requests() < 2; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, server.head_requests());
+    }
+
+    @Test
+    public void test_persisted_metadata_survives_restart() throws IOException {
+        var persist_dir = cache_dir.resolve(".metadata");
+        FileMetadataCache.configure(Duration.ofHours(1), Duration.ZERO, persist_dir);
+        download(false);
+
+        // New process: nothing in memory
+        FileMetadataCache.clear();
+        download(false);
+
+        assertEquals(1, server.head_requests());
+        try (var entries = Files.list(persist_dir)) {
+            assertEquals(1, entries.count());
+        }
+    }
+}
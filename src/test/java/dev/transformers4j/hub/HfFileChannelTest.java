@@ -0,0 +1,156 @@
+package dev.transformers4j.hub;
+
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_OPEN_BLOCK_SIZE;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download;
+import static dev.transformers4j.hub.FileDownload.hf_hub_open;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HfFileChannelTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+    private static final String FILENAME = "model.safetensors";
+
+    @TempDir
+    Path cache_dir;
+
+    // 4 blocks and a half
+    private final byte[] content = new byte[HF_HUB_OPEN_BLOCK_SIZE * 4 + HF_HUB_OPEN_BLOCK_SIZE / 2];
+    private HubStubServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        new Random().nextBytes(content);
+        server = HubStubServer.start().add_file(REPO_ID, FILENAME, content);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private SeekableByteChannel open() throws IOException {
+        return hf_hub_open(REPO_ID, FILENAME, null, null, null, cache_dir, Either.left(false), false, null,
+                server.endpoint());
+    }
+
+    private Path download() throws IOException {
+        return hf_hub_download(REPO_ID, FILENAME, null, null, null, null, null, cache_dir, null, null, false, null,
+                10, Either.left(false), false, null, server.endpoint(), false, null, null, null);
+    }
+
+    private static byte[] read(SeekableByteChannel channel, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        }
+        return buffer.array();
+    }
+
+    private List<Path> blobs() throws IOException {
+        var blobs = cache_dir.resolve(FileDownload.repo_folder_name(REPO_ID, "model")).resolve("blobs");
+        try (var files = Files.list(blobs)) {
+            return files.toList();
+        }
+    }
+
+    @Test
+    public void test_read_header_fetches_a_single_block() throws IOException {
+        try (var channel = open()) {
+            assertEquals(content.length, channel.size());
+            assertArrayEquals(Arrays.copyOf(content, 8), read(channel, 0, 8));
+            assertArrayEquals(Arrays.copyOfRange(content, 100, 200), read(channel, 100, 100));
+        }
+
+        assertEquals(List.of("bytes=0-" + (HF_HUB_OPEN_BLOCK_SIZE - 1)), server.ranges());
+        // Nothing is left in the cache for a file partially read
+        assertEquals(List.of(), blobs());
+    }
+
+    @Test
+    public void test_random_access() throws IOException {
+        try (var channel = open()) {
+            // Across the end of a block: both blocks are fetched at once
+            var position = 3L * HF_HUB_OPEN_BLOCK_SIZE - 10;
+            assertArrayEquals(Arrays.copyOfRange(content, (int) position, (int) position + 20),
+                    read(channel, position, 20));
+            // Back to a block read before
+            assertArrayEquals(Arrays.copyOfRange(content, (int) position, (int) position + 5),
+                    read(channel, position, 5));
+            // Last block, shorter than the others
+            assertArrayEquals(Arrays.copyOfRange(content, content.length - 10, content.length),
+                    read(channel, content.length - 10, 10));
+
+            channel.position(content.length);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+
+        assertEquals(List.of("bytes=" + 2 * HF_HUB_OPEN_BLOCK_SIZE + "-" + (4 * HF_HUB_OPEN_BLOCK_SIZE - 1),
+                "bytes=" + 4 * HF_HUB_OPEN_BLOCK_SIZE + "-" + (content.length - 1)), server.ranges());
+    }
+
+    @Test
+    public void test_file_read_to_the_end_is_cached() throws IOException {
+        byte[] data;
+        try (var channel = open()) {
+            data = Channels.newInputStream(channel).readAllBytes();
+        }
+
+        assertArrayEquals(content, data);
+        // Blocks 0, then 1-2, then 3-4
+        assertEquals(3, server.ranges().size());
+        assertEquals(List.of(cache_dir.resolve(FileDownload.repo_folder_name(REPO_ID, "model")).resolve("blobs")
+                .resolve(HubStubServer.etag(content))), blobs());
+
+        // Downloaded already
+        assertArrayEquals(content, Files.readAllBytes(download()));
+        assertEquals(3, server.get_requests());
+        try (var channel = open()) {
+            assertInstanceOf(FileChannel.class, channel);
+        }
+        assertEquals(3, server.get_requests());
+    }
+
+    @Test
+    public void test_corrupted_file_is_not_cached() throws IOException {
+        server.corrupt(1);
+
+        try (var channel = open()) {
+            Channels.newInputStream(channel).readAllBytes();
+        }
+
+        assertEquals(List.of(), blobs());
+        assertArrayEquals(content, Files.readAllBytes(download()));
+    }
+
+    @Test
+    public void test_closed_channel() throws IOException {
+        var channel = open();
+        assertTrue(channel.isOpen());
+        channel.close();
+
+        assertFalse(channel.isOpen());
+        assertThrows(ClosedChannelException.class, () -> channel.read(ByteBuffer.allocate(1)));
+    }
+}
@@ -0,0 +1,346 @@
+package dev.transformers4j.hub;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal stand-in for the `resolve` and repo info endpoints of the Hub, serving in-memory files over plain HTTP.
+ */
+public class HubStubServer implements AutoCloseable {
+    public static final String COMMIT_HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    private final HttpServer server;
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, Long> sparse_files = new ConcurrentHashMap<>();
+    private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger head_requests = new AtomicInteger();
+    private final AtomicInteger get_requests = new AtomicInteger();
+    private final AtomicInteger not_modified = new AtomicInteger();
+    private final AtomicInteger forbidden = new AtomicInteger();
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final AtomicInteger in_flight = new AtomicInteger();
+    private final AtomicInteger max_in_flight = new AtomicInteger();
+    private volatile String commit_hash = COMMIT_HASH;
+    private volatile long latency_ms = 0;
+    private volatile CountDownLatch gate = null;
+    private volatile Long cdn_lifetime = null;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failure_status = 503;
+    private volatile String retry_after = null;
+    private final AtomicInteger corruptions = new AtomicInteger();
+    private final AtomicInteger truncations = new AtomicInteger();
+    private volatile long truncate_after = 0;
+
+    private HubStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    public static HubStubServer start() throws IOException {
+        return new HubStubServer();
+    }
+
+    public String endpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public HubStubServer add_file(String repo_id, String filename, byte[] content) {
+        files.put(repo_id + "/" + filename, content);
+        return this;
+    }
+
+    /** Serve a file of `size` zero bytes without holding it in memory. */
+    public HubStubServer add_sparse_file(String repo_id, String filename, long size) {
+        sparse_files.put(repo_id + "/" + filename, size);
+        return this;
+    }
+
+    /** Etag of a sparse file. Not the SHA-256 of its content: sparse files are only downloaded with `http_get`. */
+    public static String sparse_etag(long size) {
+        return DigestUtils.sha256Hex("sparse-" + size);
+    }
+
+    public static String etag(byte[] content) {
+        return DigestUtils.sha256Hex(content);
+    }
+
+    /** Serve every revision at `commit_hash` instead of [`COMMIT_HASH`], as after a new commit. */
+    public HubStubServer commit(String commit_hash) {
+        this.commit_hash = commit_hash;
+        return this;
+    }
+
+    /** Delay every response to file requests by `latency_ms` milliseconds. */
+    public HubStubServer latency(long latency_ms) {
+        this.latency_ms = latency_ms;
+        return this;
+    }
+
+    /** Hold every response to file requests until `gate` is counted down. */
+    public HubStubServer hold(CountDownLatch gate) {
+        this.gate = gate;
+        return this;
+    }
+
+    /**
+     * Redirect file requests to `/cdn/...` locations signed with an `Expires` parameter `lifetime` seconds ahead, as
+     * the Hub does for LFS files. Locations past their expiry are answered with `403 Forbidden`.
+     */
+    public HubStubServer cdn(long lifetime) {
+        this.cdn_lifetime = lifetime;
+        return this;
+    }
+
+    /**
+     * Answer the next `count` file requests with `status`, with a `Retry-After` header if `retry_after` is not
+     * `null`.
+     */
+    public HubStubServer fail(int count, int status, String retry_after) {
+        this.failure_status = status;
+        this.retry_after = retry_after;
+        this.failures.set(count);
+        return this;
+    }
+
+    /** Flip the last byte of the content sent by the next `count` GET requests, as a faulty proxy would. */
+    public HubStubServer corrupt(int count) {
+        this.corruptions.set(count);
+        return this;
+    }
+
+    /**
+     * Drop the connection after sending `bytes` bytes of the content for the next `count` GET requests, as a server
+     * going down in the middle of a download.
+     */
+    public HubStubServer truncate(int count, long bytes) {
+        this.truncate_after = bytes;
+        this.truncations.set(count);
+        return this;
+    }
+
+    /** Highest number of file requests that have been served at the same time. */
+    public int max_concurrent_requests() {
+        return max_in_flight.get();
+    }
+
+    /** Number of distinct TCP connections opened by clients so far. */
+    public int connections() {
+        return connections.size();
+    }
+
+    public int head_requests() {
+        return head_requests.get();
+    }
+
+    public int get_requests() {
+        return get_requests.get();
+    }
+
+    /** Number of conditional requests answered with `304 Not Modified`. */
+    public int not_modified() {
+        return not_modified.get();
+    }
+
+    /** Number of requests to expired CDN locations. */
+    public int forbidden() {
+        return forbidden.get();
+    }
+
+    /** `Range` headers of the GET requests that have been honored so far. */
+    public List<String> ranges() {
+        return ranges;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            connections.add(exchange.getRemoteAddress().getPort());
+            // The JDK server closes the connection after a request whose body has not been read, even an empty one:
+            // read it so that connections are kept alive as with the Hub
+            exchange.getRequestBody().readAllBytes();
+            var method = exchange.getRequestMethod();
+            if ("HEAD".equals(method)) {
+                head_requests.incrementAndGet();
+            } else {
+                get_requests.incrementAndGet();
+            }
+            var path = exchange.getRequestURI().getPath().substring(1);
+            if (path.startsWith("api/")) {
+                handle_api(exchange, path);
+                return;
+            }
+            // Requests are counted as in flight until the response is about to be sent: past that point the client
+            // may already have received it and sent its next request
+            var current = in_flight.incrementAndGet();
+            max_in_flight.accumulateAndGet(current, Math::max);
+            try {
+                if (latency_ms > 0) {
+                    Thread.sleep(latency_ms);
+                }
+                var gate = this.gate;
+                if (gate != null) {
+                    gate.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                in_flight.decrementAndGet();
+            }
+            if (failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                var retry_after = this.retry_after;
+                if (retry_after != null) {
+                    exchange.getResponseHeaders().set("Retry-After", retry_after);
+                }
+                exchange.sendResponseHeaders(failure_status, -1);
+                return;
+            }
+            handle_file(exchange, method, path);
+        }
+    }
+
+    /** `GET /api/{repo_type}s/{repo_id}/revision/{revision}`: list the files of a repo. */
+    private void handle_api(HttpExchange exchange, String path) throws IOException {
+        var index = path.indexOf("/revision/");
+        var repo_id = path.substring(path.indexOf('/', "api/".length()) + 1, index != -1 ? index : path.length());
+        var siblings = new JsonArray();
+        var prefix = repo_id + "/";
+        var filenames = new TreeSet<String>();
+        files.keySet().stream().filter(k -> k.startsWith(prefix)).forEach(filenames::add);
+        sparse_files.keySet().stream().filter(k -> k.startsWith(prefix)).forEach(filenames::add);
+        for (var filename : filenames) {
+            var sibling = new JsonObject();
+            sibling.addProperty("rfilename", filename.substring(prefix.length()));
+            siblings.add(sibling);
+        }
+        exchange.getResponseHeaders().set("X-Repo-Commit", commit_hash);
+        if (filenames.isEmpty()) {
+            exchange.getResponseHeaders().set("X-Error-Code", "RepoNotFound");
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        var info = new JsonObject();
+        info.addProperty("id", repo_id);
+        info.addProperty("sha", commit_hash);
+        info.add("siblings", siblings);
+        var body = info.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private void handle_file(HttpExchange exchange, String method, String path) throws IOException {
+        var from_cdn = path.startsWith("cdn/");
+        if (from_cdn) {
+            path = path.substring("cdn/".length());
+            var query = exchange.getRequestURI().getQuery();
+            var expires = Long.parseLong(query.substring(query.indexOf("Expires=") + "Expires=".length()));
+            if (System.currentTimeMillis() / 1000 >= expires) {
+                forbidden.incrementAndGet();
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+        }
+        var index = path.indexOf("/resolve/");
+        if (index == -1) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        var repo_id = path.substring(0, index);
+        var rest = path.substring(index + "/resolve/".length());
+        var filename = rest.substring(rest.indexOf('/') + 1);
+        var content = files.get(repo_id + "/" + filename);
+        var size = content != null ? Long.valueOf(content.length) : sparse_files.get(repo_id + "/" + filename);
+        var headers = exchange.getResponseHeaders();
+        headers.set("X-Repo-Commit", commit_hash);
+        if (size == null) {
+            headers.set("X-Error-Code", "EntryNotFound");
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        var etag = content != null ? etag(content) : sparse_etag(size);
+        headers.set("ETag", "\"" + etag + "\"");
+        var cdn_lifetime = this.cdn_lifetime;
+        if (cdn_lifetime != null && !from_cdn) {
+            var expires = System.currentTimeMillis() / 1000 + cdn_lifetime;
+            headers.set("X-Linked-Etag", "\"" + etag + "\"");
+            headers.set("X-Linked-Size", Long.toString(size));
+            headers.set("Location", endpoint() + "/cdn/" + path + "?Expires=" + expires);
+            exchange.sendResponseHeaders(302, -1);
+            return;
+        }
+        if ("HEAD".equals(method)) {
+            headers.set("Content-Length", Long.toString(size));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        if (("\"" + etag + "\"").equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            not_modified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        var start = 0L;
+        var end = size - 1;
+        var range = exchange.getRequestHeaders().getFirst("Range");
+        var if_range = exchange.getRequestHeaders().getFirst("If-Range");
+        if (if_range != null && !if_range.equals("\"" + etag + "\"")) {
+            // Remote file has changed: ignore the range and send the whole file
+            range = null;
+        }
+        if (range != null) {
+            ranges.add(range);
+        }
+        if (range != null && range.startsWith("bytes=")) {
+            var bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            headers.set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        var length = end - start + 1;
+        exchange.sendResponseHeaders(range != null ? 206 : 200, length == 0 ? -1 : length);
+        if (content != null) {
+            var body = Arrays.copyOfRange(content, (int) start, (int) (start + length));
+            if (length > 0 && corruptions.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                body[body.length - 1] ^= 1;
+            }
+            if (length > truncate_after && truncations.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                exchange.getResponseBody().write(body, 0, (int) truncate_after);
+                exchange.getResponseBody().flush();
+                // Closing the exchange before the whole body is sent drops the connection
+                return;
+            }
+            exchange.getResponseBody().write(body);
+        } else {
+            var zeros = new byte[64 * 1024];
+            for (var remaining = length; remaining > 0; remaining -= zeros.length) {
+                exchange.getResponseBody().write(zeros, 0, (int) Math.min(zeros.length, remaining));
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package dev.transformers4j.hub;
+
+import dev.transformers4j.hub.LocalFolder.Materialization;
+import io.vavr.control.Either;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+
+import static dev.transformers4j.hub.FileDownload.hf_hub_download;
+import static dev.transformers4j.hub.LocalFolder.get_local_download_paths;
+import static dev.transformers4j.hub.LocalFolder.materialize;
+import static dev.transformers4j.hub.LocalFolder.read_download_metadata;
+import static dev.transformers4j.hub.LocalFolder.write_download_metadata;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LocalFolderTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+
+    @TempDir
+    Path tmp_dir;
+
+    private static Object file_key(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    /** A blob of the cache and its pointer. */
+    private Path cached_file(String content) throws IOException {
+        var blob = tmp_dir.resolve("cache").resolve("blobs").resolve("etag");
+        Files.createDirectories(blob.getParent());
+        Files.writeString(blob, content, StandardCharsets.UTF_8);
+        var pointer = tmp_dir.resolve("cache").resolve("snapshots").resolve("commit").resolve("config.json");
+        Files.createDirectories(pointer.getParent());
+        Files.createSymbolicLink(pointer, pointer.getParent().relativize(blob));
+        return pointer;
+    }
+
+    @Test
+    public void test_materialize_with_a_hard_link() throws IOException {
+        var pointer = cached_file("{}");
+        var destination = tmp_dir.resolve("local").resolve("config.json");
+        Files.createDirectories(destination.getParent());
+        // Outdated version of the file, replaced
+        Files.writeString(destination, "old");
+
+        assertEquals(Materialization.HARDLINK, materialize(pointer, destination));
+
+        assertFalse(Files.isSymbolicLink(destination));
+        assertEquals(file_key(pointer.toRealPath()), file_key(destination));
+        assertEquals("{}", Files.readString(destination));
+        try (var files = Files.list(destination.getParent())) {
+            assertEquals(List.of(destination), files.toList());
+        }
+    }
+
+    @Test
+    public void test_materialize_falls_back_on_the_next_strategies() throws IOException {
+        var pointer = cached_file("{}");
+        var destination = tmp_dir.resolve("config.json");
+
+        var materialization = materialize(pointer, destination, List.of(Materialization.REFLINK,
+                Materialization.SYMLINK));
+
+        // Copy-on-write clones are not supported by all file systems
+        assertTrue(Set.of(Materialization.REFLINK, Materialization.SYMLINK).contains(materialization));
+        assertEquals(materialization == Materialization.SYMLINK, Files.isSymbolicLink(destination));
+        assertEquals("{}", Files.readString(destination));
+
+        var copy = tmp_dir.resolve("copy.json");
+        assertEquals(Materialization.COPY, materialize(pointer, copy, List.of(Materialization.COPY)));
+        assertNotEquals(file_key(pointer.toRealPath()), file_key(copy));
+        assertEquals("{}", Files.readString(copy));
+    }
+
+    @Test
+    public void test_download_metadata() throws IOException {
+        var local_dir = tmp_dir.resolve("local");
+        // File without metadata
+        Files.createDirectories(local_dir);
+        Files.writeString(local_dir.resolve("config.json"), "{}");
+        assertNull(read_download_metadata(local_dir, "config.json"));
+
+        write_download_metadata(local_dir, "config.json", "commit", "etag", Materialization.HARDLINK);
+        var metadata = read_download_metadata(local_dir, "config.json");
+        assertEquals("commit", metadata.commit_hash());
+        assertEquals("etag", metadata.etag());
+        assertEquals(Materialization.HARDLINK, metadata.materialization());
+
+        // Written by an older version
+        write_download_metadata(local_dir, "config.json", "commit", "etag");
+        assertNull(read_download_metadata(local_dir, "config.json").materialization());
+
+        // Modified since the metadata was written
+        Files.setLastModifiedTime(local_dir.resolve("config.json"),
+                FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        assertNull(read_download_metadata(local_dir, "config.json"));
+
+        // Corrupted metadata is removed
+        var paths = get_local_download_paths(local_dir, "config.json");
+        Files.writeString(paths.meta_data_path(), "commit\n");
+        assertNull(read_download_metadata(local_dir, "config.json"));
+        assertFalse(Files.exists(paths.meta_data_path()));
+    }
+
+    @Test
+    public void test_cached_file_is_linked_to_local_dir() throws IOException {
+        try (var server = HubStubServer.start()) {
+            var content = new byte[1_000_000];
+            server.add_file(REPO_ID, "model.safetensors", content);
+            var cache_dir = tmp_dir.resolve("cache");
+            var local_dir = tmp_dir.resolve("local");
+            var cached = hf_hub_download(REPO_ID, "model.safetensors", null, null, null, null, null, cache_dir, null,
+                    null, false, null, 10, Either.left(false), false, null, server.endpoint(), false, null, null,
+                    null);
+            var get_requests = server.get_requests();
+
+            var path = hf_hub_download(REPO_ID, "model.safetensors", null, null, null, null, null, cache_dir,
+                    local_dir, null, false, null, 10, Either.left(false), false, null, server.endpoint(), false, null,
+                    null, Either.right("auto"));
+
+            assertEquals(local_dir.resolve("model.safetensors"), path);
+            assertEquals(get_requests, server.get_requests());
+            assertEquals(file_key(cached.toRealPath()), file_key(path));
+            assertEquals(Materialization.HARDLINK,
+                    read_download_metadata(local_dir, "model.safetensors").materialization());
+        }
+    }
+
+    @Test
+    public void test_materialization_is_kept_when_hash_matches() throws IOException {
+        try (var server = HubStubServer.start()) {
+            var content = new byte[1_000_000];
+            server.add_file(REPO_ID, "model.safetensors", content);
+            var local_dir = tmp_dir.resolve("local");
+            Files.createDirectories(local_dir);
+            Files.write(local_dir.resolve("model.safetensors"), content);
+            // Metadata of another version of the file, with the same content
+            write_download_metadata(local_dir, "model.safetensors", "commit", "outdated", Materialization.REFLINK);
+
+            var path = hf_hub_download(REPO_ID, "model.safetensors", null, null, null, null, null,
+                    tmp_dir.resolve("cache"), local_dir, null, false, null, 10, Either.left(false), false, null,
+                    server.endpoint(), false, null, null, Either.right("auto"));
+
+            assertEquals(0, server.get_requests());
+            var metadata = read_download_metadata(local_dir, "model.safetensors");
+            assertEquals(HubStubServer.etag(content), metadata.etag());
+            assertEquals(Materialization.REFLINK, metadata.materialization());
+            assertEquals(local_dir.resolve("model.safetensors"), path);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package dev.transformers4j.hub;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class ParallelDownloadTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+
+    @TempDir
+    Path tmp_dir;
+
+    private HubStubServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HubStubServer.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void test_download_in_ranges() throws IOException, InterruptedException {
+        var content = new byte[1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "model.safetensors", content);
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/model.safetensors";
+        var file = tmp_dir.resolve("model.safetensors.incomplete");
+        var progress = new AtomicLong();
+
+        ParallelDownload.download(url, file, content.length, 4, 64 * 1024, new HashMap<>(), 5, progress::addAndGet);
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertEquals(content.length, progress.get());
+        // 16 full ranges + 1 range for the remaining 17 bytes
+        assertEquals(17, server.get_requests());
+        assertFalse(Files.exists(ParallelDownload.progress_path(file)));
+    }
+
+    @Test
+    public void test_resume_missing_ranges() throws IOException, InterruptedException {
+        var content = new byte[256 * 1024];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "model.safetensors", content);
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/model.safetensors";
+        var file = tmp_dir.resolve("model.safetensors.incomplete");
+        // Interrupted download: the first range and half of the third one have been received
+        var partial = new byte[content.length];
+        System.arraycopy(content, 0, partial, 0, 64 * 1024);
+        System.arraycopy(content, 128 * 1024, partial, 128 * 1024, 32 * 1024);
+        Files.write(file, partial);
+        Files.writeString(ParallelDownload.progress_path(file), "0 65535\n131072 163839\n163840 1");
+        var progress = new AtomicLong();
+
+        ParallelDownload.download(url, file, content.length, 4, 64 * 1024, new HashMap<>(), 5, progress::addAndGet);
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertEquals(content.length, progress.get());
+        // The line cut by the interruption is ignored
+        assertEquals(Set.of("bytes=65536-131071", "bytes=163840-229375", "bytes=229376-262143"),
+                Set.copyOf(server.ranges()));
+        assertFalse(Files.exists(ParallelDownload.progress_path(file)));
+    }
+
+    @Test
+    public void test_resume_sequential_download() throws IOException, InterruptedException {
+        var content = new byte[128 * 1024];
+        new Random(42).nextBytes(content);
+        server.add_file(REPO_ID, "model.safetensors", content);
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/model.safetensors";
+        var file = tmp_dir.resolve("model.safetensors.incomplete");
+        Files.write(file, Arrays.copyOf(content, 100_000));
+
+        ParallelDownload.download(url, file, content.length, 4, 64 * 1024, new HashMap<>(), 5, null);
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertEquals(List.of("bytes=100000-131071"), server.ranges());
+    }
+
+    @Test
+    public void test_downloaded_prefix() throws IOException {
+        var file = tmp_dir.resolve("model.safetensors.incomplete");
+        assertEquals(-1, ParallelDownload.downloaded_prefix(file));
+        Files.writeString(ParallelDownload.progress_path(file), "100 199\n0 99\n300 399\n");
+        assertEquals(200, ParallelDownload.downloaded_prefix(file));
+    }
+}
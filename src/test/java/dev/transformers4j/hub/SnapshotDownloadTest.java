@@ -0,0 +1,99 @@
+package dev.transformers4j.hub;
+
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static dev.transformers4j.hub.SnapshotDownload.snapshot_download;
+import static dev.transformers4j.hub.utils.Paths.filter_repo_objects;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotDownloadTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+
+    @TempDir
+    Path cache_dir;
+
+    private HubStubServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HubStubServer.start();
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+        server.add_file(REPO_ID, "tokenizer.json", "tokenizer".getBytes(StandardCharsets.UTF_8));
+        for (var i = 1; i <= 6; i++) {
+            server.add_file(REPO_ID, "model-0000" + i + "-of-00006.safetensors",
+                    ("shard " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        server.add_file(REPO_ID, "onnx/model.onnx", "onnx".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private Path download(List<String> allow_patterns, List<String> ignore_patterns, int max_workers)
+            throws IOException {
+        return snapshot_download(REPO_ID, null, null, cache_dir, null, null, null, null, null, 10, false,
+                Either.left(false), false, allow_patterns, ignore_patterns, max_workers, null, server.endpoint());
+    }
+
+    @Test
+    public void test_snapshot_download() throws IOException {
+        var snapshot = download(null, List.of("onnx/"), 4);
+
+        assertEquals(cache_dir.resolve("models--julien-c--dummy-unknown").resolve("snapshots")
+                .resolve(HubStubServer.COMMIT_HASH), snapshot);
+        assertEquals("{}", Files.readString(snapshot.resolve("config.json")));
+        assertEquals("tokenizer", Files.readString(snapshot.resolve("tokenizer.json")));
+        for (var i = 1; i <= 6; i++) {
+            assertEquals("shard " + i, Files.readString(snapshot.resolve("model-0000" + i + "-of-00006.safetensors")));
+        }
+        assertFalse(Files.exists(snapshot.resolve("onnx")));
+        assertEquals(HubStubServer.COMMIT_HASH, Files.readString(
+                cache_dir.resolve("models--julien-c--dummy-unknown").resolve("refs").resolve("main")));
+    }
+
+    @Test
+    public void test_snapshot_download_bounded_concurrency() throws IOException {
+        server.latency(100);
+
+        download(List.of("*.safetensors"), null, 2);
+
+        assertEquals(2, server.max_concurrent_requests());
+    }
+
+    @Test
+    public void test_snapshot_download_from_cache_when_offline() throws IOException {
+        var snapshot = download(List.of("*.json"), null, 4);
+        server.close();
+
+        var cached = snapshot_download(REPO_ID, null, null, cache_dir, null, null, null, null, null, 10, false,
+                Either.left(false), true, null, null, 4, null, server.endpoint());
+
+        assertEquals(snapshot, cached);
+        assertTrue(Files.exists(cached.resolve("config.json")));
+    }
+
+    @Test
+    public void test_filter_repo_objects() {
+        var items = List.of("config.json", "model.safetensors", "onnx/model.onnx", "onnx/config.json", ".gitattributes");
+
+        assertEquals(List.of("config.json", "onnx/config.json"), filter_repo_objects(items, List.of("*.json"), null));
+        assertEquals(List.of("config.json", "model.safetensors", ".gitattributes"),
+                filter_repo_objects(items, null, List.of("onnx/")));
+        assertEquals(List.of("config.json"), filter_repo_objects(items, List.of("*.json"), List.of("onnx/*")));
+        assertEquals(List.of("model.safetensors"), filter_repo_objects(items, List.of("model.[!o]*"), null));
+    }
+}
@@ -0,0 +1,169 @@
+package dev.transformers4j.hub.utils;
+
+import dev.transformers4j.hub.utils.CacheManager.CachedFileInfo;
+import dev.transformers4j.hub.utils.CacheManager.CachedRepoInfo;
+import dev.transformers4j.hub.utils.CacheManager.CachedRevisionInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheManagerTest {
+    private static final String COMMIT_A = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+    private static final String COMMIT_B = "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+
+    @TempDir
+    Path cache_dir;
+
+    private Path add_blob(String folder, String etag, int size) throws IOException {
+        var blob = cache_dir.resolve(folder).resolve("blobs").resolve(etag);
+        Files.createDirectories(blob.getParent());
+        Files.write(blob, new byte[size]);
+        return blob;
+    }
+
+    private Path add_pointer(String folder, String commit, String filename, String etag) throws IOException {
+        var pointer = cache_dir.resolve(folder).resolve("snapshots").resolve(commit).resolve(filename);
+        Files.createDirectories(pointer.getParent());
+        var blobs = pointer.getParent().relativize(cache_dir.resolve(folder).resolve("blobs"));
+        Files.createSymbolicLink(pointer, blobs.resolve(etag));
+        return pointer;
+    }
+
+    private void add_ref(String folder, String ref, String commit) throws IOException {
+        var path = cache_dir.resolve(folder).resolve("refs").resolve(ref);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, commit, StandardCharsets.UTF_8);
+    }
+
+    private static CachedRepoInfo repo(CacheManager.HFCacheInfo info, String repo_id) {
+        return info.repos().stream().filter(repo -> repo.repo_id().equals(repo_id)).findFirst().orElseThrow();
+    }
+
+    @Test
+    public void test_scan_repos_and_revisions() throws IOException {
+        var folder = "models--user--model";
+        add_blob(folder, "weights", 1000);
+        add_blob(folder, "config_a", 10);
+        add_blob(folder, "config_b", 20);
+        add_pointer(folder, COMMIT_A, "model.bin", "weights");
+        add_pointer(folder, COMMIT_A, "config.json", "config_a");
+        add_pointer(folder, COMMIT_B, "model.bin", "weights");
+        add_pointer(folder, COMMIT_B, "sub/config.json", "config_b");
+        add_ref(folder, "main", COMMIT_B);
+        add_ref(folder, "refs/pr/1", COMMIT_B);
+        add_ref(folder, "v1", COMMIT_A);
+        add_blob("datasets--org--data", "rows", 100);
+        add_pointer("datasets--org--data", COMMIT_A, "data.csv", "rows");
+        var accessed = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        Files.getFileAttributeView(cache_dir.resolve(folder).resolve("blobs").resolve("config_b"),
+                BasicFileAttributeView.class).setTimes(null, accessed, null);
+
+        var info = CacheManager.scan_cache_dir(cache_dir);
+
+        assertEquals(List.of(), info.warnings());
+        assertEquals(1130, info.size_on_disk());
+        var model = repo(info, "user/model");
+        assertEquals("model", model.repo_type());
+        assertEquals(1030, model.size_on_disk());
+        assertEquals(3, model.nb_files());
+        assertFalse(model.is_broken());
+        assertEquals(Set.of(cache_dir.resolve(folder).resolve("blobs").resolve("weights")), model.shared_blobs());
+
+        var refs = model.refs();
+        assertEquals(Set.of("main", "refs/pr/1", "v1"), refs.keySet());
+        var revision_b = refs.get("main");
+        assertEquals(COMMIT_B, revision_b.commit_hash());
+        assertEquals(1020, revision_b.size_on_disk());
+        assertEquals(Set.of("main", "refs/pr/1"), revision_b.refs());
+        assertEquals(Map.of("model.bin", 1000L, "sub/config.json", 20L), revision_b.files().stream()
+                .collect(Collectors.toMap(CachedFileInfo::file_name, CachedFileInfo::size_on_disk)));
+        assertEquals(accessed.toInstant(), revision_b.files().stream()
+                .filter(file -> file.file_name().equals("sub/config.json")).findFirst().orElseThrow()
+                .blob_last_accessed());
+        assertEquals(1010, refs.get("v1").size_on_disk());
+
+        var dataset = repo(info, "org/data");
+        assertEquals("dataset", dataset.repo_type());
+        assertEquals(100, dataset.size_on_disk());
+        assertEquals(Set.of(COMMIT_A), dataset.revisions().stream().map(CachedRevisionInfo::commit_hash)
+                .collect(Collectors.toSet()));
+        assertEquals(Set.of(), dataset.revisions().iterator().next().refs());
+    }
+
+    @Test
+    public void test_broken_entries_are_reported() throws IOException {
+        var folder = "models--user--model";
+        add_blob(folder, "weights", 1000);
+        add_blob(folder, "orphan", 10);
+        add_blob(folder, "downloading.incomplete", 10);
+        add_pointer(folder, COMMIT_A, "model.bin", "weights");
+        var dangling = add_pointer(folder, COMMIT_A, "config.json", "deleted");
+        add_ref(folder, "main", COMMIT_A);
+        add_ref(folder, "v1", COMMIT_B);
+        // Not repos
+        Files.createDirectories(cache_dir.resolve("not-a-repo"));
+        Files.createDirectories(cache_dir.resolve("unknowns--user--model"));
+        Files.createDirectories(cache_dir.resolve(".locks").resolve(folder));
+
+        var info = CacheManager.scan_cache_dir(cache_dir);
+
+        assertEquals(2, info.warnings().size());
+        assertEquals(1, info.repos().size());
+        var model = repo(info, "user/model");
+        assertTrue(model.is_broken());
+        assertEquals(1000, model.size_on_disk());
+        assertEquals(Set.of(dangling), model.dangling_pointers());
+        assertEquals(Set.of("v1"), model.dangling_refs());
+        assertEquals(Set.of(cache_dir.resolve(folder).resolve("blobs").resolve("orphan")), model
+                .unreferenced_blobs().stream().map(CacheManager.CachedBlobInfo::blob_path)
+                .collect(Collectors.toSet()));
+        assertEquals(Set.of("model.bin"), model.refs().get("main").files().stream()
+                .map(CachedFileInfo::file_name).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void test_missing_cache() {
+        assertThrows(CacheNotFoundException.class, () -> CacheManager.scan_cache_dir(cache_dir.resolve("missing")));
+    }
+
+    /** Scan a cache of 300 repos of 4 revisions of 20 files, sharing some of their blobs. */
+    @Test
+    public void test_scan_large_cache() throws IOException {
+        var commits = new String[] { COMMIT_A, COMMIT_B, "c".repeat(40), "d".repeat(40) };
+        for (var i = 0; i < 300; i++) {
+            var folder = "models--user--model-" + i;
+            for (var j = 0; j < 40; j++) {
+                add_blob(folder, "blob" + j, 1);
+            }
+            for (var r = 0; r < commits.length; r++) {
+                for (var j = 0; j < 20; j++) {
+                    add_pointer(folder, commits[r], "file" + j, "blob" + (j + r * 5));
+                }
+            }
+        }
+
+        var info = CacheManager.scan_cache_dir(cache_dir);
+
+        assertEquals(300, info.repos().size());
+        assertEquals(300 * 35, info.size_on_disk());
+        for (var repo : info.repos()) {
+            assertEquals(commits.length, repo.revisions().size());
+            assertEquals(5, repo.unreferenced_blobs().size());
+        }
+    }
+}
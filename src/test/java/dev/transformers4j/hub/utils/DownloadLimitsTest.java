@@ -0,0 +1,143 @@
+package dev.transformers4j.hub.utils;
+
+import dev.transformers4j.hub.HubStubServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_DOWNLOAD_MAX_BANDWIDTH;
+import static dev.transformers4j.hub.Constants.HF_HUB_DOWNLOAD_MAX_CONNECTIONS_PER_HOST;
+import static dev.transformers4j.hub.FileDownload.http_get;
+import static dev.transformers4j.hub.FileDownload.http_get_async;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DownloadLimitsTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+    private static final int SIZE = 512 * 1024;
+
+    @TempDir
+    Path tmp_dir;
+
+    private HubStubServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HubStubServer.start();
+        server.add_sparse_file(REPO_ID, "model.safetensors", SIZE);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+        DownloadLimits.configure(HF_HUB_DOWNLOAD_MAX_BANDWIDTH, HF_HUB_DOWNLOAD_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    private String url() {
+        return server.endpoint() + "/" + REPO_ID + "/resolve/main/model.safetensors";
+    }
+
+    private void download(Path path) throws IOException, InterruptedException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            http_get(url(), channel, null, 0, new HashMap<>(), (long) SIZE, null, 5, null);
+        }
+    }
+
+    @Test
+    public void test_bandwidth_is_limited() throws Exception {
+        DownloadLimits.configure(1024 * 1024, 0);
+
+        var start = System.nanoTime();
+        download(tmp_dir.resolve("model.safetensors"));
+        var elapsed_ms = (System.nanoTime() - start) / 1_000_000;
+
+        // 512 KB at 1 MB/s take 400 ms past the initial burst: leave some room for coarse timers
+        assertTrue(elapsed_ms >= 250, "Downloaded in " + elapsed_ms + " ms");
+        assertEquals(SIZE, Files.size(tmp_dir.resolve("model.safetensors")));
+    }
+
+    @Test
+    public void test_bandwidth_is_limited_async() throws Exception {
+        DownloadLimits.configure(1024 * 1024, 0);
+        var path = tmp_dir.resolve("model.safetensors");
+
+        var start = System.nanoTime();
+        try (var channel = AsynchronousFileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            assertEquals(Long.valueOf(SIZE), http_get_async(url(), channel, null, 0, new HashMap<>(), (long) SIZE, 5)
+                    .join());
+        }
+        var elapsed_ms = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsed_ms >= 250, "Downloaded in " + elapsed_ms + " ms");
+    }
+
+    @Test
+    public void test_connections_per_host_are_capped() throws Exception {
+        DownloadLimits.configure(0, 2);
+        server.latency(200);
+
+        var downloads = new ArrayList<CompletableFuture<Void>>();
+        for (var i = 0; i < 6; i++) {
+            var path = tmp_dir.resolve("model-" + i + ".safetensors");
+            downloads.add(CompletableFuture.runAsync(() -> {
+                try {
+                    download(path);
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        CompletableFuture.allOf(downloads.toArray(CompletableFuture[]::new)).join();
+
+        assertEquals(6, server.get_requests());
+        assertEquals(2, server.max_concurrent_requests());
+    }
+
+    @Test
+    public void test_limits_change_at_runtime() throws Exception {
+        DownloadLimits.configure(0, 1);
+
+        try (var held = DownloadLimits.acquire_connection(url())) {
+            var waiting = DownloadLimits.acquire_connection_async(url());
+            assertFalse(waiting.isDone());
+
+            DownloadLimits.configure(0, 2);
+
+            assertTrue(waiting.isDone());
+            waiting.join().close();
+        }
+    }
+
+    @Test
+    public void test_unlimited_takes_no_token_or_slot() throws Exception {
+        DownloadLimits.configure(0, 0);
+
+        for (var i = 0; i < 1000; i++) {
+            assertEquals(0L, DownloadLimits.reserve(64 * 1024));
+            assertEquals(64 * 1024L, DownloadLimits.chunk_size(64 * 1024));
+        }
+        // Connections are not counted: all of them are the same, left open here
+        var connection = DownloadLimits.acquire_connection(url());
+        for (var i = 0; i < 10; i++) {
+            assertSame(connection, DownloadLimits.acquire_connection(url()));
+        }
+
+        DownloadLimits.configure(0, 1);
+        var limited = DownloadLimits.acquire_connection_async(url());
+        assertTrue(limited.isDone());
+        limited.join().close();
+    }
+}
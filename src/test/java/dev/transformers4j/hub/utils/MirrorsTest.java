@@ -0,0 +1,151 @@
+package dev.transformers4j.hub.utils;
+
+import dev.transformers4j.hub.HubStubServer;
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static dev.transformers4j.hub.FileDownload.get_hf_file_metadata;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download;
+import static dev.transformers4j.hub.FileDownload.hf_hub_download_async;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MirrorsTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+    private static final String FILENAME = "model.safetensors";
+
+    @TempDir
+    Path cache_dir;
+
+    private final byte[] content = new byte[1024 * 1024];
+    private HubStubServer mirror_a;
+    private HubStubServer mirror_b;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        // Different for each test, so that nothing is reused from the locations remembered by another test
+        new Random().nextBytes(content);
+        mirror_a = HubStubServer.start().add_file(REPO_ID, FILENAME, content);
+        mirror_b = HubStubServer.start().add_file(REPO_ID, FILENAME, content);
+        // Probes are sent by the tests
+        Mirrors.configure(List.of(mirror_a.endpoint(), mirror_b.endpoint() + "/"), Duration.ZERO);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        Mirrors.configure(List.of(), Duration.ZERO);
+        mirror_a.close();
+        mirror_b.close();
+    }
+
+    /** Download the file without giving an endpoint: a mirror is picked. */
+    private Path download() throws IOException {
+        return hf_hub_download(REPO_ID, FILENAME, null, null, null, null, null, cache_dir, null, null, false, null,
+                10, Either.left(false), false, null, null, false, null, null, null);
+    }
+
+    @Test
+    public void test_fastest_mirror_is_selected() throws IOException {
+        assertEquals(List.of(mirror_a.endpoint(), mirror_b.endpoint()), Mirrors.endpoints());
+        // Until latencies are known, mirrors are used in order
+        assertEquals(mirror_a.endpoint(), Mirrors.resolve(null));
+        mirror_a.latency(200);
+
+        Mirrors.probe();
+
+        assertEquals(mirror_b.endpoint(), Mirrors.resolve(null));
+        assertEquals(mirror_a.endpoint(), Mirrors.resolve(mirror_a.endpoint()));
+        var stats = Mirrors.stats();
+        assertTrue(stats.get(0).latency().compareTo(stats.get(1).latency()) > 0);
+
+        assertArrayEquals(content, Files.readAllBytes(download()));
+        assertEquals(0, mirror_a.get_requests());
+        assertEquals(1, mirror_b.get_requests());
+    }
+
+    @Test
+    public void test_failover_when_mirror_is_down() throws IOException {
+        mirror_a.close();
+
+        var path = download();
+
+        assertArrayEquals(content, Files.readAllBytes(path));
+        assertEquals(1, mirror_b.head_requests());
+        assertEquals(1, mirror_b.get_requests());
+        assertEquals(1, Mirrors.stats().get(0).failures());
+    }
+
+    @Test
+    public void test_failing_mirror_is_left_out() throws IOException {
+        mirror_a.fail(100, 503, null);
+        var url = mirror_a.endpoint() + "/" + REPO_ID + "/resolve/main/" + FILENAME;
+
+        for (var i = 0; i < Mirrors.FAILURE_THRESHOLD; i++) {
+            // Each request is answered by the other mirror
+            var metadata = get_hf_file_metadata(url, Either.left(false), null, 10f, null, null, null, null);
+            assertEquals(Long.valueOf(content.length), metadata.size());
+        }
+        assertFalse(Mirrors.stats().get(0).available());
+        assertEquals(mirror_b.endpoint(), Mirrors.resolve(null));
+
+        get_hf_file_metadata(url, Either.left(false), null, 10f, null, null, null, null);
+
+        assertEquals(Mirrors.FAILURE_THRESHOLD, mirror_a.head_requests());
+        assertEquals(Mirrors.FAILURE_THRESHOLD + 1, mirror_b.head_requests());
+    }
+
+    @Test
+    public void test_probe_failure_leaves_mirror_out() {
+        mirror_a.fail(1, 500, null);
+
+        Mirrors.probe();
+
+        assertFalse(Mirrors.stats().get(0).available());
+        assertTrue(Mirrors.stats().get(1).available());
+        assertEquals(mirror_b.endpoint(), Mirrors.resolve(null));
+    }
+
+    @Test
+    public void test_interrupted_download_resumes_from_other_mirror() throws IOException {
+        mirror_a.truncate(1, 300_000);
+
+        var path = download();
+
+        assertArrayEquals(content, Files.readAllBytes(path));
+        assertEquals(1, mirror_a.get_requests());
+        assertEquals(1, mirror_b.get_requests());
+        _assert_resumed(mirror_b.ranges());
+    }
+
+    /** A single range was requested, from the part of the file received before the connection was dropped. */
+    private static void _assert_resumed(List<String> ranges) {
+        assertEquals(1, ranges.size());
+        var start = Long.parseLong(ranges.get(0).substring("bytes=".length(), ranges.get(0).length() - 1));
+        assertTrue(start > 0 && start <= 300_000, ranges.get(0));
+    }
+
+    @Test
+    public void test_interrupted_download_resumes_from_other_mirror_async() throws IOException {
+        mirror_a.truncate(1, 300_000);
+
+        var path = hf_hub_download_async(REPO_ID, FILENAME, null, null, null, null, null, cache_dir, null, null,
+                false, null, 10, Either.left(false), false, null, null).join();
+
+        assertArrayEquals(content, Files.readAllBytes(path));
+        assertEquals(1, mirror_a.get_requests());
+        assertEquals(1, mirror_b.get_requests());
+        _assert_resumed(mirror_b.ranges());
+    }
+}
@@ -0,0 +1,143 @@
+package dev.transformers4j.hub.utils;
+
+import dev.transformers4j.hub.HubStubServer;
+import dev.transformers4j.hub.utils.RetryPolicy.Operation;
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+import static dev.transformers4j.hub.FileDownload.get_hf_file_metadata;
+import static dev.transformers4j.hub.FileDownload.get_hf_file_metadata_async;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetryPolicyTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+    private static final RetryPolicy FAST = new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(50),
+            Set.of(429, 500, 502, 503, 504));
+
+    private HubStubServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HubStubServer.start();
+        server.add_file(REPO_ID, "model.safetensors", "{}".getBytes(StandardCharsets.UTF_8));
+        RetryPolicy.configure(Operation.METADATA, FAST);
+        RetryPolicy.configure_budget(100, 0.1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+        RetryPolicy.configure(Operation.METADATA, null);
+        RetryPolicy.configure_budget(20, 0.1);
+    }
+
+    private String url() {
+        return server.endpoint() + "/" + REPO_ID + "/resolve/main/model.safetensors";
+    }
+
+    @Test
+    public void test_metadata_retried_on_server_error() throws IOException {
+        server.fail(2, 503, null);
+        var before = RetryPolicy.stats(Operation.METADATA);
+
+        var metadata = get_hf_file_metadata(url(), Either.left(false), null, 10f, null, null, null, null);
+
+        assertEquals(Long.valueOf(2), metadata.size());
+        assertEquals(3, server.head_requests());
+        var after = RetryPolicy.stats(Operation.METADATA);
+        assertEquals(before.requests() + 3, after.requests());
+        assertEquals(before.retries() + 2, after.retries());
+    }
+
+    @Test
+    public void test_metadata_async_retried_on_server_error() {
+        server.fail(2, 502, null);
+
+        var metadata = get_hf_file_metadata_async(url(), Either.left(false), null, 10f, null, null, null, null)
+                .join();
+
+        assertEquals(Long.valueOf(2), metadata.size());
+        assertEquals(3, server.head_requests());
+    }
+
+    @Test
+    public void test_gives_up_after_max_retries() {
+        server.fail(10, 500, null);
+
+        assertThrows(HfHubHTTPException.class,
+                () -> get_hf_file_metadata(url(), Either.left(false), null, 10f, null, null, null, null));
+
+        assertEquals(FAST.max_retries() + 1, server.head_requests());
+    }
+
+    @Test
+    public void test_retry_after_is_honored() throws IOException {
+        server.fail(1, 429, "1");
+        var before = RetryPolicy.stats(Operation.METADATA);
+
+        var start = System.nanoTime();
+        get_hf_file_metadata(url(), Either.left(false), null, 10f, null, null, null, null);
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 1000);
+        assertEquals(before.retry_after() + 1, RetryPolicy.stats(Operation.METADATA).retry_after());
+    }
+
+    @Test
+    public void test_client_errors_are_not_retried() {
+        server.fail(1, 403, null);
+
+        assertThrows(HfHubHTTPException.class,
+                () -> get_hf_file_metadata(url(), Either.left(false), null, 10f, null, null, null, null));
+
+        assertEquals(1, server.head_requests());
+    }
+
+    @Test
+    public void test_retries_stop_when_budget_is_exhausted() {
+        // Half of the budget is a single token: the first failure spends it
+        RetryPolicy.configure_budget(2, 0.1);
+        server.fail(10, 503, null);
+        var before = RetryPolicy.stats(Operation.METADATA);
+
+        assertThrows(HfHubHTTPException.class,
+                () -> get_hf_file_metadata(url(), Either.left(false), null, 10f, null, null, null, null));
+
+        assertEquals(1, server.head_requests());
+        assertEquals(before.budget_exhausted() + 1, RetryPolicy.stats(Operation.METADATA).budget_exhausted());
+    }
+
+    @Test
+    public void test_waits_are_jittered_and_bounded() {
+        RetryPolicy.configure_budget(1000, 0.1);
+        var waits = new HashSet<Duration>();
+        for (var i = 0; i < 50; i++) {
+            var wait = RetryPolicy.retry(Operation.METADATA, 1);
+            assertTrue(wait.compareTo(Duration.ofMillis(20)) <= 0);
+            waits.add(wait);
+        }
+        assertTrue(waits.size() > 1);
+        RetryPolicy.configure(Operation.METADATA, new RetryPolicy(40, FAST.base_wait_time(), FAST.max_wait_time(),
+                FAST.retry_on_status_codes()));
+        for (var i = 0; i < 20; i++) {
+            assertTrue(RetryPolicy.retry(Operation.METADATA, 30).compareTo(FAST.max_wait_time()) <= 0);
+        }
+    }
+
+    @Test
+    public void test_resumes_stop_after_max_retries() {
+        assertNotNull(RetryPolicy.retry(Operation.METADATA, FAST.max_retries() - 1));
+        assertNull(RetryPolicy.retry(Operation.METADATA, FAST.max_retries()));
+    }
+}
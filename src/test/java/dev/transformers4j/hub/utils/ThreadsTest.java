@@ -0,0 +1,82 @@
+package dev.transformers4j.hub.utils;
+
+import dev.transformers4j.hub.FileDownload.HfFileMetadata;
+import dev.transformers4j.hub.HubStubServer;
+import io.vavr.control.Either;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_ENABLE_VIRTUAL_THREADS;
+import static dev.transformers4j.hub.Constants.HF_HUB_EXECUTOR_POOL_SIZE;
+import static dev.transformers4j.hub.FileDownload.get_hf_file_metadata;
+import static dev.transformers4j.hub.utils.Threads.configure_virtual_threads;
+import static dev.transformers4j.hub.utils.Threads.supply_async;
+import static dev.transformers4j.hub.utils.Threads.use_virtual_threads;
+import static dev.transformers4j.hub.utils.Threads.virtual_threads_available;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ThreadsTest {
+    private static final String REPO_ID = "julien-c/dummy-unknown";
+    private static final int NB_REQUESTS = 1000;
+
+    private HubStubServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HubStubServer.start();
+        server.add_file(REPO_ID, "config.json", "{}".getBytes(StandardCharsets.UTF_8));
+        server.latency(20);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+        configure_virtual_threads(HF_HUB_ENABLE_VIRTUAL_THREADS);
+    }
+
+    /** Send `NB_REQUESTS` HEAD requests at once from the hub executor and wait for all of them. */
+    private void fetch_concurrently() {
+        var url = server.endpoint() + "/" + REPO_ID + "/resolve/main/config.json";
+        var futures = new ArrayList<CompletableFuture<HfFileMetadata>>();
+        for (var i = 0; i < NB_REQUESTS; i++) {
+            futures.add(supply_async(
+                    () -> get_hf_file_metadata(url, Either.left(false), null, 30f, null, null, null, null)));
+        }
+        for (var future : futures) {
+            assertEquals(HubStubServer.COMMIT_HASH, future.join().commit_hash());
+        }
+        assertEquals(NB_REQUESTS, server.head_requests());
+    }
+
+    @Test
+    public void test_platform_threads_are_bounded() {
+        configure_virtual_threads(false);
+
+        fetch_concurrently();
+
+        assertTrue(server.max_concurrent_requests() <= HF_HUB_EXECUTOR_POOL_SIZE);
+    }
+
+    @Test
+    public void test_virtual_threads() {
+        configure_virtual_threads(true);
+        assertEquals(virtual_threads_available(), use_virtual_threads());
+
+        fetch_concurrently();
+
+        if (virtual_threads_available()) {
+            // Requests are no longer queued behind a fixed number of platform threads
+            assertTrue(server.max_concurrent_requests() > HF_HUB_EXECUTOR_POOL_SIZE);
+        } else {
+            // Fallback pool on Java 17
+            assertTrue(server.max_concurrent_requests() <= HF_HUB_EXECUTOR_POOL_SIZE);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package dev.transformers4j.hub.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static dev.transformers4j.hub.Constants.HF_HUB_LOCK_LEASE;
+import static dev.transformers4j.hub.Constants.HF_HUB_LOCK_USE_LEASE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WeakFileLockTest {
+    @TempDir
+    Path tmp_dir;
+
+    @AfterEach
+    public void tearDown() {
+        WeakFileLock.configure(HF_HUB_LOCK_USE_LEASE, Duration.ofSeconds(HF_HUB_LOCK_LEASE));
+    }
+
+    /** Hold the lock on `lock_path` in another thread for `hold_ms` milliseconds. */
+    private static CompletableFuture<Void> hold(Path lock_path, long hold_ms) throws InterruptedException {
+        var acquired = new CountDownLatch(1);
+        var future = CompletableFuture.runAsync(() -> {
+            try (var lock = WeakFileLock.acquire(lock_path)) {
+                acquired.countDown();
+                Thread.sleep(hold_ms);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        return future;
+    }
+
+    @Test
+    public void test_acquire_waits_for_holder() throws Exception {
+        var lock_path = tmp_dir.resolve(".locks").resolve("blob.lock");
+        var holder = hold(lock_path, 300);
+        var before = WeakFileLock.stats();
+
+        try (var lock = WeakFileLock.acquire(lock_path, Duration.ofSeconds(5))) {
+            assertTrue(holder.isDone());
+            assertTrue(lock.wait_time().toMillis() >= 100);
+        }
+
+        var after = WeakFileLock.stats();
+        assertEquals(before.acquisitions() + 1, after.acquisitions());
+        assertEquals(before.contended() + 1, after.contended());
+        assertTrue(after.total_wait().compareTo(before.total_wait()) > 0);
+    }
+
+    @Test
+    public void test_acquire_times_out() throws Exception {
+        var lock_path = tmp_dir.resolve("blob.lock");
+        var holder = hold(lock_path, 1000);
+        var before = WeakFileLock.stats();
+
+        assertThrows(LockTimeoutException.class, () -> WeakFileLock.acquire(lock_path, Duration.ofMillis(100)));
+
+        assertEquals(before.timeouts() + 1, WeakFileLock.stats().timeouts());
+        holder.join();
+    }
+
+    @Test
+    public void test_acquire_async_waits_for_holder() throws Exception {
+        var lock_path = tmp_dir.resolve("blob.lock");
+        var holder = hold(lock_path, 300);
+
+        var future = WeakFileLock.acquire_async(lock_path, Duration.ofSeconds(5));
+        assertFalse(future.isDone());
+
+        try (var lock = future.join()) {
+            assertTrue(holder.isDone());
+        }
+    }
+
+    @Test
+    public void test_lock_excludes_other_processes() throws Exception {
+        var lock_path = tmp_dir.resolve("blob.lock");
+        var java = ProcessHandle.current().info().command().orElse("java");
+        var process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                LockHolder.class.getName(), lock_path.toString(), "1000")
+                .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            // Wait for the other process to hold the lock
+            assertEquals('L', process.getInputStream().read());
+
+            assertThrows(LockTimeoutException.class, () -> WeakFileLock.acquire(lock_path, Duration.ofMillis(200)));
+            try (var lock = WeakFileLock.acquire(lock_path, Duration.ofSeconds(10))) {
+                assertFalse(process.isAlive());
+            }
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+
+    @Test
+    public void test_stale_lease_is_broken() throws Exception {
+        WeakFileLock.configure(true, Duration.ofMillis(200));
+        var lock_path = tmp_dir.resolve("blob.lock");
+        // Lease left over by a crashed process
+        var lease_path = tmp_dir.resolve("blob.lock.lease");
+        Files.writeString(lease_path, "12345\n");
+        Files.setLastModifiedTime(lease_path, FileTime.fromMillis(System.currentTimeMillis() - 10_000));
+        var before = WeakFileLock.stats();
+
+        try (var lock = WeakFileLock.acquire(lock_path, Duration.ofSeconds(5))) {
+            assertTrue(Files.exists(lease_path));
+        }
+
+        assertFalse(Files.exists(lease_path));
+        assertEquals(before.stale_leases() + 1, WeakFileLock.stats().stale_leases());
+    }
+
+    @Test
+    public void test_renewed_lease_is_not_broken() throws Exception {
+        WeakFileLock.configure(true, Duration.ofMillis(300));
+        var lock_path = tmp_dir.resolve("blob.lock");
+        var holder = hold(lock_path, 1200);
+
+        // The holder outlives its lease several times over but keeps renewing it
+        assertThrows(LockTimeoutException.class, () -> WeakFileLock.acquire(lock_path, Duration.ofMillis(900)));
+        holder.join();
+    }
+
+    /** Hold a lock for some time in a separate JVM: `LockHolder <lock_path> <hold_ms>`. */
+    public static class LockHolder {
+        public static void main(String[] args) throws Exception {
+            try (var lock = WeakFileLock.acquire(Path.of(args[0]))) {
+                System.out.print('L');
+                System.out.flush();
+                Thread.sleep(Long.parseLong(args[1]));
+            }
+        }
+    }
+}